@@ -3,44 +3,83 @@ package SmartCard;
 import javacard.framework.*;
 
 /**
- * GYM SMART CARD APPLET - 64 BYTE STRUCTURE (WITH DOB)
+ * GYM SMART CARD APPLET - LAYOUT V2 (66 BYTES, VERSIONED)
  * 
- * Card Data Structure (64 bytes):
- * [0-1]   UserID (2 bytes) - 0x0000 to 0xFFFF
- * [2-5]   Balance (4 bytes) - Max 2.1 billion VND
- * [6-7]   ExpiryDays (2 bytes) - Days until expiry
- * [8]     PIN (1 byte) - 0-255 (mapped from 6-digit input)
- * [9]     PINRetry (1 byte) - 5 to 0 (0 = locked)
- * [10]    DOB Day (1 byte) - 1-31
- * [11]    DOB Month (1 byte) - 1-12
- * [12-13] DOB Year (2 bytes) - 1900-2099
- * [14-63] FullName (50 bytes) - UTF-8 encoded name
+ * Card Data Structure (66 bytes) - phải khớp CardLayout.V2 ở host:
+ * [0]     Version (1 byte) - 0x02
+ * [1-2]   UserID (2 bytes) - 0x0000 to 0xFFFF
+ * [3-6]   Balance (4 bytes) - Max 2.1 billion VND
+ * [7-8]   ExpiryDays (2 bytes) - Days until expiry
+ * [9]     PIN (1 byte) - 0-255 (mapped from 6-digit input)
+ * [10]    PINRetry (1 byte) - 5 to 0 (0 = locked)
+ * [11]    DOB Day (1 byte) - 1-31
+ * [12]    DOB Month (1 byte) - 1-12
+ * [13-14] DOB Year (2 bytes) - 1900-2099
+ * [15]    PackageType (1 byte) - 0=Basic, 1=Silver, 2=Gold
+ * [16-65] FullName (50 bytes) - UTF-8 encoded name
  * 
  * APDU Commands:
- * - 0xB0 READ BINARY: Read all 64 bytes
- * - 0xD0 UPDATE BINARY: Write all 64 bytes (requires PIN for non-blank card)
- * - 0x20 VERIFY: Verify PIN
+ * - 0xB0 READ BINARY: P1P2 = offset, Le = length (00 = to end of record)
+ * - 0xD0 UPDATE BINARY: P1P2 = offset, Lc bytes (requires PIN for non-blank card)
+ * - 0x20 VERIFY: Verify PIN, P1 = số lượt thao tác của phiên (00 = 1 lượt);
+ *   P1 = FF, Lc = 0: kết thúc phiên. Thao tác quyền trả SW 90nn (nn = lượt còn lại)
+ * - 80 40 DEBIT / 80 42 CREDIT / 80 44 EXTEND: đổi số dư / hạn tập atomic trên thẻ
+ * - 80 4C READ LOG (+ 00 C0 GET RESPONSE): nhật ký 32 giao dịch gần nhất
  */
 public class SmartCard extends Applet {
-    // Card data offsets (64 bytes total)
-    private static final byte OFFSET_USER_ID = 0;
-    private static final byte OFFSET_BALANCE = 2;
-    private static final byte OFFSET_EXPIRY_DAYS = 6;
-    private static final byte OFFSET_PIN = 8;
-    private static final byte OFFSET_PIN_RETRY = 9;
-    private static final byte OFFSET_DOB_DAY = 10;
-    private static final byte OFFSET_DOB_MONTH = 11;
-    private static final byte OFFSET_DOB_YEAR = 12;
-    private static final byte OFFSET_FULLNAME = 14;
-    
-    private static final short DATA_SIZE = 64;
+    // Card data offsets (66 bytes total) - CardLayout.V2
+    private static final byte LAYOUT_VERSION = 0x02;
+    private static final byte OFFSET_VERSION = 0;
+    private static final byte OFFSET_USER_ID = 1;
+    private static final byte OFFSET_BALANCE = 3;
+    private static final byte OFFSET_EXPIRY_DAYS = 7;
+    private static final byte OFFSET_PIN = 9;
+    private static final byte OFFSET_PIN_RETRY = 10;
+    private static final byte OFFSET_DOB_DAY = 11;
+    private static final byte OFFSET_DOB_MONTH = 12;
+    private static final byte OFFSET_DOB_YEAR = 13;
+    private static final byte OFFSET_PACKAGE = 15;
+    private static final byte OFFSET_FULLNAME = 16;
+    
+    private static final short DATA_SIZE = 66;
     private static final byte MAX_PIN_RETRY = 5;
     
+    // Phiên xác thực: số lượt tối đa cho một lần VERIFY, SW báo lượt còn lại
+    private static final byte MAX_SESSION_OPS = 32;
+    private static final short SW_SESSION_OK = (short) 0x9000;
+    
+    // Lệnh riêng (CLA 0x80)
+    private static final byte CLA_PROPRIETARY = (byte) 0x80;
+    private static final byte INS_DEBIT = (byte) 0x40;
+    private static final byte INS_CREDIT = (byte) 0x42;
+    private static final byte INS_EXTEND = (byte) 0x44;
+    private static final byte INS_READ_LOG = (byte) 0x4C;
+    private static final byte INS_GET_RESPONSE = (byte) 0xC0;
+    
+    // Nhật ký giao dịch: ring buffer LOG_ENTRIES dòng x 13 bytes
+    private static final byte LOG_ENTRIES = 32;
+    private static final short LOG_ENTRY_SIZE = 13;
+    private static final short LOG_SIZE = (short) (LOG_ENTRIES * LOG_ENTRY_SIZE);
+    private static final byte LOG_DEBIT = 0x01;
+    private static final byte LOG_CREDIT = 0x02;
+    private static final byte LOG_EXTEND = 0x03;
+    private static final short LOG_HEAD = 0;   // logState[0]: vị trí ghi tiếp theo
+    private static final short LOG_COUNT = 1;  // logState[1]: số dòng đã có
+    
     // Persistent storage (EEPROM)
     private byte[] cardData;
     
-    // Security flag (RAM - cleared on power off)
-    private boolean pinVerified;
+    // Số lượt còn lại của phiên đã xác thực (RAM - mất khi reset/rút thẻ)
+    private byte[] session;
+    
+    // RAM: số dư/hạn mới trước khi commit
+    private byte[] scratch;
+    
+    // Nhật ký giao dịch (EEPROM) + vị trí đọc GET RESPONSE (RAM)
+    private byte[] log;
+    private byte[] logState;
+    private byte[] logSeq;
+    private short[] logCursor;
 
     public static void install(byte[] bArray, short bOffset, byte bLength) {
         new SmartCard().register(bArray, (short) (bOffset + 1), bArray[bOffset]);
@@ -52,9 +91,15 @@ public class SmartCard extends Applet {
         
         // Initialize with blank card values
         Util.arrayFillNonAtomic(cardData, (short)0, DATA_SIZE, (byte)0x00);
+        cardData[OFFSET_VERSION] = LAYOUT_VERSION;
         cardData[OFFSET_PIN_RETRY] = MAX_PIN_RETRY; // 5 attempts
         
-        pinVerified = false;
+        session = JCSystem.makeTransientByteArray((short) 1, JCSystem.CLEAR_ON_RESET);
+        scratch = JCSystem.makeTransientByteArray((short) 6, JCSystem.CLEAR_ON_DESELECT);
+        log = new byte[LOG_SIZE];
+        logState = new byte[2];
+        logSeq = new byte[4];
+        logCursor = JCSystem.makeTransientShortArray((short) 1, JCSystem.CLEAR_ON_DESELECT);
     }
 
     public void process(APDU apdu) {
@@ -63,6 +108,11 @@ public class SmartCard extends Applet {
         byte[] buf = apdu.getBuffer();
         byte ins = buf[ISO7816.OFFSET_INS];
 
+        // Lệnh khác chen vào giữa chuỗi GET RESPONSE → hủy chuỗi
+        if (ins != INS_GET_RESPONSE) {
+            logCursor[0] = 0;
+        }
+        
         switch (ins) {
             case (byte) 0xB0:  // READ BINARY
                 handleRead(apdu);
@@ -76,47 +126,104 @@ public class SmartCard extends Applet {
                 handleVerifyPin(apdu);
                 break;
 
+            case INS_DEBIT:
+                handleBalance(apdu, true);
+                break;
+
+            case INS_CREDIT:
+                handleBalance(apdu, false);
+                break;
+
+            case INS_EXTEND:
+                handleExtend(apdu);
+                break;
+
+            case INS_READ_LOG:
+                handleReadLog(apdu);
+                break;
+
+            case INS_GET_RESPONSE:
+                handleGetResponse(apdu);
+                break;
+
             default:
                 ISOException.throwIt(ISO7816.SW_INS_NOT_SUPPORTED);
         }
     }
 
+    /**
+     * READ BINARY: P1P2 = offset, Le = số byte (00 = đến hết record)
+     */
     private void handleRead(APDU apdu) {
         byte[] buf = apdu.getBuffer();
+        short offset = Util.getShort(buf, ISO7816.OFFSET_P1);
+        
+        if (offset < 0 || offset >= DATA_SIZE) {
+            ISOException.throwIt(ISO7816.SW_WRONG_P1P2); // 0x6B00
+        }
+        
+        short len = apdu.setOutgoing();
+        short remaining = (short) (DATA_SIZE - offset);
+        if (len == 0 || len > remaining) {
+            len = remaining;
+        }
         
         // Copy card data to APDU buffer
-        Util.arrayCopyNonAtomic(cardData, (short)0, buf, (short)0, DATA_SIZE);
+        Util.arrayCopyNonAtomic(cardData, offset, buf, (short)0, len);
         
-        // Send response (60 bytes)
-        apdu.setOutgoingAndSend((short)0, DATA_SIZE);
+        apdu.setOutgoingLength(len);
+        apdu.sendBytes((short)0, len);
     }
 
+    /**
+     * UPDATE BINARY: P1P2 = offset, ghi Lc byte (host chỉ gửi vùng đã thay đổi)
+     */
     private void handleWrite(APDU apdu) {
         byte[] buf = apdu.getBuffer();
+        short offset = Util.getShort(buf, ISO7816.OFFSET_P1);
         
         // Receive incoming data
         short bytesRead = apdu.setIncomingAndReceive();
         
-        // Check data length
-        if (bytesRead != DATA_SIZE) {
+        // Check range
+        if (offset < 0 || offset >= DATA_SIZE) {
+            ISOException.throwIt(ISO7816.SW_WRONG_P1P2);
+        }
+        if (bytesRead == 0 || (short) (offset + bytesRead) > DATA_SIZE) {
             ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
         }
         
+        // Host phải ghi đúng layout của applet
+        if (offset == OFFSET_VERSION && buf[ISO7816.OFFSET_CDATA] != LAYOUT_VERSION) {
+            ISOException.throwIt(ISO7816.SW_WRONG_DATA); // 0x6A80
+        }
+        
         // Security check: Blank card allows first write without PIN
         boolean isBlankCard = (cardData[OFFSET_USER_ID] == 0) && (cardData[OFFSET_USER_ID + 1] == 0);
         
-        if (!isBlankCard && !pinVerified) {
+        if (!isBlankCard && !isVerified()) {
             ISOException.throwIt(ISO7816.SW_SECURITY_STATUS_NOT_SATISFIED); // 0x6982
         }
         
         // Write data to persistent storage
-        Util.arrayCopyNonAtomic(buf, ISO7816.OFFSET_CDATA, cardData, (short)0, DATA_SIZE);
+        Util.arrayCopyNonAtomic(buf, ISO7816.OFFSET_CDATA, cardData, offset, bytesRead);
+        
+        if (!isBlankCard) {
+            consumeSession();
+        }
     }
 
     private void handleVerifyPin(APDU apdu) {
         byte[] buf = apdu.getBuffer();
+        byte requestedOps = buf[ISO7816.OFFSET_P1];
         short lc = apdu.setIncomingAndReceive();
 
+        // 00 20 FF 01 (không data): kết thúc phiên
+        if (requestedOps == (byte) 0xFF && lc == 0) {
+            session[0] = 0;
+            return;
+        }
+
         if (lc != 1) {
             ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
         }
@@ -131,13 +238,20 @@ public class SmartCard extends Applet {
         // Verify PIN
         if (inputPin == cardData[OFFSET_PIN]) {
             // ✅ PIN correct
-            pinVerified = true;
             cardData[OFFSET_PIN_RETRY] = MAX_PIN_RETRY; // Reset retry counter
             
-            // Return 0x9000 (success)
+            if (requestedOps <= 0) {
+                requestedOps = 1;
+            } else if (requestedOps > MAX_SESSION_OPS) {
+                requestedOps = MAX_SESSION_OPS;
+            }
+            session[0] = requestedOps;
+            
+            // Return 0x90nn (nn = số lượt của phiên)
+            ISOException.throwIt((short) (SW_SESSION_OK | requestedOps));
         } else {
             // ❌ PIN wrong
-            pinVerified = false;
+            session[0] = 0;
             
             // Decrement retry counter
             if (cardData[OFFSET_PIN_RETRY] > 0) {
@@ -148,4 +262,220 @@ public class SmartCard extends Applet {
             ISOException.throwIt((short)(0x63C0 | cardData[OFFSET_PIN_RETRY]));
         }
     }
+
+    /**
+     * DEBIT (80 40) / CREDIT (80 42) - Trừ / cộng số dư ngay trên thẻ (requires PIN)
+     * 
+     * Request: 80 40 00 00 04 [amount(4)]   |   80 42 00 00 04 [amount(4)]
+     * Response: [balance mới(4)] 9000
+     *   6985 - Số dư không đủ (DEBIT)
+     *   6A80 - Vượt số dư tối đa (CREDIT)
+     *   6982 - PIN not verified
+     */
+    private void handleBalance(APDU apdu, boolean debit) {
+        byte[] buf = apdu.getBuffer();
+        checkProprietary(buf);
+        
+        short numBytes = apdu.setIncomingAndReceive();
+        if (numBytes != 4) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        }
+        
+        // Tính vào RAM trước, kiểm tra xong mới ghi EEPROM
+        Util.arrayCopyNonAtomic(cardData, OFFSET_BALANCE, scratch, (short) 0, (short) 4);
+        applyAmount(buf, ISO7816.OFFSET_CDATA, debit);
+        
+        JCSystem.beginTransaction();
+        Util.arrayCopy(scratch, (short) 0, cardData, OFFSET_BALANCE, (short) 4);
+        appendLog(debit ? LOG_DEBIT : LOG_CREDIT, buf, ISO7816.OFFSET_CDATA);
+        JCSystem.commitTransaction();
+        
+        Util.arrayCopyNonAtomic(scratch, (short) 0, buf, (short) 0, (short) 4);
+        apdu.setOutgoingAndSend((short) 0, (short) 4);
+        consumeSession();
+    }
+    
+    /**
+     * EXTEND (80 44) - Trừ tiền gói và cộng ngày tập trong một transaction (requires PIN)
+     * 
+     * Request: 80 44 00 00 06 [price(4)] [days(2)]
+     * Response: [balance mới(4)] [expiryDays mới(2)] 9000
+     *   6985 - Số dư không đủ
+     *   6982 - PIN not verified
+     */
+    private void handleExtend(APDU apdu) {
+        byte[] buf = apdu.getBuffer();
+        checkProprietary(buf);
+        
+        short numBytes = apdu.setIncomingAndReceive();
+        if (numBytes != 6) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        }
+        
+        short days = Util.getShort(buf, (short) (ISO7816.OFFSET_CDATA + 4));
+        short expiry = Util.getShort(cardData, OFFSET_EXPIRY_DAYS);
+        if (days < 0) {
+            ISOException.throwIt(ISO7816.SW_WRONG_DATA);
+        }
+        expiry = (short) (expiry > (short) (0x7FFF - days) ? 0x7FFF : expiry + days);
+        
+        Util.arrayCopyNonAtomic(cardData, OFFSET_BALANCE, scratch, (short) 0, (short) 4);
+        applyAmount(buf, ISO7816.OFFSET_CDATA, true);
+        Util.setShort(scratch, (short) 4, expiry);
+        
+        // Số dư và hạn tập cùng commit hoặc cùng hủy (rút thẻ giữa chừng)
+        JCSystem.beginTransaction();
+        Util.arrayCopy(scratch, (short) 0, cardData, OFFSET_BALANCE, (short) 4);
+        Util.setShort(cardData, OFFSET_EXPIRY_DAYS, expiry);
+        appendLog(LOG_EXTEND, buf, ISO7816.OFFSET_CDATA);
+        JCSystem.commitTransaction();
+        
+        Util.arrayCopyNonAtomic(scratch, (short) 0, buf, (short) 0, (short) 6);
+        apdu.setOutgoingAndSend((short) 0, (short) 6);
+        consumeSession();
+    }
+    
+    private void checkCla(byte[] buf) {
+        if (buf[ISO7816.OFFSET_CLA] != CLA_PROPRIETARY) {
+            ISOException.throwIt(ISO7816.SW_CLA_NOT_SUPPORTED);
+        }
+    }
+    
+    private void checkProprietary(byte[] buf) {
+        checkCla(buf);
+        if (!isVerified()) {
+            ISOException.throwIt(ISO7816.SW_SECURITY_STATUS_NOT_SATISFIED);
+        }
+    }
+
+    /**
+     * Phiên đã xác thực: còn lượt thao tác quyền (ghi, trừ/nộp tiền, gia hạn)
+     */
+    private boolean isVerified() {
+        return session[0] > 0;
+    }
+    
+    /**
+     * Trừ một lượt sau thao tác thành công, báo số lượt còn lại qua SW 90nn
+     * (gọi sau khi đã gửi dữ liệu phản hồi và commit transaction)
+     */
+    private void consumeSession() {
+        if (session[0] > 0) {
+            session[0]--;
+        }
+        if (session[0] > 0) {
+            ISOException.throwIt((short) (SW_SESSION_OK | session[0]));
+        }
+    }
+    
+    /**
+     * scratch[0..3] (số dư, big-endian, không âm) -/+ amount[off..off+3]
+     * Không dùng int (JavaCard 2.2 không bắt buộc hỗ trợ) - cộng/trừ từng byte có nhớ.
+     */
+    private void applyAmount(byte[] amount, short off, boolean debit) {
+        if ((amount[off] & (byte) 0x80) != 0) {
+            ISOException.throwIt(ISO7816.SW_WRONG_DATA); // số tiền âm
+        }
+        short carry = 0;
+        for (short i = 3; i >= 0; i--) {
+            short a = (short) (scratch[i] & 0xFF);
+            short b = (short) (amount[(short) (off + i)] & 0xFF);
+            short r = debit ? (short) (a - b - carry) : (short) (a + b + carry);
+            if (debit) {
+                carry = (short) (r < 0 ? 1 : 0);
+            } else {
+                carry = (short) (r > 0xFF ? 1 : 0);
+            }
+            scratch[i] = (byte) r;
+        }
+        // Kết quả phải nằm trong [0, 0x7FFFFFFF]
+        if (carry != 0 || (scratch[0] & (byte) 0x80) != 0) {
+            ISOException.throwIt(debit ? ISO7816.SW_CONDITIONS_NOT_SATISFIED : ISO7816.SW_WRONG_DATA);
+        }
+    }
+
+    /**
+     * Ghi một dòng nhật ký vào ring buffer. Gọi TRONG transaction của thao tác,
+     * sau khi số dư mới đã ghi vào cardData (dòng log commit cùng số dư).
+     * Dòng: [seq(4)] [type(1)] [amount(4)] [balanceAfter(4)]
+     */
+    private void appendLog(byte type, byte[] amount, short amountOff) {
+        // seq tăng dần, không reset kể cả khi ring quay vòng
+        for (short i = 3; i >= 0; i--) {
+            logSeq[i] = (byte) (logSeq[i] + 1);
+            if (logSeq[i] != 0) {
+                break;
+            }
+        }
+        
+        short off = (short) (logState[LOG_HEAD] * LOG_ENTRY_SIZE);
+        Util.arrayCopy(logSeq, (short) 0, log, off, (short) 4);
+        log[(short) (off + 4)] = type;
+        Util.arrayCopy(amount, amountOff, log, (short) (off + 5), (short) 4);
+        Util.arrayCopy(cardData, OFFSET_BALANCE, log, (short) (off + 9), (short) 4);
+        
+        logState[LOG_HEAD] = (byte) ((logState[LOG_HEAD] + 1) % LOG_ENTRIES);
+        if (logState[LOG_COUNT] < LOG_ENTRIES) {
+            logState[LOG_COUNT]++;
+        }
+    }
+    
+    /**
+     * READ LOG (80 4C) - Đọc toàn bộ nhật ký giao dịch trong một lệnh
+     * 
+     * Request: 80 4C 00 00 00
+     * Response: [count(1)] [head(1)] [ring 32 x 13 bytes] = 418 bytes.
+     * Vượt quá một response → gửi từng đoạn, SW 61xx báo số byte còn lại,
+     * host lấy tiếp bằng GET RESPONSE (00 C0 00 00 xx).
+     */
+    private void handleReadLog(APDU apdu) {
+        checkCla(apdu.getBuffer());
+        sendLogChunk(apdu, (short) 0);
+    }
+    
+    /**
+     * GET RESPONSE (00 C0) - Đoạn tiếp theo của READ LOG
+     */
+    private void handleGetResponse(APDU apdu) {
+        if (logCursor[0] == 0) {
+            ISOException.throwIt(ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+        }
+        sendLogChunk(apdu, logCursor[0]);
+    }
+    
+    private void sendLogChunk(APDU apdu, short pos) {
+        byte[] buf = apdu.getBuffer();
+        short total = (short) (2 + LOG_SIZE);
+        short len = (short) (total - pos);
+        
+        // Một response tối đa 256 bytes và không vượt APDU buffer
+        short chunk = (short) buf.length;
+        if (chunk > 256) {
+            chunk = 256;
+        }
+        if (len > chunk) {
+            len = chunk;
+        }
+        short le = apdu.setOutgoing();
+        if (le != 0 && le < len) {
+            len = le;
+        }
+        
+        if (pos == 0) {
+            buf[0] = logState[LOG_COUNT];
+            buf[1] = logState[LOG_HEAD];
+            Util.arrayCopyNonAtomic(log, (short) 0, buf, (short) 2, (short) (len - 2));
+        } else {
+            Util.arrayCopyNonAtomic(log, (short) (pos - 2), buf, (short) 0, len);
+        }
+        apdu.setOutgoingLength(len);
+        apdu.sendBytes((short) 0, len);
+        
+        pos = (short) (pos + len);
+        short remaining = (short) (total - pos);
+        logCursor[0] = remaining > 0 ? pos : 0;
+        if (remaining > 0) {
+            ISOException.throwIt((short) (0x6100 | (remaining > 0xFF ? 0 : remaining)));
+        }
+    }
 }
@@ -0,0 +1,124 @@
+import gym.bench.Targets;
+
+import javax.smartcardio.CommandAPDU;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cài đặt Targets bằng code thật trong src/ (xem gym.bench.Targets)
+ */
+public class BenchTargets implements Targets {
+    static {
+        // StoreManager mở sổ kho (và có thể cả journal / hội viên): dùng file tạm, không đụng dữ liệu thật
+        try {
+            Path dir = Files.createTempDirectory("gym-bench");
+            setDefault("gym.members.file", dir.resolve("members.dat"));
+            setDefault("gym.userids.file", dir.resolve("userids.bitmap"));
+            setDefault("gym.journal.dir", dir.resolve("journal"));
+            setDefault("gym.stock.dir", dir.resolve("stock"));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void setDefault(String key, Path value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value.toString());
+        }
+    }
+
+    @Override
+    public Object newCard(int userId, String fullName) {
+        CardData card = new CardData(userId, 1250000, (short) 90, (byte) 42, CardData.MAX_PIN_RETRY,
+                (byte) 15, (byte) 8, (short) 1995);
+        card.fullName = fullName;
+        card.packageType = 2;
+        return card;
+    }
+
+    @Override
+    public byte[] encodeRecord(Object card) {
+        byte[] record = new byte[CardLayout.CURRENT.size];
+        CardHelper.encode((CardData) card, record, 0);
+        return record;
+    }
+
+    @Override
+    public Object buildWriteCommand(Object card) {
+        return CardHelper.buildWriteCommand((CardData) card);
+    }
+
+    @Override
+    public Object parseReadResponse(byte[] record) {
+        return CardHelper.parseReadResponse(record);
+    }
+
+    @Override
+    public Object decodeInto(byte[] record, Object card) {
+        return CardHelper.decodeInto(record, 0, record.length, (CardData) card);
+    }
+
+    @Override
+    public String toHex(byte[] data) {
+        return PcscClient.toHex(data);
+    }
+
+    @Override
+    public String toHexCommand(Object apdu) {
+        return CardHelper.toHexCommand((CommandAPDU) apdu);
+    }
+
+    @Override
+    public int[] itemIds() {
+        List<StoreItem> items = StoreManager.getInstance().getItems();
+        int[] ids = new int[items.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = items.get(i).id;
+        }
+        return ids;
+    }
+
+    @Override
+    public Object getItem(int id) {
+        return StoreManager.getInstance().getItem(id);
+    }
+
+    @Override
+    public long fillCart(int[] ids) {
+        StoreManager store = StoreManager.getInstance();
+        Cart cart = new Cart();
+        for (int i = 0; i < ids.length; i++) {
+            cart.add(store.getItem(ids[i]), 1 + (i & 1));
+        }
+        return cart.getTotal();
+    }
+
+    @Override
+    public Object addSwipeListeners(int n, AtomicLong delivered) {
+        List<CardEventBroadcaster.CardEventListener> added = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            CardEventBroadcaster.CardEventListener l = card -> delivered.incrementAndGet();
+            CardEventBroadcaster.getInstance().addCardListener(l);
+            added.add(l);
+        }
+        return added;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void removeSwipeListeners(Object handle) {
+        for (CardEventBroadcaster.CardEventListener l : (List<CardEventBroadcaster.CardEventListener>) handle) {
+            CardEventBroadcaster.getInstance().removeCardListener(l);
+        }
+    }
+
+    @Override
+    public void broadcastCardSwipe(Object card) {
+        CardEventBroadcaster.getInstance().broadcastCardSwipe((CardData) card);
+    }
+}
@@ -0,0 +1,80 @@
+package gym.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CardEventBroadcaster.broadcastCardSwipe với 1 / 10 / 100 listener.
+ *
+ * Listener chạy trên thread dispatch riêng, nên đo hai kiểu:
+ * - roundTrip: gửi rồi chờ mọi listener nhận xong (độ trễ tới quầy nhân viên);
+ * - publish: chi phí phía thread đọc thẻ (copy thẻ + xếp một task cho mỗi
+ *   listener; MemberStore do CardService ghi, không nằm trong phép đo), chỉ
+ *   chờ khi hàng đợi dispatch vượt BACKLOG sự kiện để không phình bộ nhớ.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BroadcastBenchmark {
+    private static final int BACKLOG = 64;
+
+    @Param({"1", "10", "100"})
+    public int listeners;
+
+    private Targets targets;
+    private Object card;
+    private Object handle;
+    private final AtomicLong delivered = new AtomicLong();
+    private long sent;
+
+    @Setup
+    public void setup() {
+        targets = Targets.load();
+        card = targets.newCard(4321, "Trần Văn Bình");
+        handle = targets.addSwipeListeners(listeners, delivered);
+    }
+
+    @TearDown
+    public void tearDown() {
+        awaitDelivered(0);
+        targets.removeSwipeListeners(handle);
+    }
+
+    @Benchmark
+    public long roundTrip() {
+        targets.broadcastCardSwipe(card);
+        sent += listeners;
+        awaitDelivered(0);
+        return sent;
+    }
+
+    @Benchmark
+    public long publish() {
+        targets.broadcastCardSwipe(card);
+        sent += listeners;
+        awaitDelivered((long) BACKLOG * listeners);
+        return sent;
+    }
+
+    private void awaitDelivered(long slack) {
+        while (sent - delivered.get() > slack) {
+            // spin: thread dispatch đang xử lý
+        }
+    }
+}
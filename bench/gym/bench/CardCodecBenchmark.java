@@ -0,0 +1,66 @@
+package gym.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mã hóa / giải mã APDU trên đường quẹt thẻ: UPDATE BINARY, parse record READ,
+ * hex cho log APDU. Record 66 bytes (V2), họ tên tiếng Việt có dấu.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CardCodecBenchmark {
+    private Targets targets;
+    private Object card;
+    private byte[] record;
+    private Object writeCommand;
+    private Object reusedCard;
+
+    @Setup
+    public void setup() {
+        targets = Targets.load();
+        card = targets.newCard(1234, "Nguyễn Thị Minh Khai");
+        record = targets.encodeRecord(card);
+        writeCommand = targets.buildWriteCommand(card);
+        reusedCard = targets.parseReadResponse(record);
+    }
+
+    @Benchmark
+    public Object buildWriteCommand() {
+        return targets.buildWriteCommand(card);
+    }
+
+    @Benchmark
+    public Object parseReadResponse() {
+        return targets.parseReadResponse(record);
+    }
+
+    @Benchmark
+    public Object decodeIntoReused() {
+        return targets.decodeInto(record, reusedCard);
+    }
+
+    @Benchmark
+    public String toHex() {
+        return targets.toHex(record);
+    }
+
+    @Benchmark
+    public String toHexCommand() {
+        return targets.toHexCommand(writeCommand);
+    }
+}
@@ -0,0 +1,69 @@
+package gym.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tra danh mục (StoreManager.getItem: có / không có id) và tính tiền giỏ.
+ * getTotalPrice cũ đã được thay bằng Cart (tổng cộng dồn), nên đo Cart:
+ * dựng giỏ 8 dòng rồi lấy tổng.
+ * Danh mục là file -Dgym.store.catalog (mặc định resources/store_items.csv).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CatalogBenchmark {
+    private static final int CART_LINES = 8;
+
+    private Targets targets;
+    private int[] ids;
+    private int[] cartIds;
+    private int missingId;
+    private int cursor;
+
+    @Setup
+    public void setup() {
+        targets = Targets.load();
+        ids = targets.itemIds();
+        if (ids.length == 0) {
+            throw new IllegalStateException("Danh mục trống - chạy từ thư mục gốc dự án");
+        }
+        missingId = Arrays.stream(ids).max().getAsInt() + 1;
+        cartIds = new int[CART_LINES];
+        for (int i = 0; i < CART_LINES; i++) {
+            cartIds[i] = ids[i % ids.length];
+        }
+    }
+
+    @Benchmark
+    public Object getItemHit() {
+        if (++cursor == ids.length) {
+            cursor = 0;
+        }
+        return targets.getItem(ids[cursor]);
+    }
+
+    @Benchmark
+    public Object getItemMiss() {
+        return targets.getItem(missingId);
+    }
+
+    @Benchmark
+    public long cartTotal() {
+        return targets.fillCart(cartIds);
+    }
+}
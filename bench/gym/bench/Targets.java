@@ -0,0 +1,56 @@
+package gym.bench;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cầu nối từ benchmark tới code ứng dụng.
+ *
+ * JMH không chấp nhận benchmark ở default package, còn class ở package có tên
+ * thì không import được class ở default package (toàn bộ src/). Vì vậy benchmark
+ * gọi qua interface này; bản cài đặt BenchTargets (default package, cùng thư mục
+ * bench/) được nạp một lần bằng reflection. Lời gọi interface chỉ có một bản cài
+ * đặt nên JIT inline, không làm lệch kết quả.
+ *
+ * Kiểu của ứng dụng (CardData, CommandAPDU, Cart...) đi qua dưới dạng Object.
+ */
+public interface Targets {
+    /** CardData đầy đủ trường, họ tên có dấu */
+    Object newCard(int userId, String fullName);
+
+    /** Record 66 bytes như phản hồi READ của thẻ */
+    byte[] encodeRecord(Object card);
+
+    Object buildWriteCommand(Object card);
+
+    Object parseReadResponse(byte[] record);
+
+    /** decodeInto vào CardData có sẵn (đường đọc không cấp phát) */
+    Object decodeInto(byte[] record, Object card);
+
+    String toHex(byte[] data);
+
+    String toHexCommand(Object apdu);
+
+    /** Id các sản phẩm trong danh mục hiện tại */
+    int[] itemIds();
+
+    Object getItem(int id);
+
+    /** Giỏ mới với các sản phẩm ids (mỗi loại 1-2 cái), trả về tổng tiền */
+    long fillCart(int[] ids);
+
+    /** Đăng ký n listener quẹt thẻ, mỗi lần nhận sự kiện tăng delivered; trả về handle để gỡ */
+    Object addSwipeListeners(int n, AtomicLong delivered);
+
+    void removeSwipeListeners(Object handle);
+
+    void broadcastCardSwipe(Object card);
+
+    static Targets load() {
+        try {
+            return (Targets) Class.forName("BenchTargets").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Không nạp được BenchTargets (bench/BenchTargets.java)", ex);
+        }
+    }
+}
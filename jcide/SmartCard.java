@@ -6,10 +6,18 @@ import javacard.framework.*;
  * Gym Smart Card Applet - Phase 1: PIN Security (Simplified)
  * Chuẩn ISO 7816-4 với PIN retry counter
  * 
- * Cấu trúc: 61 bytes
- * [UserID(2)] [Balance(4)] [ExpiryDays(2)] [PackageType(1)] [PIN(1)] [PINRetry(1)] [FullName(50)]
+ * Cấu trúc: layout V2, 66 bytes (phải khớp CardLayout.V2 ở host)
+ * [Version(1)=0x02] [UserID(2)] [Balance(4)] [ExpiryDays(2)] [PIN(1)] [PINRetry(1)]
+ * [DOB_Day(1)] [DOB_Month(1)] [DOB_Year(2)] [PackageType(1)] [FullName(50)]
  * 
  * Lưu ý: Khóa tạm thời được xử lý ở server, thẻ chỉ quản lý retry counter
+ * 
+ * Phiên xác thực: VERIFY với P1 = N mở phiên N lượt thao tác quyền (ghi, đổi PIN,
+ * DEBIT/CREDIT/EXTEND), mỗi thao tác thành công trả SW 90nn (nn = lượt còn lại).
+ * Phiên mất khi hết lượt, khi reset thẻ, hoặc khi host gửi 00 20 FF 01 (Lc = 0).
+ * 
+ * Lệnh gộp (một round trip): 80 48 VERIFY+READ, 80 4A VERIFY+DEBIT - trả về record.
+ * Nhật ký: 32 giao dịch gần nhất (DEBIT/CREDIT/EXTEND), đọc bằng 80 4C + GET RESPONSE.
  */
 public class SmartCard extends Applet {
     // APDU Commands (ISO 7816-4 Standard)
@@ -19,21 +27,48 @@ public class SmartCard extends Applet {
     private static final byte INS_CHANGE_PIN = (byte) 0x24; // CHANGE REFERENCE DATA (ISO)
     private static final byte INS_UNBLOCK_PIN = (byte) 0x2C; // RESET RETRY COUNTER (ISO)
     
-    // Data structure (61 bytes - with full name)
+    // Lệnh riêng (CLA 0x80) - thay đổi số dư / hạn tập atomic trên thẻ
+    private static final byte CLA_PROPRIETARY = (byte) 0x80;
+    private static final byte INS_DEBIT = (byte) 0x40;      // trừ tiền
+    private static final byte INS_CREDIT = (byte) 0x42;     // nạp tiền
+    private static final byte INS_EXTEND = (byte) 0x44;     // trừ tiền gói + cộng ngày
+    private static final byte INS_VERIFY_READ = (byte) 0x48;  // VERIFY + READ trong một APDU
+    private static final byte INS_VERIFY_DEBIT = (byte) 0x4A; // VERIFY + DEBIT trong một APDU
+    private static final byte INS_READ_LOG = (byte) 0x4C;
+    private static final byte INS_GET_RESPONSE = (byte) 0xC0;
+    
+    // Nhật ký giao dịch: ring buffer LOG_ENTRIES dòng x 13 bytes
+    private static final byte LOG_ENTRIES = 32;
+    private static final short LOG_ENTRY_SIZE = 13;
+    private static final short LOG_SIZE = (short) (LOG_ENTRIES * LOG_ENTRY_SIZE);
+    private static final byte LOG_DEBIT = 0x01;
+    private static final byte LOG_CREDIT = 0x02;
+    private static final byte LOG_EXTEND = 0x03;
+    private static final short LOG_HEAD = 0;   // logState[0]: vị trí ghi tiếp theo
+    private static final short LOG_COUNT = 1;  // logState[1]: số dòng đã có
+    
+    // Data structure (66 bytes - layout V2)
     private byte[] cardData;
-    private static final short DATA_SIZE = 61;
+    private static final short DATA_SIZE = 66;
+    private static final byte LAYOUT_VERSION = (byte) 0x02;
     
     // Field offsets
-    private static final short OFFSET_USER_ID = 0;       // 2 bytes
-    private static final short OFFSET_BALANCE = 2;       // 4 bytes
-    private static final short OFFSET_EXPIRY = 6;        // 2 bytes
-    private static final short OFFSET_PACKAGE = 8;       // 1 byte (0=Basic, 1=Silver, 2=Gold)
+    private static final short OFFSET_VERSION = 0;       // 1 byte (0x02)
+    private static final short OFFSET_USER_ID = 1;       // 2 bytes
+    private static final short OFFSET_BALANCE = 3;       // 4 bytes
+    private static final short OFFSET_EXPIRY = 7;        // 2 bytes
     private static final short OFFSET_PIN = 9;           // 1 byte
     private static final short OFFSET_PIN_RETRY = 10;    // 1 byte (5 → 0)
-    private static final short OFFSET_FULLNAME = 11;     // 50 bytes (UTF-8)
+    private static final short OFFSET_DOB_DAY = 11;      // 1 byte
+    private static final short OFFSET_DOB_MONTH = 12;    // 1 byte
+    private static final short OFFSET_DOB_YEAR = 13;     // 2 bytes
+    private static final short OFFSET_PACKAGE = 15;      // 1 byte (0=Basic, 1=Silver, 2=Gold)
+    private static final short OFFSET_FULLNAME = 16;     // 50 bytes (UTF-8)
     
     // Security constants
     private static final byte MAX_PIN_TRIES = 5;
+    private static final byte MAX_SESSION_OPS = 32;
+    private static final short SW_SESSION_OK = (short) 0x9000;
     
     // Admin key for unblocking (8 bytes)
     private static final byte[] ADMIN_KEY = {
@@ -41,8 +76,17 @@ public class SmartCard extends Applet {
         (byte)0x4E, (byte)0x4B, (byte)0x45, (byte)0x59  // "NKEY"
     };
     
-    // Security state
-    private boolean pinVerified;
+    // Security state: số lượt còn lại của phiên (RAM, CLEAR_ON_RESET)
+    private byte[] session;
+    
+    // RAM: số dư/hạn mới trước khi commit
+    private byte[] scratch;
+    
+    // Nhật ký giao dịch (EEPROM) + vị trí đọc GET RESPONSE (RAM)
+    private byte[] log;
+    private byte[] logState;
+    private byte[] logSeq;
+    private short[] logCursor;
     
     /**
      * Constructor - Initialize card with default values
@@ -51,11 +95,17 @@ public class SmartCard extends Applet {
         cardData = new byte[DATA_SIZE];
         
         // Initialize defaults
+        cardData[OFFSET_VERSION] = LAYOUT_VERSION;
         cardData[OFFSET_PIN] = (byte) 0x00; // Default PIN = 0
         cardData[OFFSET_PIN_RETRY] = MAX_PIN_TRIES; // 5 attempts
         cardData[OFFSET_PACKAGE] = (byte) 0x00; // Basic package
         
-        pinVerified = false;
+        session = JCSystem.makeTransientByteArray((short) 1, JCSystem.CLEAR_ON_RESET);
+        scratch = JCSystem.makeTransientByteArray((short) 6, JCSystem.CLEAR_ON_DESELECT);
+        log = new byte[LOG_SIZE];
+        logState = new byte[2];
+        logSeq = new byte[4];
+        logCursor = JCSystem.makeTransientShortArray((short) 1, JCSystem.CLEAR_ON_DESELECT);
         
         register();
     }
@@ -79,6 +129,11 @@ public class SmartCard extends Applet {
         byte[] buf = apdu.getBuffer();
         byte ins = buf[ISO7816.OFFSET_INS];
         
+        // Lệnh khác chen vào giữa chuỗi GET RESPONSE → hủy chuỗi
+        if (ins != INS_GET_RESPONSE) {
+            logCursor[0] = 0;
+        }
+        
         switch (ins) {
             case INS_VERIFY_PIN:
                 handleVerifyPIN(apdu);
@@ -95,6 +150,27 @@ public class SmartCard extends Applet {
             case INS_WRITE:
                 handleWrite(apdu);
                 break;
+            case INS_DEBIT:
+                handleBalance(apdu, true);
+                break;
+            case INS_CREDIT:
+                handleBalance(apdu, false);
+                break;
+            case INS_EXTEND:
+                handleExtend(apdu);
+                break;
+            case INS_VERIFY_READ:
+                handleVerifyRead(apdu);
+                break;
+            case INS_VERIFY_DEBIT:
+                handleVerifyDebit(apdu);
+                break;
+            case INS_READ_LOG:
+                handleReadLog(apdu);
+                break;
+            case INS_GET_RESPONSE:
+                handleGetResponse(apdu);
+                break;
             default:
                 ISOException.throwIt(ISO7816.SW_INS_NOT_SUPPORTED);
         }
@@ -103,39 +179,53 @@ public class SmartCard extends Applet {
     /**
      * VERIFY PIN (0x20) - ISO 7816-4 Standard
      * 
-     * Request: 00 20 00 01 01 [PIN] (Simplified)
-     * 
-     * Request: 00 20 00 01 01 [PIN]
+     * Request: 00 20 [N] 01 01 [PIN]  - mở phiên N lượt (N = 00 → 1 lượt)
+     * Request: 00 20 FF 01               - kết thúc phiên
      * Response:
-     *   9000 - PIN correct
+     *   90nn - PIN correct, phiên nn lượt
      *   63Cx - PIN wrong, x attempts left
      *   6983 - Card permanently locked (0 attempts)
      */
     private void handleVerifyPIN(APDU apdu) {
         byte[] buf = apdu.getBuffer();
+        byte requestedOps = buf[ISO7816.OFFSET_P1];
         byte numBytes = (byte) apdu.setIncomingAndReceive();
         
+        if (requestedOps == (byte) 0xFF && numBytes == 0) {
+            session[0] = 0;
+            return;
+        }
+        
         if (numBytes != 1) {
             ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
         }
         
+        openSession(buf[ISO7816.OFFSET_CDATA], requestedOps);
+        ISOException.throwIt((short) (SW_SESSION_OK | session[0]));
+    }
+    
+    /**
+     * Kiểm tra PIN và mở phiên requestedOps lượt. Sai PIN / thẻ khóa → ném 63Cx / 6983.
+     */
+    private void openSession(byte inputPin, byte requestedOps) {
         // Check if permanently locked (0 retries)
         if (cardData[OFFSET_PIN_RETRY] == 0) {
             ISOException.throwIt((short) 0x6983); // Authentication blocked
         }
         
-        // Verify PIN
-        byte inputPin = buf[ISO7816.OFFSET_CDATA];
-        
         if (inputPin == cardData[OFFSET_PIN]) {
             // ✅ Correct PIN
             cardData[OFFSET_PIN_RETRY] = MAX_PIN_TRIES; // Reset counter to 5
-            pinVerified = true;
-            // Return 9000 (success)
+            if (requestedOps <= 0) {
+                requestedOps = 1;
+            } else if (requestedOps > MAX_SESSION_OPS) {
+                requestedOps = MAX_SESSION_OPS;
+            }
+            session[0] = requestedOps;
         } else {
             // ❌ Wrong PIN
             cardData[OFFSET_PIN_RETRY]--;
-            pinVerified = false;// Return 63Cx where x = remaining attempts
+            session[0] = 0; // Return 63Cx where x = remaining attempts
             short sw = (short) (0x63C0 | (cardData[OFFSET_PIN_RETRY] & 0x0F));
             ISOException.throwIt(sw);
         }
@@ -152,7 +242,7 @@ public class SmartCard extends Applet {
      */
     private void handleChangePIN(APDU apdu) {
         // Must verify PIN first
-        if (!pinVerified) {
+        if (!isVerified()) {
             ISOException.throwIt(ISO7816.SW_SECURITY_STATUS_NOT_SATISFIED); // 6982
         }
         
@@ -170,13 +260,13 @@ public class SmartCard extends Applet {
         if (oldPIN != cardData[OFFSET_PIN]) {
             cardData[OFFSET_PIN_RETRY]--;
             short sw = (short) (0x63C0 | (cardData[OFFSET_PIN_RETRY] & 0x0F));
-            pinVerified = false;
+            session[0] = 0;
             ISOException.throwIt(sw);
         }
         
         // Change PIN
         cardData[OFFSET_PIN] = newPIN;
-        pinVerified = false; // Require re-verification with new PIN
+        session[0] = 0; // Require re-verification with new PIN
         
         // TODO Phase 2: Regenerate AES key from new PIN
     }
@@ -212,54 +302,358 @@ public class SmartCard extends Applet {
         
         // Reset PIN retry counter and unlock
         cardData[OFFSET_PIN_RETRY] = MAX_PIN_TRIES;
-        pinVerified = false;
+        session[0] = 0;
         
         // Return 9000 (success)
     }
     
     /**
-     * READ BINARY (0xB0) - Read all card data
+     * READ BINARY (0xB0) - Đọc theo offset
      * 
-     * Request: 00 B0 00 00 3D (61 bytes)
-     * Response: [61 bytes of data]
+     * Request: 00 B0 [P1P2 = offset] [Le] (Le = 00 → đến hết record)
+     * Response: [dữ liệu từ offset], toàn bộ record thì byte đầu = version
+     *   6B00 - Offset ngoài record
      */
     private void handleRead(APDU apdu) {
         byte[] buf = apdu.getBuffer();
-        Util.arrayCopyNonAtomic(cardData, (short) 0, buf, (short) 0, DATA_SIZE);
-        apdu.setOutgoingAndSend((short) 0, DATA_SIZE);
+        short offset = Util.getShort(buf, ISO7816.OFFSET_P1);
+        
+        if (offset < 0 || offset >= DATA_SIZE) {
+            ISOException.throwIt(ISO7816.SW_WRONG_P1P2);
+        }
+        
+        short len = apdu.setOutgoing();
+        short remaining = (short) (DATA_SIZE - offset);
+        if (len == 0 || len > remaining) {
+            len = remaining;
+        }
+        
+        Util.arrayCopyNonAtomic(cardData, offset, buf, (short) 0, len);
+        apdu.setOutgoingLength(len);
+        apdu.sendBytes((short) 0, len);
     }
     
     /**
-     * UPDATE BINARY (0xD0) - Write card data (requires PIN)
+     * UPDATE BINARY (0xD0) - Ghi theo offset (requires PIN)
      * 
-     * Request: 00 D0 00 00 3D [61 bytes]
+     * Request: 00 D0 [P1P2 = offset] [Lc] [dữ liệu]
+     * Host chỉ gửi vùng thay đổi, VD nạp tiền: 00 D0 00 03 04 [balance]
      * Response:
-     *   9000 - Success
+     *   9000 / 90nn - Success (nn = lượt còn lại của phiên)
+     *   6B00 - Offset ngoài record
+     *   6700 - Vượt quá record
+     *   6A80 - Sai version layout
      *   6982 - PIN not verified
      */
     private void handleWrite(APDU apdu) {
         byte[] buf = apdu.getBuffer();
-        byte numBytes = (byte) apdu.setIncomingAndReceive();
+        short offset = Util.getShort(buf, ISO7816.OFFSET_P1);
+        short numBytes = apdu.setIncomingAndReceive();
         
-        if (numBytes < DATA_SIZE) {
+        if (offset < 0 || offset >= DATA_SIZE) {
+            ISOException.throwIt(ISO7816.SW_WRONG_P1P2);
+        }
+        if (numBytes == 0 || (short) (offset + numBytes) > DATA_SIZE) {
             ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
         }
         
+        if (offset == OFFSET_VERSION && buf[ISO7816.OFFSET_CDATA] != LAYOUT_VERSION) {
+            ISOException.throwIt(ISO7816.SW_WRONG_DATA); // 6A80
+        }
+        
         // Check if card is blank (userId = 0) - allow first-time initialization
         boolean isBlankCard = (cardData[OFFSET_USER_ID] == 0) && (cardData[OFFSET_USER_ID + 1] == 0);
         
         // Must verify PIN before writing (except for blank card initialization)
-        if (!isBlankCard && !pinVerified) {
+        if (!isBlankCard && !isVerified()) {
             ISOException.throwIt(ISO7816.SW_SECURITY_STATUS_NOT_SATISFIED); // 6982
         }
         
         // Copy data to card (preserve PIN retry counter)
         byte oldRetry = cardData[OFFSET_PIN_RETRY];
         
-        Util.arrayCopyNonAtomic(buf, ISO7816.OFFSET_CDATA, cardData, (short) 0, DATA_SIZE);
+        Util.arrayCopyNonAtomic(buf, ISO7816.OFFSET_CDATA, cardData, offset, numBytes);
         
         // Restore retry counter (cannot be overwritten by client)
         cardData[OFFSET_PIN_RETRY] = oldRetry;
-        pinVerified = false; // Require re-verification after write
+        
+        // Mỗi lần ghi dùng một lượt của phiên (thay vì bắt VERIFY lại)
+        if (!isBlankCard) {
+            consumeSession();
+        }
+    }
+
+    /**
+     * DEBIT (80 40) / CREDIT (80 42) - Trừ / cộng số dư ngay trên thẻ (requires PIN)
+     * 
+     * Request: 80 40 00 00 04 [amount(4)]   |   80 42 00 00 04 [amount(4)]
+     * Response: [balance mới(4)] 9000
+     *   6985 - Số dư không đủ (DEBIT)
+     *   6A80 - Vượt số dư tối đa (CREDIT)
+     *   6982 - PIN not verified
+     */
+    private void handleBalance(APDU apdu, boolean debit) {
+        byte[] buf = apdu.getBuffer();
+        checkProprietary(buf);
+        
+        short numBytes = apdu.setIncomingAndReceive();
+        if (numBytes != 4) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        }
+        
+        // Tính vào RAM trước, kiểm tra xong mới ghi EEPROM
+        Util.arrayCopyNonAtomic(cardData, OFFSET_BALANCE, scratch, (short) 0, (short) 4);
+        applyAmount(buf, ISO7816.OFFSET_CDATA, debit);
+        
+        JCSystem.beginTransaction();
+        Util.arrayCopy(scratch, (short) 0, cardData, OFFSET_BALANCE, (short) 4);
+        appendLog(debit ? LOG_DEBIT : LOG_CREDIT, buf, ISO7816.OFFSET_CDATA);
+        JCSystem.commitTransaction();
+        
+        Util.arrayCopyNonAtomic(scratch, (short) 0, buf, (short) 0, (short) 4);
+        apdu.setOutgoingAndSend((short) 0, (short) 4);
+        consumeSession();
+    }
+    
+    /**
+     * EXTEND (80 44) - Trừ tiền gói và cộng ngày tập trong một transaction (requires PIN)
+     * 
+     * Request: 80 44 00 00 06 [price(4)] [days(2)]
+     * Response: [balance mới(4)] [expiryDays mới(2)] 9000
+     *   6985 - Số dư không đủ
+     *   6982 - PIN not verified
+     */
+    private void handleExtend(APDU apdu) {
+        byte[] buf = apdu.getBuffer();
+        checkProprietary(buf);
+        
+        short numBytes = apdu.setIncomingAndReceive();
+        if (numBytes != 6) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        }
+        
+        short days = Util.getShort(buf, (short) (ISO7816.OFFSET_CDATA + 4));
+        short expiry = Util.getShort(cardData, OFFSET_EXPIRY);
+        if (days < 0) {
+            ISOException.throwIt(ISO7816.SW_WRONG_DATA);
+        }
+        expiry = (short) (expiry > (short) (0x7FFF - days) ? 0x7FFF : expiry + days);
+        
+        Util.arrayCopyNonAtomic(cardData, OFFSET_BALANCE, scratch, (short) 0, (short) 4);
+        applyAmount(buf, ISO7816.OFFSET_CDATA, true);
+        Util.setShort(scratch, (short) 4, expiry);
+        
+        // Số dư và hạn tập cùng commit hoặc cùng hủy (rút thẻ giữa chừng)
+        JCSystem.beginTransaction();
+        Util.arrayCopy(scratch, (short) 0, cardData, OFFSET_BALANCE, (short) 4);
+        Util.setShort(cardData, OFFSET_EXPIRY, expiry);
+        appendLog(LOG_EXTEND, buf, ISO7816.OFFSET_CDATA);
+        JCSystem.commitTransaction();
+        
+        Util.arrayCopyNonAtomic(scratch, (short) 0, buf, (short) 0, (short) 6);
+        apdu.setOutgoingAndSend((short) 0, (short) 6);
+        consumeSession();
+    }
+    
+    /**
+     * VERIFY + READ (80 48) - Xác thực PIN, mở phiên và trả về nguyên record
+     * 
+     * Request: 80 48 [N] 00 01 [PIN] 00
+     * Response: [66 bytes record] 90nn (nn = lượt của phiên)
+     *   63Cx / 6983 - như VERIFY (không trả dữ liệu)
+     */
+    private void handleVerifyRead(APDU apdu) {
+        byte[] buf = apdu.getBuffer();
+        checkCla(buf);
+        
+        short numBytes = apdu.setIncomingAndReceive();
+        if (numBytes != 1) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        }
+        
+        openSession(buf[ISO7816.OFFSET_CDATA], buf[ISO7816.OFFSET_P1]);
+        sendRecord(apdu);
+        ISOException.throwIt((short) (SW_SESSION_OK | session[0]));
+    }
+    
+    /**
+     * VERIFY + DEBIT (80 4A) - Xác thực PIN rồi trừ tiền, trả về record sau khi trừ
+     * 
+     * Request: 80 4A [N] 00 05 [PIN] [amount(4)] 00
+     * Response: [66 bytes record] 90nn (DEBIT đã dùng một lượt của phiên N)
+     *   63Cx / 6983 - sai PIN / thẻ khóa (không trừ tiền)
+     *   6985 - Số dư không đủ (phiên vẫn mở)
+     */
+    private void handleVerifyDebit(APDU apdu) {
+        byte[] buf = apdu.getBuffer();
+        checkCla(buf);
+        
+        short numBytes = apdu.setIncomingAndReceive();
+        if (numBytes != 5) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        }
+        
+        openSession(buf[ISO7816.OFFSET_CDATA], buf[ISO7816.OFFSET_P1]);
+        
+        Util.arrayCopyNonAtomic(cardData, OFFSET_BALANCE, scratch, (short) 0, (short) 4);
+        applyAmount(buf, (short) (ISO7816.OFFSET_CDATA + 1), true);
+        
+        JCSystem.beginTransaction();
+        Util.arrayCopy(scratch, (short) 0, cardData, OFFSET_BALANCE, (short) 4);
+        appendLog(LOG_DEBIT, buf, (short) (ISO7816.OFFSET_CDATA + 1));
+        JCSystem.commitTransaction();
+        
+        sendRecord(apdu);
+        consumeSession();
+    }
+    
+    private void sendRecord(APDU apdu) {
+        byte[] buf = apdu.getBuffer();
+        Util.arrayCopyNonAtomic(cardData, (short) 0, buf, (short) 0, DATA_SIZE);
+        apdu.setOutgoingAndSend((short) 0, DATA_SIZE);
+    }
+    
+    private void checkCla(byte[] buf) {
+        if (buf[ISO7816.OFFSET_CLA] != CLA_PROPRIETARY) {
+            ISOException.throwIt(ISO7816.SW_CLA_NOT_SUPPORTED);
+        }
+    }
+    
+    private void checkProprietary(byte[] buf) {
+        checkCla(buf);
+        if (!isVerified()) {
+            ISOException.throwIt(ISO7816.SW_SECURITY_STATUS_NOT_SATISFIED);
+        }
+    }
+
+    /**
+     * Phiên đã xác thực: còn lượt thao tác quyền (ghi, trừ/nộp tiền, gia hạn)
+     */
+    private boolean isVerified() {
+        return session[0] > 0;
+    }
+    
+    /**
+     * Trừ một lượt sau thao tác thành công, báo số lượt còn lại qua SW 90nn
+     * (gọi sau khi đã gửi dữ liệu phản hồi và commit transaction)
+     */
+    private void consumeSession() {
+        if (session[0] > 0) {
+            session[0]--;
+        }
+        if (session[0] > 0) {
+            ISOException.throwIt((short) (SW_SESSION_OK | session[0]));
+        }
+    }
+    
+    /**
+     * scratch[0..3] (số dư, big-endian, không âm) -/+ amount[off..off+3]
+     * Không dùng int (JavaCard 2.2 không bắt buộc hỗ trợ) - cộng/trừ từng byte có nhớ.
+     */
+    private void applyAmount(byte[] amount, short off, boolean debit) {
+        if ((amount[off] & (byte) 0x80) != 0) {
+            ISOException.throwIt(ISO7816.SW_WRONG_DATA); // số tiền âm
+        }
+        short carry = 0;
+        for (short i = 3; i >= 0; i--) {
+            short a = (short) (scratch[i] & 0xFF);
+            short b = (short) (amount[(short) (off + i)] & 0xFF);
+            short r = debit ? (short) (a - b - carry) : (short) (a + b + carry);
+            if (debit) {
+                carry = (short) (r < 0 ? 1 : 0);
+            } else {
+                carry = (short) (r > 0xFF ? 1 : 0);
+            }
+            scratch[i] = (byte) r;
+        }
+        // Kết quả phải nằm trong [0, 0x7FFFFFFF]
+        if (carry != 0 || (scratch[0] & (byte) 0x80) != 0) {
+            ISOException.throwIt(debit ? ISO7816.SW_CONDITIONS_NOT_SATISFIED : ISO7816.SW_WRONG_DATA);
+        }
+    }
+
+    /**
+     * Ghi một dòng nhật ký vào ring buffer. Gọi TRONG transaction của thao tác,
+     * sau khi số dư mới đã ghi vào cardData (dòng log commit cùng số dư).
+     * Dòng: [seq(4)] [type(1)] [amount(4)] [balanceAfter(4)]
+     */
+    private void appendLog(byte type, byte[] amount, short amountOff) {
+        // seq tăng dần, không reset kể cả khi ring quay vòng
+        for (short i = 3; i >= 0; i--) {
+            logSeq[i] = (byte) (logSeq[i] + 1);
+            if (logSeq[i] != 0) {
+                break;
+            }
+        }
+        
+        short off = (short) (logState[LOG_HEAD] * LOG_ENTRY_SIZE);
+        Util.arrayCopy(logSeq, (short) 0, log, off, (short) 4);
+        log[(short) (off + 4)] = type;
+        Util.arrayCopy(amount, amountOff, log, (short) (off + 5), (short) 4);
+        Util.arrayCopy(cardData, OFFSET_BALANCE, log, (short) (off + 9), (short) 4);
+        
+        logState[LOG_HEAD] = (byte) ((logState[LOG_HEAD] + 1) % LOG_ENTRIES);
+        if (logState[LOG_COUNT] < LOG_ENTRIES) {
+            logState[LOG_COUNT]++;
+        }
+    }
+    
+    /**
+     * READ LOG (80 4C) - Đọc toàn bộ nhật ký giao dịch trong một lệnh
+     * 
+     * Request: 80 4C 00 00 00
+     * Response: [count(1)] [head(1)] [ring 32 x 13 bytes] = 418 bytes.
+     * Vượt quá một response → gửi từng đoạn, SW 61xx báo số byte còn lại,
+     * host lấy tiếp bằng GET RESPONSE (00 C0 00 00 xx).
+     */
+    private void handleReadLog(APDU apdu) {
+        checkCla(apdu.getBuffer());
+        sendLogChunk(apdu, (short) 0);
+    }
+    
+    /**
+     * GET RESPONSE (00 C0) - Đoạn tiếp theo của READ LOG
+     */
+    private void handleGetResponse(APDU apdu) {
+        if (logCursor[0] == 0) {
+            ISOException.throwIt(ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+        }
+        sendLogChunk(apdu, logCursor[0]);
+    }
+    
+    private void sendLogChunk(APDU apdu, short pos) {
+        byte[] buf = apdu.getBuffer();
+        short total = (short) (2 + LOG_SIZE);
+        short len = (short) (total - pos);
+        
+        // Một response tối đa 256 bytes và không vượt APDU buffer
+        short chunk = (short) buf.length;
+        if (chunk > 256) {
+            chunk = 256;
+        }
+        if (len > chunk) {
+            len = chunk;
+        }
+        short le = apdu.setOutgoing();
+        if (le != 0 && le < len) {
+            len = le;
+        }
+        
+        if (pos == 0) {
+            buf[0] = logState[LOG_COUNT];
+            buf[1] = logState[LOG_HEAD];
+            Util.arrayCopyNonAtomic(log, (short) 0, buf, (short) 2, (short) (len - 2));
+        } else {
+            Util.arrayCopyNonAtomic(log, (short) (pos - 2), buf, (short) 0, len);
+        }
+        apdu.setOutgoingLength(len);
+        apdu.sendBytes((short) 0, len);
+        
+        pos = (short) (pos + len);
+        short remaining = (short) (total - pos);
+        logCursor[0] = remaining > 0 ? pos : 0;
+        if (remaining > 0) {
+            ISOException.throwIt((short) (0x6100 | (remaining > 0xFF ? 0 : remaining)));
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,72 @@
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Yêu cầu xác nhận (mua hàng / nạp tiền) gửi từ khách tới nhân viên.
+ * Được gửi tới mọi quầy nhân viên đang mở; quầy trả lời đầu tiên quyết định,
+ * các quầy còn lại tự đóng hộp thoại khi future hoàn tất.
+ */
+public class ApprovalRequest {
+    public enum Type { PURCHASE, TOPUP }
+
+    public enum Decision {
+        APPROVED("Nhân viên đã xác nhận"),
+        REJECTED("Nhân viên từ chối"),
+        TIMEOUT("Hết thời gian chờ nhân viên xác nhận"),
+        NO_STAFF("Không có nhân viên online");
+
+        private final String message;
+
+        Decision(String message) {
+            this.message = message;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger(1);
+
+    public final int id;
+    public final Type type;
+    public final List<CardEventBroadcaster.CartItem> items; // PURCHASE
+    public final int amount;                                // tổng tiền đơn hàng / số tiền nạp
+    public final String paymentMethod;                      // TOPUP
+    public final long createdAt;
+    private final CompletableFuture<Decision> future = new CompletableFuture<>();
+
+    private ApprovalRequest(Type type, List<CardEventBroadcaster.CartItem> items, int amount, String paymentMethod) {
+        this.id = NEXT_ID.getAndIncrement();
+        this.type = type;
+        this.items = items;
+        this.amount = amount;
+        this.paymentMethod = paymentMethod;
+        this.createdAt = System.currentTimeMillis();
+    }
+
+    public static ApprovalRequest purchase(List<CardEventBroadcaster.CartItem> items, int totalPrice) {
+        return new ApprovalRequest(Type.PURCHASE, Collections.unmodifiableList(items), totalPrice, null);
+    }
+
+    public static ApprovalRequest topup(int amount, String paymentMethod) {
+        return new ApprovalRequest(Type.TOPUP, Collections.<CardEventBroadcaster.CartItem>emptyList(), amount, paymentMethod);
+    }
+
+    /**
+     * @return true nếu đây là phản hồi đầu tiên (được chấp nhận), false nếu đã có quyết định trước đó
+     */
+    public boolean complete(Decision decision) {
+        return future.complete(decision);
+    }
+
+    public boolean isPending() {
+        return !future.isDone();
+    }
+
+    public CompletableFuture<Decision> future() {
+        return future;
+    }
+}
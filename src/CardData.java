@@ -1,6 +1,6 @@
 /**
  * Represents data stored on a smart card.
- * Structure (64 bytes): [UserID(2)] [Balance(4)] [ExpiryDays(2)] [PIN(1)] [PINRetry(1)] [DOB_Day(1)] [DOB_Month(1)] [DOB_Year(2)] [FullName(50)]
+ * Structure: xem CardLayout (V2 = 66 bytes, có byte phiên bản; thẻ cũ 64/61 bytes vẫn đọc/ghi được)
  * 
  * Note: FullName is now stored directly on card (50 bytes UTF-8)
  */
@@ -14,8 +14,21 @@ public class CardData {
     public byte dobDay;          // Date of birth - day (1-31)
     public byte dobMonth;        // Date of birth - month (1-12)
     public short dobYear;        // Date of birth - year (1900-2099)
+    public byte packageType;     // 0=Basic, 1=Silver, 2=Gold (không có trên thẻ V1)
     public static final byte MAX_PIN_RETRY = 5;
 
+    // Cache UTF-8 của fullName cho CardHelper (encode/decode không cấp phát khi tên không đổi)
+    final byte[] nameBytes = new byte[50];
+    String nameSource;
+    int nameLength;
+
+    // Layout của thẻ lúc đọc (null = thẻ mới → CardLayout.CURRENT)
+    CardLayout layout;
+
+    // Ảnh record lần đọc/ghi gần nhất, để CardHelper chỉ ghi phần đã thay đổi
+    final byte[] image = new byte[CardLayout.MAX_SIZE];
+    boolean imageValid;
+
 
     public CardData() {
     }
@@ -31,6 +44,19 @@ public class CardData {
         this.dobYear = dobYear;
     }
 
+    /**
+     * Bản sao độc lập (dùng khi gửi sang thread khác trong lúc thẻ gốc còn bị sửa)
+     */
+    public CardData copy() {
+        CardData c = new CardData(userId, balance, expiryDays, pin, pinRetry, dobDay, dobMonth, dobYear);
+        c.fullName = fullName;
+        c.packageType = packageType;
+        c.layout = layout;
+        System.arraycopy(image, 0, c.image, 0, image.length);
+        c.imageValid = imageValid;
+        return c;
+    }
+
     public String getDobString() {
         if (dobDay == 0 || dobMonth == 0 || dobYear == 0) {
             return "Chưa có";
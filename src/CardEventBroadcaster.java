@@ -1,75 +1,188 @@
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Singleton broadcaster để sync thông tin thẻ giữa Customer và Staff windows
+ * Singleton broadcaster để sync thông tin thẻ giữa Customer và Staff windows.
+ *
+ * Thread-safe: listener lưu trong CopyOnWriteArrayList (đăng ký/hủy từ EDT hay
+ * worker đều an toàn, duyệt không cần khóa), singleton khởi tạo qua holder class.
+ * Sự kiện thẻ được gửi trên thread dispatch riêng nên listener chậm không làm
+ * nghẽn thread vừa đọc thẻ.
+ *
+ * Xác nhận mua hàng/nạp tiền là bất đồng bộ: request*Approval trả về
+ * CompletableFuture, gửi tới mọi quầy nhân viên, lấy phản hồi đầu tiên và
+ * tự hết hạn sau timeout. Các yêu cầu chưa xử lý nằm trong hàng đợi pending.
  */
 public class CardEventBroadcaster {
-    private static CardEventBroadcaster instance;
-    private List<CardEventListener> listeners = new ArrayList<>();
-    private List<PurchaseRequestListener> purchaseListeners = new ArrayList<>();
-    private List<TopupRequestListener> topupListeners = new ArrayList<>();
-    
+    private final List<CardEventListener> listeners = new CopyOnWriteArrayList<>();
+    private final List<ApprovalListener> approvalListeners = new CopyOnWriteArrayList<>();
+    private final List<CardPresenceListener> presenceListeners = new CopyOnWriteArrayList<>();
+
+    // Một thread dispatch: giữ đúng thứ tự sự kiện (đặt thẻ → quẹt → rút thẻ)
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "card-event-dispatch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public static final long DEFAULT_APPROVAL_TIMEOUT_MS = 120000;
+
+    // Hàng đợi yêu cầu chờ xác nhận, theo thứ tự gửi (id tăng dần)
+    private final ConcurrentSkipListMap<Integer, ApprovalRequest> pendingApprovals = new ConcurrentSkipListMap<>();
+    private final ScheduledExecutorService approvalTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "approval-timeout");
+        t.setDaemon(true);
+        return t;
+    });
+
     public interface CardEventListener {
         void onCardSwiped(CardData card);
     }
-    
-    public interface PurchaseRequestListener {
-        boolean onPurchaseRequest(List<CartItem> items, int totalPrice);
+
+    /**
+     * Sự kiện từ CardPresenceMonitor: thẻ vừa được đặt vào / rút khỏi đầu đọc
+     */
+    public interface CardPresenceListener {
+        void onCardInserted(PcscClient reader, CardData card);
+
+        default void onCardRemoved(PcscClient reader) {
+        }
     }
-    
-    public interface TopupRequestListener {
-        boolean onTopupRequest(int amount, String paymentMethod);
+
+    /**
+     * Quầy nhân viên nhận yêu cầu xác nhận. Không được block: hiển thị yêu cầu
+     * rồi gọi request.complete(...) khi nhân viên trả lời.
+     */
+    public interface ApprovalListener {
+        void onApprovalRequested(ApprovalRequest request);
     }
-    
+
     public static class CartItem {
         public StoreItem item;
         public int quantity;
-        
+
         public CartItem(StoreItem item, int quantity) {
             this.item = item;
             this.quantity = quantity;
         }
     }
-    
+
+    private static class Holder {
+        static final CardEventBroadcaster INSTANCE = new CardEventBroadcaster();
+    }
+
     private CardEventBroadcaster() {}
-    
+
     public static CardEventBroadcaster getInstance() {
-        if (instance == null) {
-            instance = new CardEventBroadcaster();
-        }
-        return instance;
+        return Holder.INSTANCE;
     }
-    
+
     public void addCardListener(CardEventListener listener) {
         listeners.add(listener);
     }
-    
-    public void addPurchaseListener(PurchaseRequestListener listener) {
-        purchaseListeners.add(listener);
+
+    public void removeCardListener(CardEventListener listener) {
+        listeners.remove(listener);
     }
-    
-    public void addTopupListener(TopupRequestListener listener) {
-        topupListeners.add(listener);
+
+    public void addPresenceListener(CardPresenceListener listener) {
+        presenceListeners.add(listener);
     }
-    
+
+    public void removePresenceListener(CardPresenceListener listener) {
+        presenceListeners.remove(listener);
+    }
+
+    public void addApprovalListener(ApprovalListener listener) {
+        approvalListeners.add(listener);
+    }
+
+    public void removeApprovalListener(ApprovalListener listener) {
+        approvalListeners.remove(listener);
+    }
+
     public void broadcastCardSwipe(CardData card) {
+        // Snapshot: listener chạy bất đồng bộ, trong khi bên gửi có thể sửa tiếp currentCard
+        CardData snapshot = card.copy();
         for (CardEventListener listener : listeners) {
-            listener.onCardSwiped(card);
+            dispatch(() -> listener.onCardSwiped(snapshot));
+        }
+    }
+
+    public void broadcastCardInserted(PcscClient reader, CardData card) {
+        for (CardPresenceListener listener : presenceListeners) {
+            dispatch(() -> listener.onCardInserted(reader, card));
         }
     }
-    
-    public boolean requestPurchaseApproval(List<CartItem> items, int totalPrice) {
-        for (PurchaseRequestListener listener : purchaseListeners) {
-            return listener.onPurchaseRequest(items, totalPrice);
+
+    public void broadcastCardRemoved(PcscClient reader) {
+        for (CardPresenceListener listener : presenceListeners) {
+            dispatch(() -> listener.onCardRemoved(reader));
         }
-        return false; // Không có nhân viên online
     }
-    
-    public boolean requestTopupApproval(int amount, String paymentMethod) {
-        for (TopupRequestListener listener : topupListeners) {
-            return listener.onTopupRequest(amount, paymentMethod);
+
+    /**
+     * Chạy callback trên thread dispatch; lỗi của một listener không ảnh hưởng listener khác
+     */
+    private void dispatch(Runnable callback) {
+        dispatcher.execute(() -> {
+            try {
+                callback.run();
+            } catch (RuntimeException ex) {
+                System.err.println("[BROADCAST] Listener lỗi: " + ex);
+            }
+        });
+    }
+
+    public CompletableFuture<ApprovalRequest.Decision> requestPurchaseApproval(List<CartItem> items, int totalPrice) {
+        return requestPurchaseApproval(items, totalPrice, DEFAULT_APPROVAL_TIMEOUT_MS);
+    }
+
+    public CompletableFuture<ApprovalRequest.Decision> requestPurchaseApproval(List<CartItem> items, int totalPrice, long timeoutMs) {
+        return submitApproval(ApprovalRequest.purchase(new ArrayList<>(items), totalPrice), timeoutMs);
+    }
+
+    public CompletableFuture<ApprovalRequest.Decision> requestTopupApproval(int amount, String paymentMethod) {
+        return requestTopupApproval(amount, paymentMethod, DEFAULT_APPROVAL_TIMEOUT_MS);
+    }
+
+    public CompletableFuture<ApprovalRequest.Decision> requestTopupApproval(int amount, String paymentMethod, long timeoutMs) {
+        return submitApproval(ApprovalRequest.topup(amount, paymentMethod), timeoutMs);
+    }
+
+    /**
+     * Yêu cầu đang chờ nhân viên xử lý, cũ nhất trước
+     */
+    public List<ApprovalRequest> getPendingApprovals() {
+        return new ArrayList<>(pendingApprovals.values());
+    }
+
+    private CompletableFuture<ApprovalRequest.Decision> submitApproval(ApprovalRequest request, long timeoutMs) {
+        if (approvalListeners.isEmpty()) {
+            request.complete(ApprovalRequest.Decision.NO_STAFF); // Không có nhân viên online
+            return request.future();
+        }
+
+        pendingApprovals.put(request.id, request);
+        ScheduledFuture<?> timeout = approvalTimer.schedule(
+                () -> request.complete(ApprovalRequest.Decision.TIMEOUT), timeoutMs, TimeUnit.MILLISECONDS);
+        request.future().whenComplete((decision, ex) -> {
+            pendingApprovals.remove(request.id);
+            timeout.cancel(false);
+        });
+
+        // Gửi tới mọi quầy; quầy trả lời trước thắng
+        for (ApprovalListener listener : approvalListeners) {
+            dispatch(() -> listener.onApprovalRequested(request));
         }
-        return false; // Không có nhân viên online
+        return request.future();
     }
 }
@@ -1,5 +1,8 @@
 import javax.smartcardio.CommandAPDU;
 import javax.smartcardio.ResponseAPDU;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Helpers to build/parse APDU commands for gym smart card.
@@ -9,72 +12,342 @@ import javax.smartcardio.ResponseAPDU;
  *  0x20 = VERIFY (verify PIN)
  *  0x24 = CHANGE REFERENCE DATA (change PIN)
  *  0x2C = RESET RETRY COUNTER (unblock PIN - admin only)
+ * Lệnh riêng (CLA 0x80), thẻ tự tính trong JCSystem transaction:
+ *  0x40 = DEBIT, 0x42 = CREDIT, 0x44 = EXTEND (trừ tiền gói + cộng ngày)
+ *  0x48 = VERIFY+READ, 0x4A = VERIFY+DEBIT (lệnh gộp, trả về record - chỉ applet jcide)
+ *  0x4C = READ LOG (nhật ký giao dịch, nhiều đoạn nối bằng GET RESPONSE 0xC0)
  */
 public class CardHelper {
+    /** AID của applet Gym: 26 12 20 03 20 03 00 */
+    private static final byte[] APPLET_AID = {
+        (byte)0x26, (byte)0x12, (byte)0x20, (byte)0x03, (byte)0x20, (byte)0x03, (byte)0x00
+    };
+
+    private static final int NAME_SIZE = CardLayout.NAME_SIZE;
+
+    static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    // Buffer encode dùng lại theo thread
+    private static final ThreadLocal<byte[]> WRITE_SCRATCH = ThreadLocal.withInitial(() -> new byte[CardLayout.MAX_SIZE]);
+
+    public static final byte INS_SELECT = (byte) 0xA4;
     public static final byte INS_READ = (byte) 0xB0;
     public static final byte INS_WRITE = (byte) 0xD0;
     public static final byte INS_VERIFY_PIN = (byte) 0x20;
     public static final byte INS_CHANGE_PIN = (byte) 0x24;
     public static final byte INS_UNBLOCK_PIN = (byte) 0x2C;
 
+    public static final byte CLA_PROPRIETARY = (byte) 0x80;
+    public static final byte INS_DEBIT = (byte) 0x40;
+    public static final byte INS_CREDIT = (byte) 0x42;
+    public static final byte INS_EXTEND = (byte) 0x44;
+    public static final byte INS_VERIFY_READ = (byte) 0x48;
+    public static final byte INS_VERIFY_DEBIT = (byte) 0x4A;
+    public static final byte INS_READ_LOG = (byte) 0x4C;
+    public static final byte INS_GET_RESPONSE = (byte) 0xC0;
+
+    // Phiên PIN: số lượt mặc định khi mở phiên, tối đa theo applet
+    public static final int DEFAULT_SESSION_OPS = 8;
+    public static final int MAX_SESSION_OPS = 32;
+
+    // Thẻ trả về khi số dư không đủ (DEBIT/EXTEND)
+    public static final int SW_INSUFFICIENT_FUNDS = 0x6985;
+
+    /**
+     * Build: 00 A4 04 00 07 [AID] - ISO 7816-4 SELECT by name
+     */
+    public static CommandAPDU buildSelectCommand() {
+        return new CommandAPDU(0x00, INS_SELECT, 0x04, 0x00, APPLET_AID);
+    }
+
     /**
-     * Build: 00 B0 00 00 40 (read 64 bytes - with DOB and full name)
-     * ISO 7816-4 READ BINARY command
+     * Build: 00 B0 00 00 00 - ISO 7816-4 READ BINARY command
+     * Le = 00: applet trả về nguyên record của nó (61/64/66 bytes), layout được
+     * nhận dạng từ byte phiên bản / độ dài nên không cần đọc lại khi sai Le.
      */
     public static CommandAPDU buildReadCommand() {
-        return new CommandAPDU(0x00, INS_READ, 0x00, 0x00, 0x40); // Le = 64 bytes (0x40)
+        return new CommandAPDU(0x00, INS_READ, 0x00, 0x00, 256); // Le = 00 (tối đa 256)
+    }
+
+    /**
+     * Build: 00 B0 [offset] [len] - đọc một phần record (applet V2, P1P2 = offset)
+     */
+    public static CommandAPDU buildReadCommand(int offset, int length) {
+        return new CommandAPDU(0x00, INS_READ, (offset >> 8) & 0xFF, offset & 0xFF, length);
+    }
+
+    /**
+     * Đọc đúng một trường, VD buildReadCommand(card.layout, Field.BALANCE)
+     */
+    public static CommandAPDU buildReadCommand(CardLayout layout, CardLayout.Field field) {
+        if (!layout.has(field)) {
+            throw new IllegalArgumentException(layout + " không có trường " + field);
+        }
+        return buildReadCommand(layout.offsetOf(field), field.size);
+    }
+
+    /**
+     * Build UPDATE BINARY chỉ chứa vùng đã thay đổi so với ảnh lần đọc gần nhất:
+     * 00 D0 [P1P2 = offset byte đầu khác] [Lc] [dữ liệu tới byte cuối khác].
+     * Thẻ chưa đọc hoặc layout cũ (applet không hỗ trợ offset) → ghi nguyên record.
+     * @return null nếu không có gì thay đổi
+     */
+    public static CommandAPDU buildUpdateCommand(CardData card) {
+        byte[] data = WRITE_SCRATCH.get();
+        int len = encode(card, data, 0);
+        if (!card.imageValid || layoutOf(card).offVersion < 0) {
+            return new CommandAPDU(0x00, INS_WRITE, 0x00, 0x00, data, 0, len);
+        }
+        byte[] image = card.image;
+        int from = 0;
+        while (from < len && data[from] == image[from]) {
+            from++;
+        }
+        if (from == len) {
+            return null;
+        }
+        int to = len;
+        while (data[to - 1] == image[to - 1]) {
+            to--;
+        }
+        return new CommandAPDU(0x00, INS_WRITE, (from >> 8) & 0xFF, from & 0xFF, data, from, to - from);
+    }
+
+    /**
+     * Gọi sau khi ghi thành công: ảnh record = dữ liệu vừa ghi
+     */
+    public static void markWritten(CardData card) {
+        encode(card, card.image, 0);
+        card.layout = layoutOf(card);
+        card.imageValid = true;
+    }
+
+    /**
+     * Build: 80 40 00 00 04 [amount] - trừ tiền trên thẻ, phản hồi [balance mới(4)]
+     */
+    public static CommandAPDU buildDebitCommand(int amount) {
+        return buildAmountCommand(INS_DEBIT, amount);
+    }
+
+    /**
+     * Build: 80 42 00 00 04 [amount] - nạp tiền trên thẻ, phản hồi [balance mới(4)]
+     */
+    public static CommandAPDU buildCreditCommand(int amount) {
+        return buildAmountCommand(INS_CREDIT, amount);
+    }
+
+    /**
+     * Build: 80 44 00 00 06 [price(4)] [days(2)] - gia hạn, phản hồi [balance(4)] [expiryDays(2)]
+     */
+    public static CommandAPDU buildExtendCommand(int price, int days) {
+        byte[] data = new byte[6];
+        CardLayout.putS32(data, 0, price);
+        CardLayout.putU16(data, 4, days);
+        return new CommandAPDU(CLA_PROPRIETARY, INS_EXTEND, 0x00, 0x00, data, 6);
     }
 
     /**
-     * Build: 00 D0 00 00 40 [data...] (write 64 bytes)
-     * ISO 7816-4 UPDATE BINARY command
-     * Format: [userID(2)] [balance(4)] [expiryDays(2)] [pin(1)] [pinRetry(1)] [dobDay(1)] [dobMonth(1)] [dobYear(2)] [fullName(50)]
+     * Build: 80 48 [ops] 00 01 [pin] 00 - VERIFY + READ: mở phiên ops lượt và trả về record
+     */
+    public static CommandAPDU buildVerifyReadCommand(byte pin, int ops) {
+        return new CommandAPDU(CLA_PROPRIETARY, INS_VERIFY_READ, sessionP1(ops), 0x00, new byte[]{pin}, 256);
+    }
+
+    /**
+     * Build: 80 4A [ops] 00 05 [pin] [amount(4)] 00 - VERIFY + DEBIT, trả về record sau khi trừ
+     */
+    public static CommandAPDU buildVerifyDebitCommand(byte pin, int amount, int ops) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Số tiền âm: " + amount);
+        }
+        byte[] data = new byte[5];
+        data[0] = pin;
+        CardLayout.putS32(data, 1, amount);
+        return new CommandAPDU(CLA_PROPRIETARY, INS_VERIFY_DEBIT, sessionP1(ops), 0x00, data, 256);
+    }
+
+    /**
+     * Build: 80 4C 00 00 00 - đọc nhật ký giao dịch (gửi qua PcscClient.transmitChained)
+     */
+    public static CommandAPDU buildReadLogCommand() {
+        return new CommandAPDU(CLA_PROPRIETARY, INS_READ_LOG, 0x00, 0x00, 256);
+    }
+
+    /**
+     * Build: 00 C0 00 00 [le] - ISO 7816-4 GET RESPONSE (le = SW2 của 61xx, 00 = 256)
+     */
+    public static CommandAPDU buildGetResponseCommand(int le) {
+        return new CommandAPDU(0x00, INS_GET_RESPONSE, 0x00, 0x00, le == 0 ? 256 : le);
+    }
+
+    /**
+     * Parse nhật ký: [count(1)] [head(1)] [ring N x 13 bytes] → danh sách cũ nhất trước
+     */
+    public static java.util.List<CardLogEntry> parseLog(byte[] data) {
+        if (data.length < 2) {
+            throw new IllegalArgumentException("Log response too short: " + data.length);
+        }
+        int count = data[0] & 0xFF;
+        int head = data[1] & 0xFF;
+        int capacity = (data.length - 2) / CardLogEntry.SIZE;
+        count = Math.min(count, capacity);
+        java.util.List<CardLogEntry> entries = new java.util.ArrayList<>(count);
+        // Dòng cũ nhất: ngay sau head nếu ring đã đầy, ngược lại ở vị trí 0
+        int start = count < capacity ? 0 : head;
+        for (int i = 0; i < count; i++) {
+            int slot = (start + i) % capacity;
+            entries.add(CardLogEntry.decode(data, 2 + slot * CardLogEntry.SIZE));
+        }
+        return entries;
+    }
+
+    private static CommandAPDU buildAmountCommand(byte ins, int amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Số tiền âm: " + amount);
+        }
+        byte[] data = new byte[4];
+        CardLayout.putS32(data, 0, amount);
+        return new CommandAPDU(CLA_PROPRIETARY, ins, 0x00, 0x00, data, 4);
+    }
+
+    /**
+     * Cập nhật CardData (và ảnh record) theo phản hồi DEBIT/CREDIT/EXTEND,
+     * để lần ghi sau không gửi lại số dư / hạn tập.
+     */
+    public static void applyBalanceResponse(CardData card, byte[] resp) {
+        CardLayout l = layoutOf(card);
+        card.balance = CardLayout.s32(resp, 0);
+        CardLayout.putS32(card.image, l.offBalance, card.balance);
+        if (resp.length >= 6) {
+            card.expiryDays = (short) CardLayout.u16(resp, 4);
+            CardLayout.putU16(card.image, l.offExpiryDays, card.expiryDays);
+        }
+    }
+
+    /**
+     * Build: 00 D0 00 00 Lc [data...] - ISO 7816-4 UPDATE BINARY command
+     * Ghi theo layout của thẻ đã đọc (card.layout), thẻ mới dùng CardLayout.CURRENT.
      */
     public static CommandAPDU buildWriteCommand(CardData card) {
-        byte[] data = new byte[64];
-        
-        // UserID (2 bytes)
-        data[0] = (byte) ((card.userId >> 8) & 0xFF);
-        data[1] = (byte) (card.userId & 0xFF);
-        
-        // Balance (4 bytes)
-        data[2] = (byte) ((card.balance >> 24) & 0xFF);
-        data[3] = (byte) ((card.balance >> 16) & 0xFF);
-        data[4] = (byte) ((card.balance >> 8) & 0xFF);
-        data[5] = (byte) (card.balance & 0xFF);
-        
-        // ExpiryDays (2 bytes)
-        data[6] = (byte) ((card.expiryDays >> 8) & 0xFF);
-        data[7] = (byte) (card.expiryDays & 0xFF);
-        
-        // PIN (1 byte)
-        data[8] = card.pin;
-        
-        // PINRetry (1 byte)
-        data[9] = card.pinRetry;
-        
-        // DOB Day (1 byte)
-        data[10] = card.dobDay;
+        // Encode vào buffer dùng lại của thread (CommandAPDU tự copy dữ liệu)
+        byte[] data = WRITE_SCRATCH.get();
+        int len = encode(card, data, 0);
+        return new CommandAPDU(0x00, INS_WRITE, 0x00, 0x00, data, 0, len);
+    }
+
+    /**
+     * Ghi nguyên APDU UPDATE BINARY (header + record) vào buffer của caller,
+     * dùng với PcscClient.transmit(ByteBuffer, ByteBuffer) để không cấp phát.
+     */
+    public static void encodeWriteCommand(CardData card, ByteBuffer dst) {
+        dst.put((byte) 0x00).put(INS_WRITE).put((byte) 0x00).put((byte) 0x00).put((byte) layoutOf(card).size);
+        encode(card, dst);
+    }
+
+    /**
+     * Ghi nguyên APDU READ BINARY (00 B0 00 00 00) vào buffer của caller
+     */
+    public static void encodeReadCommand(ByteBuffer dst) {
+        dst.put((byte) 0x00).put(INS_READ).put((byte) 0x00).put((byte) 0x00).put((byte) 0x00);
+    }
+
+    static CardLayout layoutOf(CardData card) {
+        return card.layout != null ? card.layout : CardLayout.CURRENT;
+    }
+
+    /**
+     * Encode CardData thành record theo layout của thẻ tại dst[off..]. Không cấp phát:
+     * họ tên được encode UTF-8 trực tiếp (hoặc copy từ cache nếu tên không đổi).
+     * Trường mà layout không có (VD: DOB trên thẻ GYMCARD) được bỏ qua.
+     * @return số byte đã ghi (layout.size)
+     */
+    public static int encode(CardData card, byte[] data, int off) {
+        CardLayout l = layoutOf(card);
         
-        // DOB Month (1 byte)
-        data[11] = card.dobMonth;
+        if (l.offVersion >= 0) data[off + l.offVersion] = (byte) l.version;
+        CardLayout.putU16(data, off + l.offUserId, card.userId);
+        CardLayout.putS32(data, off + l.offBalance, card.balance);
+        CardLayout.putU16(data, off + l.offExpiryDays, card.expiryDays);
+        data[off + l.offPin] = card.pin;
+        data[off + l.offPinRetry] = card.pinRetry;
+        if (l.offPackageType >= 0) data[off + l.offPackageType] = card.packageType;
+        if (l.offDobDay >= 0) {
+            data[off + l.offDobDay] = card.dobDay;
+            data[off + l.offDobMonth] = card.dobMonth;
+            CardLayout.putU16(data, off + l.offDobYear, card.dobYear);
+        }
         
-        // DOB Year (2 bytes)
-        data[12] = (byte) ((card.dobYear >> 8) & 0xFF);
-        data[13] = (byte) (card.dobYear & 0xFF);
+        // FullName (50 bytes) - UTF-8 encoded, phần còn lại = 0
+        int nameStart = off + l.offFullName;
+        int nameLen = encodeName(card);
+        System.arraycopy(card.nameBytes, 0, data, nameStart, nameLen);
+        java.util.Arrays.fill(data, nameStart + nameLen, nameStart + NAME_SIZE, (byte) 0);
         
-        // FullName (50 bytes) - UTF-8 encoded
-        if (card.fullName != null && !card.fullName.isEmpty()) {
-            try {
-                byte[] nameBytes = card.fullName.getBytes("UTF-8");
-                int len = Math.min(nameBytes.length, 50);
-                System.arraycopy(nameBytes, 0, data, 14, len);
-            } catch (Exception e) {
-                // Ignore encoding errors
+        return l.size;
+    }
+
+    /**
+     * Encode vào ByteBuffer của caller (vị trí hiện tại, tăng position thêm layout.size)
+     */
+    public static int encode(CardData card, ByteBuffer dst) {
+        if (dst.hasArray()) {
+            int pos = dst.position();
+            int len = encode(card, dst.array(), dst.arrayOffset() + pos);
+            ((Buffer) dst).position(pos + len); // Buffer: chạy được trên JRE 8 khi build bằng JDK mới
+            return len;
+        }
+        byte[] data = WRITE_SCRATCH.get();
+        int len = encode(card, data, 0);
+        dst.put(data, 0, len);
+        return len;
+    }
+
+    /**
+     * Cập nhật card.nameBytes theo card.fullName nếu tên đã đổi.
+     * UTF-8 encode thủ công, cắt ở 50 bytes nhưng không cắt đôi một ký tự.
+     * Surrogate lẻ thành '?' như String.getBytes(UTF_8).
+     */
+    static int encodeName(CardData card) {
+        String name = card.fullName;
+        if (name == card.nameSource) {
+            return card.nameLength;
+        }
+        int len = 0;
+        if (name != null) {
+            byte[] out = card.nameBytes;
+            for (int i = 0; i < name.length(); i++) {
+                int cp = name.codePointAt(i);
+                if (Character.isSupplementaryCodePoint(cp)) {
+                    i++;
+                } else if (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE) {
+                    cp = '?';
+                }
+                int need = cp < 0x80 ? 1 : cp < 0x800 ? 2 : cp < 0x10000 ? 3 : 4;
+                if (len + need > NAME_SIZE) break;
+                switch (need) {
+                    case 1:
+                        out[len++] = (byte) cp;
+                        break;
+                    case 2:
+                        out[len++] = (byte) (0xC0 | (cp >> 6));
+                        out[len++] = (byte) (0x80 | (cp & 0x3F));
+                        break;
+                    case 3:
+                        out[len++] = (byte) (0xE0 | (cp >> 12));
+                        out[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                        out[len++] = (byte) (0x80 | (cp & 0x3F));
+                        break;
+                    default:
+                        out[len++] = (byte) (0xF0 | (cp >> 18));
+                        out[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                        out[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                        out[len++] = (byte) (0x80 | (cp & 0x3F));
+                }
             }
         }
-        
-        return new CommandAPDU(0x00, INS_WRITE, 0x00, 0x00, data);
+        card.nameSource = name;
+        card.nameLength = len;
+        return len;
     }
 
     /**
@@ -84,6 +357,47 @@ public class CardHelper {
     public static CommandAPDU buildVerifyPinCommand(byte pin) {
         return new CommandAPDU(0x00, INS_VERIFY_PIN, 0x00, 0x01, new byte[]{pin});
     }
+
+    /**
+     * Build: 00 20 [ops] 01 01 [pin] - VERIFY và mở phiên ops lượt thao tác quyền.
+     * Thành công: SW 90nn (nn = số lượt applet cấp); applet cũ trả 9000.
+     */
+    public static CommandAPDU buildVerifyPinCommand(byte pin, int ops) {
+        return new CommandAPDU(0x00, INS_VERIFY_PIN, sessionP1(ops), 0x01, new byte[]{pin});
+    }
+
+    private static int sessionP1(int ops) {
+        return Math.max(1, Math.min(ops, MAX_SESSION_OPS));
+    }
+
+    /**
+     * Build: 00 20 FF 01 - kết thúc phiên PIN
+     */
+    public static CommandAPDU buildEndSessionCommand() {
+        return new CommandAPDU(0x00, INS_VERIFY_PIN, 0xFF, 0x01);
+    }
+
+    /**
+     * 9000 hoặc 90nn (thành công, nn = lượt còn lại của phiên PIN)
+     */
+    public static boolean isSuccess(int sw) {
+        return (sw & 0xFF00) == 0x9000;
+    }
+
+    /**
+     * 63Cx (sai PIN) hoặc 6983 (thẻ khóa)
+     */
+    public static boolean isPinFailure(int sw) {
+        return sw == 0x6983 || (sw & 0xFFF0) == 0x63C0;
+    }
+
+    /**
+     * Lệnh cần phiên PIN (mỗi lần thành công dùng một lượt)
+     */
+    static boolean isPrivileged(int ins) {
+        return ins == (INS_WRITE & 0xFF) || ins == (INS_CHANGE_PIN & 0xFF)
+                || ins == (INS_DEBIT & 0xFF) || ins == (INS_CREDIT & 0xFF) || ins == (INS_EXTEND & 0xFF);
+    }
     
     /**
      * Build: 00 24 00 01 02 [old PIN][new PIN] - ISO 7816-4 CHANGE REFERENCE DATA
@@ -105,60 +419,82 @@ public class CardHelper {
     }
 
     /**
-     * Parse response from READ command. Expects 64-byte format.
-     * Format: [UserID(2) | Balance(4) | ExpiryDays(2) | PIN(1) | PINRetry(1) | DOB_Day(1) | DOB_Month(1) | DOB_Year(2) | FullName(50)]
+     * Parse response from READ command. Layout được nhận dạng qua CardLayout.detect.
      */
     public static CardData parseReadResponse(byte[] data) {
-        if (data.length < 64) {
-            throw new IllegalArgumentException("Response too short: " + data.length + " (need 64)");
-        }
-        
-        CardData card = new CardData();
-        
-        // UserID (2 bytes)
-        card.userId = ((data[0] & 0xFF) << 8) | (data[1] & 0xFF);
-        
-        // Balance (4 bytes)
-        card.balance = ((data[2] & 0xFF) << 24) | ((data[3] & 0xFF) << 16) | 
-                       ((data[4] & 0xFF) << 8) | (data[5] & 0xFF);
-        
-        // ExpiryDays (2 bytes)
-        card.expiryDays = (short) (((data[6] & 0xFF) << 8) | (data[7] & 0xFF));
-        
-        // PIN (1 byte)
-        card.pin = data[8];
-        
-        // PINRetry (1 byte)
-        card.pinRetry = data[9];
-        
-        // DOB Day (1 byte)
-        card.dobDay = data[10];
-        
-        // DOB Month (1 byte)
-        card.dobMonth = data[11];
+        return decodeInto(data, 0, data.length, new CardData());
+    }
+
+    /**
+     * Decode record vào CardData có sẵn (dùng lại object) và ghi nhớ layout của thẻ
+     * để lần ghi sau dùng đúng layout đó.
+     * Nếu họ tên trên thẻ không đổi so với lần decode trước thì giữ nguyên String cũ.
+     * @throws IllegalArgumentException nếu dữ liệu không khớp layout nào
+     */
+    public static CardData decodeInto(byte[] data, int off, int len, CardData card) {
+        CardLayout l = CardLayout.detect(data, off, len);
+        card.layout = l;
+        System.arraycopy(data, off, card.image, 0, l.size);
+        card.imageValid = true;
         
-        // DOB Year (2 bytes)
-        card.dobYear = (short) (((data[12] & 0xFF) << 8) | (data[13] & 0xFF));
+        card.userId = CardLayout.u16(data, off + l.offUserId);
+        card.balance = CardLayout.s32(data, off + l.offBalance);
+        card.expiryDays = (short) CardLayout.u16(data, off + l.offExpiryDays);
+        card.pin = data[off + l.offPin];
+        card.pinRetry = data[off + l.offPinRetry];
+        card.packageType = l.offPackageType >= 0 ? data[off + l.offPackageType] : 0;
+        if (l.offDobDay >= 0) {
+            card.dobDay = data[off + l.offDobDay];
+            card.dobMonth = data[off + l.offDobMonth];
+            card.dobYear = (short) CardLayout.u16(data, off + l.offDobYear);
+        } else {
+            card.dobDay = 0;
+            card.dobMonth = 0;
+            card.dobYear = 0;
+        }
         
         // FullName (50 bytes) - UTF-8 decode
-        try {
-            // Find actual length (until null byte or end)
-            int nameLen = 0;
-            for (int i = 14; i < 64; i++) {
-                if (data[i] == 0) break;
-                nameLen++;
-            }
-            if (nameLen > 0) {
-                card.fullName = new String(data, 14, nameLen, "UTF-8").trim();
-            } else {
-                card.fullName = "";
-            }
-        } catch (Exception e) {
-            card.fullName = "";
+        // Find actual length (until null byte or end)
+        int nameStart = off + l.offFullName;
+        int nameLen = 0;
+        while (nameLen < NAME_SIZE && data[nameStart + nameLen] != 0) {
+            nameLen++;
+        }
+        if (card.nameSource != null && card.nameSource == card.fullName && card.nameLength == nameLen
+                && rangeEquals(card.nameBytes, data, nameStart, nameLen)) {
+            return card; // cùng tên → không tạo String mới
         }
+        System.arraycopy(data, nameStart, card.nameBytes, 0, nameLen);
+        String raw = nameLen > 0 ? new String(data, nameStart, nameLen, StandardCharsets.UTF_8) : "";
+        card.fullName = raw.trim();
+        // Chỉ cache khi encode lại tên ra đúng các bytes này: trim() không cắt gì
+        // và không có byte UTF-8 hỏng (decode thành U+FFFD)
+        boolean roundTrips = card.fullName.length() == raw.length() && raw.indexOf('\uFFFD') < 0;
+        card.nameSource = roundTrips ? card.fullName : null;
+        card.nameLength = nameLen;
         
         return card;
     }
+
+    /**
+     * Decode từ ByteBuffer phản hồi (position = đầu dữ liệu, limit = hết dữ liệu, không gồm SW)
+     */
+    public static CardData decodeInto(ByteBuffer src, CardData card) {
+        if (src.hasArray()) {
+            return decodeInto(src.array(), src.arrayOffset() + src.position(), src.remaining(), card);
+        }
+        byte[] data = WRITE_SCRATCH.get();
+        int len = Math.min(src.remaining(), data.length);
+        src.duplicate().get(data, 0, len);
+        return decodeInto(data, 0, len, card);
+    }
+
+    private static boolean rangeEquals(byte[] a, byte[] b, int bOff, int len) {
+        for (int i = 0; i < len; i++) {
+            if (a[i] != b[bOff + i]) return false;
+        }
+        return true;
+    }
     
     /**
      * Parse PIN verification status from SW code
@@ -167,7 +503,7 @@ public class CardHelper {
      * @return Human-readable status message
      */
     public static String parsePinStatus(int sw) {
-        if (sw == 0x9000) {
+        if (isSuccess(sw)) {
             return "✅ PIN Correct";
         } else if (sw == 0x6983) {
             return "🔒 Card Permanently Locked (0 attempts left)";
@@ -186,10 +522,33 @@ public class CardHelper {
      */
     public static String toHexCommand(CommandAPDU apdu) {
         byte[] bytes = apdu.getBytes();
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02X ", b));
+        StringBuilder sb = new StringBuilder(bytes.length * 3);
+        appendHex(sb, bytes, 0, bytes.length, ' ');
+        return sb.toString();
+    }
+
+    /**
+     * Nối hex vào StringBuilder có sẵn qua bảng tra (không String.format).
+     * @param separator ký tự giữa các byte, 0 = không có
+     */
+    public static StringBuilder appendHex(StringBuilder sb, byte[] data, int off, int len, char separator) {
+        for (int i = 0; i < len; i++) {
+            if (separator != 0 && i > 0) sb.append(separator);
+            int b = data[off + i] & 0xFF;
+            sb.append(HEX[b >>> 4]).append(HEX[b & 0x0F]);
+        }
+        return sb;
+    }
+
+    /**
+     * Nối hex của vùng [position, limit) mà không thay đổi position của buffer
+     */
+    public static StringBuilder appendHex(StringBuilder sb, ByteBuffer buf, char separator) {
+        for (int i = buf.position(); i < buf.limit(); i++) {
+            if (separator != 0 && i > buf.position()) sb.append(separator);
+            int b = buf.get(i) & 0xFF;
+            sb.append(HEX[b >>> 4]).append(HEX[b & 0x0F]);
         }
-        return sb.toString().trim();
+        return sb;
     }
 }
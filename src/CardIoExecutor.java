@@ -0,0 +1,150 @@
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor I/O cho một đầu đọc: mọi thao tác thẻ (chuỗi APDU) được đưa vào
+ * đây và chạy tuần tự trên đúng một thread, nên hai luồng nghiệp vụ không thể
+ * chen APDU vào cùng một channel.
+ *
+ * Hàng đợi có giới hạn (đầy thì từ chối ngay thay vì dồn ứ), có đếm số lần
+ * bị từ chối và histogram độ trễ theo từng loại thao tác.
+ * Đặt -Dgym.cardio.virtual=true để chạy worker trên virtual thread (Java 21+).
+ */
+public class CardIoExecutor {
+    public interface CardOperation<T> {
+        T run(PcscClient pcsc) throws Exception;
+    }
+
+    private static final int QUEUE_CAPACITY = Integer.getInteger("gym.cardio.queue", 16);
+
+    private final PcscClient pcsc;
+    private final ThreadPoolExecutor executor;
+    private volatile Thread worker;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final Map<String, LatencyHistogram> latencyByOp = new ConcurrentHashMap<>();
+
+    public CardIoExecutor(PcscClient pcsc) {
+        this.pcsc = pcsc;
+        ThreadFactory base = Boolean.getBoolean("gym.cardio.virtual") ? virtualThreadFactory() : null;
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY),
+                r -> {
+                    Thread t = base != null ? base.newThread(r) : new Thread(r);
+                    t.setName("card-io-" + pcsc.getTerminalName());
+                    t.setDaemon(true);
+                    worker = t;
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Đưa thao tác vào hàng đợi của đầu đọc. Future bị fail với
+     * RejectedExecutionException nếu hàng đợi đầy.
+     */
+    public <T> CompletableFuture<T> submit(String name, CardOperation<T> op) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long enqueuedAt = System.nanoTime();
+        submitted.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                queueWait.recordNanos(start - enqueuedAt);
+                try {
+                    result.complete(op.run(pcsc));
+                } catch (Throwable ex) {
+                    failed.incrementAndGet();
+                    result.completeExceptionally(ex);
+                } finally {
+                    histogram(name).recordNanos(System.nanoTime() - start);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            rejected.incrementAndGet();
+            result.completeExceptionally(new RejectedExecutionException(
+                    "Đầu đọc " + pcsc.getTerminalName() + " đang bận (" + QUEUE_CAPACITY + " thao tác chờ)"));
+        }
+        return result;
+    }
+
+    /**
+     * Chạy thao tác và chờ kết quả. Nếu đang ở chính thread I/O thì chạy luôn
+     * (tránh tự chờ chính mình).
+     */
+    public <T> T call(String name, CardOperation<T> op) throws Exception {
+        if (Thread.currentThread() == worker) {
+            return op.run(pcsc);
+        }
+        try {
+            return submit(name, op).get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw ex;
+        }
+    }
+
+    private LatencyHistogram histogram(String name) {
+        LatencyHistogram h = latencyByOp.get(name);
+        if (h == null) {
+            h = latencyByOp.computeIfAbsent(name, k -> new LatencyHistogram());
+        }
+        return h;
+    }
+
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("submitted=%d rejected=%d failed=%d queue=%d/%d wait[%s]",
+                submitted.get(), rejected.get(), failed.get(), getQueueDepth(), QUEUE_CAPACITY, queueWait));
+        for (Map.Entry<String, LatencyHistogram> e : latencyByOp.entrySet()) {
+            sb.append("\n  ").append(e.getKey()).append(": ").append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Thread.ofVirtual().factory() qua reflection để vẫn build được với target 1.8
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException ex) {
+            System.err.println("[CARD-IO] Virtual threads không khả dụng, dùng platform thread");
+            return null;
+        }
+    }
+}
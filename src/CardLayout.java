@@ -0,0 +1,155 @@
+/**
+ * Mô tả layout record trên thẻ, dùng chung cho CardHelper và hai applet
+ * (SmartCard.java, jcide/SmartCard.java khai báo lại đúng các offset của V2).
+ *
+ * Layout được khai báo bằng danh sách trường theo thứ tự; offset được tính một
+ * lần khi nạp class và lưu vào các trường final, nên accessor chỉ là đọc hằng.
+ * Từ V2 byte đầu tiên là số phiên bản: một lần READ (Le=00) trả về record tự
+ * mô tả, host không phải đoán độ dài rồi đọc lại khi gặp 6Cxx.
+ *
+ * V2 (66 bytes):
+ * [Version(1)] [UserID(2)] [Balance(4)] [ExpiryDays(2)] [PIN(1)] [PINRetry(1)]
+ * [DOB_Day(1)] [DOB_Month(1)] [DOB_Year(2)] [PackageType(1)] [FullName(50)]
+ *
+ * Thẻ cũ không có byte phiên bản, nhận dạng theo độ dài:
+ * V1 (64 bytes, SmartCard.java bản cũ) và GYMCARD (61 bytes, jcide bản cũ).
+ */
+public final class CardLayout {
+    public enum Field {
+        VERSION(1), USER_ID(2), BALANCE(4), EXPIRY_DAYS(2), PACKAGE_TYPE(1),
+        PIN(1), PIN_RETRY(1), DOB_DAY(1), DOB_MONTH(1), DOB_YEAR(2), FULL_NAME(50);
+
+        public final int size;
+
+        Field(int size) {
+            this.size = size;
+        }
+    }
+
+    public static final int NAME_SIZE = Field.FULL_NAME.size;
+    public static final byte VERSION_2 = 0x02;
+
+    public static final CardLayout V2 = new CardLayout("V2", VERSION_2,
+            Field.VERSION, Field.USER_ID, Field.BALANCE, Field.EXPIRY_DAYS, Field.PIN, Field.PIN_RETRY,
+            Field.DOB_DAY, Field.DOB_MONTH, Field.DOB_YEAR, Field.PACKAGE_TYPE, Field.FULL_NAME);
+
+    public static final CardLayout V1 = new CardLayout("V1", 1,
+            Field.USER_ID, Field.BALANCE, Field.EXPIRY_DAYS, Field.PIN, Field.PIN_RETRY,
+            Field.DOB_DAY, Field.DOB_MONTH, Field.DOB_YEAR, Field.FULL_NAME);
+
+    public static final CardLayout GYMCARD = new CardLayout("GYMCARD", 0,
+            Field.USER_ID, Field.BALANCE, Field.EXPIRY_DAYS, Field.PACKAGE_TYPE, Field.PIN, Field.PIN_RETRY,
+            Field.FULL_NAME);
+
+    // Layout ghi cho thẻ mới
+    public static final CardLayout CURRENT = V2;
+
+    // Record dài nhất trong các layout (kích thước buffer encode)
+    public static final int MAX_SIZE = Math.max(V2.size, Math.max(V1.size, GYMCARD.size));
+
+    public final String name;
+    public final int version;
+    public final int size;
+
+    // Offset từng trường, -1 = layout không có trường này
+    public final int offVersion;
+    public final int offUserId;
+    public final int offBalance;
+    public final int offExpiryDays;
+    public final int offPackageType;
+    public final int offPin;
+    public final int offPinRetry;
+    public final int offDobDay;
+    public final int offDobMonth;
+    public final int offDobYear;
+    public final int offFullName;
+
+    private CardLayout(String name, int version, Field... fields) {
+        int[] offsets = new int[Field.values().length];
+        java.util.Arrays.fill(offsets, -1);
+        int off = 0;
+        for (Field f : fields) {
+            offsets[f.ordinal()] = off;
+            off += f.size;
+        }
+        this.name = name;
+        this.version = version;
+        this.size = off;
+        this.offVersion = offsets[Field.VERSION.ordinal()];
+        this.offUserId = offsets[Field.USER_ID.ordinal()];
+        this.offBalance = offsets[Field.BALANCE.ordinal()];
+        this.offExpiryDays = offsets[Field.EXPIRY_DAYS.ordinal()];
+        this.offPackageType = offsets[Field.PACKAGE_TYPE.ordinal()];
+        this.offPin = offsets[Field.PIN.ordinal()];
+        this.offPinRetry = offsets[Field.PIN_RETRY.ordinal()];
+        this.offDobDay = offsets[Field.DOB_DAY.ordinal()];
+        this.offDobMonth = offsets[Field.DOB_MONTH.ordinal()];
+        this.offDobYear = offsets[Field.DOB_YEAR.ordinal()];
+        this.offFullName = offsets[Field.FULL_NAME.ordinal()];
+    }
+
+    public boolean has(Field field) {
+        return offsetOf(field) >= 0;
+    }
+
+    public int offsetOf(Field field) {
+        switch (field) {
+            case VERSION: return offVersion;
+            case USER_ID: return offUserId;
+            case BALANCE: return offBalance;
+            case EXPIRY_DAYS: return offExpiryDays;
+            case PACKAGE_TYPE: return offPackageType;
+            case PIN: return offPin;
+            case PIN_RETRY: return offPinRetry;
+            case DOB_DAY: return offDobDay;
+            case DOB_MONTH: return offDobMonth;
+            case DOB_YEAR: return offDobYear;
+            default: return offFullName;
+        }
+    }
+
+    /**
+     * Nhận dạng layout từ dữ liệu READ: byte phiên bản nếu có, nếu không thì theo độ dài.
+     * @throws IllegalArgumentException nếu không khớp layout nào
+     */
+    public static CardLayout detect(byte[] data, int off, int len) {
+        if (len >= V2.size && data[off] == VERSION_2) {
+            return V2;
+        }
+        if (len == V1.size) {
+            return V1;
+        }
+        if (len == GYMCARD.size) {
+            return GYMCARD;
+        }
+        throw new IllegalArgumentException("Không nhận dạng được layout thẻ (" + len + " bytes)");
+    }
+
+    // ===== Accessor (big-endian, như applet) =====
+
+    static int u16(byte[] d, int off) {
+        return ((d[off] & 0xFF) << 8) | (d[off + 1] & 0xFF);
+    }
+
+    static int s32(byte[] d, int off) {
+        return ((d[off] & 0xFF) << 24) | ((d[off + 1] & 0xFF) << 16)
+                | ((d[off + 2] & 0xFF) << 8) | (d[off + 3] & 0xFF);
+    }
+
+    static void putU16(byte[] d, int off, int v) {
+        d[off] = (byte) (v >> 8);
+        d[off + 1] = (byte) v;
+    }
+
+    static void putS32(byte[] d, int off, int v) {
+        d[off] = (byte) (v >> 24);
+        d[off + 1] = (byte) (v >> 16);
+        d[off + 2] = (byte) (v >> 8);
+        d[off + 3] = (byte) v;
+    }
+
+    @Override
+    public String toString() {
+        return name + "(" + size + " bytes)";
+    }
+}
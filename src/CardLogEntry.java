@@ -0,0 +1,59 @@
+/**
+ * Một dòng nhật ký giao dịch đọc từ thẻ (READ LOG 80 4C).
+ * Trên thẻ: [seq(4)] [type(1)] [amount(4)] [balanceAfter(4)]
+ */
+public class CardLogEntry {
+    public static final int SIZE = 13;
+
+    public enum Type {
+        DEBIT("Thanh toán"),
+        CREDIT("Nạp tiền"),
+        EXTEND("Gia hạn"),
+        UNKNOWN("Không rõ");
+
+        private final String label;
+
+        Type(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        static Type of(byte code) {
+            switch (code) {
+                case 0x01: return DEBIT;
+                case 0x02: return CREDIT;
+                case 0x03: return EXTEND;
+                default: return UNKNOWN;
+            }
+        }
+    }
+
+    public final long seq;          // số thứ tự tăng dần trên thẻ
+    public final Type type;
+    public final int amount;
+    public final int balanceAfter;
+
+    public CardLogEntry(long seq, Type type, int amount, int balanceAfter) {
+        this.seq = seq;
+        this.type = type;
+        this.amount = amount;
+        this.balanceAfter = balanceAfter;
+    }
+
+    static CardLogEntry decode(byte[] data, int off) {
+        return new CardLogEntry(
+                CardLayout.s32(data, off) & 0xFFFFFFFFL,
+                Type.of(data[off + 4]),
+                CardLayout.s32(data, off + 5),
+                CardLayout.s32(data, off + 9));
+    }
+
+    @Override
+    public String toString() {
+        String sign = type == Type.CREDIT ? "+" : "-";
+        return String.format("#%d %s %s%,d VND (còn %,d VND)", seq, type.getLabel(), sign, amount, balanceAfter);
+    }
+}
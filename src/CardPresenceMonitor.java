@@ -0,0 +1,145 @@
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Theo dõi đầu đọc trong background bằng CardTerminal.waitForCardPresent/waitForCardAbsent.
+ * Đọc thẻ ngay khi được đặt vào và đẩy CardData qua CardEventBroadcaster,
+ * thay cho kiểu "bấm nút rồi sleep(500)".
+ */
+public class CardPresenceMonitor implements Runnable {
+    // Timeout mỗi lần chờ để vòng lặp kiểm tra được cờ dừng
+    private static final long WAIT_TIMEOUT_MS = 1000;
+    // Nghỉ khi chưa có đầu đọc / driver lỗi
+    private static final long RETRY_DELAY_MS = 2000;
+
+    private final PcscClient pcsc;
+    private volatile boolean running;
+    private Thread thread;
+
+    // Metrics theo từng đầu đọc
+    private final AtomicLong swipeCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong readNanos = new AtomicLong();
+
+    private final ByteBuffer readCmd = ByteBuffer.allocate(5);
+    private final ByteBuffer readResp = ByteBuffer.allocate(258);
+    private volatile long startedAt;
+
+    public CardPresenceMonitor(PcscClient pcsc) {
+        this.pcsc = pcsc;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        startedAt = System.currentTimeMillis();
+        thread = new Thread(this, "card-monitor-" + pcsc.getTerminalName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public PcscClient getClient() {
+        return pcsc;
+    }
+
+    public long getSwipeCount() {
+        return swipeCount.get();
+    }
+
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * Thời gian trung bình từ lúc phát hiện thẻ đến khi broadcast xong (ms)
+     */
+    public double getAverageReadMs() {
+        long swipes = swipeCount.get();
+        return swipes == 0 ? 0.0 : readNanos.get() / 1e6 / swipes;
+    }
+
+    /**
+     * Số lần quẹt / phút kể từ khi start()
+     */
+    public double getSwipesPerMinute() {
+        long elapsed = System.currentTimeMillis() - startedAt;
+        return elapsed <= 0 ? 0.0 : swipeCount.get() * 60000.0 / elapsed;
+    }
+
+    public String getStats() {
+        return String.format("%s: swipes=%d (%.1f/min), errors=%d, read avg %.1f ms | %s",
+                pcsc.getTerminalName(), swipeCount.get(), getSwipesPerMinute(),
+                errorCount.get(), getAverageReadMs(), pcsc.getStats())
+                + "\n  io: " + pcsc.io().getStats();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                pcsc.selectDefaultTerminal();
+                if (!pcsc.waitForCardPresent(WAIT_TIMEOUT_MS)) {
+                    continue;
+                }
+
+                readAndBroadcast();
+
+                // Chờ khách rút thẻ rồi mới nhận lần đặt thẻ tiếp theo
+                while (running && !pcsc.waitForCardAbsent(WAIT_TIMEOUT_MS)) {
+                    // still present
+                }
+                pcsc.invalidateSession();
+                CardEventBroadcaster.getInstance().broadcastCardRemoved(pcsc);
+            } catch (Exception ex) {
+                if (!running) break;
+                errorCount.incrementAndGet();
+                System.err.println("[MONITOR] " + pcsc.getTerminalName() + ": " + ex.getMessage());
+                try {
+                    Thread.sleep(RETRY_DELAY_MS);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void readAndBroadcast() throws Exception {
+        long start = System.nanoTime();
+        // SELECT + READ chạy trên executor I/O của đầu đọc, không chen với cửa sổ đang giao dịch
+        int sw = pcsc.io().call("monitor-read", p -> {
+            p.openSession();
+            // Buffer APDU dùng lại giữa các lần quẹt (chỉ thread I/O chạm vào)
+            ((Buffer) readCmd).clear(); // Buffer: chạy được trên JRE 8 khi build bằng JDK mới
+            CardHelper.encodeReadCommand(readCmd);
+            ((Buffer) readCmd).flip();
+            ((Buffer) readResp).clear();
+            return p.transmit(readCmd, readResp);
+        });
+        if ((sw & 0xFF00) != 0x9000) {
+            errorCount.incrementAndGet();
+            System.err.println("[MONITOR] Không đọc được thẻ - SW: "
+                    + Integer.toHexString(sw).toUpperCase());
+            return;
+        }
+        // Thẻ mới cho mỗi lần quẹt: listener giữ tham chiếu sau khi broadcast
+        ((Buffer) readResp).flip().limit(readResp.limit() - 2);
+        CardData card = CardHelper.decodeInto(readResp, new CardData());
+        MemberStore.getInstance().put(card);
+        CardEventBroadcaster.getInstance().broadcastCardInserted(pcsc, card);
+        swipeCount.incrementAndGet();
+        readNanos.addAndGet(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,486 @@
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Nghiệp vụ thẻ không phụ thuộc giao diện: quẹt thẻ, gia hạn, mua hàng, nạp
+ * tiền, đổi PIN, cấp thẻ và xóa thẻ trên một đầu đọc.
+ *
+ * Mỗi thao tác trả về CompletableFuture<Result>: chuỗi APDU chạy trên executor
+ * I/O của đầu đọc (CardIoExecutor), chờ nhân viên xác nhận cũng bất đồng bộ,
+ * nên không thread nào bị giữ. Future không bao giờ fail: lỗi thẻ / hàng đợi
+ * đầy / exception đều thành Result FAILED kèm thông báo. Service lo kiểm tra
+ * số dư, xác thực PIN khi hết phiên, ghi journal, kho, MemberStore và
+ * broadcast sang quầy; bên gọi (CustomerWindow, FunctionPanel, LoadGenerator,
+ * kiosk không màn hình) chỉ lấy input và hiển thị kết quả.
+ *
+ * Future hoàn tất trên thread I/O / thread của broadcaster: giao diện Swing
+ * phải tự chuyển về EDT. CardData truyền vào được cập nhật theo thẻ.
+ */
+public class CardService {
+    public enum Status {
+        OK,
+        PIN_REQUIRED,       // hết phiên PIN mà không có PIN
+        PIN_FAILED,         // PIN sai / thẻ khóa khi VERIFY
+        LOCKED,
+        INSUFFICIENT_FUNDS,
+        NOT_APPROVED,
+        INVALID,            // input không hợp lệ, chưa gửi gì tới thẻ
+        FAILED              // SW lỗi hoặc exception
+    }
+
+    public static final class Result {
+        public final Status status;
+        public final int sw;                    // 0 nếu chưa gửi APDU
+        public final CardData card;
+        public final String message;
+        public final List<CardLogEntry> history; // chỉ readCard(true), null nếu applet không hỗ trợ
+
+        Result(Status status, int sw, CardData card, String message, List<CardLogEntry> history) {
+            this.status = status;
+            this.sw = sw;
+            this.card = card;
+            this.message = message;
+            this.history = history;
+        }
+
+        public boolean isOk() {
+            return status == Status.OK;
+        }
+
+        @Override
+        public String toString() {
+            return status + (sw != 0 ? " (SW " + Integer.toHexString(sw).toUpperCase() + ")" : "")
+                    + (message != null ? ": " + message : "");
+        }
+    }
+
+    private final PcscClient pcsc;
+
+    public CardService(PcscClient pcsc) {
+        this.pcsc = pcsc;
+    }
+
+    public PcscClient getReader() {
+        return pcsc;
+    }
+
+    /**
+     * true nếu thao tác quyền tiếp theo cần PIN (không còn phiên đã xác thực)
+     */
+    public boolean needsPin() {
+        return !pcsc.hasVerifiedSession();
+    }
+
+    public static boolean canAfford(CardData card, long amount) {
+        return amount >= 0 && card.balance >= amount;
+    }
+
+    // ===== Quẹt thẻ =====
+
+    /**
+     * Kết nối + VERIFY+READ (mở phiên PIN), rồi broadcast sang quầy
+     */
+    public CompletableFuture<Result> swipe(byte pin) {
+        return run("swipe", p -> {
+            try {
+                p.openSession();
+            } catch (javax.smartcardio.CardException ex) {
+                return fail(0, null, "Không thể kết nối ứng dụng trên thẻ: " + ex.getMessage());
+            }
+            javax.smartcardio.ResponseAPDU resp = p.verifyAndRead(pin, CardHelper.DEFAULT_SESSION_OPS);
+            int sw = resp.getSW();
+            if (CardHelper.isPinFailure(sw)) {
+                return pinFailed(sw, null);
+            }
+            if ((sw & 0xFF00) != 0x9000) {
+                return fail(sw, null, "Không thể đọc dữ liệu thẻ");
+            }
+            return admit(CardHelper.parseReadResponse(resp.getData()), sw);
+        });
+    }
+
+    /**
+     * Thẻ đã đọc sẵn (CardPresenceMonitor): VERIFY nếu hết phiên, rồi broadcast.
+     * pin = null khi còn phiên.
+     */
+    public CompletableFuture<Result> login(CardData card, Byte pin) {
+        if (card.isLocked()) {
+            return done(new Result(Status.LOCKED, 0, card, "Thẻ đã bị khóa!", null));
+        }
+        return run("login", p -> {
+            Result denied = ensureVerified(p, card, pin);
+            return denied != null ? denied : admit(card, 0);
+        });
+    }
+
+    private Result admit(CardData card, int sw) {
+        if (card.isLocked()) {
+            return new Result(Status.LOCKED, sw, card, "Thẻ đã bị khóa!", null);
+        }
+        publish(card);
+        return ok(sw, card);
+    }
+
+    /**
+     * Đóng phiên PIN (khách rời quầy mà thẻ vẫn trên đầu đọc)
+     */
+    public CompletableFuture<Result> endSession() {
+        if (!pcsc.hasVerifiedSession()) {
+            return done(ok(0, null));
+        }
+        return run("end-session", p -> {
+            p.endSession();
+            return ok(0, null);
+        });
+    }
+
+    // ===== Gia hạn =====
+
+    /**
+     * Trừ giá và cộng ngày trong một transaction trên thẻ (EXTEND)
+     */
+    public CompletableFuture<Result> renew(CardData card, PackageCatalog.Quote quote, Byte pin) {
+        if (!canAfford(card, quote.price)) {
+            return done(insufficient(0, card));
+        }
+        return run("renew", p -> {
+            Result denied = ensureVerified(p, card, pin);
+            if (denied != null) return denied;
+            javax.smartcardio.ResponseAPDU resp = p.extend(card, quote.price, quote.pkg.days);
+            return afterBalanceChange(resp.getSW(), card, "Gia hạn thất bại");
+        });
+    }
+
+    // ===== Mua hàng =====
+
+    /**
+     * Kiểm tra giỏ + số dư rồi gửi yêu cầu xác nhận tới quầy. OK = nhân viên đồng ý.
+     * Giỏ được chụp ngay lúc gọi (Cart không thread-safe).
+     */
+    public CompletableFuture<Result> checkout(CardData card, Cart cart) {
+        Result invalid = checkCart(card, cart);
+        if (invalid != null) {
+            return done(invalid);
+        }
+        return approval(CardEventBroadcaster.getInstance()
+                .requestPurchaseApproval(cart.toApprovalItems(), (int) cart.getTotal()), card);
+    }
+
+    /**
+     * Sau khi được xác nhận: DEBIT (hoặc VERIFY+DEBIT một APDU khi hết phiên),
+     * thành công thì hàng đang giữ thành đã bán và broadcast. Giỏ chụp lúc gọi,
+     * nên phải là đúng giỏ đã gửi checkout (bên gọi có giỏ sửa được thì chụp
+     * bằng Cart.copy() trước checkout); bên gọi tự clear giỏ và trả phần giữ
+     * còn lại (releaseAll) khi đóng cửa hàng.
+     */
+    public CompletableFuture<Result> pay(CardData card, StockLedger.Reservation hold, Cart cart, Byte pin) {
+        Result invalid = checkCart(card, cart);
+        if (invalid != null) {
+            return done(invalid);
+        }
+        return pay(card, hold, cart.copy(), (int) cart.getTotal(), pin);
+    }
+
+    /**
+     * checkout + pay, cho bên gọi có sẵn PIN (kiosk, đo tải)
+     */
+    public CompletableFuture<Result> purchase(CardData card, StockLedger.Reservation hold, Cart cart, Byte pin) {
+        Result invalid = checkCart(card, cart);
+        if (invalid != null) {
+            return done(invalid);
+        }
+        Cart sold = cart.copy();
+        int total = (int) cart.getTotal();
+        return approval(CardEventBroadcaster.getInstance().requestPurchaseApproval(sold.toApprovalItems(), total), card)
+                .thenCompose(r -> r.isOk() ? pay(card, hold, sold, total, pin) : done(r));
+    }
+
+    private CompletableFuture<Result> pay(CardData card, StockLedger.Reservation hold, Cart sold, int total, Byte pin) {
+        return run("purchase", p -> {
+            javax.smartcardio.ResponseAPDU resp;
+            if (p.hasVerifiedSession()) {
+                resp = p.debit(card, total);
+            } else if (pin != null) {
+                resp = p.verifyAndDebit(card, pin, total, CardHelper.DEFAULT_SESSION_OPS);
+            } else {
+                return pinRequired(card);
+            }
+            int sw = resp.getSW();
+            if (CardHelper.isPinFailure(sw)) {
+                return pinFailed(sw, card);
+            }
+            Result r = afterBalanceChange(sw, card, "Thanh toán thất bại");
+            if (r.isOk()) {
+                StoreManager.getInstance().commit(hold, sold);
+            }
+            return r;
+        });
+    }
+
+    /**
+     * Kiểm tra giỏ trước khi gửi xác nhận: null = hợp lệ, ngược lại INVALID / INSUFFICIENT_FUNDS
+     */
+    public static Result checkCart(CardData card, Cart cart) {
+        if (cart.isEmpty()) {
+            return new Result(Status.INVALID, 0, card, "Giỏ hàng trống!", null);
+        }
+        if (cart.getTotal() > Integer.MAX_VALUE) {
+            return new Result(Status.INVALID, 0, card, "Tổng tiền vượt giới hạn thẻ!", null);
+        }
+        if (!canAfford(card, cart.getTotal())) {
+            return insufficient(0, card);
+        }
+        return null;
+    }
+
+    // ===== Nạp tiền =====
+
+    /**
+     * Gửi yêu cầu nạp tới quầy. OK = nhân viên đã nhận tiền.
+     */
+    public CompletableFuture<Result> requestTopup(CardData card, int amount, String paymentMethod) {
+        if (amount <= 0) {
+            return done(new Result(Status.INVALID, 0, card, "Số tiền nạp phải > 0", null));
+        }
+        return approval(CardEventBroadcaster.getInstance().requestTopupApproval(amount, paymentMethod), card);
+    }
+
+    /**
+     * Sau khi được xác nhận: VERIFY nếu hết phiên, rồi CREDIT
+     */
+    public CompletableFuture<Result> credit(CardData card, int amount, Byte pin) {
+        return run("topup", p -> {
+            Result denied = ensureVerified(p, card, pin);
+            if (denied != null) return denied;
+            javax.smartcardio.ResponseAPDU resp = p.credit(card, amount);
+            return afterBalanceChange(resp.getSW(), card, "Nạp tiền thất bại");
+        });
+    }
+
+    /**
+     * requestTopup + credit
+     */
+    public CompletableFuture<Result> topup(CardData card, int amount, String paymentMethod, Byte pin) {
+        return requestTopup(card, amount, paymentMethod)
+                .thenCompose(r -> r.isOk() ? credit(card, amount, pin) : done(r));
+    }
+
+    // ===== Đổi PIN =====
+
+    /**
+     * VERIFY PIN cũ trên thẻ (không so ở host), rồi ghi PIN mới + reset số lần thử.
+     * VERIFY mở phiên DEFAULT_SESSION_OPS lượt như lúc quẹt thẻ, để lần ghi này
+     * không lấy mất phiên của hội viên.
+     */
+    public CompletableFuture<Result> changePin(CardData card, byte oldPin, byte newPin) {
+        return run("change-pin", p -> {
+            int sw = p.verifyPin(oldPin, CardHelper.DEFAULT_SESSION_OPS).getSW();
+            if (!CardHelper.isSuccess(sw)) {
+                return pinFailed(sw, card);
+            }
+            byte pin = card.pin;
+            byte retry = card.pinRetry;
+            card.pin = newPin;
+            card.pinRetry = CardData.MAX_PIN_RETRY;
+            sw = p.writeCard(card).getSW();
+            if (!CardHelper.isSuccess(sw)) {
+                card.pin = pin;
+                card.pinRetry = retry;
+                return fail(sw, card, "Đổi PIN thất bại");
+            }
+            publish(card);
+            return ok(sw, card);
+        });
+    }
+
+    // ===== Quầy: đọc / cấp / xóa thẻ =====
+
+    /**
+     * Kết nối + READ (không cần PIN), lưu vào MemberStore; withHistory → thêm READ LOG
+     */
+    public CompletableFuture<Result> readCard(boolean withHistory) {
+        return run("staff-read", p -> {
+            try {
+                p.openSession();
+            } catch (javax.smartcardio.CardException ex) {
+                return fail(0, null, "Không kết nối được applet: " + ex.getMessage());
+            }
+            javax.smartcardio.ResponseAPDU resp = p.transmit(CardHelper.buildReadCommand());
+            if ((resp.getSW() & 0xFF00) != 0x9000) {
+                return fail(resp.getSW(), null, "Không đọc được dữ liệu");
+            }
+            CardData card = CardHelper.parseReadResponse(resp.getData());
+            MemberStore.getInstance().put(card);
+            List<CardLogEntry> history = withHistory ? p.readLog() : null;
+            return new Result(Status.OK, resp.getSW(), card, null, history);
+        });
+    }
+
+    /**
+     * Cấp thẻ mới lên thẻ trắng: cấp userId (UserIdAllocator), ghi đúng layout
+     * của applet đang cài, ghi journal ISSUE, lưu MemberStore. Ghi lỗi → trả lại ID.
+     */
+    public CompletableFuture<Result> issue(CardData newCard) {
+        if (newCard.fullName == null || newCard.fullName.trim().isEmpty()) {
+            return done(new Result(Status.INVALID, 0, newCard, "Họ tên không được để trống!", null));
+        }
+        if (newCard.balance < 0 || newCard.expiryDays < 0) {
+            return done(new Result(Status.INVALID, 0, newCard, "Số dư / hạn tập không được âm", null));
+        }
+        return run("create-card", p -> {
+            try {
+                p.openSession();
+            } catch (javax.smartcardio.CardException ex) {
+                return fail(0, newCard, ex.getMessage());
+            }
+            // Thẻ trắng: đọc một lần để ghi đúng layout của applet đang cài (V2 / 64 / 61 bytes)
+            javax.smartcardio.ResponseAPDU blank = p.transmit(CardHelper.buildReadCommand());
+            if ((blank.getSW() & 0xFF00) == 0x9000) {
+                byte[] data = blank.getData();
+                newCard.layout = CardLayout.detect(data, 0, data.length);
+            }
+            // Cấp ID ngay trước khi ghi; ghi thất bại thì trả lại
+            UserIdAllocator ids = UserIdAllocator.getInstance();
+            newCard.userId = ids.allocate();
+            javax.smartcardio.ResponseAPDU resp;
+            try {
+                resp = p.transmit(CardHelper.buildWriteCommand(newCard));
+            } catch (javax.smartcardio.CardException ex) {
+                ids.release(newCard.userId);
+                throw ex;
+            }
+            TransactionJournal.getInstance().append(TransactionJournal.Type.ISSUE,
+                    newCard.userId, newCard.balance, 0, newCard.balance, resp.getSW());
+            if (!CardHelper.isSuccess(resp.getSW())) {
+                ids.release(newCard.userId);
+                return fail(resp.getSW(), newCard, "Ghi thẻ thất bại");
+            }
+            MemberStore.getInstance().put(newCard);
+            return ok(resp.getSW(), newCard);
+        });
+    }
+
+    /**
+     * Xóa thẻ (card = kết quả readCard): ghi record trắng cùng layout, journal
+     * ERASE, bỏ khỏi MemberStore và trả lại userId
+     */
+    public CompletableFuture<Result> erase(CardData card) {
+        CardData empty = new CardData();
+        empty.pinRetry = CardData.MAX_PIN_RETRY;
+        empty.fullName = "";
+        empty.layout = card.layout;
+        return run("delete-card", p -> {
+            javax.smartcardio.ResponseAPDU resp = p.transmit(CardHelper.buildWriteCommand(empty));
+            TransactionJournal.getInstance().append(TransactionJournal.Type.ERASE,
+                    card.userId, card.balance, card.balance, 0, resp.getSW());
+            if ((resp.getSW() & 0xFF00) != 0x9000) {
+                return fail(resp.getSW(), card, "Xóa thẻ thất bại");
+            }
+            MemberStore.getInstance().remove(card.userId);
+            if (card.userId > 0) {
+                UserIdAllocator.getInstance().release(card.userId);
+            }
+            return ok(resp.getSW(), card);
+        });
+    }
+
+    // ===== Hỗ trợ =====
+
+    /**
+     * VERIFY nếu hết phiên (chạy trên thread I/O). null = đã xác thực.
+     */
+    private static Result ensureVerified(PcscClient p, CardData card, Byte pin) throws Exception {
+        if (p.hasVerifiedSession()) {
+            return null;
+        }
+        if (pin == null) {
+            return pinRequired(card);
+        }
+        int sw = p.verifyPin(pin, CardHelper.DEFAULT_SESSION_OPS).getSW();
+        return CardHelper.isSuccess(sw) ? null : pinFailed(sw, card);
+    }
+
+    /**
+     * SW của DEBIT / CREDIT / EXTEND: thành công → lưu + broadcast số dư mới
+     */
+    private static Result afterBalanceChange(int sw, CardData card, String failure) {
+        if ((sw & 0xFF00) == 0x9000) {
+            publish(card);
+            return ok(sw, card);
+        }
+        if (sw == CardHelper.SW_INSUFFICIENT_FUNDS) {
+            return insufficient(sw, card);
+        }
+        return fail(sw, card, failure);
+    }
+
+    /**
+     * Thẻ vừa đọc / đổi: lưu vào MemberStore (trên thread I/O, không phải thread
+     * của broadcaster) rồi báo sang quầy
+     */
+    private static void publish(CardData card) {
+        MemberStore.getInstance().put(card);
+        CardEventBroadcaster.getInstance().broadcastCardSwipe(card);
+    }
+
+    private static CompletableFuture<Result> approval(CompletableFuture<ApprovalRequest.Decision> pending,
+                                                      CardData card) {
+        return pending.handle((decision, ex) -> {
+            if (ex != null) {
+                return error(card, ex);
+            }
+            if (decision != ApprovalRequest.Decision.APPROVED) {
+                return new Result(Status.NOT_APPROVED, 0, card, decision.getMessage(), null);
+            }
+            return ok(0, card);
+        });
+    }
+
+    private CompletableFuture<Result> run(String name, CardIoExecutor.CardOperation<Result> op) {
+        return pcsc.io().submit(name, op).handle((r, ex) -> ex != null ? error(null, ex) : r);
+    }
+
+    private static CompletableFuture<Result> done(Result r) {
+        return CompletableFuture.completedFuture(r);
+    }
+
+    private static Result ok(int sw, CardData card) {
+        return new Result(Status.OK, sw, card, null, null);
+    }
+
+    private static Result fail(int sw, CardData card, String message) {
+        return new Result(Status.FAILED, sw, card, message, null);
+    }
+
+    private static Result pinFailed(int sw, CardData card) {
+        return new Result(Status.PIN_FAILED, sw, card, CardHelper.parsePinStatus(sw), null);
+    }
+
+    private static Result pinRequired(CardData card) {
+        return new Result(Status.PIN_REQUIRED, 0, card, "Cần nhập PIN", null);
+    }
+
+    private static Result insufficient(int sw, CardData card) {
+        return new Result(Status.INSUFFICIENT_FUNDS, sw, card, "Số dư không đủ", null);
+    }
+
+    private static Result error(CardData card, Throwable ex) {
+        while ((ex instanceof CompletionException || ex instanceof ExecutionException) && ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        return fail(0, card, ex.getMessage() != null ? ex.getMessage() : ex.toString());
+    }
+
+    /**
+     * Chờ kết quả (cho bên gọi đồng bộ: đo tải, daemon). Future của service không fail.
+     */
+    public static Result await(CompletableFuture<Result> pending) throws InterruptedException {
+        try {
+            return pending.get();
+        } catch (ExecutionException ex) {
+            return error(null, ex);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+import java.nio.ByteBuffer;
+
+/**
+ * Đường trao đổi APDU với một thẻ Gym, không phụ thuộc thẻ thật hay thẻ ảo.
+ *
+ * PcscClient là bản PC/SC (đầu đọc thật / đầu đọc ảo của hệ điều hành);
+ * SimulatedTerminal là bản chạy trong JVM, dùng khi không có đầu đọc (test,
+ * đo tải). Code chỉ cần gửi APDU thì nên nhận CardTransport thay vì PcscClient.
+ */
+public interface CardTransport extends AutoCloseable {
+    String getTerminalName();
+
+    ResponseAPDU transmit(CommandAPDU apdu) throws CardException;
+
+    /**
+     * Gửi APDU từ buffer của caller, phản hồi (gồm SW1 SW2) ghi vào response.
+     * @return SW (SW1 << 8 | SW2)
+     */
+    int transmit(ByteBuffer command, ByteBuffer response) throws CardException;
+
+    /**
+     * @return true nếu có thẻ trước khi hết timeout (0 = chờ vô hạn)
+     */
+    boolean waitForCardPresent(long timeoutMs) throws CardException;
+
+    /**
+     * @return true nếu thẻ đã được rút ra trước khi hết timeout (0 = chờ vô hạn)
+     */
+    boolean waitForCardAbsent(long timeoutMs) throws CardException;
+
+    @Override
+    void close();
+}
@@ -0,0 +1,161 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Giỏ hàng của một lần mở cửa hàng: mỗi sản phẩm (theo id) là một dòng,
+ * tổng tiền được cộng/trừ ngay khi giỏ đổi (long, không tính lại từ đầu).
+ *
+ * Mỗi thay đổi báo cho listener kèm loại và chỉ số dòng, để giao diện chỉ sửa
+ * đúng dòng đó trong list model. Không thread-safe: chỉ dùng trên EDT.
+ */
+public class Cart {
+    public enum Change { ADDED, UPDATED, REMOVED, CLEARED }
+
+    public interface Listener {
+        /**
+         * @param index chỉ số dòng bị đổi (-1 khi CLEARED)
+         */
+        void onCartChanged(Cart cart, Change change, int index);
+    }
+
+    public static final class Line {
+        public final StoreItem item;
+        private int quantity;
+
+        Line(StoreItem item, int quantity) {
+            this.item = item;
+            this.quantity = quantity;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        public long getSubtotal() {
+            return (long) item.price * quantity;
+        }
+
+        @Override
+        public String toString() {
+            return item.name + " x" + quantity + " = " + String.format("%,d", getSubtotal()) + "₫";
+        }
+    }
+
+    private final List<Line> lines = new ArrayList<>();
+    private final Map<Integer, Line> byId = new HashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private long total;
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Thêm qty sản phẩm; đã có trong giỏ thì cộng dồn vào dòng cũ
+     */
+    public void add(StoreItem item, int qty) {
+        if (qty <= 0) {
+            throw new IllegalArgumentException("Số lượng phải > 0: " + qty);
+        }
+        Line line = byId.get(item.id);
+        if (line != null) {
+            line.quantity += qty;
+            total += (long) item.price * qty;
+            fire(Change.UPDATED, lines.indexOf(line));
+            return;
+        }
+        line = new Line(item, qty);
+        lines.add(line);
+        byId.put(item.id, line);
+        total += line.getSubtotal();
+        fire(Change.ADDED, lines.size() - 1);
+    }
+
+    /**
+     * Đặt số lượng của dòng index; qty ≤ 0 thì xóa dòng
+     */
+    public void setQuantity(int index, int qty) {
+        if (qty <= 0) {
+            remove(index);
+            return;
+        }
+        Line line = lines.get(index);
+        total += (long) line.item.price * (qty - line.quantity);
+        line.quantity = qty;
+        fire(Change.UPDATED, index);
+    }
+
+    public void remove(int index) {
+        Line line = lines.remove(index);
+        byId.remove(line.item.id);
+        total -= line.getSubtotal();
+        fire(Change.REMOVED, index);
+    }
+
+    public void clear() {
+        if (lines.isEmpty()) {
+            return;
+        }
+        lines.clear();
+        byId.clear();
+        total = 0;
+        fire(Change.CLEARED, -1);
+    }
+
+    public Line getLine(int index) {
+        return lines.get(index);
+    }
+
+    public List<Line> getLines() {
+        return Collections.unmodifiableList(lines);
+    }
+
+    public int size() {
+        return lines.size();
+    }
+
+    public boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Bản sao giỏ tại thời điểm gọi (không kèm listener): đơn hàng đem đi xác
+     * nhận và thanh toán, giỏ gốc có đổi sau đó cũng không ảnh hưởng
+     */
+    public Cart copy() {
+        Cart copy = new Cart();
+        for (Line line : lines) {
+            copy.add(line.item, line.quantity);
+        }
+        return copy;
+    }
+
+    /**
+     * Bản sao các dòng để gửi yêu cầu xác nhận (giỏ có thể đổi tiếp sau khi gửi)
+     */
+    public List<CardEventBroadcaster.CartItem> toApprovalItems() {
+        List<CardEventBroadcaster.CartItem> items = new ArrayList<>(lines.size());
+        for (Line line : lines) {
+            items.add(new CardEventBroadcaster.CartItem(line.item, line.quantity));
+        }
+        return items;
+    }
+
+    private void fire(Change change, int index) {
+        for (Listener listener : listeners) {
+            listener.onCartChanged(this, change, index);
+        }
+    }
+}
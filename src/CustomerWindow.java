@@ -1,8 +1,7 @@
-import javax.smartcardio.ResponseAPDU;
 import javax.swing.*;
 import java.awt.*;
-import java.util.List;
-import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * Cửa sổ riêng cho khách hàng - Quẹt thẻ và xem thông tin
@@ -16,11 +15,20 @@ public class CustomerWindow extends JFrame {
     private final JButton purchaseBtn;
     private final JButton topupBtn;
     private final JLabel statusLabel;
-    private final PcscClient pcsc;
+    // Nghiệp vụ trên đầu đọc đang phục vụ khách (đổi theo đầu đọc vừa nhận thẻ; null tới khi PC/SC sẵn sàng)
+    private volatile CardService service;
     private CardData currentCard;
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
 
     public CustomerWindow(PcscClient pcsc) {
-        this.pcsc = pcsc;
+        this();
+        attachReader(pcsc);
+    }
+
+    /**
+     * Dựng cửa sổ trước khi có đầu đọc (khởi động song song với PC/SC), gắn sau bằng attachReader
+     */
+    public CustomerWindow() {
         setTitle("KHÁCH HÀNG - Dịch Vụ Tự Phục Vụ");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setSize(700, 600);
@@ -56,7 +64,7 @@ public class CustomerWindow extends JFrame {
         infoArea.setBackground(new Color(245, 245, 250));
         infoArea.setForeground(new Color(30, 40, 50));
         infoArea.setMargin(new Insets(10, 10, 10, 10));
-        infoArea.setText("Vui lòng nhấn 'Quẹt Thẻ' để bắt đầu\n\n");
+        infoArea.setText("Vui lòng đặt thẻ vào đầu đọc (hoặc nhấn 'Quẹt Thẻ') để bắt đầu\n\n");
         JScrollPane scrollPane = new JScrollPane(infoArea);
         scrollPane.setBorder(BorderFactory.createLineBorder(new Color(200, 200, 210), 1));
         add(scrollPane, BorderLayout.CENTER);
@@ -69,9 +77,9 @@ public class CustomerWindow extends JFrame {
         bottomPanel.setBorder(BorderFactory.createEmptyBorder(12, 15, 12, 15));
 
         // Status label with icon
-        statusLabel = new JLabel("✓ Sẵn sàng");
+        statusLabel = new JLabel("Đang kết nối đầu đọc...");
         statusLabel.setFont(new Font("Segoe UI", Font.PLAIN, 12));
-        statusLabel.setForeground(new Color(60, 180, 60));
+        statusLabel.setForeground(new Color(200, 100, 0));
         bottomPanel.add(statusLabel);
         bottomPanel.add(Box.createVerticalStrut(8));
 
@@ -87,6 +95,7 @@ public class CustomerWindow extends JFrame {
         swipeBtn.setBorder(BorderFactory.createRaisedBevelBorder());
         swipeBtn.setCursor(new Cursor(Cursor.HAND_CURSOR));
         swipeBtn.addActionListener(e -> swipeCard());
+        swipeBtn.setEnabled(false);
         bottomPanel.add(swipeBtn);
         bottomPanel.add(Box.createVerticalStrut(10));
 
@@ -117,60 +126,135 @@ public class CustomerWindow extends JFrame {
         buttonRow.add(topupBtn);
 
         JButton logoutBtn = createModernButton("Thoát", new Color(120, 120, 120));
-        logoutBtn.addActionListener(e -> {
-        currentCard = null;
-        disableButtons();
-        statusLabel.setText("✓ Sẵn sàng");
-        statusLabel.setForeground(new Color(60, 180, 60));
-        infoArea.setText("Vui lòng nhấn 'Quẹt Thẻ' để bắt đầu\n");
-    });
+        logoutBtn.addActionListener(e -> logout());
 
         buttonRow.add(logoutBtn);
 
         bottomPanel.add(buttonRow);
         add(bottomPanel, BorderLayout.SOUTH);
 
+        // Tự động đọc thẻ khi khách đặt thẻ vào đầu đọc (CardPresenceMonitor)
+        CardEventBroadcaster.getInstance().addPresenceListener(new CardEventBroadcaster.CardPresenceListener() {
+            @Override
+            public void onCardInserted(PcscClient reader, CardData card) {
+                SwingUtilities.invokeLater(() -> {
+                    service = new CardService(reader);
+                    infoArea.setText("");
+                    infoArea.append("[OK] Phát hiện thẻ trên đầu đọc " + reader.getTerminalName() + "\n\n");
+                    onCardDetected(card);
+                });
+            }
+
+            @Override
+            public void onCardRemoved(PcscClient reader) {
+                SwingUtilities.invokeLater(() -> {
+                    CardService current = service;
+                    if (current != null && reader == current.getReader()) logout();
+                });
+            }
+        });
+
         setVisible(true);
     }
-    private boolean verifyPinDialog() {
-    JPasswordField pinField = new JPasswordField();
-    int opt = JOptionPane.showConfirmDialog(
-        this,
-        new Object[]{"🔐 Nhập PIN (6 chữ số):", pinField},
-        "Xác Thực PIN",
-        JOptionPane.OK_CANCEL_OPTION
-    );
-    if (opt != JOptionPane.OK_OPTION) return false;
 
-    try {
+    /**
+     * Gắn đầu đọc mặc định rồi báo sẵn sàng. Chạy trên EDT.
+     */
+    public void attachReader(PcscClient pcsc) {
+        if (service == null) { // monitor có thể đã gắn đầu đọc vừa nhận thẻ
+            service = new CardService(pcsc);
+        }
+        swipeBtn.setEnabled(true);
+        statusLabel.setText("✓ Sẵn sàng");
+        statusLabel.setForeground(new Color(60, 180, 60));
+        ready.complete(null);
+    }
+
+    /**
+     * Hoàn tất khi cửa sổ đã hiển thị và có đầu đọc
+     */
+    public CompletableFuture<Void> ready() {
+        return ready;
+    }
+
+    private void logout() {
+        // Thẻ vẫn trên đầu đọc: đóng phiên PIN để khách sau không dùng được
+        if (service != null) {
+            service.endSession();
+        }
+        currentCard = null;
+        disableButtons();
+        statusLabel.setText("✓ Sẵn sàng");
+        statusLabel.setForeground(new Color(60, 180, 60));
+        infoArea.setText("Vui lòng đặt thẻ vào đầu đọc (hoặc nhấn 'Quẹt Thẻ') để bắt đầu\n");
+    }
+
+    /**
+     * Nhận kết quả CardService trên EDT
+     */
+    private void onEdt(CompletableFuture<CardService.Result> pending, Consumer<CardService.Result> handler) {
+        pending.thenAccept(r -> SwingUtilities.invokeLater(() -> handler.accept(r)));
+    }
+
+    /**
+     * PIN cho thao tác quyền. Còn phiên đã xác thực (VERIFY lúc quẹt mở phiên
+     * DEFAULT_SESSION_OPS lượt) thì không hỏi; null nếu còn phiên hoặc khách hủy
+     * (CardService trả về PIN_REQUIRED, không gửi APDU).
+     */
+    private Byte pinIfNeeded() {
+        if (!service.needsPin()) {
+            infoArea.append("[PIN] Phiên đã xác thực (còn " + service.getReader().getVerifiedOps() + " lượt)\n");
+            return null;
+        }
+        return askPin();
+    }
+
+    /**
+     * Hỏi PIN 6 chữ số, trả về byte PIN (null nếu hủy / nhập sai định dạng).
+     * Tách khỏi VERIFY để có thể gửi PIN kèm lệnh gộp (VERIFY+READ, VERIFY+DEBIT).
+     */
+    private Byte askPin() {
+        JPasswordField pinField = new JPasswordField();
+        int opt = JOptionPane.showConfirmDialog(
+            this,
+            new Object[]{"🔐 Nhập PIN (6 chữ số):", pinField},
+            "Xác Thực PIN",
+            JOptionPane.OK_CANCEL_OPTION
+        );
+        if (opt != JOptionPane.OK_OPTION) return null;
+
         String pinStr = new String(pinField.getPassword());
         // Kiểm tra phải đúng 6 chữ số
         if (!pinStr.matches("\\d{6}")) {
-            throw new NumberFormatException("PIN phải là 6 chữ số");
+            JOptionPane.showMessageDialog(this, "❌ PIN phải là 6 chữ số (000000-999999)", "Lỗi", JOptionPane.ERROR_MESSAGE);
+            return null;
         }
-        int pinValue = Integer.parseInt(pinStr);
         // Chuyển 6 số thành 1 byte (lấy 2 số cuối % 256)
-        byte pin = (byte) (pinValue % 256);
-
-        ResponseAPDU r = pcsc.transmit(
-            CardHelper.buildVerifyPinCommand(pin)
-        );
+        return (byte) (Integer.parseInt(pinStr) % 256);
+    }
 
-        if (r.getSW() != 0x9000) {
-            JOptionPane.showMessageDialog(
-                this,
-                CardHelper.parsePinStatus(r.getSW()),
-                "PIN Sai",
-                JOptionPane.ERROR_MESSAGE
-            );
-            return false;
+    /**
+     * Ghi lý do thất bại vào log, PIN sai / thẻ khóa thì báo bằng dialog. Chạy trên EDT.
+     */
+    private void reportFailure(String action, CardService.Result r) {
+        switch (r.status) {
+            case PIN_REQUIRED:
+                infoArea.append("[HỦY] Chưa xác thực PIN\n");
+                break;
+            case PIN_FAILED:
+                infoArea.append("[HỦY] Xác thực PIN thất bại\n");
+                JOptionPane.showMessageDialog(this, r.message, "PIN Sai", JOptionPane.ERROR_MESSAGE);
+                break;
+            case INSUFFICIENT_FUNDS:
+                infoArea.append("[LỖI] Số dư trên thẻ không đủ\n");
+                break;
+            case NOT_APPROVED:
+                infoArea.append("[✗] " + r.message + "\n");
+                break;
+            default:
+                infoArea.append("[LỖI] " + action + " - " + r + "\n");
         }
-        return true;
-    } catch (Exception e) {
-        JOptionPane.showMessageDialog(this, "❌ PIN phải là 6 chữ số (000000-999999)", "Lỗi", JOptionPane.ERROR_MESSAGE);
-        return false;
     }
-}
 
     /**
      * Helper method to create modern styled buttons
@@ -219,93 +303,72 @@ public class CustomerWindow extends JFrame {
         statusLabel.setForeground(new Color(200, 100, 0));
         swipeBtn.setEnabled(false);
 
-        new Thread(() -> {
-            try {
-                Thread.sleep(500); // Delay để người dùng có thể đặt thẻ vào
-
-                pcsc.connectFirstPresentOrFirst();
-                infoArea.append("[OK] Kết nối thẻ thành công!\n\n");
-
-                // Select applet
-                javax.smartcardio.CommandAPDU selectCmd = new javax.smartcardio.CommandAPDU(0x00, 0xA4, 0x04, 0x00,
-                        new byte[]{(byte)0x26,(byte)0x12,(byte)0x20,(byte)0x03,(byte)0x20,(byte)0x03,(byte)0x00});
-                javax.smartcardio.ResponseAPDU selectResp = pcsc.transmit(selectCmd);
-                if ((selectResp.getSW() & 0xFF00) != 0x9000) {
-                    infoArea.append("[LỖI] Không thể kết nối ứng dụng trên thẻ\n");
-                    statusLabel.setText("Lỗi: Thẻ không hợp lệ");
-                    statusLabel.setForeground(Color.RED);
-                    swipeBtn.setEnabled(true);
-                    return;
-                }
-
-                // Read card data
-                javax.smartcardio.CommandAPDU readCmd = CardHelper.buildReadCommand();
-                javax.smartcardio.ResponseAPDU readResp = pcsc.transmit(readCmd);                
-                // Handle 6C xx (Wrong LE) - retry with correct length
-                if ((readResp.getSW() & 0xFF00) == 0x6C00) {
-                    int correctLE = readResp.getSW2();
-                    infoArea.append("[INFO] Applet yêu cầu LE=" + correctLE + " bytes, retry...\n");
-                    readCmd = new javax.smartcardio.CommandAPDU(0x00, 0x11, 0x00, 0x00, correctLE);
-                    readResp = pcsc.transmit(readCmd);
-                }
-                                if ((readResp.getSW() & 0xFF00) != 0x9000) {
-                    infoArea.append("[LỖI] Không thể đọc dữ liệu thẻ - SW: " + Integer.toHexString(readResp.getSW()) + "\n");
-                    statusLabel.setText("Lỗi: Đọc dữ liệu thất bại");
-                    statusLabel.setForeground(Color.RED);
-                    swipeBtn.setEnabled(true);
-                    return;
-                }
-
-                byte[] responseData = readResp.getData();
-                infoArea.append("[DEBUG] Response length: " + responseData.length + " bytes (expected 61)\n");
-                infoArea.append("[DEBUG] Response HEX: " + PcscClient.toHex(responseData) + "\n");
-
-                currentCard = CardHelper.parseReadResponse(responseData);
+        // Hỏi PIN trước để gửi kèm lệnh đọc (VERIFY+READ một round trip)
+        Byte pin = askPin();
+        if (pin == null) {
+            statusLabel.setText("✓ Sẵn sàng");
+            statusLabel.setForeground(new Color(60, 180, 60));
+            swipeBtn.setEnabled(true);
+            return;
+        }
 
-                // ===== XÁC THỰC PIN =====
-                // Check if card is permanently locked
-                if (currentCard.isLocked()) {
-                JOptionPane.showMessageDialog(this, "Thẻ đã bị khóa!");
+        // Kết nối + VERIFY+READ chạy trên executor I/O của đầu đọc, kết quả về EDT
+        onEdt(service.swipe(pin), r -> {
+            swipeBtn.setEnabled(true);
+            if (!r.isOk()) {
+                onLoginFailed(r);
                 return;
             }
+            PcscClient reader = service.getReader();
+            infoArea.append("[OK] Kết nối thẻ thành công!\n\n");
+            infoArea.append("[DEBUG] PC/SC: " + reader.getStats() + "\n");
+            infoArea.append("[DEBUG] Card I/O: " + reader.io().getStats() + "\n");
+            infoArea.append("[DEBUG] Layout: " + r.card.layout + "\n");
+            onLoggedIn(r.card);
+        });
+    }
 
-                // Yêu cầu nhập PIN ngay sau khi quẹt thẻ
-                SwingUtilities.invokeLater(() -> {
-                    if (!verifyPinDialog()) {
-                        infoArea.append("[HỦY] Xác thực PIN thất bại\n");
-                        statusLabel.setText("Thất bại: Sai PIN");
-                        statusLabel.setForeground(Color.RED);
-                        swipeBtn.setEnabled(true);
-                        return;
-                    }
-
-                    infoArea.append("✅ PIN chính xác!\n\n");
-                    infoArea.append("✅ PIN chính xác!\n\n");
-
-                    // Broadcast card info to Staff window
-                    CardEventBroadcaster.getInstance().broadcastCardSwipe(currentCard);
-
-                    // Display card info on customer window
-                    displayCardInfo();
-
-                    statusLabel.setText("Quẹt thẻ thành công!");
-                    statusLabel.setForeground(new Color(50, 150, 50));
+    /**
+     * Thẻ do CardPresenceMonitor đọc sẵn: hỏi PIN nếu hết phiên rồi đăng nhập. Chạy trên EDT.
+     */
+    private void onCardDetected(CardData card) {
+        Byte pin = card.isLocked() ? null : pinIfNeeded();
+        onEdt(service.login(card, pin), r -> {
+            if (r.isOk()) {
+                onLoggedIn(r.card);
+            } else {
+                onLoginFailed(r);
+            }
+        });
+    }
 
-                    personalInfoBtn.setEnabled(true);
-                    renewBtn.setEnabled(true);
-                    changePinBtn.setEnabled(true);
-                    purchaseBtn.setEnabled(true);
-                    topupBtn.setEnabled(true);
-                });
+    /**
+     * Đã xác thực (CardService đã broadcast sang Staff): hiển thị và mở các chức năng. Chạy trên EDT.
+     */
+    private void onLoggedIn(CardData card) {
+        currentCard = card;
+        infoArea.append("✅ PIN chính xác!\n\n");
+        displayCardInfo();
+
+        statusLabel.setText("Quẹt thẻ thành công!");
+        statusLabel.setForeground(new Color(50, 150, 50));
+
+        personalInfoBtn.setEnabled(true);
+        renewBtn.setEnabled(true);
+        changePinBtn.setEnabled(true);
+        purchaseBtn.setEnabled(true);
+        topupBtn.setEnabled(true);
+    }
 
-            } catch (Exception ex) {
-                infoArea.append("[LỖI] " + ex.getMessage() + "\n");
-                statusLabel.setText("Lỗi: " + ex.getMessage());
-                statusLabel.setForeground(Color.RED);
-            } finally {
-                swipeBtn.setEnabled(true);
-            }
-        }).start();
+    private void onLoginFailed(CardService.Result r) {
+        if (r.status == CardService.Status.LOCKED) {
+            JOptionPane.showMessageDialog(this, r.message);
+        } else {
+            reportFailure("Quẹt thẻ", r);
+        }
+        statusLabel.setText(r.status == CardService.Status.PIN_FAILED || r.status == CardService.Status.PIN_REQUIRED
+                ? "Thất bại: Sai PIN" : "Lỗi: " + r.message);
+        statusLabel.setForeground(Color.RED);
     }
 
     private void displayCardInfo() {
@@ -353,49 +416,33 @@ public class CustomerWindow extends JFrame {
             return;
         }
 
-        // 💰 Bảng giá gói tập
-        String[] packages = {
-            "1 Ngày - 50,000 VND",
-            "1 Tuần - 300,000 VND",
-            "1 Tháng - 1,000,000 VND",
-            "3 Tháng - 2,700,000 VND",
-            "1 Năm - 10,000,000 VND"
-        };
+        // 💰 Bảng giá gói tập (PackageCatalog, đã áp khuyến mãi cho thẻ này)
+        java.util.List<PackageCatalog.Quote> quotes =
+                PackageCatalog.getInstance().quoteAll(currentCard, java.time.LocalDate.now());
+        if (quotes.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Chưa cấu hình gói tập!");
+            return;
+        }
+        PackageCatalog.Quote[] options = quotes.toArray(new PackageCatalog.Quote[0]);
         
-        String selected = (String) JOptionPane.showInputDialog(
+        PackageCatalog.Quote quote = (PackageCatalog.Quote) JOptionPane.showInputDialog(
             this, 
             "Chọn gói gia hạn:", 
             "Gia Hạn Gói Tập", 
             JOptionPane.QUESTION_MESSAGE, 
             null, 
-            packages, 
-            packages[0]
+            options, 
+            options[0]
         );
         
-        if (selected == null) return;
+        if (quote == null) return;
 
-        int daysToAdd = 0;
-        int price = 0;
-        
-        if (selected.contains("1 Ngày")) {
-            daysToAdd = 1;
-            price = 50000;
-        } else if (selected.contains("1 Tuần")) {
-            daysToAdd = 7;
-            price = 300000;
-        } else if (selected.contains("1 Tháng") && !selected.contains("3")) {
-            daysToAdd = 30;
-            price = 1000000;
-        } else if (selected.contains("3 Tháng")) {
-            daysToAdd = 90;
-            price = 2700000;
-        } else if (selected.contains("1 Năm")) {
-            daysToAdd = 365;
-            price = 10000000;
-        }
+        String selected = quote.pkg.name;
+        int daysToAdd = quote.pkg.days;
+        int price = quote.price;
         
         // Kiểm tra số dư
-        if (currentCard.balance < price) {
+        if (!CardService.canAfford(currentCard, price)) {
             JOptionPane.showMessageDialog(
                 this, 
                 "❌ Số dư không đủ!\n💰 Cần: " + String.format("%,d VND", price) + "\n💳 Có: " + String.format("%,d VND", currentCard.balance), 
@@ -411,7 +458,8 @@ public class CustomerWindow extends JFrame {
             this, 
             "Xác nhận gia hạn:\n" +
             "📦 Gói: " + selected + "\n" +
-            "💰 Giá: " + String.format("%,d VND", price) + "\n" +
+            "💰 Giá: " + String.format("%,d VND", price) +
+                (quote.promo != null ? " (" + quote.promo.label + ")" : "") + "\n" +
             "📅 Thêm: " + daysToAdd + " ngày\n" +
             "💳 Số dư sau: " + String.format("%,d VND", currentCard.balance - price), 
             "Xác Nhận", 
@@ -420,42 +468,24 @@ public class CustomerWindow extends JFrame {
         
         if (confirm != JOptionPane.YES_OPTION) return;
 
-        // 🔐 Xác thực PIN trước khi ghi
-        if (!verifyPinDialog()) {
-            infoArea.append("[HỦY] Không thể xác thực PIN\n");
-            return;
-        }
+        // 🔐 PIN nếu hết phiên (VERIFY gửi cùng thao tác ghi)
+        Byte pin = pinIfNeeded();
 
-        try {
-            // Trừ tiền và cộng ngày
-            currentCard.balance = currentCard.balance - price;
-            currentCard.expiryDays = (short) (currentCard.expiryDays + daysToAdd);
-
-            infoArea.append("\n[TIẾN HÀNH] Gia hạn " + selected + "...\n");
-
-            // Write updated card
-            javax.smartcardio.CommandAPDU writeCmd = CardHelper.buildWriteCommand(currentCard);
-            javax.smartcardio.ResponseAPDU writeResp = pcsc.transmit(writeCmd);
-
-            if ((writeResp.getSW() & 0xFF00) == 0x9000) {
-                infoArea.append("[OK] Gia hạn thành công!\n");
-                infoArea.append("💰 Đã trừ: " + String.format("%,d VND", price) + "\n");
-                infoArea.append("📅 Gia hạn: +" + daysToAdd + " ngày\n");
-                infoArea.append("📆 Hạn mới: " + currentCard.expiryDays + " ngày\n");
-                infoArea.append("💳 Số dư còn: " + String.format("%,d VND", currentCard.balance) + "\n");
-                displayCardInfo();
-                
-                // 🔄 Broadcast để Staff thấy thay đổi
-                CardEventBroadcaster.getInstance().broadcastCardSwipe(currentCard);
-            } else {
-                infoArea.append("[LỖI] Gia hạn thất bại\n");
-                // Rollback
-                currentCard.balance = currentCard.balance + price;
-                currentCard.expiryDays = (short) (currentCard.expiryDays - daysToAdd);
+        infoArea.append("\n[TIẾN HÀNH] Gia hạn " + selected + "...\n");
+
+        // Trừ tiền và cộng ngày atomic trên thẻ (EXTEND), currentCard cập nhật theo thẻ
+        onEdt(service.renew(currentCard, quote, pin), r -> {
+            if (!r.isOk()) {
+                reportFailure("Gia hạn thất bại", r);
+                return;
             }
-        } catch (Exception ex) {
-            infoArea.append("[LỖI] " + ex.getMessage() + "\n");
-        }
+            infoArea.append("[OK] Gia hạn thành công!\n");
+            infoArea.append("💰 Đã trừ: " + String.format("%,d VND", price) + "\n");
+            infoArea.append("📅 Gia hạn: +" + daysToAdd + " ngày\n");
+            infoArea.append("📆 Hạn mới: " + currentCard.expiryDays + " ngày\n");
+            infoArea.append("💳 Số dư còn: " + String.format("%,d VND", currentCard.balance) + "\n");
+            displayCardInfo();
+        });
     }
 
     private void changePin() {
@@ -485,17 +515,6 @@ public class CustomerWindow extends JFrame {
             return;
         }
 
-        // ✅ VERIFY PIN TRÊN THẺ (KHÔNG SO SÁNH Ở CLIENT)
-        javax.smartcardio.CommandAPDU verifyCmd =
-                CardHelper.buildVerifyPinCommand(oldPin);
-        javax.smartcardio.ResponseAPDU verifyResp = pcsc.transmit(verifyCmd);
-
-        if (verifyResp.getSW() != 0x9000) {
-            String status = CardHelper.parsePinStatus(verifyResp.getSW());
-            JOptionPane.showMessageDialog(this, "❌ " + status);
-            return;
-        }
-
         // 🔁 Nhập PIN mới
         JPasswordField newPinField = new JPasswordField();
         opt = JOptionPane.showConfirmDialog(
@@ -516,26 +535,22 @@ public class CustomerWindow extends JFrame {
             return;
         }
 
-        // 🔄 Cập nhật PIN + reset retry counter
-        currentCard.pinRetry = CardData.MAX_PIN_RETRY; // ví dụ là 5
         infoArea.append("\n[TIẾN HÀNH] Đổi PIN...\n");
 
-        javax.smartcardio.CommandAPDU writeCmd =
-                CardHelper.buildWriteCommand(currentCard);
-        javax.smartcardio.ResponseAPDU writeResp = pcsc.transmit(writeCmd);
-
-        if ((writeResp.getSW() & 0xFF00) == 0x9000) {
+        // ✅ VERIFY PIN cũ TRÊN THẺ (KHÔNG SO SÁNH Ở CLIENT), rồi ghi PIN mới + reset retry counter
+        onEdt(service.changePin(currentCard, oldPin, newPin), r -> {
+            if (r.status == CardService.Status.PIN_FAILED) {
+                JOptionPane.showMessageDialog(this, "❌ " + r.message);
+                return;
+            }
+            if (!r.isOk()) {
+                infoArea.append("[LỖI] Đổi PIN thất bại - " + r + "\n");
+                return;
+            }
             infoArea.append("[OK] Đổi PIN thành công!\n");
             JOptionPane.showMessageDialog(this, "✅ Đổi PIN thành công!");
             displayCardInfo();
-
-            // 🔄 Sync cho Staff
-            CardEventBroadcaster.getInstance()
-                    .broadcastCardSwipe(currentCard);
-        } else {
-            infoArea.append("[LỖI] Đổi PIN thất bại\n");
-        }
-
+        });
     } catch (Exception ex) {
         infoArea.append("[LỖI] " + ex.getMessage() + "\n");
     }
@@ -547,8 +562,12 @@ public class CustomerWindow extends JFrame {
             JOptionPane.showMessageDialog(this, "Vui lòng quẹt thẻ trước");
             return;
         }
-        StoreManager store = new StoreManager();
-        java.util.List<StoreItem> cart = new java.util.ArrayList<>();
+        StoreManager store = StoreManager.getInstance();
+        // Một snapshot cho cả lần mở cửa hàng: danh mục nạp lại giữa chừng không làm lệch chỉ số JList
+        java.util.List<StoreItem> catalogItems = store.snapshot().getItems();
+        Cart cart = new Cart();
+        // Hàng trong giỏ được giữ trong kho tới khi thanh toán / đóng cửa hàng
+        StockLedger.Reservation hold = store.openCart();
 
         // Dialog chọn hàng
         JFrame shopFrame = new JFrame("Cửa Hàng Gym");
@@ -564,8 +583,10 @@ public class CustomerWindow extends JFrame {
         leftPanel.add(itemsLabel, BorderLayout.NORTH);
 
         DefaultListModel<String> listModel = new DefaultListModel<>();
-        for (StoreItem item : store.getItems()) {
-            listModel.addElement(item.name + " - " + item.price + "₫");
+        for (StoreItem item : catalogItems) {
+            int available = store.getAvailable(item);
+            listModel.addElement(item.name + " - " + item.price + "₫"
+                    + (available >= 0 ? " (còn " + available + ")" : ""));
         }
 
         JList<String> itemList = new JList<>(listModel);
@@ -581,22 +602,14 @@ public class CustomerWindow extends JFrame {
         addBtn.addActionListener(e -> {
             int idx = itemList.getSelectedIndex();
             if (idx >= 0) {
-                StoreItem item = store.getItems().get(idx);
+                StoreItem item = catalogItems.get(idx);
                 int qty = (Integer) quantitySpinner.getValue();
-                
-                boolean found = false;
-                for (StoreItem cartItem : cart) {
-                    if (cartItem.id == item.id) {
-                        cartItem.quantity += qty;
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found) {
-                    StoreItem newItem = new StoreItem(item.id, item.name, item.price);
-                    newItem.quantity = qty;
-                    cart.add(newItem);
+                if (!store.reserve(hold, item, qty)) {
+                    JOptionPane.showMessageDialog(shopFrame,
+                        "❌ Không đủ hàng!\n📦 Còn: " + Math.max(0, store.getAvailable(item)));
+                    return;
                 }
+                cart.add(item, qty);
             }
         });
 
@@ -626,11 +639,17 @@ public class CustomerWindow extends JFrame {
                 if (newQty != null) {
                     try {
                         int qty = Integer.parseInt(newQty);
-                        if (qty <= 0) {
-                            cart.remove(cartIdx);
-                        } else {
-                            cart.get(cartIdx).quantity = qty;
+                        Cart.Line line = cart.getLine(cartIdx);
+                        int delta = Math.max(qty, 0) - line.getQuantity();
+                        if (delta > 0 && !store.reserve(hold, line.item, delta)) {
+                            JOptionPane.showMessageDialog(shopFrame,
+                                "❌ Không đủ hàng!\n📦 Còn: " + Math.max(0, store.getAvailable(line.item)));
+                            return;
                         }
+                        if (delta < 0) {
+                            store.release(hold, line.item, -delta);
+                        }
+                        cart.setQuantity(cartIdx, qty);
                     } catch (Exception ex) {
                         JOptionPane.showMessageDialog(shopFrame, "Nhập số lượng hợp lệ");
                     }
@@ -642,6 +661,8 @@ public class CustomerWindow extends JFrame {
         removeBtn.addActionListener(e -> {
             int cartIdx = cartList.getSelectedIndex();
             if (cartIdx >= 0) {
+                Cart.Line line = cart.getLine(cartIdx);
+                store.release(hold, line.item, line.getQuantity());
                 cart.remove(cartIdx);
             }
         });
@@ -665,103 +686,70 @@ public class CustomerWindow extends JFrame {
         checkoutBtn.setBackground(new Color(100, 200, 100));
         checkoutBtn.setForeground(Color.WHITE);
 
-        checkoutBtn.addActionListener(e -> {
-            int totalPrice = store.getTotalPrice(cart);
-            if (cart.isEmpty()) {
-                JOptionPane.showMessageDialog(shopFrame, "Giỏ hàng trống!");
-                return;
-            }
+        // Đang chờ xác nhận / thẻ trừ tiền: khóa giỏ để đơn thanh toán đúng là đơn nhân viên đã thấy
+        JComponent[] cartControls = {addBtn, quantitySpinner, updateBtn, removeBtn, checkoutBtn};
 
-            if (currentCard.balance < totalPrice) {
-                JOptionPane.showMessageDialog(shopFrame, 
-                    "❌ Số dư không đủ!\n💰 Cần: " + String.format("%,d VND", totalPrice) + 
-                    "\n💳 Có: " + String.format("%,d VND", currentCard.balance));
+        checkoutBtn.addActionListener(e -> {
+            CardService.Result invalid = CardService.checkCart(currentCard, cart);
+            if (invalid != null) {
+                JOptionPane.showMessageDialog(shopFrame, invalid.status == CardService.Status.INSUFFICIENT_FUNDS
+                    ? "❌ Số dư không đủ!\n💰 Cần: " + String.format("%,d VND", cart.getTotal()) +
+                      "\n💳 Có: " + String.format("%,d VND", currentCard.balance)
+                    : invalid.message);
                 return;
             }
-
-            // Hiển thị bill
-            StringBuilder bill = new StringBuilder();
-            bill.append("=== HOÁ ĐƠN ===\n");
-            for (StoreItem item : cart) {
-                bill.append(item.name).append(" x").append(item.quantity)
-                    .append(" = ").append(String.format("%,d", item.quantity * item.price)).append("₫\n");
-            }
-            bill.append("---\n");
-            bill.append("💰 TỔNG CỘNG: " + String.format("%,d", totalPrice) + "₫\n\n");
-            bill.append("Vui lòng chờ nhân viên xác nhận...");
+            // Chụp đơn một lần: gửi xác nhận và trừ tiền đúng đơn này
+            Cart order = cart.copy();
+            int totalPrice = (int) order.getTotal();
+            setCartLocked(shopFrame, cartControls, true);
 
             infoArea.append("\n[CHỜ XÁC NHẬN] Gửi đơn hàng:\n");
-            for (StoreItem item : cart) {
-                infoArea.append("  - " + item.name + " x" + item.quantity + "\n");
+            for (Cart.Line line : order.getLines()) {
+                infoArea.append("  - " + line.item.name + " x" + line.getQuantity() + "\n");
             }
             infoArea.append("Tổng: " + String.format("%,d VND", totalPrice) + "\n");
             infoArea.append("[⏳] Đang chờ nhân viên xác nhận...\n");
-            
-            // Tạo danh sách items để gửi approval
-            List<CardEventBroadcaster.CartItem> approvalItems = new ArrayList<>();
-            for (StoreItem item : cart) {
-                approvalItems.add(new CardEventBroadcaster.CartItem(item, item.quantity));
-            }
-            
-            final int finalTotalPrice = totalPrice;
-            
-            // Chạy approval trong background thread
-            new Thread(() -> {
-                boolean approved = CardEventBroadcaster.getInstance()
-                    .requestPurchaseApproval(approvalItems, finalTotalPrice);
-                
-                SwingUtilities.invokeLater(() -> {
-                    if (!approved) {
-                        infoArea.append("[✗ TỪ CHỐI] Nhân viên từ chối đơn hàng!\n");
-                        JOptionPane.showMessageDialog(
-                            shopFrame, 
-                            "❌ Nhân viên từ chối đơn hàng!", 
-                            "Thất Bại", 
-                            JOptionPane.ERROR_MESSAGE
-                        );
-                        return;
-                    }
-                    
-                    infoArea.append("[✓ CHẤP NHẬN] Nhân viên đã xác nhận!\n");
-                    if (!verifyPinDialog()) {
-                        infoArea.append("[HỦY] Xác thực PIN thất bại\n");
+
+            // Approval bất đồng bộ: không giữ thread nào trong lúc chờ nhân viên
+            onEdt(service.checkout(currentCard, order), approval -> {
+                if (!approval.isOk()) {
+                    setCartLocked(shopFrame, cartControls, false);
+                    reportFailure("Thanh toán", approval);
+                    JOptionPane.showMessageDialog(
+                        shopFrame,
+                        "❌ " + approval.message + "!",
+                        "Thất Bại",
+                        JOptionPane.ERROR_MESSAGE
+                    );
+                    return;
+                }
+
+                infoArea.append("[✓ CHẤP NHẬN] Nhân viên đã xác nhận!\n");
+
+                // Còn phiên PIN → DEBIT; chưa có → hỏi PIN, gửi VERIFY+DEBIT một APDU.
+                // Thẻ tự trừ tiền SAU KHI được xác nhận, thành công thì trừ kho + broadcast
+                Byte pin = pinIfNeeded();
+                onEdt(service.pay(currentCard, hold, order, pin), r -> {
+                    setCartLocked(shopFrame, cartControls, false);
+                    if (!r.isOk()) {
+                        reportFailure("Thanh toán thất bại", r);
                         return;
-}
-                    // ✅ Trừ tiền ĐÚNG - SAU KHI được xác nhận
-                    currentCard.balance = currentCard.balance - finalTotalPrice;
-                    
-                    try {
-                        javax.smartcardio.CommandAPDU writeCmd = CardHelper.buildWriteCommand(currentCard);
-                        javax.smartcardio.ResponseAPDU writeResp = pcsc.transmit(writeCmd);
-
-                        if ((writeResp.getSW() & 0xFF00) == 0x9000) {
-                            infoArea.append("[OK] Thanh toán thành công!\n");
-                            infoArea.append("Số dư mới: " + String.format("%,d VND", currentCard.balance) + "\n");
-                            displayCardInfo();
-                            
-                            // 🔄 Broadcast để Staff thấy số dư mới
-                            CardEventBroadcaster.getInstance().broadcastCardSwipe(currentCard);
-                            
-                            JOptionPane.showMessageDialog(
-                                shopFrame, 
-                                "✅ Thanh toán thành công!\n💰 Số dư còn: " + String.format("%,d VND", currentCard.balance), 
-                                "Hoàn Tất", 
-                                JOptionPane.INFORMATION_MESSAGE
-                            );
-                            
-                            cart.clear();
-                            shopFrame.dispose();
-                        } else {
-                            infoArea.append("[LỖI] Thanh toán thất bại\n");
-                            // Rollback
-                            currentCard.balance = currentCard.balance + finalTotalPrice;
-                        }
-                    } catch (Exception ex) {
-                        infoArea.append("[LỖI] " + ex.getMessage() + "\n");
-                        currentCard.balance = currentCard.balance + finalTotalPrice;
                     }
+                    infoArea.append("[OK] Thanh toán thành công!\n");
+                    infoArea.append("Số dư mới: " + String.format("%,d VND", currentCard.balance) + "\n");
+                    displayCardInfo();
+
+                    JOptionPane.showMessageDialog(
+                        shopFrame,
+                        "✅ Thanh toán thành công!\n💰 Số dư còn: " + String.format("%,d VND", currentCard.balance),
+                        "Hoàn Tất",
+                        JOptionPane.INFORMATION_MESSAGE
+                    );
+
+                    cart.clear();
+                    shopFrame.dispose();
                 });
-            }).start();
+            });
         });
 
         bottomPanel.add(totalLabel, BorderLayout.WEST);
@@ -772,21 +760,46 @@ public class CustomerWindow extends JFrame {
         shopFrame.add(rightPanel, BorderLayout.EAST);
         shopFrame.add(bottomPanel, BorderLayout.SOUTH);
 
-        // Cập nhật giỏ khi click item
-        javax.swing.Timer updateTimer = new javax.swing.Timer(100, e -> {
-            cartModel.clear();
-            int total = 0;
-            for (StoreItem item : cart) {
-                cartModel.addElement(item.name + " x" + item.quantity + " = " + String.format("%,d", item.quantity * item.price) + "₫");
-                total += item.quantity * item.price;
+        // Đóng cửa hàng mà chưa thanh toán → trả hàng về kho (đã commit thì không làm gì)
+        shopFrame.addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosed(java.awt.event.WindowEvent e) {
+                store.releaseAll(hold);
+            }
+        });
+
+        // Cập nhật giỏ chỉ khi giỏ đổi, đúng dòng bị đổi
+        cart.addListener((c, change, index) -> {
+            switch (change) {
+                case ADDED:
+                    cartModel.addElement(c.getLine(index).toString());
+                    break;
+                case UPDATED:
+                    cartModel.set(index, c.getLine(index).toString());
+                    break;
+                case REMOVED:
+                    cartModel.remove(index);
+                    break;
+                default:
+                    cartModel.clear();
             }
-            totalLabel.setText("💰 Tổng tiền: " + String.format("%,d VND", total));
+            totalLabel.setText("💰 Tổng tiền: " + String.format("%,d VND", c.getTotal()));
         });
-        updateTimer.start();
 
         shopFrame.setVisible(true);
     }
 
+    /**
+     * Khóa / mở các nút sửa giỏ và không cho đóng cửa hàng (đóng = trả hàng về kho)
+     * trong lúc đơn đang chờ xác nhận hoặc đang trừ tiền
+     */
+    private static void setCartLocked(JFrame shopFrame, JComponent[] controls, boolean locked) {
+        for (JComponent c : controls) {
+            c.setEnabled(!locked);
+        }
+        shopFrame.setDefaultCloseOperation(locked ? JFrame.DO_NOTHING_ON_CLOSE : JFrame.DISPOSE_ON_CLOSE);
+    }
+
     private void topupBalance() {
         if (currentCard == null) {
             JOptionPane.showMessageDialog(this, "Vui lòng quẹt thẻ trước");
@@ -843,33 +856,24 @@ public class CustomerWindow extends JFrame {
             return;
         }
         
-        // Nếu chọn QR, hiển thị mã QR
+        // Nếu chọn QR, hiển thị mã QR (nạp + scale sẵn lúc khởi động)
         if (paymentMethod.contains("QR")) {
-            try {
-                java.io.File qrFile = new java.io.File("resources/qr-code.png");
-                if (qrFile.exists()) {
-                    javax.swing.ImageIcon qrIcon = new javax.swing.ImageIcon(qrFile.getAbsolutePath());
-                    // Scale ảnh về 300x300
-                    java.awt.Image scaledImage = qrIcon.getImage().getScaledInstance(300, 300, java.awt.Image.SCALE_SMOOTH);
-                    qrIcon = new javax.swing.ImageIcon(scaledImage);
-                    
-                    JOptionPane.showMessageDialog(
-                        this, 
-                        qrIcon, 
-                        "📱 Quét Mã QR - Số tiền: " + String.format("%,d VND", amount), 
-                        JOptionPane.PLAIN_MESSAGE
-                    );
-                    infoArea.append("[QR] Đã hiển thị mã QR cho khách hàng\n");
-                } else {
-                    JOptionPane.showMessageDialog(this, 
-                        "⚠ Không tìm thấy file QR code!\nĐặt file 'qr-code.png' vào thư mục 'resources'", 
-                        "Thiếu File", 
-                        JOptionPane.WARNING_MESSAGE
-                    );
-                    infoArea.append("[CẢNH BÁO] Không tìm thấy file QR\n");
-                }
-            } catch (Exception ex) {
-                infoArea.append("[LỖI QR] " + ex.getMessage() + "\n");
+            javax.swing.ImageIcon qrIcon = UiResources.getQrCode();
+            if (qrIcon != null) {
+                JOptionPane.showMessageDialog(
+                    this, 
+                    qrIcon, 
+                    "📱 Quét Mã QR - Số tiền: " + String.format("%,d VND", amount), 
+                    JOptionPane.PLAIN_MESSAGE
+                );
+                infoArea.append("[QR] Đã hiển thị mã QR cho khách hàng\n");
+            } else {
+                JOptionPane.showMessageDialog(this, 
+                    "⚠ Không tìm thấy file QR code!\nĐặt file 'qr-code.png' vào thư mục 'resources'", 
+                    "Thiếu File", 
+                    JOptionPane.WARNING_MESSAGE
+                );
+                infoArea.append("[CẢNH BÁO] Không tìm thấy file QR\n");
             }
         } else {
             infoArea.append("[TIỀN MẶT] Nhận tiền mặt từ khách hàng\n");
@@ -881,66 +885,37 @@ public class CustomerWindow extends JFrame {
         final int finalAmount = amount;
         final String finalPaymentMethod = paymentMethod;
         
-        // Chạy approval trong background thread để không block UI
-        new Thread(() -> {
-
-    boolean approved = CardEventBroadcaster.getInstance()
-        .requestTopupApproval(finalAmount, finalPaymentMethod);
-
-    if (!approved) {
-        SwingUtilities.invokeLater(() ->
-            infoArea.append("[✗ TỪ CHỐI] Nhân viên từ chối giao dịch\n")
-        );
-        return;
-    }
-
-    SwingUtilities.invokeLater(() -> {
-        infoArea.append("[✓ CHẤP NHẬN] Nhân viên đã xác nhận!\n");
-        
-        // 🔐 VERIFY PIN – Phải chạy trong EDT để dialog hiển thị đúng
-        if (!verifyPinDialog()) {
-            infoArea.append("[HỦY] Xác thực PIN thất bại\n");
-            return;
-        }
+        // Approval bất đồng bộ: không giữ thread nào trong lúc chờ nhân viên
+        onEdt(service.requestTopup(currentCard, finalAmount, finalPaymentMethod), approval -> {
+            if (!approval.isOk()) {
+                reportFailure("Nạp tiền", approval);
+                return;
+            }
 
-        // 💾 WRITE – Sau khi PIN đã verify
-        currentCard.balance += finalAmount;
+            infoArea.append("[✓ CHẤP NHẬN] Nhân viên đã xác nhận!\n");
 
-        try {
-            javax.smartcardio.CommandAPDU writeCmd =
-                CardHelper.buildWriteCommand(currentCard);
-            javax.smartcardio.ResponseAPDU writeResp =
-                pcsc.transmit(writeCmd);
+            // 🔐 PIN nếu hết phiên – dialog chạy trên EDT, VERIFY gửi cùng thao tác nạp
+            Byte pin = pinIfNeeded();
 
-            if (writeResp.getSW() == 0x9000) {
+            // 💾 CREDIT – thẻ tự cộng số dư
+            onEdt(service.credit(currentCard, finalAmount, pin), r -> {
+                if (!r.isOk()) {
+                    reportFailure("Nạp tiền thất bại", r);
+                    return;
+                }
                 infoArea.append("[OK] Nạp tiền thành công!\n");
                 infoArea.append("💰 Đã nạp: " + String.format("%,d VND", finalAmount) + "\n");
                 infoArea.append("💳 Số dư mới: " + String.format("%,d VND", currentCard.balance) + "\n");
                 displayCardInfo();
-                CardEventBroadcaster.getInstance()
-                    .broadcastCardSwipe(currentCard);
-            } else {
-                infoArea.append("[LỖI] Nạp tiền thất bại (SW: " +
-                    Integer.toHexString(writeResp.getSW()) + ")\n");
-                // Rollback
-                currentCard.balance -= finalAmount;
-            }
-
-        } catch (Exception e) {
-            infoArea.append("[LỖI] " + e.getMessage() + "\n");
-            // Rollback
-            currentCard.balance -= finalAmount;
-        }
-    });
-
-}).start();
-
+            });
+        });
     }
 
     public static void main(String[] args) {
         try {
             PcscClient pcsc = new PcscClient();
             SwingUtilities.invokeLater(() -> new CustomerWindow(pcsc));
+            new CardPresenceMonitor(pcsc).start();
         } catch (Exception e) {
             JOptionPane.showMessageDialog(null, "Lỗi: " + e.getMessage());
         }
@@ -1,6 +1,5 @@
 import javax.swing.*;
 import java.awt.*;
-import java.util.List;
 
 /**
  * Panel bên phải - Hiển thị chức năng theo role (Employee / Admin)
@@ -11,11 +10,10 @@ public class FunctionPanel extends JPanel {
     private final JPanel controlPanel;
     private final JLabel roleLabel;
     private String currentRole;
-    private final PcscClient pcsc;
+    private volatile CardService service; // null tới khi PC/SC sẵn sàng
     private CardData currentCard;
 
-    public FunctionPanel(PcscClient pcsc) {
-        this.pcsc = pcsc;
+    public FunctionPanel() {
         this.currentRole = "EMPLOYEE"; // Mặc định
 
         setLayout(new BorderLayout());
@@ -26,14 +24,9 @@ public class FunctionPanel extends JPanel {
             SwingUtilities.invokeLater(() -> displayCardInfo(card));
         });
         
-        // Register as purchase approval listener
-        CardEventBroadcaster.getInstance().addPurchaseListener((items, totalPrice) -> {
-            return showPurchaseApprovalDialog(items, totalPrice);
-        });
-        
-        // Register as topup approval listener
-        CardEventBroadcaster.getInstance().addTopupListener((amount, paymentMethod) -> {
-            return showTopupApprovalDialog(amount, paymentMethod);
+        // Register as approval console (mua hàng + nạp tiền) - không block thread gửi
+        CardEventBroadcaster.getInstance().addApprovalListener(request -> {
+            SwingUtilities.invokeLater(() -> showApprovalDialog(request));
         });
 
         // Top: Tiêu đề vai trò - Modern gradient
@@ -91,6 +84,10 @@ public class FunctionPanel extends JPanel {
         swipeBtn.addActionListener(e -> readCustomerCard());
         controlPanel.add(swipeBtn);
 
+        JButton lookupBtn = createModernButton("🔎 Tra Cứu ID", new Color(0, 150, 136));
+        lookupBtn.addActionListener(e -> lookupMember());
+        controlPanel.add(lookupBtn);
+
         controlPanel.revalidate();
         controlPanel.repaint();
     }
@@ -106,7 +103,15 @@ public class FunctionPanel extends JPanel {
         JButton swipeBtn = createModernButton("Quẹt Thẻ", new Color(255, 152, 0));
         swipeBtn.addActionListener(e -> readCustomerCard());
         controlPanel.add(swipeBtn);
+
+        JButton lookupBtn = createModernButton("Tra Cứu ID", new Color(0, 150, 136));
+        lookupBtn.addActionListener(e -> lookupMember());
+        controlPanel.add(lookupBtn);
         
+        JButton restockBtn = createModernButton("Nhập Kho", new Color(121, 85, 72));
+        restockBtn.addActionListener(e -> restockItem());
+        controlPanel.add(restockBtn);
+
         JButton deleteBtn = createModernButton("Xóa Thẻ", new Color(244, 67, 54));
         deleteBtn.addActionListener(e -> deleteCard());
         controlPanel.add(deleteBtn);
@@ -127,52 +132,57 @@ public class FunctionPanel extends JPanel {
         }
     }
 
-    private void readCustomerCard() {
-        logArea.setText("");
-        logArea.append("[TIẾN HÀNH] Đặt thẻ vào đúng vị trí...\n");
-
-        new Thread(() -> {
-            try {
-                Thread.sleep(500);
-                pcsc.connectFirstPresentOrFirst();
-                logArea.append("[OK] Kết nối thẻ thành công!\n\n");
-
-                // Select applet
-                javax.smartcardio.CommandAPDU selectCmd = new javax.smartcardio.CommandAPDU(0x00, 0xA4, 0x04, 0x00,
-                        new byte[]{(byte)0x26,(byte)0x12,(byte)0x20,(byte)0x03,(byte)0x20,(byte)0x03,(byte)0x00});
-                javax.smartcardio.ResponseAPDU selectResp = pcsc.transmit(selectCmd);
-
-                if ((selectResp.getSW() & 0xFF00) != 0x9000) {
-                    logArea.append("[LỖI] Không kết nối được applet\n");
-                    return;
-                }
+    /**
+     * Gắn đầu đọc (panel được dựng trước khi PC/SC sẵn sàng)
+     */
+    public void setReader(PcscClient pcsc) {
+        service = new CardService(pcsc);
+    }
 
-                // Read
-                javax.smartcardio.CommandAPDU readCmd = CardHelper.buildReadCommand();
-                javax.smartcardio.ResponseAPDU readResp = pcsc.transmit(readCmd);
+    private boolean readerReady() {
+        if (service == null) {
+            logArea.append("[LỖI] Đầu đọc chưa sẵn sàng\n");
+            return false;
+        }
+        return true;
+    }
 
-                if ((readResp.getSW() & 0xFF00) != 0x9000) {
-                    logArea.append("[LỖI] Không đọc được dữ liệu\n");
-                    return;
-                }
+    private void readCustomerCard() {
+        if (!readerReady()) return;
+        logArea.setText("");
+        logArea.append("[TIẾN HÀNH] Đang đọc thẻ...\n");
 
-                currentCard = CardHelper.parseReadResponse(readResp.getData());
-                logArea.append("==== THÔNG TIN KHÁCH HÀNG ====\n");
-                if (currentCard.fullName != null && !currentCard.fullName.isEmpty()) {
-                    logArea.append("👤 Họ Tên: " + currentCard.fullName + "\n");
+        // Chạy trên executor I/O của đầu đọc: không chen APDU với monitor / cửa sổ khách
+        service.readCard(true).thenAccept(r -> SwingUtilities.invokeLater(() -> {
+            if (!r.isOk()) {
+                logArea.append("[LỖI] " + r.message + "\n");
+                return;
+            }
+            currentCard = r.card;
+            logArea.append("[OK] Kết nối thẻ thành công!\n\n");
+            logArea.append("==== THÔNG TIN KHÁCH HÀNG ====\n");
+            if (currentCard.fullName != null && !currentCard.fullName.isEmpty()) {
+                logArea.append("👤 Họ Tên: " + currentCard.fullName + "\n");
+            }
+            logArea.append("🎂 Ngày Sinh: " + currentCard.getDobString() + "\n");
+            logArea.append("🎫 ID: " + currentCard.userId + "\n");
+            logArea.append("💰 Số Dư: " + String.format("%,d VND", currentCard.balance) + "\n");
+            logArea.append("📅 Hạn Tập: " + currentCard.expiryDays + " ngày\n");
+
+            // Lịch sử giao dịch trên thẻ (một lệnh READ LOG + GET RESPONSE)
+            if (r.history == null) {
+                logArea.append("\n(Applet chưa hỗ trợ lịch sử giao dịch)\n");
+            } else {
+                logArea.append("\n==== LỊCH SỬ GIAO DỊCH (" + r.history.size() + ") ====\n");
+                for (int i = r.history.size() - 1; i >= 0; i--) {
+                    logArea.append("  " + r.history.get(i) + "\n");
                 }
-                logArea.append("🎂 Ngày Sinh: " + currentCard.getDobString() + "\n");
-                logArea.append("🎫 ID: " + currentCard.userId + "\n");
-                logArea.append("💰 Số Dư: " + String.format("%,d VND", currentCard.balance) + "\n");
-                logArea.append("📅 Hạn Tập: " + currentCard.expiryDays + " ngày\n");
-
-            } catch (Exception ex) {
-                logArea.append("[LỖI] " + ex.getMessage() + "\n");
             }
-        }).start();
+        }));
     }
 
     private void createNewCard() {
+        if (!readerReady()) return;
         JPanel panel = new JPanel(new GridBagLayout());
         panel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
         GridBagConstraints gbc = new GridBagConstraints();
@@ -245,8 +255,7 @@ public class FunctionPanel extends JPanel {
             }
 
             CardData newCard = new CardData();
-            // ID tự động (random hoặc tăng dần)
-            newCard.userId = (int) (Math.random() * 65535) + 1;
+            // userId được cấp trong thao tác ghi thẻ (UserIdAllocator)
             newCard.fullName = fullName;
             newCard.balance = Integer.parseInt(balanceField.getText());
             newCard.expiryDays = (short) Integer.parseInt(expiryField.getText());
@@ -261,54 +270,34 @@ public class FunctionPanel extends JPanel {
             newCard.pin = (byte) (pinValue % 256);
             newCard.pinRetry = 5; // Default 5 attempts
 
-            logArea.append("\n[BƯỚC 1] Kết nối thẻ...\n");
-            pcsc.connectFirstPresentOrFirst();
-            logArea.append("[OK] Kết nối thành công!\n");
-
-            // Select applet
-            logArea.append("[BƯỚC 2] Chọn applet...\n");
-            javax.smartcardio.CommandAPDU selectCmd = new javax.smartcardio.CommandAPDU(0x00, 0xA4, 0x04, 0x00,
-                    new byte[]{(byte)0x26,(byte)0x12,(byte)0x20,(byte)0x03,(byte)0x20,(byte)0x03,(byte)0x00});
-            javax.smartcardio.ResponseAPDU selectResp = pcsc.transmit(selectCmd);
-            
-            if ((selectResp.getSW() & 0xFF00) != 0x9000) {
-                logArea.append("[LỖI] Không chọn được applet (SW: " + 
-                             Integer.toHexString(selectResp.getSW()).toUpperCase() + ")\n");
-                return;
-            }
-            logArea.append("[OK] Applet đã sẵn sàng!\n");
-
-            // Write card data
-            logArea.append("[BƯỚC 3] Ghi dữ liệu vào thẻ...\n");
-            javax.smartcardio.CommandAPDU writeCmd = CardHelper.buildWriteCommand(newCard);
-            javax.smartcardio.ResponseAPDU writeResp = pcsc.transmit(writeCmd);
+            // Kết nối + ghi thẻ + cấp ID + journal + MemberStore trên executor I/O của đầu đọc
+            logArea.append("\n[TIẾN HÀNH] Kết nối thẻ, ghi dữ liệu vào thẻ...\n");
+            service.issue(newCard).thenAccept(r -> SwingUtilities.invokeLater(() -> {
+                if (!r.isOk()) {
+                    logArea.append("[LỖI] " + r + "\n");
+                    return;
+                }
+                logArea.append("[OK] Ghi thẻ thành công!\n\n");
+                logArea.append("════════════════════════════\n");
+                logArea.append("    ✅ TẠO THẺ THÀNH CÔNG\n");
+                logArea.append("════════════════════════════\n");
+                logArea.append("👤 Họ Tên: " + newCard.fullName + "\n");
+                logArea.append("🎂 Ngày Sinh: " + newCard.getDobString() + "\n");
+                logArea.append("🎫 ID Thẻ: " + newCard.userId + "\n");
+                logArea.append("💰 Số Dư: " + String.format("%,d VND", newCard.balance) + "\n");
+                logArea.append("📅 Hạn Tập: " + newCard.expiryDays + " ngày\n");
+                logArea.append("🔐 PIN: " + pinStr + " (mã hóa: " + (pinValue % 256) + ")\n");
+                logArea.append("════════════════════════════\n");
+
+                JOptionPane.showMessageDialog(this,
+                    "✅ Tạo thẻ thành công!\n\n" +
+                    "👤 " + newCard.fullName + "\n" +
+                    "🎫 ID: " + newCard.userId + "\n" +
+                    "🔐 PIN: " + pinStr,
+                    "Thành Công",
+                    JOptionPane.INFORMATION_MESSAGE);
+            }));
 
-            if ((writeResp.getSW() & 0xFF00) != 0x9000) {
-                logArea.append("[LỖI] Ghi thẻ thất bại (SW: " + 
-                             Integer.toHexString(writeResp.getSW()).toUpperCase() + ")\n");
-                return;
-            }
-            
-            logArea.append("[OK] Ghi thẻ thành công!\n\n");
-            logArea.append("════════════════════════════\n");
-            logArea.append("    ✅ TẠO THẺ THÀNH CÔNG\n");
-            logArea.append("════════════════════════════\n");
-            logArea.append("👤 Họ Tên: " + newCard.fullName + "\n");
-            logArea.append("🎂 Ngày Sinh: " + newCard.getDobString() + "\n");
-            logArea.append("🎫 ID Thẻ: " + newCard.userId + "\n");
-            logArea.append("💰 Số Dư: " + String.format("%,d VND", newCard.balance) + "\n");
-            logArea.append("📅 Hạn Tập: " + newCard.expiryDays + " ngày\n");
-            logArea.append("🔐 PIN: " + pinStr + " (mã hóa: " + (pinValue % 256) + ")\n");
-            logArea.append("════════════════════════════\n");
-            
-            JOptionPane.showMessageDialog(this, 
-                "✅ Tạo thẻ thành công!\n\n" +
-                "👤 " + newCard.fullName + "\n" +
-                "🎫 ID: " + newCard.userId + "\n" +
-                "🔐 PIN: " + pinStr,
-                "Thành Công",
-                JOptionPane.INFORMATION_MESSAGE);
-                
         } catch (Exception ex) {
             logArea.append("[LỖI NGHIÊM TRỌNG] " + ex.getMessage() + "\n");
             ex.printStackTrace();
@@ -351,6 +340,73 @@ public class FunctionPanel extends JPanel {
         return new Color(r, g, b);
     }
     
+    /**
+     * Nhập kho (số âm = điều chỉnh giảm) - Admin only
+     */
+    private void restockItem() {
+        java.util.List<StoreItem> items = StoreManager.getInstance().getItems();
+        if (items.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Danh mục hàng hóa trống!");
+            return;
+        }
+        JComboBox<StoreItem> itemBox = new JComboBox<>(items.toArray(new StoreItem[0]));
+        JTextField qtyField = new JTextField("10");
+        JPanel panel = new JPanel(new GridLayout(2, 2, 10, 10));
+        panel.add(new JLabel("📦 Sản phẩm:"));
+        panel.add(itemBox);
+        panel.add(new JLabel("Số lượng nhập:"));
+        panel.add(qtyField);
+        if (JOptionPane.showConfirmDialog(this, panel, "Nhập Kho", JOptionPane.OK_CANCEL_OPTION)
+                != JOptionPane.OK_OPTION) {
+            return;
+        }
+        int qty;
+        try {
+            qty = Integer.parseInt(qtyField.getText().trim());
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(this, "Số lượng không hợp lệ!", "Lỗi", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        StoreItem item = (StoreItem) itemBox.getSelectedItem();
+        StoreManager.getInstance().restock(item, qty);
+        logArea.append("[KHO] " + item.name + ": " + (qty >= 0 ? "+" : "") + qty
+                + " → còn " + StoreManager.getInstance().getAvailable(item) + "\n");
+    }
+
+    /**
+     * Tra cứu hội viên theo ID trong MemberStore (không cần thẻ trên đầu đọc)
+     */
+    private void lookupMember() {
+        String input = JOptionPane.showInputDialog(this, "Nhập ID thẻ (0-65535):", "Tra Cứu Hội Viên",
+                JOptionPane.QUESTION_MESSAGE);
+        if (input == null) return;
+        int userId;
+        try {
+            userId = Integer.parseInt(input.trim());
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(this, "ID không hợp lệ!", "Lỗi", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        MemberStore.Member member = MemberStore.getInstance().get(userId);
+        logArea.setText("");
+        if (member == null) {
+            logArea.append("[KHÔNG TÌM THẤY] Chưa có hội viên ID " + userId + " (hoặc thẻ đã bị xóa)\n");
+            return;
+        }
+        CardData card = member.card;
+        logArea.append("═══ TRA CỨU HỘI VIÊN ═══\n\n");
+        if (card.fullName != null && !card.fullName.isEmpty()) {
+            logArea.append("👤 Họ Tên: " + card.fullName + "\n");
+        }
+        logArea.append("🎂 Ngày Sinh: " + card.getDobString() + "\n");
+        logArea.append("🎫 ID Thẻ: " + card.userId + "\n");
+        logArea.append("💰 Số Dư (lần quẹt cuối): " + String.format("%,d VND", card.balance) + "\n");
+        logArea.append("📅 Hạn Tập: " + card.expiryDays + " ngày\n");
+        logArea.append("Status: " + (card.isLocked() ? "🔒 LOCKED" : "✓ Active") + "\n");
+        logArea.append(String.format("🕒 Hội viên từ: %tF%n", member.firstSeen));
+        logArea.append(String.format("🕒 Lần quẹt cuối: %tF %<tT%n", member.lastSeen));
+    }
+
     /**
      * Display card info when customer swipes (real-time sync)
      */
@@ -364,6 +420,10 @@ public class FunctionPanel extends JPanel {
         logArea.append("🎫 ID Thẻ: " + card.userId + "\n");
         logArea.append("💰 Số Dư: " + String.format("%,d VND", card.balance) + "\n");
         logArea.append("📅 Hạn Tập: " + card.expiryDays + " ngày\n");
+        MemberStore.Member member = MemberStore.getInstance().get(card.userId);
+        if (member != null) {
+            logArea.append(String.format("🕒 Hội viên từ: %tF%n", member.firstSeen));
+        }
         
         if (currentRole.equals("ADMIN")) {
             logArea.append("\n⚠️ ADMIN INFO:\n");
@@ -379,88 +439,82 @@ public class FunctionPanel extends JPanel {
     }
     
     /**
-     * Show purchase approval dialog (called from customer window)
+     * Show approval dialog (called from customer window).
+     * Hộp thoại không modal: nhiều yêu cầu có thể chờ cùng lúc, và tự đóng nếu
+     * quầy khác đã xử lý hoặc yêu cầu hết hạn.
      */
-    private boolean showPurchaseApprovalDialog(List<CardEventBroadcaster.CartItem> items, int totalPrice) {
-        StringBuilder message = new StringBuilder();
-        message.append("YÊU CẦU MUA HÀNG TỪ KHÁCH:\n\n");
-        for (CardEventBroadcaster.CartItem item : items) {
-            message.append("• ").append(item.item.name)
-                   .append(" x").append(item.quantity)
-                   .append(" = ").append(item.item.price * item.quantity).append(" VND\n");
+    private void showApprovalDialog(ApprovalRequest request) {
+        if (!request.isPending()) return;
+
+        String message;
+        String title;
+        String summary;
+        if (request.type == ApprovalRequest.Type.PURCHASE) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("YÊU CẦU MUA HÀNG TỪ KHÁCH:\n\n");
+            for (CardEventBroadcaster.CartItem item : request.items) {
+                sb.append("• ").append(item.item.name)
+                  .append(" x").append(item.quantity)
+                  .append(" = ").append(item.item.price * item.quantity).append(" VND\n");
+            }
+            sb.append("\nTổng cộng: ").append(request.amount).append(" VND\n\n");
+            sb.append("Kiểm tra kho và xác nhận?");
+            message = sb.toString();
+            title = "🛒 Xác Nhận Mua Hàng";
+            summary = "Đơn hàng " + request.amount + " VND";
+        } else {
+            String icon = request.paymentMethod.contains("QR") ? "📱" : "💵";
+            message = "YÊU CẦU NẠP TIỀN TỪ KHÁCH:\n\n" +
+                      icon + " Phương thức: " + request.paymentMethod + "\n" +
+                      "💰 Số tiền: " + String.format("%,d VND", request.amount) + "\n\n" +
+                      "Xác nhận đã nhận tiền?";
+            title = "💳 Xác Nhận Nạp Tiền";
+            summary = "Nạp " + String.format("%,d VND", request.amount) + " (" + request.paymentMethod + ")";
         }
-        message.append("\nTổng cộng: ").append(totalPrice).append(" VND\n\n");
-        message.append("Kiểm tra kho và xác nhận?");
-        
-        int result = JOptionPane.showConfirmDialog(
-            this,
-            message.toString(),
-            "🛒 Xác Nhận Mua Hàng",
-            JOptionPane.YES_NO_OPTION,
-            JOptionPane.QUESTION_MESSAGE
-        );
-        
-        boolean approved = (result == JOptionPane.YES_OPTION);
-        
-        logArea.append("\n" + (approved ? "[✓ CHẤP NHẬN]" : "[✗ TỪ CHỐI]") + " Đơn hàng " + totalPrice + " VND\n");
-        
-        return approved;
-    }
-    
-    private boolean showTopupApprovalDialog(int amount, String paymentMethod) {
-        String icon = paymentMethod.contains("QR") ? "📱" : "💵";
-        String message = "YÊU CẦU NẠP TIỀN TỪ KHÁCH:\n\n" +
-                        icon + " Phương thức: " + paymentMethod + "\n" +
-                        "💰 Số tiền: " + String.format("%,d VND", amount) + "\n\n" +
-                        "Xác nhận đã nhận tiền?";
-        
-        int result = JOptionPane.showConfirmDialog(
-            this,
-            message,
-            "💳 Xác Nhận Nạp Tiền",
-            JOptionPane.YES_NO_OPTION,
-            JOptionPane.QUESTION_MESSAGE
-        );
-        
-        boolean approved = (result == JOptionPane.YES_OPTION);
-        
-        logArea.append("\n" + (approved ? "[✓ CHẤP NHẬN]" : "[✗ TỪ CHỐI]") + 
-                      " Nạp " + String.format("%,d VND", amount) + " (" + paymentMethod + ")\n");
-        
-        return approved;
+
+        JOptionPane pane = new JOptionPane(message, JOptionPane.QUESTION_MESSAGE, JOptionPane.YES_NO_OPTION);
+        JDialog dialog = pane.createDialog(this, title + " #" + request.id);
+        dialog.setModal(false);
+        dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+
+        pane.addPropertyChangeListener(JOptionPane.VALUE_PROPERTY, evt -> {
+            Object value = pane.getValue();
+            if (value == JOptionPane.UNINITIALIZED_VALUE) return;
+            boolean approved = Integer.valueOf(JOptionPane.YES_OPTION).equals(value);
+            if (request.complete(approved ? ApprovalRequest.Decision.APPROVED : ApprovalRequest.Decision.REJECTED)) {
+                logArea.append("\n" + (approved ? "[✓ CHẤP NHẬN]" : "[✗ TỪ CHỐI]") + " " + summary + "\n");
+            }
+            dialog.dispose();
+        });
+
+        // Quầy khác trả lời trước / hết hạn → đóng hộp thoại ở quầy này
+        request.future().whenComplete((decision, ex) -> SwingUtilities.invokeLater(() -> {
+            if (dialog.isDisplayable()) {
+                dialog.dispose();
+                logArea.append("\n[" + decision + "] " + summary + " - " + decision.getMessage() + "\n");
+            }
+        }));
+
+        dialog.setVisible(true);
     }
     
     /**
      * Delete card - Admin only
      */
     private void deleteCard() {
+        if (!readerReady()) return;
         logArea.setText("");
         logArea.append("[ADMIN] Xóa thẻ người dùng\n\n");
-        
-        try {
-            pcsc.connectFirstPresentOrFirst();
-            logArea.append("[OK] Kết nối thẻ thành công!\n\n");
-            
-            // Select applet
-            javax.smartcardio.CommandAPDU selectCmd = new javax.smartcardio.CommandAPDU(0x00, 0xA4, 0x04, 0x00,
-                    new byte[]{(byte)0x26,(byte)0x12,(byte)0x20,(byte)0x03,(byte)0x20,(byte)0x03,(byte)0x00});
-            javax.smartcardio.ResponseAPDU selectResp = pcsc.transmit(selectCmd);
-            if ((selectResp.getSW() & 0xFF00) != 0x9000) {
-                logArea.append("[LỖI] Không thể select applet\n");
-                return;
-            }
-            
-            // Read current data first
-            javax.smartcardio.CommandAPDU readCmd = CardHelper.buildReadCommand();
-            javax.smartcardio.ResponseAPDU readResp = pcsc.transmit(readCmd);
-            
-            if ((readResp.getSW() & 0xFF00) != 0x9000) {
-                logArea.append("[LỖI] Đọc thẻ thất bại\n");
+
+        // Đọc thẻ trước (kết nối + SELECT + READ trong một thao tác I/O), xác nhận rồi mới xóa
+        service.readCard(false).thenAccept(read -> SwingUtilities.invokeLater(() -> {
+            if (!read.isOk()) {
+                logArea.append("[LỖI] " + read.message + "\n");
                 return;
             }
-            
-            CardData card = CardHelper.parseReadResponse(readResp.getData());
-            
+            logArea.append("[OK] Kết nối thẻ thành công!\n\n");
+            CardData card = read.card;
+
             // Confirm deletion
             String confirmMsg = "XÓA THẺ NGƯỜI DÙNG?\n\n" +
                               "👤 " + (card.fullName != null ? card.fullName : "N/A") + "\n" +
@@ -469,7 +523,7 @@ public class FunctionPanel extends JPanel {
                               "💰 Số Dư: " + card.balance + " VND\n" +
                               "📅 Hạn Tập: " + card.expiryDays + " ngày\n\n" +
                               "Hành động này KHÔNG THỂ HOÀN TÁC!";
-            
+
             int confirm = JOptionPane.showConfirmDialog(
                 this,
                 confirmMsg,
@@ -477,43 +531,27 @@ public class FunctionPanel extends JPanel {
                 JOptionPane.YES_NO_OPTION,
                 JOptionPane.WARNING_MESSAGE
             );
-            
+
             if (confirm != JOptionPane.YES_OPTION) {
                 logArea.append("[HỦY] Không xóa thẻ\n");
                 return;
             }
-            
-            // Reset card to zero values
-            CardData emptyCard = new CardData();
-            emptyCard.userId = 0;
-            emptyCard.balance = 0;
-            emptyCard.expiryDays = 0;
-            emptyCard.pin = 0;
-            emptyCard.pinRetry = 5;
-            emptyCard.fullName = "";
-            emptyCard.dobDay = 0;
-            emptyCard.dobMonth = 0;
-            emptyCard.dobYear = 0;
-            
-            javax.smartcardio.CommandAPDU writeCmd = CardHelper.buildWriteCommand(emptyCard);
-            javax.smartcardio.ResponseAPDU writeResp = pcsc.transmit(writeCmd);
-            
-            if ((writeResp.getSW() & 0xFF00) == 0x9000) {
+
+            // Reset thẻ về giá trị trắng (cùng layout), journal ERASE, trả lại ID
+            service.erase(card).thenAccept(r -> SwingUtilities.invokeLater(() -> {
+                if (!r.isOk()) {
+                    logArea.append("[LỖI] " + r + "\n");
+                    return;
+                }
                 logArea.append("[THÀNH CÔNG] Đã xóa thẻ:\n");
                 logArea.append("  👤 " + (card.fullName != null ? card.fullName : "N/A") + "\n");
                 logArea.append("  🎫 ID: " + card.userId + "\n");
                 logArea.append("Thẻ đã được reset về mặc định\n");
-                JOptionPane.showMessageDialog(this, 
+                JOptionPane.showMessageDialog(this,
                     "Xóa thẻ thành công!\nThẻ đã được reset.",
                     "Thành Công",
                     JOptionPane.INFORMATION_MESSAGE);
-            } else {
-                logArea.append("[LỖI] Xóa thẻ thất bại (SW: " + 
-                             Integer.toHexString(writeResp.getSW()).toUpperCase() + ")\n");
-            }
-            
-        } catch (Exception ex) {
-            logArea.append("[LỖI] " + ex.getMessage() + "\n");
-        }
+            }));
+        }));
     }
 }
\ No newline at end of file
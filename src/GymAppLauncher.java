@@ -1,10 +1,29 @@
 import javax.swing.*;
 import java.awt.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Launcher - Mở cả 2 cửa sổ (Khách Hàng + Admin/Nhân Viên) đồng thời
+ * Launcher - Mở cả 2 cửa sổ (Khách Hàng + Admin/Nhân Viên) đồng thời.
+ *
+ * Khởi động là đồ thị phụ thuộc chạy song song, bắt đầu ngay trong main:
+ * PC/SC (TerminalFactory + đầu đọc + monitor), dữ liệu (journal, hội viên, danh
+ * mục, kho, gói tập) và tài nguyên giao diện (font, ảnh QR) chạy trên các thread
+ * "startup-N", trong lúc EDT khởi tạo AWT, splash và dựng hai cửa sổ. Cửa sổ
+ * được gắn đầu đọc khi PC/SC xong; splash đóng ngay khi cả hai báo sẵn sàng.
+ * Mỗi giai đoạn ghi vào StartupTimeline, in ra [STARTUP] khi khởi động xong.
+ * Số thread: -Dgym.startup.threads (mặc định 4).
  */
 public class GymAppLauncher extends JFrame {
+    private static final int STARTUP_THREADS = Integer.getInteger("gym.startup.threads", 4);
+
+    private final JLabel statusLabel;
+
     public GymAppLauncher() {
         setTitle("HỆ THỐNG ĐẠI HỘI GYM - KHỞI ĐỘNG");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -27,52 +46,147 @@ public class GymAppLauncher extends JFrame {
         add(titleLabel, gbc);
 
         // Status
-        JLabel statusLabel = new JLabel("Vui lòng chờ...");
+        statusLabel = new JLabel("Vui lòng chờ...");
         statusLabel.setFont(new Font("Arial", Font.PLAIN, 12));
         statusLabel.setHorizontalAlignment(JLabel.CENTER);
         gbc.gridy = 1;
         add(statusLabel, gbc);
 
         setVisible(true);
+    }
 
-        // Launch both windows in background
-        new Thread(() -> {
-            try {
-                // Initialize PC/SC
-                PcscClient pcsc = new PcscClient();
-                
-                // Open Customer Window
-                SwingUtilities.invokeLater(() -> {
-                    try {
-                        new CustomerWindow(pcsc);
-                    } catch (Exception ex) {
-                        JOptionPane.showMessageDialog(null, "Lỗi Khách Hàng: " + ex.getMessage());
-                    }
-                });
-
-                // Wait a bit
-                Thread.sleep(300);
-
-                // Open Staff Window
-                SwingUtilities.invokeLater(() -> {
-                    try {
-                        new StaffWindow(pcsc);
-                    } catch (Exception ex) {
-                        JOptionPane.showMessageDialog(null, "Lỗi Admin/Nhân Viên: " + ex.getMessage());
-                    }
-                });
-
-                // Close launcher
-                Thread.sleep(1000);
-                SwingUtilities.invokeLater(() -> dispose());
+    public void setStatus(String text) {
+        statusLabel.setText(text);
+    }
+
+    /**
+     * Các giai đoạn khởi động và phụ thuộc giữa chúng
+     */
+    private static final class Bootstrap {
+        private static final Executor EDT = SwingUtilities::invokeLater;
+
+        private final StartupTimeline timeline;
+        private final ExecutorService pool;
+        private volatile CompletableFuture<GymAppLauncher> splash;
+
+        Bootstrap(StartupTimeline timeline) {
+            this.timeline = timeline;
+            AtomicInteger n = new AtomicInteger();
+            this.pool = Executors.newFixedThreadPool(STARTUP_THREADS, r -> {
+                Thread t = new Thread(r, "startup-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        void start() {
+            // Khởi tạo AWT + splash trên EDT, song song với mọi thứ bên dưới
+            splash = onEdt("splash", GymAppLauncher::new);
+
+            // PC/SC: mỗi đầu đọc một client + worker riêng
+            CompletableFuture<TerminalPool> readers = background("pcsc", () -> {
+                TerminalPool terminals = TerminalPool.openAll();
+                terminals.start();
+                Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                        System.out.print("[POOL] Thống kê đầu đọc:\n" + terminals.getStats())));
+                return terminals;
+            });
+            // Mở journal ngay (quét segment cuối) thay vì ở giao dịch đầu tiên
+            CompletableFuture<TransactionJournal> journal = background("journal", TransactionJournal::getInstance);
+            CompletableFuture<MemberStore> members = background("members", MemberStore::getInstance);
+            // Nạp danh mục / kho / gói tập trước khi khách mở cửa hàng hay gia hạn
+            CompletableFuture<StoreCatalog> catalog = background("catalog", StoreCatalog::getInstance);
+            CompletableFuture<StockLedger> stock = background("stock", StockLedger::getInstance);
+            CompletableFuture<PackageCatalog> packages = background("packages", PackageCatalog::getInstance);
+            CompletableFuture<Void> resources = background("resources", () -> {
+                UiResources.preload();
+                return null;
+            });
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                if (opened(members)) members.join().close();
+                if (opened(stock)) stock.join().close();
+                if (opened(journal)) {
+                    journal.join().close();
+                    System.out.println("[JOURNAL] " + journal.join().getStats());
+                }
+            }));
+
+            // Cửa sổ dựng ngay sau splash (không chờ PC/SC), gắn đầu đọc khi PC/SC xong
+            CompletableFuture<CustomerWindow> customer = onEdt("customer-window", CustomerWindow::new);
+            CompletableFuture<StaffWindow> staff = onEdt("staff-window", StaffWindow::new);
+            customer.thenAcceptBothAsync(readers, (w, r) -> timed("customer-attach", () -> {
+                w.attachReader(r.getPrimary());
+                return null;
+            }), EDT);
+            staff.thenAcceptBothAsync(readers, (w, r) -> timed("staff-attach", () -> {
+                w.attachReader(r.getPrimary());
+                return null;
+            }), EDT);
 
+            // PC/SC lỗi thì cửa sổ không bao giờ sẵn sàng: ready fail theo để vẫn in timeline
+            CompletableFuture<Void> customerReady = customer.thenCombine(readers, (w, r) -> w)
+                    .thenCompose(CustomerWindow::ready);
+            CompletableFuture<Void> staffReady = staff.thenCombine(readers, (w, r) -> w)
+                    .thenCompose(StaffWindow::ready);
+            CompletableFuture<Void> ready = CompletableFuture.allOf(customerReady, staffReady);
+            ready.thenAcceptBothAsync(splash, (v, s) -> {
+                timeline.mark("ready");
+                s.dispose();
+            }, EDT);
+
+            report(customer, "Lỗi Khách Hàng");
+            report(staff, "Lỗi Admin/Nhân Viên");
+            report(readers, "Lỗi khởi động");
+
+            CompletableFuture.allOf(ready, journal, members, catalog, stock, packages, resources)
+                    .whenComplete((v, ex) -> {
+                        System.out.print(timeline.report());
+                        pool.shutdown();
+                    });
+        }
+
+        private <T> CompletableFuture<T> background(String name, Callable<T> task) {
+            return CompletableFuture.supplyAsync(() -> timed(name, task), pool);
+        }
+
+        private <T> CompletableFuture<T> onEdt(String name, Callable<T> task) {
+            return CompletableFuture.supplyAsync(() -> timed(name, task), EDT);
+        }
+
+        private <T> T timed(String name, Callable<T> task) {
+            StartupTimeline.Phase phase = timeline.begin(name);
+            try {
+                T result = task.call();
+                phase.end();
+                status("✓ " + name);
+                return result;
             } catch (Exception ex) {
-                JOptionPane.showMessageDialog(this, "Lỗi khởi động: " + ex.getMessage());
+                phase.fail(ex);
+                throw new CompletionException(ex);
+            }
+        }
+
+        private void status(String text) {
+            if (splash != null) {
+                splash.thenAcceptAsync(s -> s.setStatus(text), EDT);
             }
-        }).start();
+        }
+
+        private void report(CompletableFuture<?> phase, String title) {
+            phase.exceptionally(ex -> {
+                Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                status(title);
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null, title + ": " + cause.getMessage()));
+                return null;
+            });
+        }
+
+        private static boolean opened(CompletableFuture<?> f) {
+            return f.isDone() && !f.isCompletedExceptionally();
+        }
     }
 
     public static void main(String[] args) {
-        SwingUtilities.invokeLater(() -> new GymAppLauncher());
+        new Bootstrap(new StartupTimeline()).start();
     }
 }
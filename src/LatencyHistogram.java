@@ -0,0 +1,65 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram độ trễ lock-free, bucket theo lũy thừa 2 tính bằng micro giây.
+ * Bucket b chứa các mẫu trong [2^(b-1), 2^b) µs; bucket 0 là < 1 µs.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        if (nanos < 0) nanos = 0;
+        long micros = nanos / 1000;
+        int bucket = micros == 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+        counts.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+        count.incrementAndGet();
+        sumNanos.addAndGet(nanos);
+
+        long max;
+        while (nanos > (max = maxNanos.get())) {
+            if (maxNanos.compareAndSet(max, nanos)) break;
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMeanMs() {
+        long n = count.get();
+        return n == 0 ? 0.0 : sumNanos.get() / 1e6 / n;
+    }
+
+    public double getMaxMs() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * Cận trên (ms) của bucket chứa phân vị p (0..1)
+     */
+    public double getPercentileMs(double p) {
+        long n = count.get();
+        if (n == 0) return 0.0;
+        long rank = (long) Math.ceil(p * n);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += counts.get(b);
+            if (seen >= rank) {
+                return Math.min((1L << b) / 1000.0, getMaxMs());
+            }
+        }
+        return getMaxMs();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.2fms p50<=%.2fms p99<=%.2fms max=%.2fms",
+                getCount(), getMeanMs(), getPercentileMs(0.50), getPercentileMs(0.99), getMaxMs());
+    }
+}
@@ -0,0 +1,439 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Đo tải không giao diện: N hội viên ảo xếp hàng dùng R đầu đọc ảo, mỗi lượt
+ * gọi đúng các thao tác CardService mà CustomerWindow dùng (quẹt thẻ VERIFY+READ
+ * + broadcast sang quầy → mua hàng / nạp tiền qua yêu cầu xác nhận → DEBIT /
+ * CREDIT), trong khi một "nhân viên ảo" tự xác nhận mọi yêu cầu.
+ *
+ * Đi qua cùng stack với ứng dụng thật: CardService, PcscClient + CardIoExecutor,
+ * CardHelper, CardEventBroadcaster (swipe + approval), StoreManager/StockLedger,
+ * TransactionJournal, MemberStore; chỉ thay đầu đọc bằng SimulatedTerminal.
+ * Cuối lượt chạy in p50/p99 từng giai đoạn, throughput, và đối chiếu tổng số dư
+ * trên thẻ với tổng tiền đã nạp / trừ (lệch → exit code 1).
+ *
+ * Tham số (-D):
+ *   gym.load.members (200), gym.load.readers (8), gym.load.seconds (30),
+ *   gym.load.warmupSeconds (5), gym.load.thinkMs (0), gym.load.purchasePct (70),
+ *   gym.load.approvalMs (0: nhân viên xác nhận ngay), gym.sim.latencyUs (0).
+ * Dữ liệu (journal, members.dat, kho...) ghi vào gym.load.dir (mặc định thư mục tạm)
+ * để không đụng dữ liệu thật.
+ */
+public class LoadGenerator {
+    public enum Stage {
+        SWIPE("quẹt thẻ (VERIFY+READ + broadcast)"),
+        APPROVAL("chờ xác nhận"),
+        PURCHASE("thanh toán (DEBIT + kho)"),
+        TOPUP("nạp tiền ([VERIFY] + CREDIT)"),
+        VISIT("cả lượt");
+
+        public final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    private static final int MEMBERS = Integer.getInteger("gym.load.members", 200);
+    private static final int READERS = Integer.getInteger("gym.load.readers", 8);
+    private static final int SECONDS = Integer.getInteger("gym.load.seconds", 30);
+    private static final int WARMUP_SECONDS = Integer.getInteger("gym.load.warmupSeconds", 5);
+    private static final int THINK_MS = Integer.getInteger("gym.load.thinkMs", 0);
+    private static final int PURCHASE_PCT = Integer.getInteger("gym.load.purchasePct", 70);
+    private static final int APPROVAL_MS = Integer.getInteger("gym.load.approvalMs", 0);
+
+    private static final int INITIAL_BALANCE = 500000;
+    private static final int MAX_ERRORS_PRINTED = 10;
+
+    /**
+     * Số liệu của một giai đoạn đo (warm-up xong thì thay bộ mới)
+     */
+    private static final class Metrics {
+        final Map<Stage, LatencyHistogram> latency = new EnumMap<>(Stage.class);
+        final AtomicLong visits = new AtomicLong();
+        final AtomicLong purchases = new AtomicLong();
+        final AtomicLong topups = new AtomicLong();
+        final AtomicLong declined = new AtomicLong();    // 6985 số dư không đủ
+        final AtomicLong notApproved = new AtomicLong();
+        final AtomicLong outOfStock = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final long startedAt = System.nanoTime();
+
+        Metrics() {
+            for (Stage s : Stage.values()) {
+                latency.put(s, new LatencyHistogram());
+            }
+        }
+
+        void record(Stage stage, long startNanos) {
+            latency.get(stage).recordNanos(System.nanoTime() - startNanos);
+        }
+    }
+
+    private static final class Reader {
+        final SimulatedTerminal terminal;
+        final PcscClient client;
+        final CardService service;
+
+        Reader(SimulatedTerminal terminal) {
+            this.terminal = terminal;
+            this.client = new PcscClient(terminal);
+            this.service = new CardService(client);
+        }
+    }
+
+    private static final class Member {
+        final SimulatedCard card;
+        final byte pin;
+
+        Member(SimulatedCard card, byte pin) {
+            this.card = card;
+            this.pin = pin;
+        }
+    }
+
+    private final List<Reader> readers = new ArrayList<>();
+    private final BlockingQueue<Reader> freeReaders;
+    private final List<Member> members = new ArrayList<>();
+    private final ScheduledExecutorService staff = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "load-staff");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile Metrics metrics = new Metrics();
+    private volatile boolean running;
+    private final AtomicLong balanceDelta = new AtomicLong(); // nạp - trừ, cả warm-up
+    private final AtomicLong swipeEvents = new AtomicLong();
+    private final AtomicLong errorsPrinted = new AtomicLong();
+
+    public LoadGenerator() {
+        freeReaders = new ArrayBlockingQueue<>(READERS, true); // fair: hội viên xếp hàng theo thứ tự đến
+        for (int i = 0; i < READERS; i++) {
+            Reader r = new Reader(new SimulatedTerminal("Load Reader " + i));
+            readers.add(r);
+            freeReaders.add(r);
+        }
+        for (int i = 0; i < MEMBERS; i++) {
+            CardData data = new CardData(i + 1, INITIAL_BALANCE, (short) 30, (byte) (i % 200 + 1),
+                    CardData.MAX_PIN_RETRY, (byte) 1, (byte) 1, (short) 2000);
+            data.fullName = "Hội viên " + (i + 1);
+            members.add(new Member(new SimulatedCard(data), data.pin));
+        }
+    }
+
+    /**
+     * Chạy warm-up rồi đo SECONDS giây
+     * @return true nếu tổng số dư trên thẻ khớp với tổng đã nạp / trừ
+     */
+    public boolean run() throws InterruptedException {
+        CardEventBroadcaster broadcaster = CardEventBroadcaster.getInstance();
+        CardEventBroadcaster.CardEventListener counter = card -> swipeEvents.incrementAndGet();
+        CardEventBroadcaster.ApprovalListener approver = this::approve;
+        broadcaster.addCardListener(counter);
+        broadcaster.addApprovalListener(approver);
+
+        System.out.println(String.format("[LOAD] %d hội viên, %d đầu đọc ảo, latency %d µs/APDU, think %d ms, "
+                        + "mua %d%%, xác nhận sau %d ms, warm-up %d s + đo %d s",
+                MEMBERS, READERS, readers.get(0).terminal.getLatencyMicros(), THINK_MS, PURCHASE_PCT,
+                APPROVAL_MS, WARMUP_SECONDS, SECONDS));
+
+        running = true;
+        List<Thread> threads = new ArrayList<>(MEMBERS);
+        for (Member m : members) {
+            Thread t = new Thread(() -> memberLoop(m), "load-member-" + threads.size());
+            t.setDaemon(true);
+            threads.add(t);
+            t.start();
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(WARMUP_SECONDS));
+        metrics = new Metrics();
+        for (int s = 5; s <= SECONDS; s += 5) {
+            Thread.sleep(5000);
+            printProgress(s);
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(SECONDS % 5));
+        Metrics measured = metrics;
+        long elapsedNanos = System.nanoTime() - measured.startedAt;
+
+        running = false;
+        for (Thread t : threads) {
+            t.join(10000);
+        }
+        broadcaster.removeCardListener(counter);
+        broadcaster.removeApprovalListener(approver);
+        staff.shutdownNow();
+
+        printReport(measured, elapsedNanos);
+        for (Reader r : readers) {
+            r.client.close();
+        }
+        return checkBalances();
+    }
+
+    // ===== Nhân viên ảo =====
+
+    private void approve(ApprovalRequest request) {
+        if (APPROVAL_MS <= 0) {
+            request.complete(ApprovalRequest.Decision.APPROVED);
+        } else {
+            staff.schedule(() -> request.complete(ApprovalRequest.Decision.APPROVED), APPROVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // ===== Hội viên ảo =====
+
+    private void memberLoop(Member m) {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        while (running) {
+            Metrics mt = metrics;
+            try {
+                visit(m, mt, rnd);
+            } catch (InterruptedException ex) {
+                return;
+            } catch (Exception ex) {
+                error(mt, ex);
+            }
+            if (THINK_MS > 0) {
+                try {
+                    Thread.sleep(rnd.nextInt(2 * THINK_MS + 1));
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Một lượt: lấy đầu đọc trống, cắm thẻ, quẹt, 1-3 giao dịch, rút thẻ
+     */
+    private void visit(Member m, Metrics mt, ThreadLocalRandom rnd) throws Exception {
+        long visitStart = System.nanoTime();
+        Reader r = freeReaders.take();
+        try {
+            r.terminal.insert(m.card);
+            try {
+                CardData card = swipe(r, m, mt);
+                if (card == null) {
+                    return;
+                }
+                int transactions = 1 + rnd.nextInt(3);
+                for (int i = 0; i < transactions && running; i++) {
+                    if (rnd.nextInt(100) < PURCHASE_PCT) {
+                        purchase(r, m, card, mt, rnd);
+                    } else {
+                        topup(r, m, card, mt, rnd);
+                    }
+                }
+            } finally {
+                r.terminal.remove();
+                r.client.invalidateSession(); // như CardPresenceMonitor khi thẻ rút ra
+            }
+        } finally {
+            freeReaders.put(r);
+        }
+        mt.visits.incrementAndGet();
+        mt.record(Stage.VISIT, visitStart);
+    }
+
+    /**
+     * CustomerWindow.swipeCard: VERIFY+READ một round trip, service broadcast sang quầy
+     */
+    private CardData swipe(Reader r, Member m, Metrics mt) throws Exception {
+        long start = System.nanoTime();
+        CardService.Result res = CardService.await(r.service.swipe(m.pin));
+        if (!res.isOk()) {
+            throw new IllegalStateException("swipe " + res);
+        }
+        mt.record(Stage.SWIPE, start);
+        return res.card;
+    }
+
+    /**
+     * CustomerWindow.purchaseItem: giữ hàng → checkout (xác nhận) → pay (DEBIT hoặc VERIFY+DEBIT khi hết phiên, trừ kho)
+     */
+    private void purchase(Reader r, Member m, CardData card, Metrics mt, ThreadLocalRandom rnd) throws Exception {
+        StoreManager store = StoreManager.getInstance();
+        List<StoreItem> items = store.getItems();
+        if (items.isEmpty()) {
+            topup(r, m, card, mt, rnd);
+            return;
+        }
+        Cart cart = new Cart();
+        StockLedger.Reservation hold = store.openCart();
+        int lines = 1 + rnd.nextInt(3);
+        for (int i = 0; i < lines; i++) {
+            StoreItem item = items.get(rnd.nextInt(items.size()));
+            int qty = 1 + rnd.nextInt(2);
+            if (store.reserve(hold, item, qty)) {
+                cart.add(item, qty);
+            } else {
+                mt.outOfStock.incrementAndGet();
+            }
+        }
+        if (cart.isEmpty()) {
+            store.releaseAll(hold);
+            return;
+        }
+        int total = (int) cart.getTotal();
+
+        try {
+            if (!approved(r.service.checkout(card, cart), mt)) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            CardService.Result res = CardService.await(r.service.pay(card, hold, cart, m.pin));
+            if (res.isOk()) {
+                balanceDelta.addAndGet(-total);
+                mt.record(Stage.PURCHASE, start);
+                mt.purchases.incrementAndGet();
+            } else if (res.status == CardService.Status.INSUFFICIENT_FUNDS) {
+                mt.declined.incrementAndGet();
+            } else {
+                throw new IllegalStateException("pay " + res);
+            }
+        } finally {
+            store.releaseAll(hold); // đã commit thì không còn gì để trả
+        }
+    }
+
+    /**
+     * CustomerWindow.topupBalance: requestTopup (xác nhận) → credit (VERIFY nếu hết phiên + CREDIT)
+     */
+    private void topup(Reader r, Member m, CardData card, Metrics mt, ThreadLocalRandom rnd) throws Exception {
+        int amount = 50000 * (1 + rnd.nextInt(4));
+        if (!approved(r.service.requestTopup(card, amount, "Tiền mặt"), mt)) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        CardService.Result res = CardService.await(r.service.credit(card, amount, m.pin));
+        if (!res.isOk()) {
+            throw new IllegalStateException("credit " + res);
+        }
+        balanceDelta.addAndGet(amount);
+        mt.record(Stage.TOPUP, start);
+        mt.topups.incrementAndGet();
+    }
+
+    private boolean approved(java.util.concurrent.CompletableFuture<CardService.Result> pending, Metrics mt)
+            throws Exception {
+        long start = System.nanoTime();
+        CardService.Result res = CardService.await(pending);
+        mt.record(Stage.APPROVAL, start);
+        if (res.status == CardService.Status.INSUFFICIENT_FUNDS) {
+            mt.declined.incrementAndGet();
+            return false;
+        }
+        if (!res.isOk()) {
+            mt.notApproved.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private void error(Metrics mt, Exception ex) {
+        mt.errors.incrementAndGet();
+        if (errorsPrinted.incrementAndGet() <= MAX_ERRORS_PRINTED) {
+            System.err.println("[LOAD] Lỗi: " + ex);
+        }
+    }
+
+    // ===== Báo cáo =====
+
+    private void printProgress(int second) {
+        Metrics mt = metrics;
+        double elapsed = (System.nanoTime() - mt.startedAt) / 1e9;
+        System.out.println(String.format("[LOAD] %3ds: %d lượt (%.0f/s), mua %d, nạp %d, lỗi %d",
+                second, mt.visits.get(), mt.visits.get() / elapsed, mt.purchases.get(), mt.topups.get(),
+                mt.errors.get()));
+    }
+
+    private void printReport(Metrics mt, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        double minutes = seconds / 60;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%n[LOAD] Kết quả %.1f s đo:%n", seconds));
+        sb.append(String.format("  %-34s %9s %9s %9s %9s %9s%n", "giai đoạn", "n", "mean ms", "p50 ms", "p99 ms", "max ms"));
+        for (Stage s : Stage.values()) {
+            LatencyHistogram h = mt.latency.get(s);
+            sb.append(String.format("  %-34s %9d %9.3f %9.3f %9.3f %9.3f%n", s.label, h.getCount(),
+                    h.getMeanMs(), h.getPercentileMs(0.50), h.getPercentileMs(0.99), h.getMaxMs()));
+        }
+        long swipes = mt.latency.get(Stage.SWIPE).getCount();
+        sb.append(String.format("  Throughput: %.1f lượt/s, %.0f quẹt/phút, %.0f thanh toán/phút, %.0f nạp tiền/phút%n",
+                mt.visits.get() / seconds, swipes / minutes, mt.purchases.get() / minutes, mt.topups.get() / minutes));
+        sb.append(String.format("  Không đủ số dư %d, không xác nhận %d, hết hàng %d, lỗi %d, sự kiện swipe đã phát %d%n",
+                mt.declined.get(), mt.notApproved.get(), mt.outOfStock.get(), mt.errors.get(), swipeEvents.get()));
+        sb.append("  Đầu đọc 0: ").append(readers.get(0).client.getStats()).append('\n');
+        sb.append("  Card I/O 0: ").append(readers.get(0).client.io().getStats()).append('\n');
+        System.out.print(sb);
+    }
+
+    /**
+     * Tổng số dư đọc trực tiếp từ thẻ ảo phải bằng số dư ban đầu + nạp - trừ
+     */
+    private boolean checkBalances() {
+        long expected = (long) INITIAL_BALANCE * members.size() + balanceDelta.get();
+        long actual = 0;
+        for (Member m : members) {
+            actual += m.card.snapshot().balance;
+        }
+        if (actual != expected) {
+            System.err.println(String.format("[LOAD] LỆCH SỐ DƯ: trên thẻ %,d, theo giao dịch %,d", actual, expected));
+            return false;
+        }
+        System.out.println(String.format("[LOAD] Đối chiếu số dư OK (%,d VND trên %d thẻ)", actual, members.size()));
+        return true;
+    }
+
+    /**
+     * Dữ liệu của lượt chạy vào gym.load.dir thay vì journal/members.dat... thật.
+     * Phải gọi trước khi nạp các class đọc những thuộc tính này.
+     */
+    private static Path isolateStorage() throws IOException {
+        String dir = System.getProperty("gym.load.dir");
+        Path base = dir != null ? Files.createDirectories(Paths.get(dir)) : Files.createTempDirectory("gym-load");
+        setDefault("gym.journal.dir", base.resolve("journal"));
+        setDefault("gym.members.file", base.resolve("members.dat"));
+        setDefault("gym.userids.file", base.resolve("userids.bitmap"));
+        setDefault("gym.stock.dir", base.resolve("stock"));
+        return base;
+    }
+
+    private static void setDefault(String key, Path value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value.toString());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path dir = isolateStorage();
+        System.out.println("[LOAD] Dữ liệu tạm: " + dir);
+        StoreCatalog.getInstance();
+        boolean ok = new LoadGenerator().run();
+
+        MemberStore.getInstance().close();
+        StockLedger.getInstance().close();
+        TransactionJournal journal = TransactionJournal.getInstance();
+        journal.close();
+        System.out.println("[JOURNAL] " + journal.getStats());
+        System.exit(ok ? 0 : 1);
+    }
+}
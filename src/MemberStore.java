@@ -0,0 +1,193 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Danh bạ hội viên trên host: một file map vào bộ nhớ gồm 65536 slot cố định,
+ * slot thứ userId là hội viên có ID đó (userId trên thẻ chỉ có 16 bit), nên
+ * tra cứu là một phép nhân offset - không hash, không index, không chờ thẻ.
+ *
+ * Được cập nhật mỗi lần đọc thẻ (quẹt, giao dịch, tạo thẻ) và xóa khi xóa thẻ.
+ * Thẻ vẫn là nguồn dữ liệu chính: store chỉ là bản chụp lần thấy gần nhất, nên
+ * không fsync từng lần ghi (page cache của OS đủ), chỉ force() khi đóng.
+ *
+ * Slot (128 bytes, big-endian):
+ * [Flags(1)] [PackageType(1)] [UserID(2)] [Balance(4)] [ExpiryDays(2)] [DOB_Year(2)]
+ * [DOB_Day(1)] [DOB_Month(1)] [PINRetry(1)] [NameLen(1)] [FirstSeen ms(8)] [LastSeen ms(8)]
+ * [FullName UTF-8(50)] [Reserved(46)]
+ *
+ * File: -Dgym.members.file (mặc định members.dat, 8 MB).
+ */
+public class MemberStore {
+    /**
+     * Bản chụp hội viên trong store (card.pin luôn = 0, store không giữ PIN)
+     */
+    public static class Member {
+        public final CardData card;
+        public final long firstSeen;
+        public final long lastSeen;
+
+        Member(CardData card, long firstSeen, long lastSeen) {
+            this.card = card;
+            this.firstSeen = firstSeen;
+            this.lastSeen = lastSeen;
+        }
+    }
+
+    public static final int SLOTS = 65536;
+    public static final int SLOT_SIZE = 128;
+
+    private static final byte FLAG_PRESENT = 0x01;
+    private static final int OFF_NAME = 32;
+
+    private static final String FILE = System.getProperty("gym.members.file", "members.dat");
+
+    private final File file;
+    private FileChannel channel;
+    private MappedByteBuffer slots;
+    private final byte[] scratch = new byte[SLOT_SIZE];
+
+    private static class Holder {
+        static final MemberStore INSTANCE = new MemberStore(new File(FILE));
+    }
+
+    public static MemberStore getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private MemberStore(File file) {
+        this.file = file;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+            slots = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) SLOTS * SLOT_SIZE);
+        } catch (IOException ex) {
+            System.err.println("[MEMBERS] Không mở được " + file.getAbsolutePath() + ": " + ex.getMessage()
+                    + " - tra cứu hội viên phải đọc thẻ");
+        }
+    }
+
+    public boolean isEnabled() {
+        return slots != null;
+    }
+
+    /**
+     * Ghi/cập nhật slot của card.userId với dữ liệu vừa đọc từ thẻ
+     */
+    public void put(CardData card) {
+        if (card.userId < 0 || card.userId >= SLOTS) {
+            return;
+        }
+        boolean known;
+        synchronized (this) {
+            if (slots == null) {
+                return;
+            }
+            known = write(card);
+        }
+        // Ngoài khóa: UserIdAllocator khởi tạo lần đầu sẽ đọc lại store
+        if (!known && card.userId > 0) {
+            claimId(card.userId);
+        }
+    }
+
+    /**
+     * @return true nếu slot đã có hội viên từ trước
+     */
+    private boolean write(CardData card) {
+        int base = card.userId * SLOT_SIZE;
+        long now = System.currentTimeMillis();
+        boolean known = (slots.get(base) & FLAG_PRESENT) != 0;
+        long firstSeen = known ? slots.getLong(base + 16) : now;
+
+        byte[] s = scratch;
+        int nameLen = CardHelper.encodeName(card);
+        s[0] = FLAG_PRESENT;
+        s[1] = card.packageType;
+        CardLayout.putU16(s, 2, card.userId);
+        CardLayout.putS32(s, 4, card.balance);
+        CardLayout.putU16(s, 8, card.expiryDays);
+        CardLayout.putU16(s, 10, card.dobYear);
+        s[12] = card.dobDay;
+        s[13] = card.dobMonth;
+        s[14] = card.pinRetry;
+        s[15] = (byte) nameLen;
+        CardLayout.putS32(s, 16, (int) (firstSeen >>> 32));
+        CardLayout.putS32(s, 20, (int) firstSeen);
+        CardLayout.putS32(s, 24, (int) (now >>> 32));
+        CardLayout.putS32(s, 28, (int) now);
+        System.arraycopy(card.nameBytes, 0, s, OFF_NAME, nameLen);
+        java.util.Arrays.fill(s, OFF_NAME + nameLen, SLOT_SIZE, (byte) 0);
+
+        ((Buffer) slots).position(base);
+        slots.put(s);
+        return known;
+    }
+
+    /**
+     * Thẻ lần đầu thấy (có thể cấp trước khi có UserIdAllocator): giữ ID này
+     * để không cấp trùng cho thẻ mới
+     */
+    private static void claimId(int userId) {
+        try {
+            UserIdAllocator.getInstance().claim(userId);
+        } catch (IOException | RuntimeException ex) {
+            System.err.println("[MEMBERS] Không đánh dấu được userId " + userId + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * @return hội viên có userId, null nếu chưa từng thấy (hoặc đã xóa thẻ)
+     */
+    public synchronized Member get(int userId) {
+        if (slots == null || userId < 0 || userId >= SLOTS) {
+            return null;
+        }
+        int base = userId * SLOT_SIZE;
+        if ((slots.get(base) & FLAG_PRESENT) == 0) {
+            return null;
+        }
+        byte[] s = scratch;
+        ((Buffer) slots).position(base);
+        slots.get(s);
+
+        CardData card = new CardData(CardLayout.u16(s, 2), CardLayout.s32(s, 4),
+                (short) CardLayout.u16(s, 8), (byte) 0, s[14], s[12], s[13], (short) CardLayout.u16(s, 10));
+        card.packageType = s[1];
+        int nameLen = Math.min(s[15] & 0xFF, CardLayout.NAME_SIZE);
+        card.fullName = new String(s, OFF_NAME, nameLen, StandardCharsets.UTF_8);
+        long firstSeen = ((long) CardLayout.s32(s, 16) << 32) | (CardLayout.s32(s, 20) & 0xFFFFFFFFL);
+        long lastSeen = ((long) CardLayout.s32(s, 24) << 32) | (CardLayout.s32(s, 28) & 0xFFFFFFFFL);
+        return new Member(card, firstSeen, lastSeen);
+    }
+
+    /**
+     * Xóa slot (thẻ đã bị xóa / thu hồi)
+     */
+    public synchronized void remove(int userId) {
+        if (slots == null || userId < 0 || userId >= SLOTS) {
+            return;
+        }
+        slots.put(userId * SLOT_SIZE, (byte) 0);
+    }
+
+    /**
+     * Đẩy slot xuống đĩa và đóng file (gọi từ shutdown hook)
+     */
+    public synchronized void close() {
+        if (slots == null) {
+            return;
+        }
+        slots.force();
+        slots = null;
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            System.err.println("[MEMBERS] Lỗi đóng " + file.getPath() + ": " + ex.getMessage());
+        }
+    }
+}
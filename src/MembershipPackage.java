@@ -0,0 +1,21 @@
+/**
+ * Gói tập (gia hạn thẻ): số ngày cộng thêm và giá gốc
+ */
+public class MembershipPackage {
+    public final int id;
+    public final String name;
+    public final int days;
+    public final int price;
+
+    public MembershipPackage(int id, String name, int days, int price) {
+        this.id = id;
+        this.name = name;
+        this.days = days;
+        this.price = price;
+    }
+
+    @Override
+    public String toString() {
+        return name + " - " + String.format("%,d VND", price);
+    }
+}
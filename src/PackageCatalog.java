@@ -0,0 +1,332 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Danh mục gói tập + bảng khuyến mãi, nạp từ resources/packages.csv và
+ * resources/package_promos.csv (-Dgym.packages / -Dgym.packages.promos).
+ *
+ * Gói được đánh chỉ mục theo id; mỗi dòng khuyến mãi được dịch một lần lúc nạp
+ * thành PromoRule (ngày, thứ, tuổi, số ngày còn lại đã parse sẵn) và gom theo
+ * gói (rule "*" gắn vào mọi gói), nên báo giá chỉ là tra map rồi so vài số.
+ * Thêm gói / khuyến mãi chỉ cần sửa file.
+ */
+public class PackageCatalog {
+    /**
+     * Giá áp dụng cho một gói với một thẻ vào một ngày
+     */
+    public static final class Quote {
+        public final MembershipPackage pkg;
+        public final int price;
+        public final PromoRule promo; // null = giá gốc
+
+        Quote(MembershipPackage pkg, int price, PromoRule promo) {
+            this.pkg = pkg;
+            this.price = price;
+            this.promo = promo;
+        }
+
+        public int getDiscount() {
+            return pkg.price - price;
+        }
+
+        @Override
+        public String toString() {
+            if (promo == null) {
+                return pkg.toString();
+            }
+            return pkg.name + " - " + String.format("%,d VND", price) + " (" + promo.label + " -"
+                    + String.format("%,d", getDiscount()) + ")";
+        }
+    }
+
+    /**
+     * Một dòng khuyến mãi đã biên dịch. Trường = giá trị "không giới hạn" khi điều kiện không có.
+     */
+    public static final class PromoRule {
+        public final String label;
+        final long fromDay;            // epoch day
+        final long toDay;
+        final int weekdayMask;         // bit (1..7) = thứ hai .. chủ nhật
+        final int minAge;
+        final int maxAge;
+        final int minRemaining;
+        final int percentOff;
+        final int amountOff;
+
+        PromoRule(String label, long fromDay, long toDay, int weekdayMask, int minAge, int maxAge,
+                  int minRemaining, int percentOff, int amountOff) {
+            this.label = label;
+            this.fromDay = fromDay;
+            this.toDay = toDay;
+            this.weekdayMask = weekdayMask;
+            this.minAge = minAge;
+            this.maxAge = maxAge;
+            this.minRemaining = minRemaining;
+            this.percentOff = percentOff;
+            this.amountOff = amountOff;
+        }
+
+        boolean matches(CardData card, LocalDate today) {
+            long day = today.toEpochDay();
+            if (day < fromDay || day > toDay) return false;
+            if ((weekdayMask & (1 << today.getDayOfWeek().getValue())) == 0) return false;
+            if (card.expiryDays < minRemaining) return false;
+            if (minAge > 0 || maxAge < Integer.MAX_VALUE) {
+                int age = ageOf(card, today);
+                if (age < 0 || age < minAge || age > maxAge) return false;
+            }
+            return true;
+        }
+
+        int apply(int price) {
+            long discounted = (long) price * (100 - percentOff) / 100 - amountOff;
+            return (int) Math.max(0, discounted);
+        }
+    }
+
+    private static final int ALL_WEEKDAYS = 0xFE;
+
+    private static final String PACKAGES_FILE = System.getProperty("gym.packages", "resources/packages.csv");
+    private static final String PROMOS_FILE = System.getProperty("gym.packages.promos", "resources/package_promos.csv");
+
+    private final List<MembershipPackage> packages;
+    private final Map<Integer, MembershipPackage> byId;
+    private final Map<Integer, PromoRule[]> promosByPackage;
+
+    private static class Holder {
+        static final PackageCatalog INSTANCE = load();
+    }
+
+    public static PackageCatalog getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private PackageCatalog(List<MembershipPackage> packages, Map<Integer, PromoRule[]> promosByPackage) {
+        this.packages = Collections.unmodifiableList(packages);
+        Map<Integer, MembershipPackage> index = new HashMap<>();
+        for (MembershipPackage p : packages) {
+            index.put(p.id, p);
+        }
+        this.byId = index;
+        this.promosByPackage = promosByPackage;
+    }
+
+    private static PackageCatalog load() {
+        List<MembershipPackage> packages;
+        try {
+            packages = parsePackages(new File(PACKAGES_FILE).toPath());
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println("[PACKAGES] Không nạp được " + PACKAGES_FILE + ": " + ex.getMessage());
+            packages = new ArrayList<>();
+        }
+        Map<Integer, PromoRule[]> promos = new HashMap<>();
+        File promoFile = new File(PROMOS_FILE);
+        if (promoFile.exists()) {
+            try {
+                promos = compilePromos(promoFile.toPath(), packages);
+            } catch (IOException | IllegalArgumentException ex) {
+                System.err.println("[PACKAGES] Bỏ qua khuyến mãi, " + PROMOS_FILE + " lỗi: " + ex.getMessage());
+            }
+        }
+        System.out.println("[PACKAGES] " + packages.size() + " gói, khuyến mãi cho " + promos.size() + " gói");
+        return new PackageCatalog(packages, promos);
+    }
+
+    public List<MembershipPackage> getPackages() {
+        return packages;
+    }
+
+    public MembershipPackage get(int id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Giá tốt nhất cho thẻ hôm nay (khuyến mãi không cộng dồn)
+     */
+    public Quote quote(MembershipPackage pkg, CardData card, LocalDate today) {
+        int best = pkg.price;
+        PromoRule bestRule = null;
+        PromoRule[] rules = promosByPackage.get(pkg.id);
+        if (rules != null) {
+            for (PromoRule rule : rules) {
+                if (rule.matches(card, today)) {
+                    int price = rule.apply(pkg.price);
+                    if (price < best) {
+                        best = price;
+                        bestRule = rule;
+                    }
+                }
+            }
+        }
+        return new Quote(pkg, best, bestRule);
+    }
+
+    /**
+     * Báo giá mọi gói, theo thứ tự trong file
+     */
+    public List<Quote> quoteAll(CardData card, LocalDate today) {
+        List<Quote> quotes = new ArrayList<>(packages.size());
+        for (MembershipPackage pkg : packages) {
+            quotes.add(quote(pkg, card, today));
+        }
+        return quotes;
+    }
+
+    static int ageOf(CardData card, LocalDate today) {
+        if (card.dobYear <= 0 || card.dobMonth < 1 || card.dobMonth > 12 || card.dobDay < 1) {
+            return -1;
+        }
+        try {
+            return Period.between(LocalDate.of(card.dobYear, card.dobMonth, card.dobDay), today).getYears();
+        } catch (java.time.DateTimeException ex) {
+            return -1;
+        }
+    }
+
+    // ===== Nạp file =====
+
+    private static List<String[]> readCsv(Path file, int columns) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNo = 0;
+            boolean header = true;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (header) {
+                    header = false; // dòng đầu không phải chú thích là tiêu đề cột
+                    continue;
+                }
+                String[] cols = line.split(",", columns);
+                if (cols.length != columns) {
+                    throw new IllegalArgumentException("dòng " + lineNo + ": cần " + columns + " cột");
+                }
+                for (int i = 0; i < cols.length; i++) {
+                    cols[i] = cols[i].trim();
+                }
+                rows.add(cols);
+            }
+        }
+        return rows;
+    }
+
+    static List<MembershipPackage> parsePackages(Path file) throws IOException {
+        List<MembershipPackage> packages = new ArrayList<>();
+        java.util.Set<Integer> ids = new java.util.HashSet<>();
+        for (String[] c : readCsv(file, 4)) {
+            int id = Integer.parseInt(c[0]);
+            int days = Integer.parseInt(c[2]);
+            int price = Integer.parseInt(c[3]);
+            if (days <= 0 || price < 0) {
+                throw new IllegalArgumentException("gói " + id + ": số ngày phải > 0, giá ≥ 0");
+            }
+            if (!ids.add(id)) {
+                throw new IllegalArgumentException("trùng id gói: " + id);
+            }
+            packages.add(new MembershipPackage(id, c[1], days, price));
+        }
+        return packages;
+    }
+
+    static Map<Integer, PromoRule[]> compilePromos(Path file, List<MembershipPackage> packages) throws IOException {
+        Map<Integer, List<PromoRule>> grouped = new LinkedHashMap<>();
+        for (MembershipPackage p : packages) {
+            grouped.put(p.id, new ArrayList<PromoRule>());
+        }
+        for (String[] c : readCsv(file, 4)) {
+            PromoRule rule = compile(c[1], c[2], c[3]);
+            if ("*".equals(c[0])) {
+                for (List<PromoRule> rules : grouped.values()) {
+                    rules.add(rule);
+                }
+            } else {
+                List<PromoRule> rules = grouped.get(Integer.parseInt(c[0]));
+                if (rules == null) {
+                    throw new IllegalArgumentException("khuyến mãi cho gói không tồn tại: " + c[0]);
+                }
+                rules.add(rule);
+            }
+        }
+        Map<Integer, PromoRule[]> compiled = new HashMap<>();
+        for (Map.Entry<Integer, List<PromoRule>> e : grouped.entrySet()) {
+            if (!e.getValue().isEmpty()) {
+                compiled.put(e.getKey(), e.getValue().toArray(new PromoRule[0]));
+            }
+        }
+        return compiled;
+    }
+
+    private static PromoRule compile(String conditions, String discount, String label) {
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        int weekdays = ALL_WEEKDAYS;
+        int minAge = 0;
+        int maxAge = Integer.MAX_VALUE;
+        int minRemaining = Integer.MIN_VALUE;
+        for (String cond : conditions.split(";")) {
+            cond = cond.trim();
+            if (cond.isEmpty()) continue;
+            int eq = cond.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("điều kiện sai: " + cond);
+            }
+            String key = cond.substring(0, eq).trim();
+            String value = cond.substring(eq + 1).trim();
+            switch (key) {
+                case "from": from = LocalDate.parse(value).toEpochDay(); break;
+                case "to": to = LocalDate.parse(value).toEpochDay(); break;
+                case "weekdays": weekdays = weekdayMask(value); break;
+                case "minAge": minAge = Integer.parseInt(value); break;
+                case "maxAge": maxAge = Integer.parseInt(value); break;
+                case "minRemaining": minRemaining = Integer.parseInt(value); break;
+                default: throw new IllegalArgumentException("điều kiện không hỗ trợ: " + key);
+            }
+        }
+        int percent = 0;
+        int amount = 0;
+        if (discount.endsWith("%")) {
+            percent = Integer.parseInt(discount.substring(0, discount.length() - 1).trim());
+            if (percent < 0 || percent > 100) {
+                throw new IllegalArgumentException("giảm % ngoài 0-100: " + discount);
+            }
+        } else {
+            amount = Integer.parseInt(discount);
+        }
+        return new PromoRule(label, from, to, weekdays, minAge, maxAge, minRemaining, percent, amount);
+    }
+
+    /**
+     * "1-5", "6+7", "1-3+6" (nối bằng '+' vì dấu phẩy là phân cách cột)
+     */
+    private static int weekdayMask(String value) {
+        int mask = 0;
+        for (String part : value.split("\\+")) {
+            int dash = part.indexOf('-');
+            int lo = Integer.parseInt((dash < 0 ? part : part.substring(0, dash)).trim());
+            int hi = dash < 0 ? lo : Integer.parseInt(part.substring(dash + 1).trim());
+            if (lo < 1 || hi > 7 || lo > hi) {
+                throw new IllegalArgumentException("weekdays sai: " + value);
+            }
+            for (int d = lo; d <= hi; d++) {
+                mask |= 1 << d;
+            }
+        }
+        return mask;
+    }
+}
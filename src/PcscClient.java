@@ -1,17 +1,94 @@
 import javax.smartcardio.*;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
-public final class PcscClient implements AutoCloseable {
+/**
+ * PC/SC client cho đầu đọc thẻ.
+ *
+ * Session mode (mặc định bật): giữ Card/CardChannel mở giữa các lần quẹt và nhớ
+ * applet đã được SELECT. Chỉ kết nối lại + SELECT lại khi thẻ bị rút ra hoặc
+ * khi transmit ném CardException.
+ *
+ * Phiên PIN: sau VERIFY với P1 = N, applet cho phép N thao tác quyền và báo lượt
+ * còn lại qua SW 90nn. transmit() theo dõi SW đó nên hasVerifiedSession() biết
+ * khi nào có thể bỏ qua VERIFY. Mất kết nối / rút thẻ → phiên về 0.
+ *
+ * Đầu đọc có thể là CardTerminal bất kỳ, kể cả SimulatedTerminal (thẻ ảo trong JVM).
+ */
+public final class PcscClient implements CardTransport {
     private final TerminalFactory terminalFactory;
+    // Đầu đọc cố định (TerminalPool); null = tự chọn đầu đọc có thẻ
+    private final CardTerminal pinnedTerminal;
     private CardTerminal terminal;
     private Card card;
     private CardChannel channel;
 
+    // Session state
+    private volatile boolean sessionMode = true;
+    private volatile boolean appletSelected;
+    // Số lượt thao tác quyền còn lại của phiên PIN (theo SW 90nn của applet)
+    private volatile int verifiedOps;
+
+    // Timing counters
+    private final AtomicLong connectCount = new AtomicLong();
+    private final AtomicLong connectNanos = new AtomicLong();
+    private final AtomicLong selectCount = new AtomicLong();
+    private final AtomicLong sessionReuseCount = new AtomicLong();
+    private final AtomicLong transmitCount = new AtomicLong();
+    private final AtomicLong transmitNanos = new AtomicLong();
+
+    // writeCard khi không có gì thay đổi (không gửi APDU)
+    private static final ResponseAPDU UNCHANGED = new ResponseAPDU(new byte[] {(byte) 0x90, 0x00});
+
+    private static final boolean AUDIT = Boolean.getBoolean("gym.apdu.audit");
+    private final StringBuilder auditLine = new StringBuilder(256);
+
+    // Executor I/O riêng của đầu đọc này (single writer); tạo ở lần io() đầu, dừng trong close()
+    private final Object ioLock = new Object();
+    private volatile CardIoExecutor io;
+
     public PcscClient() {
         this.terminalFactory = TerminalFactory.getDefault();
+        this.pinnedTerminal = null;
+    }
+
+    /**
+     * Client gắn cố định với một đầu đọc (dùng cho TerminalPool, mỗi đầu đọc một phiên riêng).
+     */
+    public PcscClient(TerminalFactory terminalFactory, CardTerminal terminal) {
+        this.terminalFactory = terminalFactory;
+        this.pinnedTerminal = terminal;
+        this.terminal = terminal;
+    }
+
+    /**
+     * Client cho một đầu đọc không lấy từ TerminalFactory (VD: SimulatedTerminal)
+     */
+    public PcscClient(CardTerminal terminal) {
+        this(null, terminal);
+    }
+
+    /**
+     * Executor tuần tự cho mọi thao tác thẻ trên đầu đọc này.
+     * Sau close() lần gọi tiếp theo tạo worker mới.
+     */
+    public CardIoExecutor io() {
+        CardIoExecutor e = io;
+        if (e == null) {
+            synchronized (ioLock) {
+                e = io;
+                if (e == null) {
+                    io = e = new CardIoExecutor(this);
+                }
+            }
+        }
+        return e;
     }
 
     public List<CardTerminal> listTerminals() throws CardException {
+        if (terminalFactory == null) {
+            return java.util.Collections.singletonList(pinnedTerminal);
+        }
         return terminalFactory.terminals().list();
     }
 
@@ -34,39 +111,472 @@ public final class PcscClient implements AutoCloseable {
         return connect(terminals.get(0));
     }
 
-    public PcscClient connect(CardTerminal terminal) throws CardException {
+    public synchronized PcscClient connect(CardTerminal terminal) throws CardException {
+        disconnectQuietly();
+        long start = System.nanoTime();
         this.terminal = terminal;
         this.card = terminal.connect("*");
         this.channel = card.getBasicChannel();
+        connectCount.incrementAndGet();
+        connectNanos.addAndGet(System.nanoTime() - start);
         return this;
     }
 
-    public PcscClient waitForCardPresent(long timeoutMs) throws CardException {
-        if (terminal == null) {
-            throw new IllegalStateException("Terminal not selected yet");
+    /**
+     * Mở (hoặc tái sử dụng) phiên làm việc với applet Gym.
+     * Nếu session mode bật và thẻ vẫn còn trên đầu đọc thì không gửi lại
+     * connect/SELECT; ngược lại kết nối lại và SELECT AID.
+     */
+    public synchronized PcscClient openSession() throws Exception {
+        if (sessionMode && appletSelected && isSessionAlive()) {
+            sessionReuseCount.incrementAndGet();
+            return this;
+        }
+
+        invalidateSession();
+        if (pinnedTerminal != null) {
+            connect(pinnedTerminal);
+        } else {
+            connectFirstPresentOrFirst();
         }
-        terminal.waitForCardPresent(timeoutMs);
+
+        ResponseAPDU selectResp = transmit(CardHelper.buildSelectCommand());
+        selectCount.incrementAndGet();
+        if ((selectResp.getSW() & 0xFF00) != 0x9000) {
+            throw new CardException("Không chọn được applet (SW: "
+                    + Integer.toHexString(selectResp.getSW()).toUpperCase() + ")");
+        }
+        appletSelected = true;
         return this;
     }
 
-    public ResponseAPDU transmit(CommandAPDU apdu) throws CardException {
+    /**
+     * Bỏ phiên hiện tại (gọi khi rút thẻ). Lần openSession() kế tiếp sẽ kết nối lại.
+     */
+    public synchronized void invalidateSession() {
+        appletSelected = false;
+        disconnectQuietly();
+    }
+
+    public boolean isSessionMode() {
+        return sessionMode;
+    }
+
+    /**
+     * Tắt session mode để quay về hành vi cũ: mỗi openSession() đều connect + SELECT lại.
+     */
+    public void setSessionMode(boolean sessionMode) {
+        this.sessionMode = sessionMode;
+        if (!sessionMode) {
+            invalidateSession();
+        }
+    }
+
+    private boolean isSessionAlive() {
+        if (card == null || terminal == null) return false;
+        try {
+            return terminal.isCardPresent();
+        } catch (CardException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Chọn đầu đọc mặc định (đầu đọc đang có thẻ, hoặc đầu đọc đầu tiên) nếu chưa chọn.
+     */
+    public synchronized CardTerminal selectDefaultTerminal() throws CardException {
+        if (pinnedTerminal != null) return terminal = pinnedTerminal;
+        if (terminal != null) return terminal;
+        List<CardTerminal> terminals = listTerminals();
+        if (terminals.isEmpty()) {
+            throw new IllegalStateException("No PC/SC terminals found. On Windows, verify Smart Card service is running and a reader (or virtual reader) is installed.");
+        }
+        for (CardTerminal t : terminals) {
+            try {
+                if (t.isCardPresent()) {
+                    terminal = t;
+                    return t;
+                }
+            } catch (CardException ignored) {
+            }
+        }
+        terminal = terminals.get(0);
+        return terminal;
+    }
+
+    /**
+     * @return true nếu có thẻ trước khi hết timeout (0 = chờ vô hạn)
+     */
+    public boolean waitForCardPresent(long timeoutMs) throws CardException {
+        CardTerminal t = terminal;
+        if (t == null) {
+            throw new IllegalStateException("Terminal not selected yet");
+        }
+        return t.waitForCardPresent(timeoutMs);
+    }
+
+    /**
+     * @return true nếu thẻ đã được rút ra trước khi hết timeout (0 = chờ vô hạn)
+     */
+    public boolean waitForCardAbsent(long timeoutMs) throws CardException {
+        CardTerminal t = terminal;
+        if (t == null) {
+            throw new IllegalStateException("Terminal not selected yet");
+        }
+        return t.waitForCardAbsent(timeoutMs);
+    }
+
+    public String getTerminalName() {
+        CardTerminal t = terminal;
+        return t != null ? t.getName() : "(chưa chọn)";
+    }
+
+    public synchronized ResponseAPDU transmit(CommandAPDU apdu) throws CardException {
+        if (channel == null) {
+            throw new IllegalStateException("Not connected");
+        }
+        long start = System.nanoTime();
+        try {
+            ResponseAPDU resp = channel.transmit(apdu);
+            if (AUDIT) audit(apdu.getBytes(), resp.getBytes());
+            trackSession(apdu.getINS(), apdu.getP1(), apdu.getNc() > 0, resp.getSW());
+            return resp;
+        } catch (CardException e) {
+            // Kênh hỏng (thẻ bị rút / reset) → lần sau phải connect + SELECT lại
+            invalidateSession();
+            throw e;
+        } finally {
+            transmitCount.incrementAndGet();
+            transmitNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * VERIFY và mở phiên ops lượt thao tác quyền
+     */
+    public synchronized ResponseAPDU verifyPin(byte pin, int ops) throws CardException {
+        return transmit(CardHelper.buildVerifyPinCommand(pin, ops));
+    }
+
+    /**
+     * VERIFY + READ trong một APDU (mở phiên ops lượt). Applet không có lệnh gộp
+     * (6D00/6E00) → VERIFY rồi READ. Thành công: data là record thẻ.
+     * PIN sai: SW 63Cx / 6983 của VERIFY.
+     */
+    public synchronized ResponseAPDU verifyAndRead(byte pin, int ops) throws CardException {
+        ResponseAPDU resp = transmit(CardHelper.buildVerifyReadCommand(pin, ops));
+        if (!isNotSupported(resp.getSW())) {
+            return resp;
+        }
+        resp = verifyPin(pin, ops);
+        if (!CardHelper.isSuccess(resp.getSW())) {
+            return resp;
+        }
+        return transmit(CardHelper.buildReadCommand());
+    }
+
+    /**
+     * VERIFY + DEBIT trong một APDU; thành công → card cập nhật theo record thẻ trả về.
+     * SW 6985 (không đủ số dư): PIN đã đúng nên phiên vẫn mở cả trên thẻ lẫn host.
+     * Applet không có lệnh gộp → VERIFY rồi debit().
+     */
+    public synchronized ResponseAPDU verifyAndDebit(CardData card, byte pin, int amount, int ops) throws CardException {
+        int before = card.balance;
+        ResponseAPDU resp = transmit(CardHelper.buildVerifyDebitCommand(pin, amount, ops));
+        if (CardHelper.isSuccess(resp.getSW())) {
+            byte[] data = resp.getData();
+            CardHelper.decodeInto(data, 0, data.length, card);
+            journal(TransactionJournal.Type.DEBIT, card, amount, before, resp.getSW());
+            return resp;
+        }
+        if (resp.getSW() == CardHelper.SW_INSUFFICIENT_FUNDS) {
+            journal(TransactionJournal.Type.DEBIT, card, amount, before, resp.getSW());
+        }
+        if (!isNotSupported(resp.getSW())) {
+            return resp;
+        }
+        resp = verifyPin(pin, ops);
+        if (!CardHelper.isSuccess(resp.getSW())) {
+            return resp;
+        }
+        return debit(card, amount);
+    }
+
+    // Applet cũ: không hỗ trợ INS / CLA
+    private static boolean isNotSupported(int sw) {
+        return sw == 0x6D00 || sw == 0x6E00;
+    }
+
+    /**
+     * Kết thúc phiên PIN trên thẻ (00 20 FF 01) nếu còn lượt
+     */
+    public synchronized void endSession() throws CardException {
+        if (verifiedOps > 0 && channel != null) {
+            transmit(CardHelper.buildEndSessionCommand());
+        }
+        verifiedOps = 0;
+    }
+
+    /**
+     * true nếu thẻ đang trong phiên đã xác thực PIN và còn lượt → không cần VERIFY lại
+     */
+    public boolean hasVerifiedSession() {
+        return verifiedOps > 0 && appletSelected;
+    }
+
+    public int getVerifiedOps() {
+        return verifiedOps;
+    }
+
+    /**
+     * Cập nhật lượt còn lại của phiên theo phản hồi (gọi trong cả hai transmit)
+     */
+    private void trackSession(int ins, int p1, boolean hasData, int sw) {
+        if (ins == (CardHelper.INS_VERIFY_PIN & 0xFF)) {
+            if (p1 == 0xFF && !hasData) {
+                verifiedOps = 0;
+            } else if (sw == 0x9000) {
+                verifiedOps = 1; // applet cũ: không báo số lượt
+            } else {
+                verifiedOps = CardHelper.isSuccess(sw) ? sw & 0xFF : 0;
+            }
+        } else if (ins == (CardHelper.INS_VERIFY_READ & 0xFF) || ins == (CardHelper.INS_VERIFY_DEBIT & 0xFF)) {
+            if (CardHelper.isSuccess(sw)) {
+                verifiedOps = sw & 0xFF;
+            } else if (sw == CardHelper.SW_INSUFFICIENT_FUNDS && ins == (CardHelper.INS_VERIFY_DEBIT & 0xFF)) {
+                // PIN đúng, DEBIT không chạy: thẻ giữ phiên P1 lượt (chưa trừ lượt nào)
+                int ops = (byte) p1;
+                verifiedOps = ops <= 0 ? 1 : Math.min(ops, CardHelper.MAX_SESSION_OPS);
+            } else {
+                verifiedOps = 0; // PIN sai / thẻ khóa → chưa có phiên
+            }
+        } else if (CardHelper.isPrivileged(ins)) {
+            if (CardHelper.isSuccess(sw)) {
+                verifiedOps = sw & 0xFF;
+            } else if (sw == 0x6982) {
+                verifiedOps = 0;
+            }
+        }
+    }
+
+    /**
+     * Gửi lệnh có phản hồi nhiều đoạn: khi thẻ trả 61xx thì gửi GET RESPONSE
+     * cho tới hết và nối dữ liệu lại (SW cuối cùng là SW của đoạn cuối).
+     * Với T=0 driver có thể đã tự nối - khi đó vòng lặp không chạy.
+     */
+    public synchronized ResponseAPDU transmitChained(CommandAPDU apdu) throws CardException {
+        ResponseAPDU resp = transmit(apdu);
+        if (resp.getSW1() != 0x61) {
+            return resp;
+        }
+        java.io.ByteArrayOutputStream data = new java.io.ByteArrayOutputStream(512);
+        byte[] chunk = resp.getData();
+        data.write(chunk, 0, chunk.length);
+        while (resp.getSW1() == 0x61) {
+            resp = transmit(CardHelper.buildGetResponseCommand(resp.getSW2()));
+            chunk = resp.getData();
+            data.write(chunk, 0, chunk.length);
+        }
+        data.write(resp.getSW1());
+        data.write(resp.getSW2());
+        return new ResponseAPDU(data.toByteArray());
+    }
+
+    /**
+     * Đọc nhật ký giao dịch trên thẻ (cũ nhất trước).
+     * @return null nếu applet chưa hỗ trợ READ LOG
+     */
+    public synchronized java.util.List<CardLogEntry> readLog() throws CardException {
+        ResponseAPDU resp = transmitChained(CardHelper.buildReadLogCommand());
+        if (isNotSupported(resp.getSW())) {
+            return null;
+        }
+        if (!CardHelper.isSuccess(resp.getSW())) {
+            throw new CardException("Không đọc được nhật ký (SW: "
+                    + Integer.toHexString(resp.getSW()).toUpperCase() + ")");
+        }
+        return CardHelper.parseLog(resp.getData());
+    }
+
+    /**
+     * Ghi các trường đã thay đổi của thẻ (một UPDATE BINARY theo offset, xem
+     * CardHelper.buildUpdateCommand). Không có gì thay đổi thì không gửi APDU.
+     */
+    public synchronized ResponseAPDU writeCard(CardData card) throws CardException {
+        // Số dư trên thẻ trước khi ghi lấy từ ảnh lần đọc gần nhất (chưa đọc thẻ → 0)
+        int before = card.imageValid ? CardLayout.s32(card.image, CardHelper.layoutOf(card).offBalance) : 0;
+        ResponseAPDU resp = writeChanges(card);
+        if (resp != UNCHANGED) {
+            journal(TransactionJournal.Type.UPDATE, card, card.balance - before, before, resp.getSW());
+        }
+        return resp;
+    }
+
+    private ResponseAPDU writeChanges(CardData card) throws CardException {
+        CommandAPDU update = CardHelper.buildUpdateCommand(card);
+        if (update == null) {
+            return UNCHANGED;
+        }
+        ResponseAPDU resp = transmit(update);
+        if (CardHelper.isSuccess(resp.getSW())) {
+            CardHelper.markWritten(card);
+        }
+        return resp;
+    }
+
+    /**
+     * Trừ tiền ngay trên thẻ (một APDU, thẻ tự kiểm tra số dư trong transaction).
+     * Thành công → card.balance = số dư thẻ trả về. SW 6985 = không đủ số dư.
+     */
+    public synchronized ResponseAPDU debit(CardData card, int amount) throws CardException {
+        return applyOnCard(TransactionJournal.Type.DEBIT, card, CardHelper.buildDebitCommand(amount), amount, -amount, 0);
+    }
+
+    public synchronized ResponseAPDU credit(CardData card, int amount) throws CardException {
+        return applyOnCard(TransactionJournal.Type.CREDIT, card, CardHelper.buildCreditCommand(amount), amount, amount, 0);
+    }
+
+    /**
+     * Gia hạn: trừ price và cộng days trong cùng một transaction trên thẻ
+     */
+    public synchronized ResponseAPDU extend(CardData card, int price, int days) throws CardException {
+        return applyOnCard(TransactionJournal.Type.EXTEND, card, CardHelper.buildExtendCommand(price, days), price, -price, days);
+    }
+
+    private ResponseAPDU applyOnCard(TransactionJournal.Type type, CardData card, CommandAPDU cmd,
+                                     int amount, int balanceDelta, int days) throws CardException {
+        int before = card.balance;
+        ResponseAPDU resp = applyOnCard(card, cmd, balanceDelta, days);
+        journal(type, card, amount, before, resp.getSW());
+        return resp;
+    }
+
+    private ResponseAPDU applyOnCard(CardData card, CommandAPDU cmd, int balanceDelta, int days) throws CardException {
+        ResponseAPDU resp = transmit(cmd);
+        int sw = resp.getSW();
+        if (CardHelper.isSuccess(sw)) {
+            CardHelper.applyBalanceResponse(card, resp.getData());
+            return resp;
+        }
+        if (!isNotSupported(sw)) {
+            return resp;
+        }
+        // Applet cũ chưa có lệnh 80 4x: tính trên host rồi ghi phần thay đổi
+        if (card.balance + balanceDelta < 0) {
+            return new ResponseAPDU(new byte[] {(byte) 0x69, (byte) 0x85});
+        }
+        int oldBalance = card.balance;
+        short oldExpiry = card.expiryDays;
+        card.balance += balanceDelta;
+        card.expiryDays = (short) (card.expiryDays + days);
+        resp = writeChanges(card);
+        if (!CardHelper.isSuccess(resp.getSW())) {
+            card.balance = oldBalance;
+            card.expiryDays = oldExpiry;
+        }
+        return resp;
+    }
+
+    /**
+     * Ghi giao dịch vào TransactionJournal (chỉ copy vào vùng map, không chờ đĩa)
+     */
+    private static void journal(TransactionJournal.Type type, CardData card, int amount, int before, int sw) {
+        TransactionJournal.getInstance().append(type, card.userId, amount, before, card.balance, sw);
+    }
+
+    /**
+     * Gửi APDU từ buffer của caller, phản hồi (gồm SW1 SW2) ghi vào response.
+     * Không tạo CommandAPDU/ResponseAPDU - dùng cho đường đọc/ghi lặp lại.
+     * @return SW (SW1 << 8 | SW2)
+     */
+    public synchronized int transmit(java.nio.ByteBuffer command, java.nio.ByteBuffer response) throws CardException {
         if (channel == null) {
             throw new IllegalStateException("Not connected");
         }
-        return channel.transmit(apdu);
+        int cmdStart = command.position();
+        int cmdLen = command.remaining();
+        int respStart = response.position();
+        long start = System.nanoTime();
+        try {
+            int n = channel.transmit(command, response);
+            if (n < 2) {
+                throw new CardException("Phản hồi quá ngắn (" + n + " bytes)");
+            }
+            if (AUDIT) audit(command, cmdStart, response, respStart);
+            int end = respStart + n;
+            int sw = ((response.get(end - 2) & 0xFF) << 8) | (response.get(end - 1) & 0xFF);
+            if (cmdLen >= 4) {
+                // Có data khi dài hơn header + Le (case 2 ngắn: 5 byte, case 2 mở rộng: 7 byte bắt đầu 00)
+                boolean hasData = cmdLen > 5 && !(cmdLen == 7 && command.get(cmdStart + 4) == 0);
+                trackSession(command.get(cmdStart + 1) & 0xFF, command.get(cmdStart + 2) & 0xFF, hasData, sw);
+            }
+            return sw;
+        } catch (CardException e) {
+            invalidateSession();
+            throw e;
+        } finally {
+            transmitCount.incrementAndGet();
+            transmitNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    // Nhật ký APDU (bật bằng -Dgym.apdu.audit=true); StringBuilder dùng lại, chỉ truy cập trong transmit (synchronized)
+    private void audit(byte[] cmd, byte[] resp) {
+        auditLine.setLength(0);
+        auditLine.append("[APDU] ").append(getTerminalName()).append(" > ");
+        CardHelper.appendHex(auditLine, cmd, 0, cmd.length, ' ');
+        auditLine.append(" < ");
+        CardHelper.appendHex(auditLine, resp, 0, resp.length, ' ');
+        System.out.println(auditLine);
+    }
+
+    private void audit(java.nio.ByteBuffer cmd, int cmdStart, java.nio.ByteBuffer resp, int respStart) {
+        auditLine.setLength(0);
+        auditLine.append("[APDU] ").append(getTerminalName()).append(" > ");
+        java.nio.ByteBuffer c = cmd.duplicate();
+        ((java.nio.Buffer) c).limit(c.position()).position(cmdStart);
+        CardHelper.appendHex(auditLine, c, ' ');
+        auditLine.append(" < ");
+        java.nio.ByteBuffer r = resp.duplicate();
+        ((java.nio.Buffer) r).limit(r.position()).position(respStart);
+        CardHelper.appendHex(auditLine, r, ' ');
+        System.out.println(auditLine);
+    }
+
+    public long getConnectCount() {
+        return connectCount.get();
+    }
+
+    public long getSelectCount() {
+        return selectCount.get();
+    }
+
+    public long getSessionReuseCount() {
+        return sessionReuseCount.get();
+    }
+
+    public long getTransmitCount() {
+        return transmitCount.get();
+    }
+
+    /**
+     * Thống kê round trip: số lần connect/SELECT, số phiên tái sử dụng, số APDU và thời gian trung bình.
+     */
+    public String getStats() {
+        long connects = connectCount.get();
+        long apdus = transmitCount.get();
+        return String.format("connect=%d (avg %.1f ms), select=%d, reuse=%d, apdu=%d (avg %.2f ms)",
+                connects, connects == 0 ? 0.0 : connectNanos.get() / 1e6 / connects,
+                selectCount.get(), sessionReuseCount.get(),
+                apdus, apdus == 0 ? 0.0 : transmitNanos.get() / 1e6 / apdus);
     }
 
     public static String toHex(byte[] data) {
         if (data == null || data.length == 0) return "";
-        StringBuilder sb = new StringBuilder(data.length * 2);
-        for (byte b : data) {
-            sb.append(String.format("%02X", b));
-        }
-        return sb.toString();
+        return CardHelper.appendHex(new StringBuilder(data.length * 2), data, 0, data.length, (char) 0).toString();
     }
 
-    @Override
-    public void close() {
+    private void disconnectQuietly() {
         try {
             if (card != null) {
                 card.disconnect(false);
@@ -75,6 +585,24 @@ public final class PcscClient implements AutoCloseable {
         } finally {
             card = null;
             channel = null;
+            verifiedOps = 0;
+        }
+    }
+
+    /**
+     * Ngắt kết nối và dừng worker I/O của đầu đọc
+     */
+    @Override
+    public void close() {
+        synchronized (ioLock) {
+            if (io != null) {
+                io.shutdown();
+                io = null;
+            }
+        }
+        synchronized (this) {
+            appletSelected = false;
+            disconnectQuietly();
             terminal = null;
         }
     }
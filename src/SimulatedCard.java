@@ -0,0 +1,511 @@
+/**
+ * Thẻ Gym ảo chạy trong JVM, cùng ngữ nghĩa APDU với applet jcide/SmartCard.java:
+ * layout V2 (66 bytes), phiên PIN VERIFY P1 = N → SW 90nn, sai PIN → 63Cx, hết lượt
+ * thử → khóa 6983 (chỉ UNBLOCK mở được), thẻ trắng (UserID = 0) ghi không cần PIN,
+ * DEBIT/CREDIT/EXTEND (80 40/42/44), lệnh gộp 80 48 / 80 4A và nhật ký 32 dòng
+ * đọc bằng 80 4C + GET RESPONSE (61xx).
+ *
+ * Trạng thái RAM giữ đúng vòng đời như thẻ thật: phiên PIN mất khi reset (rút/cắm
+ * thẻ, disconnect có reset), con trỏ GET RESPONSE mất khi SELECT lại hoặc khi có
+ * lệnh khác chen vào. Số dư tính bằng long thay cho phép cộng/trừ từng byte của
+ * applet; kết quả và SW giống hệt.
+ *
+ * Thẻ được cắm vào SimulatedTerminal; các lệnh gửi tới một thẻ chạy tuần tự.
+ */
+public final class SimulatedCard {
+    private static final byte[] AID = {0x26, 0x12, 0x20, 0x03, 0x20, 0x03, 0x00};
+    private static final CardLayout L = CardLayout.V2;
+    private static final int DATA_SIZE = L.size;
+
+    private static final int OFFSET_CDATA = 5;
+    private static final int MAX_RESPONSE = 256;
+    public static final int MAX_RESPONSE_SIZE = MAX_RESPONSE + 2;
+
+    // Nhật ký giao dịch: ring buffer LOG_ENTRIES dòng x 13 bytes (như applet)
+    private static final int LOG_ENTRIES = 32;
+    private static final int LOG_ENTRY_SIZE = 13;
+    private static final int LOG_SIZE = LOG_ENTRIES * LOG_ENTRY_SIZE;
+    private static final byte LOG_DEBIT = 0x01;
+    private static final byte LOG_CREDIT = 0x02;
+    private static final byte LOG_EXTEND = 0x03;
+
+    private static final byte MAX_PIN_TRIES = CardData.MAX_PIN_RETRY;
+    private static final byte[] ADMIN_KEY = {'A', 'D', 'M', 'I', 'N', 'K', 'E', 'Y'};
+
+    private static final int SW_OK = 0x9000;
+    private static final int SW_WRONG_LENGTH = 0x6700;
+    private static final int SW_SECURITY_STATUS_NOT_SATISFIED = 0x6982;
+    private static final int SW_AUTHENTICATION_BLOCKED = 0x6983;
+    private static final int SW_CONDITIONS_NOT_SATISFIED = 0x6985;
+    private static final int SW_WRONG_DATA = 0x6A80;
+    private static final int SW_FILE_NOT_FOUND = 0x6A82;
+    private static final int SW_WRONG_P1P2 = 0x6B00;
+    private static final int SW_INS_NOT_SUPPORTED = 0x6D00;
+    private static final int SW_CLA_NOT_SUPPORTED = 0x6E00;
+    private static final int SW_UNKNOWN = 0x6F00;
+    private static final int SW_APPLET_SELECT_FAILED = 0x6999;
+
+    // "EEPROM"
+    private final byte[] data = new byte[DATA_SIZE];
+    private final byte[] log = new byte[LOG_SIZE];
+    private int logHead;
+    private int logCount;
+    private int logSeq;
+
+    // "RAM": session CLEAR_ON_RESET, logCursor CLEAR_ON_DESELECT
+    private int session;
+    private int logCursor;
+    private boolean selected;
+
+    // APDU đang xử lý: header + data như APDU buffer, dữ liệu phản hồi ở out
+    private final byte[] buf = new byte[OFFSET_CDATA + 255];
+    private final byte[] out = new byte[MAX_RESPONSE];
+    private int lc;
+    private int ne;
+    private int outLen;
+    private int newBalance;
+    private long apduCount;
+
+    /**
+     * Thẻ trắng vừa cài applet: UserID = 0, PIN = 0, còn 5 lượt thử
+     */
+    public SimulatedCard() {
+        data[L.offVersion] = (byte) L.version;
+        data[L.offPinRetry] = MAX_PIN_TRIES;
+    }
+
+    /**
+     * Thẻ đã phát hành với nội dung của card (PIN, số lượt thử lấy từ card)
+     */
+    public SimulatedCard(CardData card) {
+        CardData c = card.copy();
+        c.layout = L;
+        CardHelper.encode(c, data, 0);
+    }
+
+    /**
+     * Reset thẻ (rút ra cắm lại / warm reset): mất phiên PIN và applet đang chọn
+     */
+    public synchronized void reset() {
+        session = 0;
+        logCursor = 0;
+        selected = false;
+    }
+
+    /**
+     * Xử lý một APDU dạng short (ISO 7816-3 case 1-4).
+     * @param resp nhận dữ liệu phản hồi + SW1 SW2 (tối đa MAX_RESPONSE_SIZE bytes)
+     * @return số byte phản hồi đã ghi vào resp
+     */
+    public synchronized int process(byte[] cmd, int off, int len, byte[] resp, int respOff) {
+        apduCount++;
+        outLen = 0;
+        int sw;
+        if (!parse(cmd, off, len)) {
+            sw = SW_WRONG_LENGTH;
+        } else {
+            try {
+                sw = dispatch();
+            } catch (RuntimeException ex) {
+                // Applet ném lỗi ngoài ISOException → JCRE trả 6F00
+                outLen = 0;
+                sw = SW_UNKNOWN;
+            }
+        }
+        System.arraycopy(out, 0, resp, respOff, outLen);
+        resp[respOff + outLen] = (byte) (sw >> 8);
+        resp[respOff + outLen + 1] = (byte) sw;
+        return outLen + 2;
+    }
+
+    private boolean parse(byte[] cmd, int off, int len) {
+        if (len < 4) {
+            return false;
+        }
+        int body = len - 4;
+        lc = 0;
+        ne = MAX_RESPONSE;
+        if (body == 1) {
+            int le = cmd[off + 4] & 0xFF;
+            ne = le == 0 ? MAX_RESPONSE : le;
+        } else if (body > 1) {
+            lc = cmd[off + 4] & 0xFF;
+            if (lc == 0) {
+                return false; // extended length: applet không hỗ trợ
+            }
+            if (body == 2 + lc) {
+                int le = cmd[off + len - 1] & 0xFF;
+                ne = le == 0 ? MAX_RESPONSE : le;
+            } else if (body != 1 + lc) {
+                return false;
+            }
+        }
+        System.arraycopy(cmd, off, buf, 0, 4);
+        if (lc > 0) {
+            // Case 1 (chỉ header, VD: END SESSION 00 20 FF 01) không có byte nào sau header
+            System.arraycopy(cmd, off + OFFSET_CDATA, buf, OFFSET_CDATA, lc);
+        }
+        return true;
+    }
+
+    private int dispatch() {
+        byte ins = buf[1];
+        if (ins == CardHelper.INS_SELECT && buf[0] == 0 && buf[2] == 0x04) {
+            return select();
+        }
+        if (!selected) {
+            return SW_APPLET_SELECT_FAILED;
+        }
+
+        // Lệnh khác chen vào giữa chuỗi GET RESPONSE → hủy chuỗi
+        if (ins != CardHelper.INS_GET_RESPONSE) {
+            logCursor = 0;
+        }
+
+        switch (ins) {
+            case CardHelper.INS_VERIFY_PIN: return verifyPin();
+            case CardHelper.INS_CHANGE_PIN: return changePin();
+            case CardHelper.INS_UNBLOCK_PIN: return unblockPin();
+            case CardHelper.INS_READ: return read();
+            case CardHelper.INS_WRITE: return write();
+            case CardHelper.INS_DEBIT: return balance(true);
+            case CardHelper.INS_CREDIT: return balance(false);
+            case CardHelper.INS_EXTEND: return extend();
+            case CardHelper.INS_VERIFY_READ: return verifyRead();
+            case CardHelper.INS_VERIFY_DEBIT: return verifyDebit();
+            case CardHelper.INS_READ_LOG: return readLog();
+            case CardHelper.INS_GET_RESPONSE: return getResponse();
+            default: return SW_INS_NOT_SUPPORTED;
+        }
+    }
+
+    private int select() {
+        if (lc != AID.length) {
+            return SW_FILE_NOT_FOUND;
+        }
+        for (int i = 0; i < AID.length; i++) {
+            if (buf[OFFSET_CDATA + i] != AID[i]) {
+                return SW_FILE_NOT_FOUND;
+            }
+        }
+        selected = true;
+        logCursor = 0;
+        return SW_OK;
+    }
+
+    // ===== PIN =====
+
+    private int verifyPin() {
+        if (buf[2] == (byte) 0xFF && lc == 0) {
+            session = 0; // kết thúc phiên
+            return SW_OK;
+        }
+        if (lc != 1) {
+            return SW_WRONG_LENGTH;
+        }
+        int sw = openSession(buf[OFFSET_CDATA], buf[2]);
+        return sw != SW_OK ? sw : SW_OK | session;
+    }
+
+    /**
+     * Kiểm tra PIN và mở phiên requestedOps lượt (P1 có dấu như applet: 00 / ≥ 80 → 1 lượt)
+     */
+    private int openSession(byte pin, byte requestedOps) {
+        if (data[L.offPinRetry] == 0) {
+            return SW_AUTHENTICATION_BLOCKED;
+        }
+        if (pin != data[L.offPin]) {
+            return wrongPin();
+        }
+        data[L.offPinRetry] = MAX_PIN_TRIES;
+        session = requestedOps <= 0 ? 1 : Math.min(requestedOps, CardHelper.MAX_SESSION_OPS);
+        return SW_OK;
+    }
+
+    private int wrongPin() {
+        data[L.offPinRetry]--;
+        session = 0;
+        return 0x63C0 | (data[L.offPinRetry] & 0x0F);
+    }
+
+    private int changePin() {
+        if (session <= 0) {
+            return SW_SECURITY_STATUS_NOT_SATISFIED;
+        }
+        if (lc < 2) {
+            return SW_WRONG_LENGTH;
+        }
+        if (buf[OFFSET_CDATA] != data[L.offPin]) {
+            return wrongPin();
+        }
+        data[L.offPin] = buf[OFFSET_CDATA + 1];
+        session = 0; // phải VERIFY lại bằng PIN mới
+        return SW_OK;
+    }
+
+    private int unblockPin() {
+        if (lc < ADMIN_KEY.length) {
+            return SW_WRONG_LENGTH;
+        }
+        for (int i = 0; i < ADMIN_KEY.length; i++) {
+            if (buf[OFFSET_CDATA + i] != ADMIN_KEY[i]) {
+                return SW_SECURITY_STATUS_NOT_SATISFIED;
+            }
+        }
+        data[L.offPinRetry] = MAX_PIN_TRIES;
+        session = 0;
+        return SW_OK;
+    }
+
+    // ===== Đọc / ghi record =====
+
+    private int p1p2() {
+        return (short) (((buf[2] & 0xFF) << 8) | (buf[3] & 0xFF));
+    }
+
+    private int read() {
+        int offset = p1p2();
+        if (offset < 0 || offset >= DATA_SIZE) {
+            return SW_WRONG_P1P2;
+        }
+        int len = Math.min(ne, DATA_SIZE - offset);
+        System.arraycopy(data, offset, out, 0, len);
+        outLen = len;
+        return SW_OK;
+    }
+
+    private int write() {
+        int offset = p1p2();
+        if (offset < 0 || offset >= DATA_SIZE) {
+            return SW_WRONG_P1P2;
+        }
+        if (lc == 0 || offset + lc > DATA_SIZE) {
+            return SW_WRONG_LENGTH;
+        }
+        if (offset == L.offVersion && buf[OFFSET_CDATA] != (byte) L.version) {
+            return SW_WRONG_DATA;
+        }
+
+        // Thẻ trắng (UserID = 0) được ghi lần đầu không cần PIN
+        boolean blank = data[L.offUserId] == 0 && data[L.offUserId + 1] == 0;
+        if (!blank && session <= 0) {
+            return SW_SECURITY_STATUS_NOT_SATISFIED;
+        }
+
+        byte oldRetry = data[L.offPinRetry]; // host không ghi đè được retry counter
+        System.arraycopy(buf, OFFSET_CDATA, data, offset, lc);
+        data[L.offPinRetry] = oldRetry;
+
+        return blank ? SW_OK : consumeSession();
+    }
+
+    // ===== Lệnh riêng CLA 80 =====
+
+    private int balance(boolean debit) {
+        int sw = checkProprietary();
+        if (sw != SW_OK) {
+            return sw;
+        }
+        if (lc != 4) {
+            return SW_WRONG_LENGTH;
+        }
+        int amount = CardLayout.s32(buf, OFFSET_CDATA);
+        sw = applyAmount(amount, debit);
+        if (sw != SW_OK) {
+            return sw;
+        }
+        CardLayout.putS32(data, L.offBalance, newBalance);
+        appendLog(debit ? LOG_DEBIT : LOG_CREDIT, amount);
+
+        CardLayout.putS32(out, 0, newBalance);
+        outLen = 4;
+        return consumeSession();
+    }
+
+    private int extend() {
+        int sw = checkProprietary();
+        if (sw != SW_OK) {
+            return sw;
+        }
+        if (lc != 6) {
+            return SW_WRONG_LENGTH;
+        }
+        short days = (short) CardLayout.u16(buf, OFFSET_CDATA + 4);
+        short expiry = (short) CardLayout.u16(data, L.offExpiryDays);
+        if (days < 0) {
+            return SW_WRONG_DATA;
+        }
+        expiry = (short) (expiry > 0x7FFF - days ? 0x7FFF : expiry + days);
+
+        int amount = CardLayout.s32(buf, OFFSET_CDATA);
+        sw = applyAmount(amount, true);
+        if (sw != SW_OK) {
+            return sw;
+        }
+        // Số dư và hạn tập đổi cùng nhau (applet: một transaction)
+        CardLayout.putS32(data, L.offBalance, newBalance);
+        CardLayout.putU16(data, L.offExpiryDays, expiry);
+        appendLog(LOG_EXTEND, amount);
+
+        CardLayout.putS32(out, 0, newBalance);
+        CardLayout.putU16(out, 4, expiry);
+        outLen = 6;
+        return consumeSession();
+    }
+
+    private int verifyRead() {
+        int sw = checkCla();
+        if (sw != SW_OK) {
+            return sw;
+        }
+        if (lc != 1) {
+            return SW_WRONG_LENGTH;
+        }
+        sw = openSession(buf[OFFSET_CDATA], buf[2]);
+        if (sw != SW_OK) {
+            return sw;
+        }
+        sendRecord();
+        return SW_OK | session;
+    }
+
+    private int verifyDebit() {
+        int sw = checkCla();
+        if (sw != SW_OK) {
+            return sw;
+        }
+        if (lc != 5) {
+            return SW_WRONG_LENGTH;
+        }
+        sw = openSession(buf[OFFSET_CDATA], buf[2]);
+        if (sw != SW_OK) {
+            return sw;
+        }
+        int amount = CardLayout.s32(buf, OFFSET_CDATA + 1);
+        sw = applyAmount(amount, true);
+        if (sw != SW_OK) {
+            return sw; // 6985: phiên vẫn mở
+        }
+        CardLayout.putS32(data, L.offBalance, newBalance);
+        appendLog(LOG_DEBIT, amount);
+
+        sendRecord();
+        return consumeSession();
+    }
+
+    private void sendRecord() {
+        System.arraycopy(data, 0, out, 0, DATA_SIZE);
+        outLen = DATA_SIZE;
+    }
+
+    private int checkCla() {
+        return buf[0] == CardHelper.CLA_PROPRIETARY ? SW_OK : SW_CLA_NOT_SUPPORTED;
+    }
+
+    private int checkProprietary() {
+        int sw = checkCla();
+        if (sw == SW_OK && session <= 0) {
+            return SW_SECURITY_STATUS_NOT_SATISFIED;
+        }
+        return sw;
+    }
+
+    /**
+     * Trừ một lượt của phiên sau thao tác thành công; còn lượt thì báo qua SW 90nn
+     */
+    private int consumeSession() {
+        if (session > 0) {
+            session--;
+        }
+        return session > 0 ? SW_OK | session : SW_OK;
+    }
+
+    /**
+     * Số dư mới vào newBalance; phải nằm trong [0, 0x7FFFFFFF] như applet
+     */
+    private int applyAmount(int amount, boolean debit) {
+        if (amount < 0) {
+            return SW_WRONG_DATA; // số tiền âm
+        }
+        int current = CardLayout.s32(data, L.offBalance);
+        long result = debit ? (long) current - amount : (long) current + amount;
+        if (result < 0 || result > Integer.MAX_VALUE) {
+            return debit ? SW_CONDITIONS_NOT_SATISFIED : SW_WRONG_DATA;
+        }
+        newBalance = (int) result;
+        return SW_OK;
+    }
+
+    // ===== Nhật ký =====
+
+    /**
+     * Dòng: [seq(4)] [type(1)] [amount(4)] [balanceAfter(4)], gọi sau khi đã ghi số dư mới
+     */
+    private void appendLog(byte type, int amount) {
+        logSeq++;
+        int off = logHead * LOG_ENTRY_SIZE;
+        CardLayout.putS32(log, off, logSeq);
+        log[off + 4] = type;
+        CardLayout.putS32(log, off + 5, amount);
+        System.arraycopy(data, L.offBalance, log, off + 9, 4);
+
+        logHead = (logHead + 1) % LOG_ENTRIES;
+        if (logCount < LOG_ENTRIES) {
+            logCount++;
+        }
+    }
+
+    private int readLog() {
+        int sw = checkCla();
+        return sw != SW_OK ? sw : sendLogChunk(0);
+    }
+
+    private int getResponse() {
+        if (logCursor == 0) {
+            return SW_CONDITIONS_NOT_SATISFIED;
+        }
+        return sendLogChunk(logCursor);
+    }
+
+    /**
+     * [count(1)] [head(1)] [ring] = 418 bytes, mỗi response tối đa 256 bytes, còn lại báo 61xx
+     */
+    private int sendLogChunk(int pos) {
+        int total = 2 + LOG_SIZE;
+        int len = Math.min(Math.min(total - pos, MAX_RESPONSE), ne);
+        if (pos == 0) {
+            out[0] = (byte) logCount;
+            out[1] = (byte) logHead;
+            System.arraycopy(log, 0, out, 2, len - 2);
+        } else {
+            System.arraycopy(log, pos - 2, out, 0, len);
+        }
+        outLen = len;
+
+        pos += len;
+        int remaining = total - pos;
+        logCursor = remaining > 0 ? pos : 0;
+        return remaining > 0 ? 0x6100 | (remaining > 0xFF ? 0 : remaining) : SW_OK;
+    }
+
+    // ===== Trạng thái (test / đo tải) =====
+
+    /**
+     * Nội dung record hiện tại trên thẻ
+     */
+    public synchronized CardData snapshot() {
+        return CardHelper.decodeInto(data, 0, DATA_SIZE, new CardData());
+    }
+
+    public synchronized boolean isLocked() {
+        return data[L.offPinRetry] == 0;
+    }
+
+    public synchronized int getSessionOps() {
+        return session;
+    }
+
+    public synchronized long getApduCount() {
+        return apduCount;
+    }
+}
@@ -0,0 +1,339 @@
+import javax.smartcardio.ATR;
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardNotPresentException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Đầu đọc ảo trong JVM: cắm / rút SimulatedCard bằng insert() / remove().
+ *
+ * Là một CardTerminal của javax.smartcardio nên cắm thẳng vào PcscClient
+ * (new PcscClient(terminal)) hoặc TerminalPool (-Dgym.sim.readers=N), và toàn
+ * bộ code host chạy như với đầu đọc thật. Cũng là một CardTransport để gửi APDU
+ * trực tiếp không qua PcscClient.
+ *
+ * Mỗi APDU chờ thêm latency (-Dgym.sim.latencyUs, mặc định 0) để mô phỏng thời
+ * gian truyền của đầu đọc thật (thường vài ms). Thẻ bị rút giữa chừng → transmit
+ * ném CardException như PC/SC.
+ */
+public final class SimulatedTerminal extends CardTerminal implements CardTransport {
+    private static final long DEFAULT_LATENCY_US = Long.getLong("gym.sim.latencyUs", 0L);
+    private static final ATR ATR_BYTES = new ATR(new byte[] {0x3B, (byte) 0x80, (byte) 0x80, 0x01, 0x01});
+
+    private final String name;
+    private volatile long latencyNanos;
+
+    // Thẻ đang cắm + số lần cắm (Card cũ hết hiệu lực khi thẻ được cắm lại)
+    private SimulatedCard inserted;
+    private long insertCount;
+
+    // Đường gửi trực tiếp (CardTransport)
+    private final byte[] directResp = new byte[SimulatedCard.MAX_RESPONSE_SIZE];
+
+    public SimulatedTerminal(String name) {
+        this(name, DEFAULT_LATENCY_US);
+    }
+
+    public SimulatedTerminal(String name, long latencyMicros) {
+        this.name = name;
+        setLatencyMicros(latencyMicros);
+    }
+
+    public void setLatencyMicros(long latencyMicros) {
+        if (latencyMicros < 0) {
+            throw new IllegalArgumentException("latency < 0: " + latencyMicros);
+        }
+        this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+    }
+
+    public long getLatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(latencyNanos);
+    }
+
+    /**
+     * Cắm thẻ (thẻ được reset như khi cấp nguồn)
+     * @throws IllegalStateException nếu đầu đọc đang có thẻ khác
+     */
+    public synchronized void insert(SimulatedCard card) {
+        if (inserted != null) {
+            throw new IllegalStateException(name + " đang có thẻ");
+        }
+        card.reset();
+        inserted = card;
+        insertCount++;
+        notifyAll();
+    }
+
+    /**
+     * Rút thẻ ra
+     * @return thẻ vừa rút, null nếu không có thẻ
+     */
+    public synchronized SimulatedCard remove() {
+        SimulatedCard card = inserted;
+        inserted = null;
+        notifyAll();
+        return card;
+    }
+
+    public synchronized SimulatedCard getCard() {
+        return inserted;
+    }
+
+    // ===== CardTerminal =====
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getTerminalName() {
+        return name;
+    }
+
+    @Override
+    public synchronized Card connect(String protocol) throws CardException {
+        if (!"*".equals(protocol) && !"T=1".equals(protocol) && !"T=0".equals(protocol)) {
+            throw new IllegalArgumentException("Protocol không hỗ trợ: " + protocol);
+        }
+        if (inserted == null) {
+            throw new CardNotPresentException("Không có thẻ trên " + name);
+        }
+        return new SimCard(inserted, insertCount);
+    }
+
+    @Override
+    public synchronized boolean isCardPresent() {
+        return inserted != null;
+    }
+
+    @Override
+    public boolean waitForCardPresent(long timeout) throws CardException {
+        return waitFor(true, timeout);
+    }
+
+    @Override
+    public boolean waitForCardAbsent(long timeout) throws CardException {
+        return waitFor(false, timeout);
+    }
+
+    private synchronized boolean waitFor(boolean present, long timeoutMs) throws CardException {
+        if (timeoutMs < 0) {
+            throw new IllegalArgumentException("timeout < 0: " + timeoutMs);
+        }
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        try {
+            while ((inserted != null) != present) {
+                if (timeoutMs == 0) {
+                    wait();
+                    continue;
+                }
+                long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    return false;
+                }
+                wait(left);
+            }
+            return true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CardException("Bị ngắt khi chờ thẻ", ex);
+        }
+    }
+
+    // ===== CardTransport (gửi thẳng tới thẻ đang cắm, không cần connect) =====
+
+    @Override
+    public ResponseAPDU transmit(CommandAPDU apdu) throws CardException {
+        byte[] cmd = apdu.getBytes();
+        synchronized (directResp) {
+            int n = exchange(currentCard(), -1, cmd, 0, cmd.length, directResp);
+            return new ResponseAPDU(Arrays.copyOf(directResp, n));
+        }
+    }
+
+    @Override
+    public int transmit(ByteBuffer command, ByteBuffer response) throws CardException {
+        synchronized (directResp) {
+            return exchange(currentCard(), -1, command, response, directResp);
+        }
+    }
+
+    /**
+     * Reset thẻ đang cắm (mất phiên PIN), giữ thẻ trên đầu đọc
+     */
+    @Override
+    public void close() {
+        SimulatedCard card = getCard();
+        if (card != null) {
+            card.reset();
+        }
+    }
+
+    private SimulatedCard currentCard() throws CardException {
+        SimulatedCard card = getCard();
+        if (card == null) {
+            throw new CardNotPresentException("Không có thẻ trên " + name);
+        }
+        return card;
+    }
+
+    // ===== Gửi APDU =====
+
+    /**
+     * @param session số lần cắm lúc connect (-1 = không kiểm tra)
+     */
+    private int exchange(SimulatedCard card, long session, byte[] cmd, int off, int len, byte[] resp)
+            throws CardException {
+        long latency = latencyNanos;
+        if (latency > 0) {
+            LockSupport.parkNanos(latency);
+        }
+        synchronized (this) {
+            if (inserted != card || (session >= 0 && insertCount != session)) {
+                throw new CardException("Thẻ đã bị rút khỏi " + name);
+            }
+        }
+        return card.process(cmd, off, len, resp, 0);
+    }
+
+    private int exchange(SimulatedCard card, long session, ByteBuffer command, ByteBuffer response,
+                         byte[] resp) throws CardException {
+        int len = command.remaining();
+        byte[] cmd;
+        int off;
+        if (command.hasArray()) {
+            cmd = command.array();
+            off = command.arrayOffset() + command.position();
+        } else {
+            cmd = new byte[len];
+            command.duplicate().get(cmd);
+            off = 0;
+        }
+        int n = exchange(card, session, cmd, off, len, resp);
+        if (response.remaining() < n) {
+            throw new IllegalArgumentException("Buffer phản hồi thiếu chỗ (" + n + " bytes)");
+        }
+        ((Buffer) command).position(command.limit());
+        response.put(resp, 0, n);
+        return ((resp[n - 2] & 0xFF) << 8) | (resp[n - 1] & 0xFF);
+    }
+
+    @Override
+    public String toString() {
+        return "SimulatedTerminal: " + name;
+    }
+
+    /**
+     * Kết nối tới một lần cắm thẻ; rút thẻ ra là kết nối hết hiệu lực
+     */
+    private final class SimCard extends Card {
+        private final SimulatedCard card;
+        private final long session;
+        private final SimChannel basic = new SimChannel(this);
+        private volatile boolean disconnected;
+
+        SimCard(SimulatedCard card, long session) {
+            this.card = card;
+            this.session = session;
+        }
+
+        @Override
+        public ATR getATR() {
+            return ATR_BYTES;
+        }
+
+        @Override
+        public String getProtocol() {
+            return "T=1";
+        }
+
+        @Override
+        public CardChannel getBasicChannel() {
+            checkConnected();
+            return basic;
+        }
+
+        @Override
+        public CardChannel openLogicalChannel() throws CardException {
+            throw new CardException("Thẻ ảo không hỗ trợ logical channel");
+        }
+
+        @Override
+        public void beginExclusive() {
+            checkConnected();
+        }
+
+        @Override
+        public void endExclusive() {
+            checkConnected();
+        }
+
+        @Override
+        public byte[] transmitControlCommand(int controlCode, byte[] command) throws CardException {
+            throw new CardException("Thẻ ảo không hỗ trợ control command");
+        }
+
+        @Override
+        public void disconnect(boolean reset) {
+            if (!disconnected && reset) {
+                card.reset();
+            }
+            disconnected = true;
+        }
+
+        void checkConnected() {
+            if (disconnected) {
+                throw new IllegalStateException("Card đã disconnect");
+            }
+        }
+    }
+
+    private final class SimChannel extends CardChannel {
+        private final SimCard owner;
+        private final byte[] resp = new byte[SimulatedCard.MAX_RESPONSE_SIZE];
+
+        SimChannel(SimCard owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public Card getCard() {
+            return owner;
+        }
+
+        @Override
+        public int getChannelNumber() {
+            return 0;
+        }
+
+        @Override
+        public synchronized ResponseAPDU transmit(CommandAPDU apdu) throws CardException {
+            owner.checkConnected();
+            byte[] cmd = apdu.getBytes();
+            int n = exchange(owner.card, owner.session, cmd, 0, cmd.length, resp);
+            return new ResponseAPDU(Arrays.copyOf(resp, n));
+        }
+
+        @Override
+        public synchronized int transmit(ByteBuffer command, ByteBuffer response) throws CardException {
+            owner.checkConnected();
+            int start = response.position();
+            exchange(owner.card, owner.session, command, response, resp);
+            return response.position() - start;
+        }
+
+        @Override
+        public void close() {
+            throw new IllegalStateException("Không đóng được basic channel");
+        }
+    }
+}
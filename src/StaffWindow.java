@@ -1,5 +1,6 @@
 import javax.swing.*;
 import java.awt.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Cửa sổ Admin/Nhân Viên - 2 panel: trái chọn role, phải hiển thị chức năng
@@ -7,10 +8,17 @@ import java.awt.*;
 public class StaffWindow extends JFrame implements RoleSelectionPanel.RoleListener {
     private final RoleSelectionPanel rolePanel;
     private final FunctionPanel functionPanel;
-    private final PcscClient pcsc;
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
 
     public StaffWindow(PcscClient pcsc) {
-        this.pcsc = pcsc;
+        this();
+        attachReader(pcsc);
+    }
+
+    /**
+     * Dựng cửa sổ trước khi có đầu đọc (khởi động song song với PC/SC), gắn sau bằng attachReader
+     */
+    public StaffWindow() {
         setTitle("ADMIN/NHÂN VIÊN - Quản Lý Thẻ GYM");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setSize(1100, 700);
@@ -40,7 +48,7 @@ public class StaffWindow extends JFrame implements RoleSelectionPanel.RoleListen
 
         // Tạo 2 panel
         rolePanel = new RoleSelectionPanel(this);
-        functionPanel = new FunctionPanel(pcsc);
+        functionPanel = new FunctionPanel();
 
         // SplitPane: trái 280px, phải còn lại
         JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, rolePanel, functionPanel);
@@ -53,6 +61,21 @@ public class StaffWindow extends JFrame implements RoleSelectionPanel.RoleListen
         setVisible(true);
     }
 
+    /**
+     * Gắn đầu đọc mặc định rồi báo sẵn sàng. Chạy trên EDT.
+     */
+    public void attachReader(PcscClient pcsc) {
+        functionPanel.setReader(pcsc);
+        ready.complete(null);
+    }
+
+    /**
+     * Hoàn tất khi cửa sổ đã hiển thị và có đầu đọc
+     */
+    public CompletableFuture<Void> ready() {
+        return ready;
+    }
+
     @Override
     public void onRoleSelected(String role) {
         functionPanel.switchRole(role);
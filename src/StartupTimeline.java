@@ -0,0 +1,88 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Dòng thời gian khởi động: mỗi giai đoạn ghi thời điểm bắt đầu / kết thúc
+ * (tính từ lúc tạo timeline) và thread chạy nó, để thấy giai đoạn nào chạy
+ * song song và thời gian đi đâu. Thread-safe; report() in theo thứ tự bắt đầu.
+ */
+public final class StartupTimeline {
+    public final class Phase {
+        final String name;
+        final String thread;
+        final long startNanos;
+        volatile long endNanos = -1;
+        volatile String error;
+
+        Phase(String name) {
+            this.name = name;
+            this.thread = Thread.currentThread().getName();
+            this.startNanos = System.nanoTime() - origin;
+        }
+
+        public void end() {
+            endNanos = System.nanoTime() - origin;
+        }
+
+        public void fail(Throwable ex) {
+            error = String.valueOf(ex);
+            end();
+        }
+
+        public double getDurationMs() {
+            long end = endNanos;
+            return end < 0 ? -1 : (end - startNanos) / 1e6;
+        }
+    }
+
+    private final long origin;
+    private final List<Phase> phases = Collections.synchronizedList(new ArrayList<Phase>());
+
+    public StartupTimeline() {
+        this(System.nanoTime());
+    }
+
+    /**
+     * @param originNanos mốc 0 (System.nanoTime() lúc bắt đầu main)
+     */
+    public StartupTimeline(long originNanos) {
+        this.origin = originNanos;
+    }
+
+    public Phase begin(String name) {
+        Phase p = new Phase(name);
+        phases.add(p);
+        return p;
+    }
+
+    /**
+     * Sự kiện tức thời (độ dài 0)
+     */
+    public void mark(String name) {
+        begin(name).end();
+    }
+
+    public double getElapsedMs() {
+        return (System.nanoTime() - origin) / 1e6;
+    }
+
+    public String report() {
+        List<Phase> snapshot;
+        synchronized (phases) {
+            snapshot = new ArrayList<>(phases);
+        }
+        Collections.sort(snapshot, Comparator.comparingLong(p -> p.startNanos));
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("[STARTUP] %.1f ms%n", getElapsedMs()));
+        sb.append(String.format("  %-18s %9s %9s  %s%n", "giai đoạn", "bắt đầu", "ms", "thread"));
+        for (Phase p : snapshot) {
+            double ms = p.getDurationMs();
+            sb.append(String.format("  %-18s %9.1f %9s  %s%s%n", p.name, p.startNanos / 1e6,
+                    ms < 0 ? "..." : String.format("%.1f", ms), p.thread,
+                    p.error != null ? "  LỖI: " + p.error : ""));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,424 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Tồn kho cửa hàng dùng chung cho mọi quầy: giữ hàng khi khách thêm vào giỏ,
+ * trừ hẳn khi thẻ đã trừ tiền, trả lại khi hủy / lỗi / giỏ bỏ quên quá lâu.
+ *
+ * Mỗi SKU có một AtomicInteger "available" (tồn - đang giữ): reserve là vòng
+ * CAS, không khóa, nên nhiều quầy cùng bán hàng chạy (nước uống) không chặn
+ * nhau. SKU chưa từng nhập kho là không theo dõi tồn (bán không giới hạn).
+ *
+ * Bền vững: chỉ nhập kho và bán (commit) làm đổi tồn thật; mỗi lần đổi là một
+ * record trong stock.wal, ghi + force trên thread "stock-wal" (không chặn
+ * quầy). Thread đó giữ bản tồn đã ghi, đủ CHECKPOINT_RECORDS record thì ghi
+ * stock.snapshot (file tạm + rename) và cắt WAL. Khởi động: nạp snapshot rồi
+ * phát lại WAL tới record hỏng đầu tiên. Hàng đang giữ không được lưu: khởi
+ * động lại là trả hết về kho.
+ *
+ * WAL record (13 bytes): [Type(1)] [SKU(4)] [Qty(4)] [CRC32(4)]
+ * Thư mục: -Dgym.stock.dir (mặc định stock/).
+ */
+public class StockLedger {
+    /**
+     * Hàng đang giữ cho một giỏ. Chỉ commit hoặc release một lần.
+     */
+    public static final class Reservation {
+        public final long id;
+        // sku → qty đang giữ; chỉ SKU đã theo dõi tồn lúc reserve (đã trừ khỏi available)
+        private final Map<Integer, Integer> lines = new HashMap<>();
+        private volatile long touchedAt = System.currentTimeMillis();
+        private boolean closed;
+
+        Reservation(long id) {
+            this.id = id;
+        }
+
+        public synchronized int getReserved(int sku) {
+            Integer qty = lines.get(sku);
+            return qty == null ? 0 : qty;
+        }
+    }
+
+    private static final class Stock {
+        final AtomicInteger available = new AtomicInteger();
+        final AtomicInteger reserved = new AtomicInteger();
+    }
+
+    private static final byte REC_RESTOCK = 1;
+    private static final byte REC_SALE = 2;
+    private static final int REC_SIZE = 13;
+    private static final int SNAPSHOT_MAGIC = 0x53544B31; // "STK1"
+
+    private static final String DIR = System.getProperty("gym.stock.dir", "stock");
+    private static final int CHECKPOINT_RECORDS = Integer.getInteger("gym.stock.checkpoint", 1000);
+    private static final long RESERVATION_TIMEOUT_MS = Long.getLong("gym.stock.reservationMs", 15 * 60000L);
+
+    private final Map<Integer, Stock> stock = new ConcurrentHashMap<>();
+    private final Map<Long, Reservation> open = new ConcurrentHashMap<>();
+    private final AtomicLong nextReservationId = new AtomicLong(1);
+
+    // Chỉ thread stock-wal đụng tới các trường dưới đây
+    private final File snapshotFile;
+    private final File walFile;
+    private final Map<Integer, Integer> persisted = new HashMap<>(); // sku → tồn đã ghi
+    private FileChannel wal;
+    private int walRecords;
+    private final ByteBuffer walBuf = ByteBuffer.allocate(REC_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    private final ExecutorService walWriter = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "stock-wal");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "stock-reservation-sweep");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static class Holder {
+        static final StockLedger INSTANCE = new StockLedger(new File(DIR));
+    }
+
+    public static StockLedger getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // Ngoài getInstance() chỉ test mở thẳng trên thư mục tạm
+    StockLedger(File dir) {
+        snapshotFile = new File(dir, "stock.snapshot");
+        walFile = new File(dir, "stock.wal");
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("không tạo được thư mục " + dir);
+            }
+            recover();
+        } catch (IOException ex) {
+            System.err.println("[STOCK] Không khôi phục được tồn kho từ " + dir.getAbsolutePath()
+                    + ": " + ex.getMessage() + " - tồn kho không được lưu");
+        }
+        for (Map.Entry<Integer, Integer> e : persisted.entrySet()) {
+            stock(e.getKey()).available.set(e.getValue());
+        }
+        long sweep = Math.max(1000, RESERVATION_TIMEOUT_MS / 4);
+        sweeper.scheduleWithFixedDelay(this::releaseExpired, sweep, sweep, TimeUnit.MILLISECONDS);
+    }
+
+    private Stock stock(int sku) {
+        Stock s = stock.get(sku);
+        return s != null ? s : stock.computeIfAbsent(sku, k -> new Stock());
+    }
+
+    // ===== Quầy bán hàng =====
+
+    public Reservation openReservation() {
+        Reservation r = new Reservation(nextReservationId.getAndIncrement());
+        open.put(r.id, r);
+        return r;
+    }
+
+    /**
+     * Giữ qty sản phẩm sku cho giỏ r
+     * @return false nếu không đủ hàng (không giữ gì)
+     */
+    public boolean reserve(Reservation r, int sku, int qty) {
+        if (qty <= 0) {
+            throw new IllegalArgumentException("Số lượng phải > 0: " + qty);
+        }
+        Stock s = stock.get(sku);
+        if (s != null) {
+            int avail;
+            do {
+                avail = s.available.get();
+                if (avail < qty) {
+                    return false;
+                }
+            } while (!s.available.compareAndSet(avail, avail - qty));
+            s.reserved.addAndGet(qty);
+        }
+        synchronized (r) {
+            if (r.closed) {
+                // Giỏ vừa hết hạn: trả lại ngay
+                if (s != null) {
+                    s.reserved.addAndGet(-qty);
+                    s.available.addAndGet(qty);
+                }
+                return false;
+            }
+            if (s != null) {
+                // SKU không theo dõi tồn thì không có gì để trả / commit từ phần giữ,
+                // kể cả khi được nhập kho trong lúc giỏ còn mở
+                r.lines.merge(sku, qty, Integer::sum);
+            }
+            r.touchedAt = System.currentTimeMillis();
+        }
+        return true;
+    }
+
+    /**
+     * Trả lại tối đa qty sản phẩm sku đang giữ trong giỏ r
+     */
+    public void release(Reservation r, int sku, int qty) {
+        int back;
+        synchronized (r) {
+            Integer held = r.lines.get(sku);
+            if (r.closed || held == null) {
+                return;
+            }
+            back = Math.min(held, qty);
+            if (held == back) {
+                r.lines.remove(sku);
+            } else {
+                r.lines.put(sku, held - back);
+            }
+            r.touchedAt = System.currentTimeMillis();
+        }
+        giveBack(sku, back);
+    }
+
+    /**
+     * Trả lại toàn bộ giỏ (hủy / thanh toán lỗi / đóng cửa hàng)
+     */
+    public void release(Reservation r) {
+        Map<Integer, Integer> lines = close(r);
+        if (lines != null) {
+            giveBack(lines);
+        }
+    }
+
+    /**
+     * Đã trừ tiền trên thẻ: hàng đang giữ thành đã bán.
+     * Phần không được giữ (giỏ đã hết hạn và hàng đã trả về kho, hoặc SKU chỉ
+     * bắt đầu theo dõi tồn sau khi vào giỏ) → trừ thẳng vào tồn, có thể âm.
+     */
+    public void commit(Reservation r, Map<Integer, Integer> sold) {
+        Map<Integer, Integer> held = close(r);
+        for (Map.Entry<Integer, Integer> e : sold.entrySet()) {
+            int sku = e.getKey();
+            int qty = e.getValue();
+            Stock s = stock.get(sku);
+            if (s == null) {
+                continue; // không theo dõi tồn
+            }
+            int fromHold = held == null ? 0 : Math.min(qty, held.getOrDefault(sku, 0));
+            s.reserved.addAndGet(-fromHold);
+            if (qty > fromHold && s.available.addAndGet(fromHold - qty) < 0) {
+                System.err.println("[STOCK] SKU " + sku + " bán vượt tồn (giỏ " + r.id + " không giữ đủ hàng)");
+            }
+            log(REC_SALE, sku, qty);
+        }
+        if (held != null) {
+            // Giữ nhiều hơn số đã bán (hoặc SKU không có trong đơn) → trả phần dư
+            for (Map.Entry<Integer, Integer> e : held.entrySet()) {
+                Integer qty = sold.get(e.getKey());
+                giveBack(e.getKey(), e.getValue() - (qty == null ? 0 : Math.min(qty, e.getValue())));
+            }
+        }
+    }
+
+    private Map<Integer, Integer> close(Reservation r) {
+        open.remove(r.id);
+        synchronized (r) {
+            if (r.closed) {
+                return null;
+            }
+            r.closed = true;
+            return new HashMap<>(r.lines);
+        }
+    }
+
+    private void giveBack(int sku, int qty) {
+        Stock s = stock.get(sku);
+        if (s != null && qty > 0) {
+            s.reserved.addAndGet(-qty);
+            s.available.addAndGet(qty);
+        }
+    }
+
+    private void giveBack(Map<Integer, Integer> lines) {
+        for (Map.Entry<Integer, Integer> e : lines.entrySet()) {
+            giveBack(e.getKey(), e.getValue());
+        }
+    }
+
+    private void releaseExpired() {
+        long cutoff = System.currentTimeMillis() - RESERVATION_TIMEOUT_MS;
+        for (Reservation r : open.values()) {
+            if (r.touchedAt < cutoff) {
+                Map<Integer, Integer> lines = close(r);
+                if (lines == null || lines.isEmpty()) {
+                    continue; // giỏ vừa thanh toán / hủy, hoặc chưa giữ gì
+                }
+                giveBack(lines);
+                System.err.println("[STOCK] Giỏ " + r.id + " quá hạn giữ hàng - trả lại kho " + lines);
+            }
+        }
+    }
+
+    // ===== Kho =====
+
+    /**
+     * Nhập kho (qty âm = điều chỉnh giảm). SKU bắt đầu được theo dõi tồn từ lần nhập đầu.
+     */
+    public void restock(int sku, int qty) {
+        stock(sku).available.addAndGet(qty);
+        log(REC_RESTOCK, sku, qty);
+    }
+
+    /**
+     * @return số lượng còn bán được, -1 nếu SKU không theo dõi tồn
+     */
+    public int getAvailable(int sku) {
+        Stock s = stock.get(sku);
+        return s == null ? -1 : s.available.get();
+    }
+
+    public int getReserved(int sku) {
+        Stock s = stock.get(sku);
+        return s == null ? 0 : s.reserved.get();
+    }
+
+    public boolean isTracked(int sku) {
+        return stock.containsKey(sku);
+    }
+
+    // ===== WAL + snapshot (thread stock-wal) =====
+
+    private void log(byte type, int sku, int qty) {
+        walWriter.execute(() -> {
+            persisted.merge(sku, type == REC_SALE ? -qty : qty, Integer::sum);
+            if (wal == null) {
+                return;
+            }
+            try {
+                ((Buffer) walBuf).clear();
+                walBuf.put(type).putInt(sku).putInt(qty);
+                crc.reset();
+                crc.update(walBuf.array(), 0, REC_SIZE - 4);
+                walBuf.putInt((int) crc.getValue());
+                ((Buffer) walBuf).flip();
+                while (walBuf.hasRemaining()) {
+                    wal.write(walBuf);
+                }
+                wal.force(false);
+                if (++walRecords >= CHECKPOINT_RECORDS) {
+                    checkpoint();
+                }
+            } catch (IOException ex) {
+                System.err.println("[STOCK] Lỗi ghi WAL: " + ex.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Ghi snapshot tồn đã ghi nhận rồi cắt WAL (chạy trên thread stock-wal)
+     */
+    private void checkpoint() throws IOException {
+        // [Magic(4)] [Count(4)] Count × [SKU(4)] [Qty(4)] [CRC32 của phần trước(4)]
+        ByteBuffer buf = ByteBuffer.allocate(12 + persisted.size() * 8);
+        buf.putInt(SNAPSHOT_MAGIC).putInt(persisted.size());
+        for (Map.Entry<Integer, Integer> e : persisted.entrySet()) {
+            buf.putInt(e.getKey()).putInt(e.getValue());
+        }
+        CRC32 check = new CRC32();
+        check.update(buf.array(), 0, buf.position());
+        buf.putInt((int) check.getValue());
+
+        File tmp = new File(snapshotFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(buf.array());
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        wal.truncate(0);
+        wal.force(true);
+        walRecords = 0;
+    }
+
+    private void recover() throws IOException {
+        if (snapshotFile.exists()) {
+            ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(snapshotFile.toPath()));
+            if (buf.remaining() < 12 || buf.getInt(0) != SNAPSHOT_MAGIC
+                    || buf.remaining() != 12 + buf.getInt(4) * 8) {
+                throw new IOException("snapshot sai định dạng");
+            }
+            CRC32 check = new CRC32();
+            check.update(buf.array(), 0, buf.limit() - 4);
+            if (buf.getInt(buf.limit() - 4) != (int) check.getValue()) {
+                throw new IOException("snapshot sai CRC");
+            }
+            ((Buffer) buf).position(8);
+            while (buf.remaining() > 4) {
+                persisted.put(buf.getInt(), buf.getInt());
+            }
+        }
+
+        wal = FileChannel.open(walFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        ByteBuffer rec = ByteBuffer.allocate(REC_SIZE);
+        long valid = 0;
+        CRC32 check = new CRC32();
+        while (wal.read(rec, valid) == REC_SIZE) {
+            check.reset();
+            check.update(rec.array(), 0, REC_SIZE - 4);
+            ((Buffer) rec).flip();
+            byte type = rec.get();
+            int sku = rec.getInt();
+            int qty = rec.getInt();
+            if (rec.getInt() != (int) check.getValue() || (type != REC_RESTOCK && type != REC_SALE)) {
+                break; // record ghi dở
+            }
+            persisted.merge(sku, type == REC_SALE ? -qty : qty, Integer::sum);
+            valid += REC_SIZE;
+            walRecords++;
+            ((Buffer) rec).clear();
+        }
+        wal.truncate(valid);
+        wal.position(valid);
+    }
+
+    /**
+     * Ghi nốt WAL và checkpoint (gọi từ shutdown hook)
+     */
+    public void close() {
+        sweeper.shutdownNow();
+        walWriter.execute(() -> {
+            if (wal == null) {
+                return;
+            }
+            try {
+                checkpoint();
+                wal.close();
+            } catch (IOException ex) {
+                System.err.println("[STOCK] Lỗi checkpoint: " + ex.getMessage());
+            }
+            wal = null;
+        });
+        walWriter.shutdown();
+        try {
+            walWriter.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Danh mục hàng hóa dùng chung cả process, nạp từ file CSV (id,name,price).
+ *
+ * Mỗi lần nạp tạo một Snapshot bất biến: danh sách theo thứ tự trong file và
+ * bảng băm mở int → StoreItem (mảng int key, không boxing), nên getItem(id) là
+ * O(1) và người đọc không cần khóa. Snapshot mới được gán vào trường volatile.
+ *
+ * Thread "catalog-watch" theo dõi thư mục chứa file (WatchService); file đổi
+ * thì nạp lại. File lỗi (sai định dạng, trùng id) → giữ snapshot cũ và báo lỗi.
+ *
+ * File: -Dgym.store.catalog (mặc định resources/store_items.csv).
+ */
+public class StoreCatalog {
+    /**
+     * Một phiên bản danh mục. Bất biến: giữ nguyên được trong lúc cửa hàng đang mở.
+     */
+    public static final class Snapshot {
+        private final List<StoreItem> items;
+        private final int[] keys;          // 0 = ô trống (id hợp lệ luôn > 0)
+        private final StoreItem[] values;
+        private final int mask;
+        public final long loadedAt;
+
+        Snapshot(List<StoreItem> items) {
+            this.items = Collections.unmodifiableList(items);
+            int capacity = Integer.highestOneBit(Math.max(4, items.size() * 2) - 1) << 1; // load ≤ 0.5
+            this.keys = new int[capacity];
+            this.values = new StoreItem[capacity];
+            this.mask = capacity - 1;
+            this.loadedAt = System.currentTimeMillis();
+            for (StoreItem item : items) {
+                int i = slot(item.id);
+                while (keys[i] != 0) {
+                    if (keys[i] == item.id) {
+                        throw new IllegalArgumentException("Trùng id sản phẩm: " + item.id);
+                    }
+                    i = (i + 1) & mask;
+                }
+                keys[i] = item.id;
+                values[i] = item;
+            }
+        }
+
+        private int slot(int id) {
+            int h = id * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        public StoreItem get(int id) {
+            if (id <= 0) {
+                return null;
+            }
+            for (int i = slot(id); keys[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == id) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        public List<StoreItem> getItems() {
+            return items;
+        }
+
+        public int size() {
+            return items.size();
+        }
+    }
+
+    private static final String FILE = System.getProperty("gym.store.catalog", "resources/store_items.csv");
+
+    private final Path file;
+    private volatile Snapshot snapshot = new Snapshot(new ArrayList<StoreItem>());
+    private volatile long reloadCount;
+
+    private static class Holder {
+        static final StoreCatalog INSTANCE = new StoreCatalog(new File(FILE).toPath().toAbsolutePath());
+    }
+
+    public static StoreCatalog getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private StoreCatalog(Path file) {
+        this.file = file;
+        reload();
+        startWatcher();
+    }
+
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    public StoreItem getItem(int id) {
+        return snapshot.get(id);
+    }
+
+    public List<StoreItem> getItems() {
+        return snapshot.getItems();
+    }
+
+    public long getReloadCount() {
+        return reloadCount;
+    }
+
+    /**
+     * Đọc lại file; lỗi thì giữ danh mục hiện tại
+     * @return true nếu đã thay snapshot
+     */
+    public synchronized boolean reload() {
+        try {
+            snapshot = new Snapshot(parse(file));
+            reloadCount++;
+            System.out.println("[CATALOG] Đã nạp " + snapshot.size() + " sản phẩm từ " + file);
+            return true;
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println("[CATALOG] Không nạp được " + file + ": " + ex.getMessage()
+                    + " - giữ danh mục cũ (" + snapshot.size() + " sản phẩm)");
+            return false;
+        }
+    }
+
+    /**
+     * CSV: id,name,price mỗi dòng; bỏ dòng trống, dòng '#' và dòng tiêu đề.
+     * Tên có dấu phẩy: giá là cột cuối, id là cột đầu.
+     */
+    static List<StoreItem> parse(Path file) throws IOException {
+        List<StoreItem> items = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNo = 0;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("id,")) {
+                    continue;
+                }
+                int first = line.indexOf(',');
+                int last = line.lastIndexOf(',');
+                if (first < 0 || first == last) {
+                    throw new IllegalArgumentException("dòng " + lineNo + ": cần id,name,price");
+                }
+                try {
+                    int id = Integer.parseInt(line.substring(0, first).trim());
+                    int price = Integer.parseInt(line.substring(last + 1).trim());
+                    if (id <= 0 || price < 0) {
+                        throw new IllegalArgumentException("dòng " + lineNo + ": id phải > 0, giá ≥ 0");
+                    }
+                    items.add(new StoreItem(id, line.substring(first + 1, last).trim(), price));
+                } catch (NumberFormatException ex) {
+                    throw new IllegalArgumentException("dòng " + lineNo + ": " + ex.getMessage());
+                }
+            }
+        }
+        return items;
+    }
+
+    private void startWatcher() {
+        Path dir = file.getParent();
+        WatchService watcher;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException ex) {
+            System.err.println("[CATALOG] Không theo dõi được " + dir + ": " + ex.getMessage()
+                    + " - sửa danh mục cần khởi động lại");
+            return;
+        }
+        Thread t = new Thread(() -> watchLoop(watcher), "catalog-watch");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void watchLoop(WatchService watcher) {
+        Path name = file.getFileName();
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (name.equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    // Editor thường ghi nhiều lần liên tiếp: chờ ghi xong rồi nạp một lần
+                    Thread.sleep(200);
+                    key.pollEvents();
+                    reload();
+                }
+                if (!key.reset()) {
+                    System.err.println("[CATALOG] Thư mục " + file.getParent() + " không còn theo dõi được");
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+            // dừng theo dõi
+        }
+    }
+}
@@ -1,39 +1,80 @@
-import javax.swing.*;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * StoreManager - Quản lý danh sách hàng hóa
+ * StoreManager - Quản lý danh sách hàng hóa.
+ * Danh mục nằm trong StoreCatalog (file CSV, nạp lại khi file đổi), tồn kho
+ * trong StockLedger; lớp này chỉ là facade cho cửa sổ khách nên tạo/gọi không
+ * tốn chi phí dựng lại.
+ *
+ * Giỏ hàng giữ hàng qua một Reservation: reserve khi thêm vào giỏ, commit khi
+ * thẻ đã trừ tiền, release khi đóng cửa hàng mà chưa mua (hoặc tự hết hạn).
  */
 public class StoreManager {
-    private final List<StoreItem> items = new ArrayList<>();
+    private static final StoreManager INSTANCE = new StoreManager();
 
-    public StoreManager() {
-        // Khởi tạo danh sách hàng
-        items.add(new StoreItem(1, "Nước Uống 500ml", 15000));
-        items.add(new StoreItem(2, "Towel Gym", 50000));
-        items.add(new StoreItem(3, "Dây Đai Cơ Bụng", 120000));
-        items.add(new StoreItem(4, "Bao Tay Tập", 35000));
-        items.add(new StoreItem(5, "Áo Thun Gym", 100000));
-        items.add(new StoreItem(6, "Bít Tất", 25000));
-        items.add(new StoreItem(7, "Túi Quây Hông", 80000));
-        items.add(new StoreItem(8, "Dây Uốn Eo", 75000));
+    private final StoreCatalog catalog = StoreCatalog.getInstance();
+    private final StockLedger stock = StockLedger.getInstance();
+
+    public static StoreManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Danh mục hiện tại, bất biến: dùng cùng một snapshot suốt lúc cửa hàng mở
+     * để chỉ số trong JList luôn khớp với sản phẩm
+     */
+    public StoreCatalog.Snapshot snapshot() {
+        return catalog.snapshot();
     }
 
     public List<StoreItem> getItems() {
-        return items;
+        return catalog.getItems();
     }
 
     public StoreItem getItem(int id) {
-        return items.stream()
-                .filter(item -> item.id == id)
-                .findFirst()
-                .orElse(null);
+        return catalog.getItem(id);
+    }
+
+    /**
+     * @return số lượng còn bán được, -1 nếu sản phẩm không theo dõi tồn
+     */
+    public int getAvailable(StoreItem item) {
+        return stock.getAvailable(item.id);
+    }
+
+    public StockLedger.Reservation openCart() {
+        return stock.openReservation();
+    }
+
+    /**
+     * @return false nếu không đủ hàng
+     */
+    public boolean reserve(StockLedger.Reservation hold, StoreItem item, int qty) {
+        return stock.reserve(hold, item.id, qty);
+    }
+
+    public void release(StockLedger.Reservation hold, StoreItem item, int qty) {
+        stock.release(hold, item.id, qty);
+    }
+
+    public void releaseAll(StockLedger.Reservation hold) {
+        stock.release(hold);
+    }
+
+    /**
+     * Thẻ đã trừ tiền cho cả giỏ: hàng đang giữ thành đã bán
+     */
+    public void commit(StockLedger.Reservation hold, Cart cart) {
+        Map<Integer, Integer> sold = new HashMap<>();
+        for (Cart.Line line : cart.getLines()) {
+            sold.put(line.item.id, line.getQuantity());
+        }
+        stock.commit(hold, sold);
     }
 
-    public int getTotalPrice(List<StoreItem> cart) {
-        return cart.stream()
-                .mapToInt(item -> item.price * item.quantity)
-                .sum();
+    public void restock(StoreItem item, int qty) {
+        stock.restock(item.id, qty);
     }
 }
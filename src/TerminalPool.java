@@ -0,0 +1,101 @@
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.TerminalFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Pool đầu đọc: mỗi CardTerminal (cổng xoay, quầy...) có PcscClient và
+ * CardPresenceMonitor (worker thread) riêng, nên quẹt thẻ ở các đầu đọc khác
+ * nhau được xử lý song song thay vì dồn qua một client dùng chung.
+ */
+public class TerminalPool implements AutoCloseable {
+    private final List<CardPresenceMonitor> monitors;
+
+    private TerminalPool(List<CardPresenceMonitor> monitors) {
+        this.monitors = Collections.unmodifiableList(monitors);
+    }
+
+    /**
+     * Mở tất cả đầu đọc từ listTerminals(). Nếu không liệt kê được đầu đọc nào
+     * thì dùng một client tự chọn đầu đọc (hành vi cũ) để monitor tự thử lại.
+     *
+     * -Dgym.sim.readers=N: bỏ qua PC/SC, dùng N đầu đọc ảo, mỗi đầu đọc cắm sẵn
+     * một thẻ trắng (chạy ứng dụng không cần đầu đọc).
+     */
+    public static TerminalPool openAll() {
+        int simulated = Integer.getInteger("gym.sim.readers", 0);
+        if (simulated > 0) {
+            return openSimulated(simulated);
+        }
+        TerminalFactory factory = TerminalFactory.getDefault();
+        List<CardPresenceMonitor> monitors = new ArrayList<>();
+        try {
+            for (CardTerminal t : factory.terminals().list()) {
+                monitors.add(new CardPresenceMonitor(new PcscClient(factory, t)));
+            }
+        } catch (CardException ex) {
+            System.err.println("[POOL] Không liệt kê được đầu đọc: " + ex.getMessage());
+        }
+        if (monitors.isEmpty()) {
+            monitors.add(new CardPresenceMonitor(new PcscClient()));
+        }
+        return new TerminalPool(monitors);
+    }
+
+    /**
+     * Pool gồm n đầu đọc ảo "Simulated Reader i", mỗi đầu đọc có sẵn một thẻ trắng
+     */
+    public static TerminalPool openSimulated(int n) {
+        List<CardPresenceMonitor> monitors = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            SimulatedTerminal t = new SimulatedTerminal("Simulated Reader " + i);
+            t.insert(new SimulatedCard());
+            monitors.add(new CardPresenceMonitor(new PcscClient(t)));
+        }
+        System.out.println("[POOL] " + n + " đầu đọc ảo, latency "
+                + Long.getLong("gym.sim.latencyUs", 0L) + " µs/APDU");
+        return new TerminalPool(monitors);
+    }
+
+    public void start() {
+        for (CardPresenceMonitor m : monitors) {
+            m.start();
+        }
+    }
+
+    /**
+     * Client của đầu đọc đầu tiên - dùng mặc định cho các cửa sổ
+     */
+    public PcscClient getPrimary() {
+        return monitors.get(0).getClient();
+    }
+
+    public List<CardPresenceMonitor> getMonitors() {
+        return monitors;
+    }
+
+    public int size() {
+        return monitors.size();
+    }
+
+    /**
+     * Metrics từng đầu đọc, mỗi dòng một đầu đọc
+     */
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+        for (CardPresenceMonitor m : monitors) {
+            sb.append(m.getStats()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        for (CardPresenceMonitor m : monitors) {
+            m.stop();
+            m.getClient().close();
+        }
+    }
+}
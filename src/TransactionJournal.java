@@ -0,0 +1,413 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Nhật ký giao dịch trên host (append-only): mỗi lần thay đổi thẻ (trừ tiền,
+ * nạp tiền, gia hạn, ghi record) được ghi thành một record nhị phân cố định
+ * vào file segment map vào bộ nhớ (journal-&lt;seq đầu&gt;.dat), đầy thì sang segment mới.
+ *
+ * append chỉ copy 40 byte vào vùng map dưới một khóa ngắn (vài µs), không gọi
+ * I/O. Thread "journal-flush" gom các record mới và force() xuống đĩa mỗi
+ * FLUSH_INTERVAL_MS (group commit); ai cần chắc chắn record đã xuống đĩa thì
+ * gọi awaitDurable(seq, ...). Khởi động lại: quét segment cuối, dừng ở slot
+ * trống hoặc record sai CRC (ghi dở khi mất điện) và ghi tiếp từ đó.
+ *
+ * Record (40 bytes, big-endian):
+ * [Seq(8)] [Timestamp ms(8)] [UserID(4)] [Type(1)] [Reserved(1)] [SW(2)]
+ * [Amount(4)] [BalanceBefore(4)] [BalanceAfter(4)] [CRC32 của 36 byte đầu(4)]
+ *
+ * Thư mục: -Dgym.journal.dir (mặc định journal/). Mỗi thư mục chỉ một
+ * journal ghi (khóa file journal.lock giữ tới close()); journal thứ hai mở
+ * cùng thư mục (tiến trình khác hoặc cùng JVM) thì tự tắt thay vì ghi đè
+ * slot của nhau. Lỗi mở/ghi
+ * file không làm hỏng giao dịch trên thẻ: journal tự tắt và báo ra stderr.
+ */
+public class TransactionJournal {
+    public enum Type {
+        DEBIT("Mua hàng"), CREDIT("Nạp tiền"), EXTEND("Gia hạn"),
+        UPDATE("Cập nhật thẻ"), ISSUE("Tạo thẻ"), ERASE("Xóa thẻ"), UNKNOWN("?");
+
+        public final String label;
+
+        Type(String label) {
+            this.label = label;
+        }
+
+        static Type of(byte code) {
+            Type[] all = values();
+            return code >= 0 && code < all.length ? all[code] : UNKNOWN;
+        }
+    }
+
+    /**
+     * Một record đã đọc lại từ journal
+     */
+    public static class Record {
+        public final long seq;
+        public final long timestamp;
+        public final int userId;
+        public final Type type;
+        public final int sw;
+        public final int amount;
+        public final int balanceBefore;
+        public final int balanceAfter;
+
+        Record(long seq, long timestamp, int userId, Type type, int sw, int amount, int balanceBefore, int balanceAfter) {
+            this.seq = seq;
+            this.timestamp = timestamp;
+            this.userId = userId;
+            this.type = type;
+            this.sw = sw;
+            this.amount = amount;
+            this.balanceBefore = balanceBefore;
+            this.balanceAfter = balanceAfter;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("#%d %tF %<tT user=%d %s %,d VND (%,d → %,d) SW=%04X",
+                    seq, timestamp, userId, type.label, amount, balanceBefore, balanceAfter, sw);
+        }
+    }
+
+    public static final int RECORD_SIZE = 40;
+    private static final int CRC_OFFSET = 36;
+
+    private static final String DIR = System.getProperty("gym.journal.dir", "journal");
+    private static final int SEGMENT_RECORDS = Integer.getInteger("gym.journal.segmentRecords", 65536);
+    private static final long FLUSH_INTERVAL_MS = Long.getLong("gym.journal.flushMs", 20);
+
+    // Thư mục đã khóa trong JVM này: đóng channel thứ hai trên journal.lock
+    // sẽ nhả khóa POSIX của cả tiến trình, nên phải chặn trước khi mở file
+    private static final Set<String> LOCKED_DIRS = ConcurrentHashMap.newKeySet();
+
+    private final File dir;
+    private String lockKey;
+    private FileChannel lockChannel;
+
+    // Segment đang ghi; các trường dưới đây được bảo vệ bởi khóa của this
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int slot;                 // slot kế tiếp trong segment
+    private long nextSeq = 1;         // seq 0 = slot trống
+    private long appendedSeq;
+    private volatile long durableSeq;
+    private volatile boolean enabled;
+    private final byte[] scratch = new byte[RECORD_SIZE];
+    private final CRC32 crc = new CRC32();
+
+    private final Thread flusher;
+    private final LatencyHistogram appendLatency = new LatencyHistogram();
+    private final LatencyHistogram flushLatency = new LatencyHistogram();
+
+    private static class Holder {
+        static final TransactionJournal INSTANCE = new TransactionJournal(new File(DIR));
+    }
+
+    public static TransactionJournal getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // Ngoài getInstance() chỉ test mở thẳng trên thư mục tạm
+    TransactionJournal(File dir) {
+        this.dir = dir;
+        try {
+            recover();
+            enabled = true;
+        } catch (IOException ex) {
+            unlock();
+            System.err.println("[JOURNAL] Không mở được " + dir.getAbsolutePath() + ": " + ex.getMessage()
+                    + " - tắt nhật ký giao dịch");
+        }
+        flusher = new Thread(this::flushLoop, "journal-flush");
+        flusher.setDaemon(true);
+        if (enabled) {
+            flusher.start();
+        }
+    }
+
+    /**
+     * Ghi một giao dịch. Không chờ đĩa.
+     * @return seq của record, -1 nếu journal đã tắt
+     */
+    public long append(Type type, int userId, int amount, int balanceBefore, int balanceAfter, int sw) {
+        if (!enabled) {
+            return -1;
+        }
+        long start = System.nanoTime();
+        long seq;
+        synchronized (this) {
+            if (!enabled) {
+                return -1;
+            }
+            try {
+                if (slot == SEGMENT_RECORDS) {
+                    roll();
+                }
+            } catch (IOException ex) {
+                disable("Không tạo được segment mới: " + ex.getMessage());
+                return -1;
+            }
+            seq = nextSeq++;
+            byte[] r = scratch;
+            putLong(r, 0, seq);
+            putLong(r, 8, System.currentTimeMillis());
+            CardLayout.putS32(r, 16, userId);
+            r[20] = (byte) type.ordinal();
+            r[21] = 0;
+            CardLayout.putU16(r, 22, sw);
+            CardLayout.putS32(r, 24, amount);
+            CardLayout.putS32(r, 28, balanceBefore);
+            CardLayout.putS32(r, 32, balanceAfter);
+            crc.reset();
+            crc.update(r, 0, CRC_OFFSET);
+            CardLayout.putS32(r, CRC_OFFSET, (int) crc.getValue());
+            ((Buffer) segment).position(slot * RECORD_SIZE);
+            segment.put(r);
+            slot++;
+            appendedSeq = seq;
+        }
+        appendLatency.recordNanos(System.nanoTime() - start);
+        return seq;
+    }
+
+    /**
+     * Chờ tới khi record seq đã được force xuống đĩa
+     * @return false nếu hết thời gian hoặc journal đã tắt
+     */
+    public boolean awaitDurable(long seq, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (this) {
+            notifyAll(); // đánh thức flusher, không đợi hết chu kỳ
+            while (durableSeq < seq) {
+                long left = deadline - System.currentTimeMillis();
+                if (!enabled || left <= 0) {
+                    return false;
+                }
+                wait(left);
+            }
+        }
+        return true;
+    }
+
+    private void flushLoop() {
+        while (true) {
+            MappedByteBuffer target;
+            long upTo;
+            synchronized (this) {
+                try {
+                    wait(FLUSH_INTERVAL_MS);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                if (!enabled) {
+                    return;
+                }
+                if (appendedSeq == durableSeq) {
+                    continue;
+                }
+                target = segment;
+                upTo = appendedSeq;
+            }
+            // force ngoài khóa: append vẫn chạy trong lúc chờ đĩa
+            long start = System.nanoTime();
+            target.force();
+            flushLatency.recordNanos(System.nanoTime() - start);
+            synchronized (this) {
+                if (upTo > durableSeq) {
+                    durableSeq = upTo;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Segment hiện tại đầy: force, đóng và mở segment mới bắt đầu từ nextSeq.
+     * Gọi khi đang giữ khóa.
+     */
+    private void roll() throws IOException {
+        segment.force();
+        durableSeq = appendedSeq;
+        channel.close();
+        openSegment(segmentFile(nextSeq));
+        slot = 0;
+    }
+
+    private void openSegment(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) SEGMENT_RECORDS * RECORD_SIZE);
+    }
+
+    /**
+     * Mở segment cuối cùng và tìm slot ghi tiếp theo
+     */
+    private void recover() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("không tạo được thư mục");
+        }
+        lock();
+        File[] segments = listSegments();
+        if (segments.length == 0) {
+            openSegment(segmentFile(nextSeq));
+            return;
+        }
+        File last = segments[segments.length - 1];
+        openSegment(last);
+        nextSeq = firstSeqOf(last);
+        slot = 0;
+        while (slot < SEGMENT_RECORDS && decode(segment, slot * RECORD_SIZE) != null) {
+            slot++;
+            nextSeq++;
+        }
+        appendedSeq = nextSeq - 1;
+        durableSeq = appendedSeq;
+    }
+
+    /**
+     * Giữ khóa ghi thư mục suốt đời journal (segment đổi khi roll nên không khóa segment)
+     */
+    private void lock() throws IOException {
+        String key = dir.getCanonicalPath();
+        if (!LOCKED_DIRS.add(key)) {
+            throw new IOException("đã có journal khác trong tiến trình này ghi vào");
+        }
+        lockKey = key;
+        lockChannel = new RandomAccessFile(new File(dir, "journal.lock"), "rw").getChannel();
+        FileLock lock = lockChannel.tryLock();
+        if (lock == null) {
+            throw new IOException("đang được một tiến trình khác ghi (journal.lock)");
+        }
+    }
+
+    private void unlock() {
+        if (lockChannel != null) {
+            try {
+                lockChannel.close(); // nhả luôn khóa
+            } catch (IOException ex) {
+                System.err.println("[JOURNAL] Lỗi nhả khóa: " + ex.getMessage());
+            }
+            lockChannel = null;
+        }
+        if (lockKey != null) {
+            LOCKED_DIRS.remove(lockKey);
+            lockKey = null;
+        }
+    }
+
+    /**
+     * Đọc lại toàn bộ journal theo thứ tự seq (cũ nhất trước)
+     */
+    public void replay(Consumer<Record> visitor) throws IOException {
+        for (File file : listSegments()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                ByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                for (int off = 0; off + RECORD_SIZE <= buf.limit(); off += RECORD_SIZE) {
+                    Record r = decode(buf, off);
+                    if (r == null) {
+                        break;
+                    }
+                    visitor.accept(r);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return null nếu slot trống hoặc record hỏng (sai CRC)
+     */
+    private static Record decode(ByteBuffer buf, int off) {
+        long seq = buf.getLong(off);
+        if (seq == 0) {
+            return null;
+        }
+        byte[] r = new byte[RECORD_SIZE];
+        for (int i = 0; i < RECORD_SIZE; i++) {
+            r[i] = buf.get(off + i);
+        }
+        CRC32 check = new CRC32();
+        check.update(r, 0, CRC_OFFSET);
+        if ((int) check.getValue() != CardLayout.s32(r, CRC_OFFSET)) {
+            return null;
+        }
+        return new Record(seq, buf.getLong(off + 8), CardLayout.s32(r, 16), Type.of(r[20]),
+                CardLayout.u16(r, 22), CardLayout.s32(r, 24), CardLayout.s32(r, 28), CardLayout.s32(r, 32));
+    }
+
+    private File[] listSegments() {
+        File[] files = dir.listFiles((d, name) -> name.startsWith("journal-") && name.endsWith(".dat"));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files); // tên có seq đệm 0 → thứ tự tên = thứ tự seq
+        return files;
+    }
+
+    private File segmentFile(long firstSeq) {
+        return new File(dir, String.format("journal-%016d.dat", firstSeq));
+    }
+
+    private static long firstSeqOf(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring("journal-".length(), name.length() - ".dat".length()));
+    }
+
+    private static void putLong(byte[] d, int off, long v) {
+        CardLayout.putS32(d, off, (int) (v >>> 32));
+        CardLayout.putS32(d, off + 4, (int) v);
+    }
+
+    private void disable(String reason) {
+        enabled = false;
+        notifyAll();
+        System.err.println("[JOURNAL] " + reason + " - tắt nhật ký giao dịch");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getDurableSeq() {
+        return durableSeq;
+    }
+
+    public synchronized String getStats() {
+        return String.format("dir=%s seq=%d durable=%d append[%s] flush[%s]",
+                dir.getPath(), appendedSeq, durableSeq, appendLatency, flushLatency);
+    }
+
+    /**
+     * Force phần còn lại và đóng segment (gọi từ shutdown hook)
+     */
+    public void close() {
+        synchronized (this) {
+            if (!enabled) {
+                unlock(); // tắt giữa chừng do lỗi ghi: vẫn còn giữ khóa
+                return;
+            }
+            enabled = false;
+            segment.force();
+            durableSeq = appendedSeq;
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                System.err.println("[JOURNAL] Lỗi đóng segment: " + ex.getMessage());
+            }
+            unlock();
+            notifyAll();
+        }
+        flusher.interrupt();
+    }
+}
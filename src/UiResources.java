@@ -0,0 +1,86 @@
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tài nguyên giao diện nạp sẵn lúc khởi động (chạy song song với dựng cửa sổ):
+ * các font cửa sổ dùng (đo chữ một lần để nạp file font + glyph) và ảnh QR
+ * nạp tiền đã scale sẵn, để lần mở dialog đầu tiên không phải đọc đĩa.
+ */
+public final class UiResources {
+    public static final int QR_SIZE = 300;
+    private static final String QR_FILE = System.getProperty("gym.qr", "resources/qr-code.png");
+
+    // Mỗi họ font + kiểu mà các cửa sổ dùng (file font nạp theo họ / kiểu, không theo cỡ)
+    private static final Font[] FONTS = {
+        new Font("Segoe UI", Font.PLAIN, 12),
+        new Font("Segoe UI", Font.BOLD, 20),
+        new Font("Arial", Font.PLAIN, 12),
+        new Font("Arial", Font.BOLD, 12),
+        new Font("Consolas", Font.PLAIN, 12)
+    };
+    private static final String SAMPLE = "HỆ THỐNG ĐẠI HỘI GYM 0123456789 ₫ ✓";
+
+    private static ImageIcon qrCode;
+    private static boolean qrLoaded;
+
+    private UiResources() {
+    }
+
+    public static void preload() {
+        BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = scratch.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            for (Font f : FONTS) {
+                g.setFont(f);
+                g.getFontMetrics().stringWidth(SAMPLE);
+                g.drawString(SAMPLE, 0, 0);
+            }
+        } finally {
+            g.dispose();
+        }
+        getQrCode();
+    }
+
+    /**
+     * Ảnh QR QR_SIZE x QR_SIZE, null nếu không có file
+     */
+    public static synchronized ImageIcon getQrCode() {
+        if (!qrLoaded) {
+            qrCode = loadQr(new File(QR_FILE));
+            qrLoaded = true;
+        }
+        return qrCode;
+    }
+
+    private static ImageIcon loadQr(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            BufferedImage src = ImageIO.read(file);
+            if (src == null) {
+                System.err.println("[UI] Không đọc được ảnh " + file);
+                return null;
+            }
+            BufferedImage scaled = new BufferedImage(QR_SIZE, QR_SIZE, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = scaled.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+                g.drawImage(src, 0, 0, QR_SIZE, QR_SIZE, null);
+            } finally {
+                g.dispose();
+            }
+            return new ImageIcon(scaled);
+        } catch (IOException ex) {
+            System.err.println("[UI] Không đọc được ảnh " + file + ": " + ex.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/**
+ * Cấp userId cho thẻ mới, không trùng: mỗi ID 16 bit là một bit trong bitmap
+ * 8 KB (1024 long) lưu trong file map vào bộ nhớ. Bit = 1 là ID đã cấp.
+ *
+ * Tìm ID trống: duyệt từng word 64 bit từ vị trí tìm lần trước, word nào chưa
+ * đầy thì lấy bit 0 thấp nhất bằng numberOfTrailingZeros - tối đa 1024 phép so
+ * sánh kể cả khi gần hết ID.
+ *
+ * Nhận/trả ID chạy trong synchronized + FileLock trên file bitmap, nên nhiều
+ * quầy (nhiều thread hay nhiều process trên cùng máy) tạo thẻ đồng thời vẫn
+ * không cấp trùng; bitmap được force() ngay sau mỗi lần đổi để khởi động lại
+ * không cấp lại ID đã dùng.
+ *
+ * ID 0 dành cho thẻ trắng / thẻ đã xóa, không bao giờ được cấp.
+ * File: -Dgym.userids.file (mặc định userids.bitmap). File mới được khởi tạo
+ * từ các hội viên đã có trong MemberStore.
+ */
+public class UserIdAllocator {
+    public static final int ID_COUNT = 65536;
+    private static final int WORDS = ID_COUNT / 64;
+    private static final int BITMAP_BYTES = ID_COUNT / 8;
+
+    private static final String FILE = System.getProperty("gym.userids.file", "userids.bitmap");
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer bitmap;
+    private int hint; // word bắt đầu tìm lần sau
+
+    // Không dùng holder class: lỗi mở file trong static init thành ExceptionInInitializerError
+    private static volatile UserIdAllocator instance;
+
+    /**
+     * Mở bitmap ở lần gọi đầu; mở lỗi thì lần gọi sau thử lại
+     * @throws IllegalStateException nếu không mở được file bitmap
+     */
+    public static UserIdAllocator getInstance() {
+        UserIdAllocator a = instance;
+        if (a == null) {
+            synchronized (UserIdAllocator.class) {
+                a = instance;
+                if (a == null) {
+                    try {
+                        instance = a = new UserIdAllocator(new File(FILE));
+                    } catch (IOException ex) {
+                        throw new IllegalStateException("Không mở được bitmap userId " + FILE + ": " + ex.getMessage(), ex);
+                    }
+                }
+            }
+        }
+        return a;
+    }
+
+    // Ngoài getInstance() chỉ test mở thẳng trên file tạm
+    UserIdAllocator(File file) throws IOException {
+        this.file = file;
+        boolean fresh = !file.exists() || file.length() < BITMAP_BYTES;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        try {
+            bitmap = channel.map(FileChannel.MapMode.READ_WRITE, 0, BITMAP_BYTES);
+            if (fresh) {
+                seed();
+            }
+        } catch (IOException | RuntimeException ex) {
+            raf.close(); // getInstance() sẽ mở lại
+            throw ex;
+        }
+    }
+
+    /**
+     * File mới: đánh dấu ID 0 và các ID đã thấy trên thẻ (MemberStore)
+     */
+    private void seed() throws IOException {
+        FileLock lock = channel.lock();
+        try {
+            setBit(0);
+            MemberStore members = MemberStore.getInstance();
+            for (int id = 1; id < ID_COUNT; id++) {
+                if (members.get(id) != null) {
+                    setBit(id);
+                }
+            }
+            bitmap.force();
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Nhận một ID chưa cấp
+     * @throws IllegalStateException nếu đã hết 65535 ID
+     */
+    public synchronized int allocate() throws IOException {
+        FileLock lock = channel.lock();
+        try {
+            for (int n = 0; n < WORDS; n++) {
+                int w = (hint + n) % WORDS;
+                long word = bitmap.getLong(w * 8);
+                if (word != -1L) {
+                    int id = w * 64 + Long.numberOfTrailingZeros(~word);
+                    bitmap.putLong(w * 8, word | (1L << (id & 63)));
+                    bitmap.force();
+                    hint = w;
+                    return id;
+                }
+            }
+        } finally {
+            lock.release();
+        }
+        throw new IllegalStateException("Đã hết userId (" + (ID_COUNT - 1) + " thẻ)");
+    }
+
+    /**
+     * Đánh dấu ID đã dùng (thẻ cấp trước khi có allocator)
+     * @return false nếu ID đã được đánh dấu từ trước
+     */
+    public synchronized boolean claim(int id) throws IOException {
+        checkId(id);
+        FileLock lock = channel.lock();
+        try {
+            if (isSet(id)) {
+                return false;
+            }
+            setBit(id);
+            bitmap.force();
+            return true;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Trả ID khi xóa thẻ (hoặc khi ghi thẻ mới thất bại)
+     */
+    public synchronized void release(int id) throws IOException {
+        checkId(id);
+        FileLock lock = channel.lock();
+        try {
+            int w = id >>> 6;
+            bitmap.putLong(w * 8, bitmap.getLong(w * 8) & ~(1L << (id & 63)));
+            bitmap.force();
+            if (w < hint) {
+                hint = w; // ưu tiên dùng lại ID nhỏ
+            }
+        } finally {
+            lock.release();
+        }
+    }
+
+    public synchronized boolean isAllocated(int id) {
+        return id >= 0 && id < ID_COUNT && isSet(id);
+    }
+
+    public synchronized int countFree() {
+        int used = 0;
+        for (int w = 0; w < WORDS; w++) {
+            used += Long.bitCount(bitmap.getLong(w * 8));
+        }
+        return ID_COUNT - used;
+    }
+
+    private static void checkId(int id) {
+        if (id <= 0 || id >= ID_COUNT) {
+            throw new IllegalArgumentException("userId ngoài khoảng 1-65535: " + id);
+        }
+    }
+
+    private boolean isSet(int id) {
+        return (bitmap.getLong((id >>> 6) * 8) & (1L << (id & 63))) != 0;
+    }
+
+    private void setBit(int id) {
+        int w = id >>> 6;
+        bitmap.putLong(w * 8, bitmap.getLong(w * 8) | (1L << (id & 63)));
+    }
+
+    @Override
+    public String toString() {
+        return "UserIdAllocator{" + file.getPath() + ", free=" + countFree() + "}";
+    }
+}
@@ -0,0 +1,177 @@
+import org.junit.Test;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Encode / decode record thẻ không cấp phát (họ tên UTF-8 encode thủ công, cache
+ * tên khi decode) và parse ring nhật ký READ LOG
+ */
+public class CardHelperTest {
+    private static final int NAME_OFFSET = CardLayout.CURRENT.offFullName;
+
+    private static CardData member(String name) {
+        CardData card = new CardData(1234, 500000, (short) 30, (byte) 42, CardData.MAX_PIN_RETRY,
+                (byte) 15, (byte) 8, (short) 1995);
+        card.fullName = name;
+        return card;
+    }
+
+    private static byte[] record(CardData card) {
+        byte[] data = new byte[CardLayout.CURRENT.size];
+        CardHelper.encode(card, data, 0);
+        return data;
+    }
+
+    private static byte[] encodeName(String name) {
+        return encodeName(member(name));
+    }
+
+    private static byte[] encodeName(CardData card) {
+        byte[] data = record(card);
+        int end = NAME_OFFSET;
+        while (end < data.length && data[end] != 0) {
+            end++;
+        }
+        return Arrays.copyOfRange(data, NAME_OFFSET, end);
+    }
+
+    @Test
+    public void encodeNameMatchesStringGetBytes() {
+        String[] names = {"", "Nguyễn Văn A", "a😀b", "x\uD800y", "\uDC00", "ab\uD83D"};
+        for (String name : names) {
+            assertArrayEquals(name, name.getBytes(StandardCharsets.UTF_8), encodeName(name));
+        }
+    }
+
+    @Test
+    public void encodeNameNeverSplitsACharacter() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            sb.append('ễ'); // 3 bytes
+        }
+        byte[] bytes = encodeName(sb.toString());
+        assertEquals(48, bytes.length);
+        assertEquals(16, new String(bytes, StandardCharsets.UTF_8).length());
+    }
+
+    @Test
+    public void decodeRoundTripsTheRecord() {
+        CardData card = CardHelper.parseReadResponse(record(member("Nguyễn Văn A")));
+        assertEquals(1234, card.userId);
+        assertEquals(500000, card.balance);
+        assertEquals(30, card.expiryDays);
+        assertEquals(42, card.pin);
+        assertEquals(CardData.MAX_PIN_RETRY, card.pinRetry);
+        assertEquals("15/08/1995", card.getDobString());
+        assertEquals("Nguyễn Văn A", card.fullName);
+    }
+
+    private static byte[] recordWithName(byte[] name) {
+        byte[] data = record(member(""));
+        System.arraycopy(name, 0, data, NAME_OFFSET, name.length);
+        return data;
+    }
+
+    @Test
+    public void decodedNameIsCachedOnlyWhenItRoundTrips() {
+        CardData card = CardHelper.parseReadResponse(recordWithName("Lê Văn C".getBytes(StandardCharsets.UTF_8)));
+        assertSame(card.fullName, card.nameSource);
+
+        card = CardHelper.parseReadResponse(recordWithName("  Lê Văn C ".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("Lê Văn C", card.fullName);
+        assertNull(card.nameSource);
+        assertArrayEquals("Lê Văn C".getBytes(StandardCharsets.UTF_8), encodeName(card));
+
+        card = CardHelper.parseReadResponse(recordWithName(new byte[] {'A', (byte) 0xC3}));
+        assertNull(card.nameSource);
+    }
+
+    @Test
+    public void sameNameKeepsTheCachedString() {
+        byte[] data = record(member("Phạm D"));
+        CardData card = CardHelper.parseReadResponse(data);
+        String first = card.fullName;
+        CardHelper.decodeInto(data, 0, data.length, card);
+        assertSame(first, card.fullName);
+
+        data = record(member("Phạm E"));
+        CardHelper.decodeInto(data, 0, data.length, card);
+        assertEquals("Phạm E", card.fullName);
+    }
+
+    @Test
+    public void bufferAndArrayCodecsAgree() {
+        CardData card = member("Lê Văn C");
+        ByteBuffer direct = ByteBuffer.allocateDirect(CardLayout.CURRENT.size);
+        CardHelper.encode(card, direct);
+        assertEquals(CardLayout.CURRENT.size, direct.position());
+        ((Buffer) direct).flip(); // Buffer: chạy được trên JRE 8 khi build bằng JDK mới
+        byte[] fromBuffer = new byte[CardLayout.CURRENT.size];
+        direct.duplicate().get(fromBuffer);
+        assertArrayEquals(record(card), fromBuffer);
+
+        CardData decoded = CardHelper.decodeInto(direct, new CardData());
+        assertEquals("Lê Văn C", decoded.fullName);
+        assertEquals(500000, decoded.balance);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortRecord() {
+        CardHelper.parseReadResponse(new byte[CardLayout.CURRENT.size - 1]);
+    }
+
+    private static byte[] logResponse(int capacity, int count, int head, int... seqs) {
+        byte[] data = new byte[2 + capacity * CardLogEntry.SIZE];
+        data[0] = (byte) count;
+        data[1] = (byte) head;
+        for (int slot = 0; slot < seqs.length; slot++) {
+            int off = 2 + slot * CardLogEntry.SIZE;
+            CardLayout.putS32(data, off, seqs[slot]);
+            data[off + 4] = 0x02;
+            CardLayout.putS32(data, off + 5, 1000 * seqs[slot]);
+            CardLayout.putS32(data, off + 9, 5000 + seqs[slot]);
+        }
+        return data;
+    }
+
+    private static long[] seqs(List<CardLogEntry> entries) {
+        long[] out = new long[entries.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = entries.get(i).seq;
+        }
+        return out;
+    }
+
+    @Test
+    public void logNotYetFullStartsAtSlotZero() {
+        List<CardLogEntry> entries = CardHelper.parseLog(logResponse(4, 2, 2, 1, 2));
+        assertArrayEquals(new long[] {1, 2}, seqs(entries));
+        assertEquals(CardLogEntry.Type.CREDIT, entries.get(0).type);
+        assertEquals(1000, entries.get(0).amount);
+        assertEquals(5002, entries.get(1).balanceAfter);
+    }
+
+    @Test
+    public void fullLogStartsAfterHead() {
+        // Ring 4 dòng đã ghi 6 lần: slot 0-1 là dòng 5-6, head = 2 trỏ vào dòng cũ nhất
+        List<CardLogEntry> entries = CardHelper.parseLog(logResponse(4, 4, 2, 5, 6, 3, 4));
+        assertArrayEquals(new long[] {3, 4, 5, 6}, seqs(entries));
+    }
+
+    @Test
+    public void countIsClampedToCapacity() {
+        assertEquals(2, CardHelper.parseLog(logResponse(2, 9, 0, 1, 2)).size());
+        assertTrue(CardHelper.parseLog(new byte[] {0, 0}).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedLog() {
+        CardHelper.parseLog(new byte[1]);
+    }
+}
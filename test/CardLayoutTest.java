@@ -0,0 +1,108 @@
+import org.junit.Test;
+
+import javax.smartcardio.CommandAPDU;
+
+import static org.junit.Assert.*;
+
+/**
+ * Nhận dạng layout thẻ (V2 / V1 / GYMCARD), encode / decode đúng trường của từng
+ * layout, và UPDATE BINARY chỉ ghi vùng đã đổi
+ */
+public class CardLayoutTest {
+
+    private static CardData member() {
+        CardData card = new CardData(1234, 500000, (short) 30, (byte) 42, CardData.MAX_PIN_RETRY,
+                (byte) 15, (byte) 8, (short) 1995);
+        card.fullName = "Nguyễn Văn A";
+        card.packageType = 2;
+        return card;
+    }
+
+    private static byte[] record(CardData card, CardLayout layout) {
+        CardData c = card.copy();
+        c.layout = layout;
+        byte[] data = new byte[layout.size];
+        CardHelper.encode(c, data, 0);
+        return data;
+    }
+
+    @Test
+    public void detectsLayoutByVersionByteThenLength() {
+        assertSame(CardLayout.V2, CardLayout.detect(record(member(), CardLayout.V2), 0, CardLayout.V2.size));
+        assertSame(CardLayout.V1, CardLayout.detect(record(member(), CardLayout.V1), 0, CardLayout.V1.size));
+        assertSame(CardLayout.GYMCARD, CardLayout.detect(record(member(), CardLayout.GYMCARD), 0, CardLayout.GYMCARD.size));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownLength() {
+        CardLayout.detect(new byte[40], 0, 40);
+    }
+
+    @Test
+    public void decodeRoundTripsEveryLayout() {
+        for (CardLayout layout : new CardLayout[] {CardLayout.V2, CardLayout.V1, CardLayout.GYMCARD}) {
+            byte[] data = record(member(), layout);
+            CardData card = CardHelper.parseReadResponse(data);
+            assertSame(layout, card.layout);
+            assertEquals(1234, card.userId);
+            assertEquals(500000, card.balance);
+            assertEquals(30, card.expiryDays);
+            assertEquals(42, card.pin);
+            assertEquals("Nguyễn Văn A", card.fullName);
+            assertEquals(layout.has(CardLayout.Field.PACKAGE_TYPE) ? 2 : 0, card.packageType);
+            assertEquals(layout.has(CardLayout.Field.DOB_YEAR) ? 1995 : 0, card.dobYear);
+        }
+    }
+
+    @Test
+    public void unchangedCardNeedsNoWrite() {
+        CardData card = CardHelper.parseReadResponse(record(member(), CardLayout.V2));
+        assertNull(CardHelper.buildUpdateCommand(card));
+    }
+
+    @Test
+    public void balanceChangeWritesOnlyTheBalanceBytes() {
+        CardData card = CardHelper.parseReadResponse(record(member(), CardLayout.V2));
+        card.balance = 500000 + 0x01000001; // đổi byte đầu và byte cuối của trường
+        CommandAPDU update = CardHelper.buildUpdateCommand(card);
+
+        int offset = (update.getP1() << 8) | update.getP2();
+        assertEquals(CardLayout.V2.offBalance, offset);
+        assertEquals(4, update.getNc());
+
+        byte[] image = card.image.clone();
+        System.arraycopy(update.getData(), 0, image, offset, update.getNc());
+        assertArrayEquals(record(card, CardLayout.V2), image);
+    }
+
+    @Test
+    public void nameChangeStartsAtTheNameField() {
+        CardData card = CardHelper.parseReadResponse(record(member(), CardLayout.V2));
+        card.fullName = "Trần Thị B";
+        CommandAPDU update = CardHelper.buildUpdateCommand(card);
+        assertEquals(CardLayout.V2.offFullName, (update.getP1() << 8) | update.getP2());
+    }
+
+    @Test
+    public void markWrittenMakesTheImageCurrent() {
+        CardData card = CardHelper.parseReadResponse(record(member(), CardLayout.V2));
+        card.expiryDays = 60;
+        assertNotNull(CardHelper.buildUpdateCommand(card));
+        CardHelper.markWritten(card);
+        assertNull(CardHelper.buildUpdateCommand(card));
+    }
+
+    @Test
+    public void oldLayoutsAndUnreadCardsGetAFullRecord() {
+        CardData v1 = CardHelper.parseReadResponse(record(member(), CardLayout.V1));
+        v1.balance = 1;
+        CommandAPDU update = CardHelper.buildUpdateCommand(v1);
+        assertEquals(0, (update.getP1() << 8) | update.getP2());
+        assertEquals(CardLayout.V1.size, update.getNc());
+
+        CardData fresh = member(); // chưa đọc thẻ: không có ảnh để so
+        update = CardHelper.buildUpdateCommand(fresh);
+        assertEquals(0, (update.getP1() << 8) | update.getP2());
+        assertEquals(CardLayout.CURRENT.size, update.getNc());
+    }
+}
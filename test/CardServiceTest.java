@@ -0,0 +1,244 @@
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.smartcardio.ResponseAPDU;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Nghiệp vụ CardService chạy qua PcscClient tới thẻ ảo: phiên PIN, trừ / cộng
+ * tiền, kho, journal, MemberStore và cấp / xóa thẻ. Dữ liệu vào thư mục tạm.
+ */
+public class CardServiceTest {
+    private static final byte PIN = 42;
+    private static final int USER_ID = 60077;
+
+    private SimulatedCard card;
+    private SimulatedTerminal terminal;
+    private PcscClient client;
+    private CardService service;
+    private final CardEventBroadcaster.ApprovalListener approver =
+            request -> request.complete(ApprovalRequest.Decision.APPROVED);
+
+    @BeforeClass
+    public static void isolate() throws IOException {
+        TestStorage.init();
+    }
+
+    @AfterClass
+    public static void forgetMember() {
+        // Bitmap userId mới được seed từ MemberStore: không để hội viên test lại cho test khác
+        MemberStore.getInstance().remove(USER_ID);
+    }
+
+    @Before
+    public void insertCard() {
+        CardData data = new CardData(USER_ID, 100000, (short) 30, PIN, CardData.MAX_PIN_RETRY,
+                (byte) 2, (byte) 9, (short) 1990);
+        data.fullName = "Trần Thị B";
+        card = new SimulatedCard(data);
+        terminal = new SimulatedTerminal("Test Reader");
+        terminal.insert(card);
+        client = new PcscClient(terminal);
+        service = new CardService(client);
+        CardEventBroadcaster.getInstance().addApprovalListener(approver);
+    }
+
+    @After
+    public void close() {
+        CardEventBroadcaster.getInstance().removeApprovalListener(approver);
+        client.close();
+    }
+
+    private CardData swipe() throws InterruptedException {
+        CardService.Result r = CardService.await(service.swipe(PIN));
+        assertTrue(r.toString(), r.isOk());
+        return r.card;
+    }
+
+    private static List<TransactionJournal.Record> journal(int userId) throws IOException {
+        List<TransactionJournal.Record> records = new ArrayList<>();
+        TransactionJournal.getInstance().replay(r -> {
+            if (r.userId == userId) {
+                records.add(r);
+            }
+        });
+        return records;
+    }
+
+    @Test
+    public void swipeOpensASessionAndStoresTheMember() throws Exception {
+        CardData member = swipe();
+        assertEquals(USER_ID, member.userId);
+        assertEquals(100000, member.balance);
+        assertEquals("Trần Thị B", member.fullName);
+        assertEquals(CardHelper.DEFAULT_SESSION_OPS, card.getSessionOps());
+        assertFalse(service.needsPin());
+        assertEquals(100000, MemberStore.getInstance().get(USER_ID).card.balance);
+    }
+
+    @Test
+    public void wrongPinIsReportedWithoutReadingTheCard() throws Exception {
+        CardService.Result r = CardService.await(service.swipe((byte) (PIN + 1)));
+        assertEquals(CardService.Status.PIN_FAILED, r.status);
+        assertNull(r.card);
+        assertEquals(CardData.MAX_PIN_RETRY - 1, card.snapshot().pinRetry);
+    }
+
+    @Test
+    public void renewDebitsAndExtendsInOneStep() throws Exception {
+        CardData member = swipe();
+        PackageCatalog.Quote quote = new PackageCatalog.Quote(new MembershipPackage(1, "1 Tháng", 30, 40000), 40000, null);
+        CardService.Result r = CardService.await(service.renew(member, quote, null));
+        assertTrue(r.toString(), r.isOk());
+        assertEquals(60000, card.snapshot().balance);
+        assertEquals(60, card.snapshot().expiryDays);
+        assertEquals(60000, member.balance);
+
+        TransactionJournal.Record last = lastOf(journal(USER_ID));
+        assertEquals(TransactionJournal.Type.EXTEND, last.type);
+        assertEquals(100000, last.balanceBefore);
+        assertEquals(60000, last.balanceAfter);
+    }
+
+    @Test
+    public void purchaseCommitsTheHeldStock() throws Exception {
+        CardData member = swipe();
+        StoreManager store = StoreManager.getInstance();
+        StoreItem water = store.getItem(1);
+        StockLedger.getInstance().restock(water.id, 5);
+        int before = store.getAvailable(water);
+
+        Cart cart = new Cart();
+        StockLedger.Reservation hold = store.openCart();
+        assertTrue(store.reserve(hold, water, 2));
+        cart.add(water, 2);
+        CardService.Result r = CardService.await(service.purchase(member, hold, cart, null));
+        assertTrue(r.toString(), r.isOk());
+
+        assertEquals(100000 - 2 * water.price, card.snapshot().balance);
+        assertEquals(before - 2, store.getAvailable(water));
+        assertEquals(0, StockLedger.getInstance().getReserved(water.id));
+    }
+
+    @Test
+    public void cardSideInsufficientFundsKeepsTheHold() throws Exception {
+        CardData member = swipe();
+        StoreManager store = StoreManager.getInstance();
+        StoreItem towel = store.getItem(2);
+        StockLedger.getInstance().restock(towel.id, 5);
+
+        Cart cart = new Cart();
+        StockLedger.Reservation hold = store.openCart();
+        assertTrue(store.reserve(hold, towel, 3));
+        cart.add(towel, 3);
+        member.balance = 1000000; // host tin là đủ tiền, thẻ thì không
+        CardService.Result r = CardService.await(service.purchase(member, hold, cart, null));
+
+        assertEquals(CardService.Status.INSUFFICIENT_FUNDS, r.status);
+        assertEquals(100000, card.snapshot().balance);
+        assertEquals(3, hold.getReserved(towel.id));
+        store.releaseAll(hold);
+    }
+
+    @Test
+    public void verifyDebitWithoutFundsKeepsTheSession() throws Exception {
+        CardData member = swipe();
+        assertTrue(CardService.await(service.endSession()).isOk());
+        ResponseAPDU resp = client.verifyAndDebit(member, PIN, 500000, CardHelper.DEFAULT_SESSION_OPS);
+        assertEquals(CardHelper.SW_INSUFFICIENT_FUNDS, resp.getSW());
+        // PIN đúng: thẻ mở phiên dù không trừ tiền, host phải thấy cùng số lượt
+        assertEquals(CardHelper.DEFAULT_SESSION_OPS, card.getSessionOps());
+        assertEquals(card.getSessionOps(), client.getVerifiedOps());
+        assertFalse(service.needsPin());
+    }
+
+    @Test
+    public void hostSideInsufficientFundsSendsNothing() throws Exception {
+        CardData member = swipe();
+        long apdus = card.getApduCount();
+        Cart cart = new Cart();
+        cart.add(StoreManager.getInstance().getItem(2), 3);
+        CardService.Result r = CardService.await(service.purchase(member, null, cart, null));
+        assertEquals(CardService.Status.INSUFFICIENT_FUNDS, r.status);
+        assertEquals(apdus, card.getApduCount());
+    }
+
+    @Test
+    public void creditNeedsAPinOnceTheSessionEnds() throws Exception {
+        CardData member = swipe();
+        assertTrue(CardService.await(service.endSession()).isOk());
+        assertEquals(CardService.Status.PIN_REQUIRED, CardService.await(service.credit(member, 5000, null)).status);
+
+        CardService.Result r = CardService.await(service.credit(member, 5000, PIN));
+        assertTrue(r.toString(), r.isOk());
+        assertEquals(105000, card.snapshot().balance);
+        assertEquals(105000, MemberStore.getInstance().get(USER_ID).card.balance);
+    }
+
+    @Test
+    public void changePinKeepsTheMembersSession() throws Exception {
+        CardData member = swipe();
+        CardService.Result r = CardService.await(service.changePin(member, PIN, (byte) 7));
+        assertTrue(r.toString(), r.isOk());
+        assertEquals(7, card.snapshot().pin);
+        // VERIFY mở lại DEFAULT_SESSION_OPS lượt, lần ghi PIN dùng một lượt
+        assertEquals(CardHelper.DEFAULT_SESSION_OPS - 1, card.getSessionOps());
+        assertEquals(CardHelper.DEFAULT_SESSION_OPS - 1, client.getVerifiedOps());
+        assertEquals(CardService.Status.PIN_FAILED, CardService.await(service.changePin(member, PIN, (byte) 8)).status);
+    }
+
+    @Test
+    public void writeCardJournalsTheRealBalanceChange() throws Exception {
+        CardData member = swipe();
+        member.balance += 25000; // nhân viên sửa số dư rồi ghi cả record
+        assertTrue(CardHelper.isSuccess(client.writeCard(member).getSW()));
+        assertEquals(125000, card.snapshot().balance);
+
+        TransactionJournal.Record last = lastOf(journal(USER_ID));
+        assertEquals(TransactionJournal.Type.UPDATE, last.type);
+        assertEquals(25000, last.amount);
+        assertEquals(100000, last.balanceBefore);
+        assertEquals(125000, last.balanceAfter);
+    }
+
+    @Test
+    public void issueAndEraseUseTheAllocator() throws Exception {
+        SimulatedCard blank = new SimulatedCard();
+        terminal.remove();
+        terminal.insert(blank);
+        client.invalidateSession();
+
+        CardData fresh = new CardData(0, 20000, (short) 30, (byte) 9, CardData.MAX_PIN_RETRY,
+                (byte) 1, (byte) 1, (short) 2001);
+        fresh.fullName = "Hội viên mới";
+        CardService.Result issued = CardService.await(service.issue(fresh));
+        assertTrue(issued.toString(), issued.isOk());
+        int id = issued.card.userId;
+        assertTrue(id > 0);
+        assertTrue(UserIdAllocator.getInstance().isAllocated(id));
+        assertEquals(id, blank.snapshot().userId);
+        assertNotNull(MemberStore.getInstance().get(id));
+        assertEquals(TransactionJournal.Type.ISSUE, lastOf(journal(id)).type);
+
+        CardService.Result read = CardService.await(service.swipe((byte) 9));
+        assertTrue(read.toString(), read.isOk());
+        CardService.Result erased = CardService.await(service.erase(read.card));
+        assertTrue(erased.toString(), erased.isOk());
+        assertEquals(0, blank.snapshot().userId);
+        assertFalse(UserIdAllocator.getInstance().isAllocated(id));
+        assertNull(MemberStore.getInstance().get(id));
+        assertEquals(TransactionJournal.Type.ERASE, lastOf(journal(id)).type);
+    }
+
+    private static TransactionJournal.Record lastOf(List<TransactionJournal.Record> records) {
+        assertFalse(records.isEmpty());
+        return records.get(records.size() - 1);
+    }
+}
@@ -0,0 +1,169 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+import java.io.ByteArrayOutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Ngữ nghĩa APDU của thẻ ảo (phiên PIN, khóa thẻ, số dư, nhật ký) qua CardTransport:
+ * cùng một kịch bản chạy thẳng trên SimulatedTerminal và qua PcscClient
+ */
+@RunWith(Parameterized.class)
+public class SimulatedCardTest {
+    private static final byte PIN = 42;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> transports() {
+        return Arrays.asList(new Object[][] {{"SimulatedTerminal"}, {"PcscClient"}});
+    }
+
+    private final String kind;
+    private SimulatedCard card;
+    private CardTransport transport;
+
+    public SimulatedCardTest(String kind) {
+        this.kind = kind;
+    }
+
+    @Before
+    public void insertCard() throws Exception {
+        CardData data = new CardData(77, 100000, (short) 30, PIN, CardData.MAX_PIN_RETRY,
+                (byte) 1, (byte) 1, (short) 2000);
+        data.fullName = "Hội viên 77";
+        card = new SimulatedCard(data);
+        SimulatedTerminal terminal = new SimulatedTerminal("Test Reader");
+        terminal.insert(card);
+        if (kind.equals("PcscClient")) {
+            PcscClient client = new PcscClient(terminal);
+            client.openSession();
+            transport = client;
+        } else {
+            transport = terminal;
+        }
+        assertEquals(0x9000, transport.transmit(CardHelper.buildSelectCommand()).getSW());
+    }
+
+    @After
+    public void close() {
+        transport.close();
+    }
+
+    private int sw(CommandAPDU apdu) throws Exception {
+        return transport.transmit(apdu).getSW();
+    }
+
+    @Test
+    public void verifyOpensACountedSession() throws Exception {
+        assertEquals(0x9008, sw(CardHelper.buildVerifyPinCommand(PIN, 8)));
+        assertEquals(0x9007, sw(CardHelper.buildDebitCommand(1000)));
+        assertEquals(0x9006, sw(CardHelper.buildCreditCommand(500)));
+        assertEquals(99500, card.snapshot().balance);
+        assertEquals(6, card.getSessionOps());
+    }
+
+    @Test
+    public void privilegedCommandsNeedASession() throws Exception {
+        assertEquals(0x6982, sw(CardHelper.buildDebitCommand(1000)));
+        assertEquals(0x9001, sw(CardHelper.buildVerifyPinCommand(PIN, 1)));
+        assertEquals(0x9000, sw(CardHelper.buildDebitCommand(1000)));
+        assertEquals(0x6982, sw(CardHelper.buildDebitCommand(1000)));
+        assertEquals(99000, card.snapshot().balance);
+    }
+
+    @Test
+    public void endSessionDropsRemainingOps() throws Exception {
+        sw(CardHelper.buildVerifyPinCommand(PIN, 8));
+        assertEquals(0x9000, sw(CardHelper.buildEndSessionCommand()));
+        assertEquals(0, card.getSessionOps());
+        assertEquals(0x6982, sw(CardHelper.buildDebitCommand(1)));
+    }
+
+    @Test
+    public void wrongPinCountsDownThenLocks() throws Exception {
+        for (int left = CardData.MAX_PIN_RETRY - 1; left > 0; left--) {
+            assertEquals(0x63C0 | left, sw(CardHelper.buildVerifyPinCommand((byte) (PIN + 1), 8)));
+        }
+        assertEquals(0x63C0, sw(CardHelper.buildVerifyPinCommand((byte) (PIN + 1), 8)));
+        assertTrue(card.isLocked());
+        assertEquals(0x6983, sw(CardHelper.buildVerifyPinCommand(PIN, 8)));
+    }
+
+    @Test
+    public void correctPinResetsTheRetryCounter() throws Exception {
+        sw(CardHelper.buildVerifyPinCommand((byte) 0, 8));
+        sw(CardHelper.buildVerifyPinCommand((byte) 0, 8));
+        assertEquals(0x9008, sw(CardHelper.buildVerifyPinCommand(PIN, 8)));
+        assertEquals(CardData.MAX_PIN_RETRY, card.snapshot().pinRetry);
+    }
+
+    @Test
+    public void debitNeverOverdraws() throws Exception {
+        sw(CardHelper.buildVerifyPinCommand(PIN, 8));
+        assertEquals(CardHelper.SW_INSUFFICIENT_FUNDS, sw(CardHelper.buildDebitCommand(100001)));
+        assertEquals(100000, card.snapshot().balance);
+    }
+
+    @Test
+    public void combinedVerifyDebitReturnsTheRecord() throws Exception {
+        ResponseAPDU resp = transport.transmit(CardHelper.buildVerifyDebitCommand(PIN, 2500, 8));
+        assertTrue(CardHelper.isSuccess(resp.getSW()));
+        CardData after = CardHelper.parseReadResponse(resp.getData());
+        assertEquals(97500, after.balance);
+        assertEquals("Hội viên 77", after.fullName);
+    }
+
+    @Test
+    public void bufferTransmitReadsTheRecord() throws Exception {
+        ByteBuffer cmd = ByteBuffer.allocate(8);
+        CardHelper.encodeReadCommand(cmd);
+        ((Buffer) cmd).flip();
+        ByteBuffer resp = ByteBuffer.allocate(SimulatedCard.MAX_RESPONSE_SIZE);
+        assertEquals(0x9000, transport.transmit(cmd, resp));
+        ((Buffer) resp).flip();
+        ((Buffer) resp).limit(resp.limit() - 2);
+        assertEquals(77, CardHelper.decodeInto(resp, new CardData()).userId);
+    }
+
+    @Test
+    public void logRingKeepsTheNewest32Entries() throws Exception {
+        for (int i = 1; i <= 40; i++) {
+            assertEquals(0x9001, sw(CardHelper.buildVerifyPinCommand(PIN, 1)));
+            assertEquals(0x9000, sw(CardHelper.buildCreditCommand(i)));
+        }
+        List<CardLogEntry> entries = CardHelper.parseLog(readLog());
+        assertEquals(32, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            CardLogEntry e = entries.get(i);
+            assertEquals(9 + i, e.seq);
+            assertEquals(CardLogEntry.Type.CREDIT, e.type);
+            assertEquals(9 + i, e.amount);
+        }
+        assertEquals(card.snapshot().balance, entries.get(31).balanceAfter);
+    }
+
+    /**
+     * READ LOG + GET RESPONSE tới hết (61xx), chỉ qua CardTransport
+     */
+    private byte[] readLog() throws Exception {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ResponseAPDU resp = transport.transmit(CardHelper.buildReadLogCommand());
+        data.write(resp.getData());
+        while (resp.getSW1() == 0x61) {
+            resp = transport.transmit(CardHelper.buildGetResponseCommand(resp.getSW2()));
+            data.write(resp.getData());
+        }
+        assertEquals(0x9000, resp.getSW());
+        return data.toByteArray();
+    }
+}
@@ -0,0 +1,195 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tồn kho: snapshot + phát lại WAL khi khởi động, record ghi dở bị cắt, và
+ * nhiều quầy cùng giữ hàng không bán vượt tồn
+ */
+public class StockLedgerTest {
+    private static final byte REC_RESTOCK = 1;
+    private static final byte REC_SALE = 2;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File dir;
+    private StockLedger ledger;
+
+    @Before
+    public void open() throws IOException {
+        dir = tmp.newFolder("stock");
+        ledger = new StockLedger(dir);
+    }
+
+    @After
+    public void close() {
+        ledger.close();
+    }
+
+    private void reopen() {
+        ledger.close();
+        ledger = new StockLedger(dir);
+    }
+
+    @Test
+    public void restockAndSalesSurviveARestart() {
+        ledger.restock(1, 10);
+        ledger.restock(2, 3);
+        StockLedger.Reservation r = ledger.openReservation();
+        assertTrue(ledger.reserve(r, 1, 4));
+        ledger.commit(r, Collections.singletonMap(1, 4));
+        StockLedger.Reservation pending = ledger.openReservation();
+        assertTrue(ledger.reserve(pending, 2, 2)); // hàng đang giữ không được lưu
+        reopen();
+
+        assertEquals(6, ledger.getAvailable(1));
+        assertEquals(3, ledger.getAvailable(2));
+        assertEquals(0, ledger.getReserved(2));
+        assertEquals(-1, ledger.getAvailable(3));
+    }
+
+    /**
+     * [Type(1)] [SKU(4)] [Qty(4)] [CRC32 của 9 byte đầu(4)]
+     */
+    private static byte[] walRecord(byte type, int sku, int qty) {
+        ByteBuffer buf = ByteBuffer.allocate(13);
+        buf.put(type).putInt(sku).putInt(qty);
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, 9);
+        buf.putInt((int) crc.getValue());
+        return buf.array();
+    }
+
+    @Test
+    public void walIsReplayedUpToATornRecord() throws IOException {
+        ledger.close();
+        File wal = new File(dir, "stock.wal");
+        byte[] torn = walRecord(REC_SALE, 7, 100);
+        try (FileOutputStream out = new FileOutputStream(wal)) {
+            out.write(walRecord(REC_RESTOCK, 7, 20));
+            out.write(walRecord(REC_SALE, 7, 5));
+            out.write(walRecord(REC_RESTOCK, 8, 1));
+            out.write(torn, 0, 6); // mất điện giữa lúc ghi
+        }
+        ledger = new StockLedger(dir);
+
+        assertEquals(15, ledger.getAvailable(7));
+        assertEquals(1, ledger.getAvailable(8));
+        assertEquals(3 * 13, wal.length());
+    }
+
+    @Test
+    public void walStopsAtABadChecksum() throws IOException {
+        ledger.close();
+        File wal = new File(dir, "stock.wal");
+        byte[] bad = walRecord(REC_RESTOCK, 7, 50);
+        bad[8] ^= 1;
+        try (FileOutputStream out = new FileOutputStream(wal)) {
+            out.write(walRecord(REC_RESTOCK, 7, 20));
+            out.write(bad);
+            out.write(walRecord(REC_RESTOCK, 7, 30));
+        }
+        ledger = new StockLedger(dir);
+
+        assertEquals(20, ledger.getAvailable(7));
+        ledger.restock(7, 1);
+        reopen();
+        assertEquals(21, ledger.getAvailable(7));
+    }
+
+    @Test
+    public void concurrentReservesNeverOversell() throws Exception {
+        ledger.restock(1, 100);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<StockLedger.Reservation> carts = new ArrayList<>();
+        List<Future<Integer>> held = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < 16; i++) {
+                StockLedger.Reservation r = ledger.openReservation();
+                carts.add(r);
+                held.add(pool.submit(() -> {
+                    start.await();
+                    int n = 0;
+                    while (ledger.reserve(r, 1, 3)) {
+                        n += 3;
+                    }
+                    if (ledger.reserve(r, 1, 1)) {
+                        n++;
+                    }
+                    return n;
+                }));
+            }
+            start.countDown();
+            int total = 0;
+            for (Future<Integer> f : held) {
+                total += f.get();
+            }
+            assertEquals(100, total);
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(0, ledger.getAvailable(1));
+        assertEquals(100, ledger.getReserved(1));
+
+        for (StockLedger.Reservation r : carts) {
+            ledger.release(r);
+        }
+        assertEquals(100, ledger.getAvailable(1));
+        assertEquals(0, ledger.getReserved(1));
+    }
+
+    @Test
+    public void partialReleaseAndCommitReturnTheRest() {
+        ledger.restock(1, 10);
+        StockLedger.Reservation r = ledger.openReservation();
+        assertTrue(ledger.reserve(r, 1, 6));
+        assertFalse(ledger.reserve(r, 1, 5));
+        ledger.release(r, 1, 2);
+        assertEquals(4, r.getReserved(1));
+        assertEquals(6, ledger.getAvailable(1));
+
+        ledger.commit(r, Collections.singletonMap(1, 3)); // giữ 4, bán 3
+        assertEquals(7, ledger.getAvailable(1));
+        assertEquals(0, ledger.getReserved(1));
+        ledger.release(r); // đã commit: không trả lần nữa
+        assertEquals(7, ledger.getAvailable(1));
+    }
+
+    @Test
+    public void skuTrackedAfterReserveIsNotGivenBack() {
+        StockLedger.Reservation r = ledger.openReservation();
+        assertTrue(ledger.reserve(r, 5, 2)); // chưa nhập kho: bán không giới hạn
+        ledger.restock(5, 10);               // nhập kho khi giỏ còn mở
+        assertEquals(0, r.getReserved(5));
+
+        ledger.release(r);
+        assertEquals(10, ledger.getAvailable(5));
+        assertEquals(0, ledger.getReserved(5));
+
+        StockLedger.Reservation sold = ledger.openReservation();
+        assertTrue(ledger.reserve(sold, 6, 2));
+        ledger.restock(6, 10);
+        ledger.commit(sold, Collections.singletonMap(6, 2));
+        assertEquals(8, ledger.getAvailable(6));
+        assertEquals(0, ledger.getReserved(6));
+    }
+}
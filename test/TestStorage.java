@@ -0,0 +1,45 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Dữ liệu của test (journal, members.dat, bitmap userId, kho, danh mục) vào
+ * một thư mục tạm thay vì thư mục dự án. Các thuộc tính gym.* được đọc khi
+ * nạp class, nên test nào đụng tới singleton phải gọi init() trong @BeforeClass.
+ */
+final class TestStorage {
+    private static Path base;
+
+    private TestStorage() {
+    }
+
+    static synchronized Path init() throws IOException {
+        if (base == null) {
+            Path dir = Files.createTempDirectory("gym-test");
+            Path catalog = dir.resolve("store_items.csv");
+            Files.write(catalog, Arrays.asList("id,name,price", "1,Nước Uống 500ml,15000", "2,Towel Gym,50000"),
+                    StandardCharsets.UTF_8);
+            System.setProperty("gym.journal.dir", dir.resolve("journal").toString());
+            System.setProperty("gym.members.file", dir.resolve("members.dat").toString());
+            System.setProperty("gym.userids.file", dir.resolve("userids.bitmap").toString());
+            System.setProperty("gym.stock.dir", dir.resolve("stock").toString());
+            System.setProperty("gym.store.catalog", catalog.toString());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> delete(dir.toFile())));
+            base = dir;
+        }
+        return base;
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,137 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Khôi phục journal sau khi tắt máy giữa chừng: record hỏng CRC / ghi dở ở
+ * cuối segment bị bỏ qua và slot của nó được ghi đè bởi giao dịch kế tiếp.
+ * Mỗi thư mục chỉ một journal ghi.
+ */
+public class TransactionJournalTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File dir;
+    private TransactionJournal journal;
+
+    @Before
+    public void open() throws IOException {
+        dir = tmp.newFolder("journal");
+        journal = new TransactionJournal(dir);
+        assertTrue(journal.isEnabled());
+    }
+
+    @After
+    public void close() {
+        journal.close();
+    }
+
+    private void reopen() {
+        journal.close();
+        journal = new TransactionJournal(dir);
+    }
+
+    private List<TransactionJournal.Record> replay() throws IOException {
+        List<TransactionJournal.Record> records = new ArrayList<>();
+        journal.replay(records::add);
+        return records;
+    }
+
+    private File segment() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".dat"));
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    @Test
+    public void recordsSurviveAReopen() throws Exception {
+        assertEquals(1, journal.append(TransactionJournal.Type.CREDIT, 7, 50000, 0, 50000, 0x9000));
+        assertEquals(2, journal.append(TransactionJournal.Type.DEBIT, 7, 15000, 50000, 35000, 0x9007));
+        assertTrue(journal.awaitDurable(2, 5000));
+        reopen();
+
+        List<TransactionJournal.Record> records = replay();
+        assertEquals(2, records.size());
+        TransactionJournal.Record debit = records.get(1);
+        assertEquals(2, debit.seq);
+        assertEquals(TransactionJournal.Type.DEBIT, debit.type);
+        assertEquals(7, debit.userId);
+        assertEquals(15000, debit.amount);
+        assertEquals(50000, debit.balanceBefore);
+        assertEquals(35000, debit.balanceAfter);
+        assertEquals(0x9007, debit.sw);
+        assertEquals(3, journal.append(TransactionJournal.Type.CREDIT, 7, 1, 35000, 35001, 0x9000));
+    }
+
+    @Test
+    public void corruptTailIsDroppedAndItsSlotReused() throws Exception {
+        for (int i = 1; i <= 3; i++) {
+            journal.append(TransactionJournal.Type.CREDIT, 9, i, 0, i, 0x9000);
+        }
+        journal.close();
+        // Mất điện giữa lúc ghi record 3: số tiền đã đổi nhưng CRC chưa
+        try (RandomAccessFile raf = new RandomAccessFile(segment(), "rw")) {
+            raf.seek(2 * TransactionJournal.RECORD_SIZE + 27);
+            raf.write(0x7F);
+        }
+        journal = new TransactionJournal(dir);
+
+        assertEquals(2, replay().size());
+        assertEquals(3, journal.append(TransactionJournal.Type.DEBIT, 9, 2, 3, 1, 0x9000));
+        List<TransactionJournal.Record> records = replay();
+        assertEquals(3, records.size());
+        assertEquals(TransactionJournal.Type.DEBIT, records.get(2).type);
+        assertEquals(1, records.get(2).balanceAfter);
+    }
+
+    @Test
+    public void replayStopsAtTheFirstBadRecord() throws Exception {
+        for (int i = 1; i <= 4; i++) {
+            journal.append(TransactionJournal.Type.CREDIT, 9, i, 0, i, 0x9000);
+        }
+        journal.close();
+        try (RandomAccessFile raf = new RandomAccessFile(segment(), "rw")) {
+            raf.seek(TransactionJournal.RECORD_SIZE + 16); // userId của record 2
+            raf.write(0x01);
+        }
+        journal = new TransactionJournal(dir);
+
+        assertEquals(1, replay().size());
+        // Record sau chỗ hỏng không được coi là hợp lệ: seq tiếp theo bắt đầu từ slot hỏng
+        assertEquals(2, journal.append(TransactionJournal.Type.CREDIT, 9, 5, 0, 5, 0x9000));
+    }
+
+    @Test
+    public void secondWriterOnTheSameDirectoryIsDisabled() throws Exception {
+        TransactionJournal second = new TransactionJournal(dir);
+        assertFalse(second.isEnabled());
+        assertEquals(-1, second.append(TransactionJournal.Type.CREDIT, 1, 1, 0, 1, 0x9000));
+        second.close();
+        // journal thứ hai bị từ chối không được nhả khóa của journal đang ghi
+        assertEquals(1, journal.append(TransactionJournal.Type.CREDIT, 1, 1, 0, 1, 0x9000));
+        assertFalse(new TransactionJournal(dir).isEnabled());
+
+        reopen(); // close() nhả khóa → mở lại được
+        assertTrue(journal.isEnabled());
+        assertEquals(1, replay().size());
+    }
+
+    @Test
+    public void unwritableDirectoryDisablesTheJournal() throws Exception {
+        File file = tmp.newFile("not-a-dir");
+        TransactionJournal broken = new TransactionJournal(file);
+        assertFalse(broken.isEnabled());
+        assertEquals(-1, broken.append(TransactionJournal.Type.CREDIT, 1, 1, 0, 1, 0x9000));
+        assertFalse(broken.awaitDurable(1, 10));
+    }
+}
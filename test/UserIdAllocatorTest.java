@@ -0,0 +1,125 @@
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bitmap userId: không cấp ID 0, không cấp trùng (kể cả nhiều thread), dùng
+ * lại ID nhỏ đã trả, và giữ nguyên trạng thái khi mở lại file
+ */
+public class UserIdAllocatorTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File file;
+    private UserIdAllocator ids;
+
+    @BeforeClass
+    public static void isolate() throws IOException {
+        TestStorage.init(); // file mới được seed từ MemberStore
+    }
+
+    @Before
+    public void open() throws IOException {
+        file = new File(tmp.getRoot(), "userids.bitmap");
+        ids = new UserIdAllocator(file);
+    }
+
+    @Test
+    public void allocatesSequentiallySkippingZero() throws IOException {
+        assertTrue(ids.isAllocated(0));
+        assertEquals(1, ids.allocate());
+        assertEquals(2, ids.allocate());
+        assertEquals(3, ids.allocate());
+        assertEquals(UserIdAllocator.ID_COUNT - 4, ids.countFree());
+    }
+
+    @Test
+    public void releasedIdIsReusedFirst() throws IOException {
+        for (int i = 0; i < 200; i++) {
+            ids.allocate();
+        }
+        ids.release(5);
+        ids.release(150);
+        assertFalse(ids.isAllocated(5));
+        assertEquals(5, ids.allocate());
+        assertEquals(150, ids.allocate());
+        assertEquals(201, ids.allocate());
+    }
+
+    @Test
+    public void claimMarksLegacyIds() throws IOException {
+        assertTrue(ids.claim(1));
+        assertFalse(ids.claim(1));
+        assertTrue(ids.claim(64));
+        assertEquals(2, ids.allocate());
+    }
+
+    @Test
+    public void newBitmapIsSeededFromMemberStore() throws IOException {
+        CardData member = new CardData(50001, 0, (short) 0, (byte) 1, CardData.MAX_PIN_RETRY,
+                (byte) 1, (byte) 1, (short) 2000);
+        member.fullName = "Thẻ cũ";
+        MemberStore.getInstance().put(member);
+        try {
+            UserIdAllocator seeded = new UserIdAllocator(tmp.newFile("seeded.bitmap"));
+            assertTrue(seeded.isAllocated(50001));
+            assertFalse(seeded.claim(50001));
+        } finally {
+            MemberStore.getInstance().remove(50001);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void idZeroCannotBeReleased() throws IOException {
+        ids.release(0);
+    }
+
+    @Test
+    public void allocationsPersistAcrossReopen() throws IOException {
+        ids.allocate();
+        ids.allocate();
+        ids.claim(1000);
+        ids.release(1);
+
+        UserIdAllocator reopened = new UserIdAllocator(file);
+        assertFalse(reopened.isAllocated(1));
+        assertTrue(reopened.isAllocated(2));
+        assertTrue(reopened.isAllocated(1000));
+        assertEquals(1, reopened.allocate());
+        assertEquals(3, reopened.allocate());
+    }
+
+    @Test
+    public void concurrentAllocationsNeverCollide() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> pending = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                pending.add(pool.submit(ids::allocate));
+            }
+            Set<Integer> seen = new HashSet<>();
+            for (Future<Integer> f : pending) {
+                int id = f.get();
+                assertTrue(id > 0);
+                assertTrue("cấp trùng " + id, seen.add(id));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(UserIdAllocator.ID_COUNT - 2001, ids.countFree());
+    }
+}